@@ -0,0 +1,36 @@
+package com.ovhcloud.ai.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the local CPU cost around the LLM call:
+ * - {@link DocumentSplitterBenchmark}: splitting of the RAG documents,
+ * - {@link EmbeddingStoreSearchBenchmark}: search in the in-memory store,
+ * - {@link ChatMemoryBenchmark}: chat memory, alone and under contention,
+ * - {@link PromptTemplateBenchmark}: rendering of the prompt templates.
+ * Everything is synthetic, no model is called.
+ * The results are written as JSON in target/jmh-results.json, to diff them
+ * between two releases, unless the -rf/-rff options say otherwise:
+ * mvn package && java -jar target/benchmarks.jar [JMH options] [benchmark regexp]
+ */
+public class Benchmarks {
+  static final String DEFAULT_RESULT_FILE = "target/jmh-results.json";
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+    if (!commandLineOptions.getResultFormat().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON);
+    }
+    if (!commandLineOptions.getResult().hasValue()) {
+      options.result(DEFAULT_RESULT_FILE);
+    }
+    new Runner(options.build()).run();
+  }
+}
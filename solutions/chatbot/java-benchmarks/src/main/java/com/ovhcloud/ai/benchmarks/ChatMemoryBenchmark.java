@@ -0,0 +1,77 @@
+package com.ovhcloud.ai.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+
+/**
+ * Cost of the message window chat memory:
+ * - alone, as in the chatbot with one conversation,
+ * - shared by writers and readers, as when the same conversation gets
+ * several questions at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatMemoryBenchmark {
+  private static final ChatMessage QUESTION = UserMessage.from("What is the name of the virtual assistant?");
+  private static final ChatMessage ANSWER = AiMessage.from("My name is Nestor, how can I help you?");
+
+  @Param({"10", "100"})
+  int maxMessages;
+
+  private ChatMemory chatMemory;
+
+  @Setup
+  public void setUp() {
+    chatMemory = MessageWindowChatMemory.withMaxMessages(maxMessages);
+    chatMemory.add(SystemMessage.from("You are Nestor, a virtual assistant. Answer to the question."));
+    for (int i = 0; i < maxMessages; i++) {
+      chatMemory.add(i % 2 == 0 ? QUESTION : ANSWER);
+    }
+  }
+
+  @Benchmark
+  public List<ChatMessage> addAndRead() {
+    chatMemory.add(QUESTION);
+    chatMemory.add(ANSWER);
+    return chatMemory.messages();
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(2)
+  public void add() {
+    chatMemory.add(QUESTION);
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(6)
+  public List<ChatMessage> read() {
+    return chatMemory.messages();
+  }
+}
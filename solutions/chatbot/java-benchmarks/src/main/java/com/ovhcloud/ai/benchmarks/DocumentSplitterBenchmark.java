@@ -0,0 +1,54 @@
+package com.ovhcloud.ai.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+
+/**
+ * Cost of the recursive splitter used by the RAG chatbot, over corpora of
+ * increasing size (in characters).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentSplitterBenchmark {
+
+  @Param({"10000", "100000", "1000000"})
+  int corpusSize;
+
+  @Param({"400"})
+  int maxSegmentSize;
+
+  private Document document;
+  private DocumentSplitter splitter;
+
+  @Setup
+  public void setUp() {
+    document = Document.from(SyntheticData.corpus(corpusSize, SyntheticData.SEED));
+    splitter = DocumentSplitters.recursive(maxSegmentSize, 0);
+  }
+
+  @Benchmark
+  public List<TextSegment> split() {
+    return splitter.split(document);
+  }
+}
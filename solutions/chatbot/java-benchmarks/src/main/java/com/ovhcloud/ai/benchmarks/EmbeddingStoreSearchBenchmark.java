@@ -0,0 +1,85 @@
+package com.ovhcloud.ai.benchmarks;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+
+/**
+ * Cost of a similarity search in the in-memory store, which is a linear scan:
+ * it grows with the number of vectors.
+ * The 1M vectors case needs a few GB of heap, hence the -Xmx of the fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class EmbeddingStoreSearchBenchmark {
+  private static final int QUERIES = 64;
+
+  @Param({"1000", "100000", "1000000"})
+  int size;
+
+  @Param({"384"})
+  int dimension;
+
+  @Param({"5"})
+  int maxResults;
+
+  private InMemoryEmbeddingStore<TextSegment> store;
+  private Embedding[] queries;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    store = new InMemoryEmbeddingStore<>();
+    List<Embedding> embeddings = SyntheticData.embeddings(size, dimension, SyntheticData.SEED);
+    store.addAll(embeddings);
+    SplittableRandom random = new SplittableRandom(SyntheticData.SEED + 1);
+    queries = new Embedding[QUERIES];
+    for (int i = 0; i < QUERIES; i++) {
+      queries[i] = SyntheticData.embedding(random, dimension);
+    }
+  }
+
+  @Benchmark
+  public EmbeddingSearchResult<TextSegment> search() {
+    return store.search(EmbeddingSearchRequest.builder()
+        .queryEmbedding(nextQuery())
+        .maxResults(maxResults)
+        .build());
+  }
+
+  @Benchmark
+  @SuppressWarnings("deprecation")
+  public List<EmbeddingMatch<TextSegment>> findRelevant() {
+    return store.findRelevant(nextQuery(), maxResults);
+  }
+
+  // Rotates the queries to not measure a single, branch-predicted, one
+  private Embedding nextQuery() {
+    Embedding query = queries[next];
+    next = (next + 1) % QUERIES;
+    return query;
+  }
+}
@@ -0,0 +1,86 @@
+package com.ovhcloud.ai.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.service.AiServices;
+import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.V;
+import io.quarkus.qute.Engine;
+import io.quarkus.qute.Template;
+
+/**
+ * Cost of the prompt around the question, with the system and user messages
+ * of the chatbot services:
+ * - rendering of the user message template alone, with Qute ({question}) as
+ * the Quarkus AI services do, the template being parsed once,
+ * - a whole call of a langchain4j AI service ({{question}}), with a model
+ * answering right away, which adds the proxy, the system message and the
+ * message list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromptTemplateBenchmark {
+  static final String SYSTEM_MESSAGE = "You are a virtual assistant and your name is Nestor.";
+  // The user message of the Quarkus AI services, a Qute template
+  static final String USER_MESSAGE = "Answer as best possible to the following question: {question}. The answer must be in a style of a virtual assistant.";
+  // The same message for the langchain4j AI services, a Mustache-like template
+  static final String AI_SERVICE_USER_MESSAGE = "Answer as best possible to the following question: {{question}}. The answer must be in a style of a virtual assistant.";
+
+  private static final String QUESTION = "What is the name of the OVHcloud AI product to deploy an LLM?";
+
+  interface Assistant {
+    @SystemMessage(SYSTEM_MESSAGE)
+    @UserMessage(AI_SERVICE_USER_MESSAGE)
+    String askAQuestion(@V("question") String question);
+  }
+
+  // Answers right away, only the local cost is measured
+  static final class ImmediateModel implements ChatLanguageModel {
+    private static final Response<AiMessage> ANSWER = Response.from(AiMessage.from("My name is Nestor."));
+
+    @Override
+    public Response<AiMessage> generate(List<ChatMessage> messages) {
+      return ANSWER;
+    }
+  }
+
+  private Template userMessage;
+  private Assistant assistant;
+
+  @Setup
+  public void setUp() {
+    userMessage = Engine.builder().addDefaults().build().parse(USER_MESSAGE);
+    assistant = AiServices.create(Assistant.class, new ImmediateModel());
+  }
+
+  @Benchmark
+  public String renderUserMessage() {
+    return userMessage.data("question", QUESTION).render();
+  }
+
+  @Benchmark
+  public String callAiService() {
+    return assistant.askAQuestion(QUESTION);
+  }
+}
@@ -0,0 +1,74 @@
+package com.ovhcloud.ai.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import dev.langchain4j.data.embedding.Embedding;
+
+/**
+ * Deterministic synthetic data for the benchmarks, so they run offline and
+ * give comparable results between two runs:
+ * - embeddings: random unit vectors, drawn from a fixed seed,
+ * - corpus: sentences of random words, with paragraphs, like the RAG files.
+ */
+final class SyntheticData {
+  static final long SEED = 42;
+
+  private static final String[] WORDS = {
+      "cloud", "model", "token", "vector", "answer", "question", "memory", "endpoint", "latency", "embedding",
+      "segment", "document", "Nestor", "virtual", "assistant", "retrieval", "store", "index", "the", "a",
+      "of", "to", "and", "is", "with", "for", "on", "in", "by", "from"
+  };
+
+  private SyntheticData() {
+  }
+
+  /**
+   * Random embeddings, normalized as the ones of an embedding model.
+   */
+  static List<Embedding> embeddings(int count, int dimension, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    List<Embedding> embeddings = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      embeddings.add(embedding(random, dimension));
+    }
+    return embeddings;
+  }
+
+  static Embedding embedding(SplittableRandom random, int dimension) {
+    float[] vector = new float[dimension];
+    double norm = 0;
+    for (int i = 0; i < dimension; i++) {
+      vector[i] = (float) random.nextDouble(-1, 1);
+      norm += vector[i] * vector[i];
+    }
+    float inverse = (float) (1 / Math.sqrt(norm));
+    for (int i = 0; i < dimension; i++) {
+      vector[i] *= inverse;
+    }
+    return Embedding.from(vector);
+  }
+
+  /**
+   * A text of about the given number of characters.
+   */
+  static String corpus(int characters, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    StringBuilder text = new StringBuilder(characters + 64);
+    int sentences = 0;
+    while (text.length() < characters) {
+      int words = 6 + random.nextInt(20);
+      for (int i = 0; i < words; i++) {
+        String word = WORDS[random.nextInt(WORDS.length)];
+        text.append(i == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+        text.append(i == words - 1 ? ". " : " ");
+      }
+      // A paragraph every few sentences
+      if (++sentences % (3 + random.nextInt(5)) == 0) {
+        text.append("\n\n");
+      }
+    }
+    return text.toString();
+  }
+}
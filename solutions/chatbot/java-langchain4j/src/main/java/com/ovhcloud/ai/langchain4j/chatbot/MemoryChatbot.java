@@ -3,8 +3,10 @@ package com.ovhcloud.ai.langchain4j.chatbot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ovhcloud.ai.langchain4j.chatbot.memory.SummarizingChatMemory;
+
 import dev.langchain4j.memory.ChatMemory;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.mistralai.MistralAiChatModel;
 import dev.langchain4j.model.mistralai.MistralAiStreamingChatModel;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.service.SystemMessage;
@@ -44,8 +46,21 @@ public class MemoryChatbot {
         .logResponses(false)
         .build();
 
-    // Create the memory store "in memory"
-    ChatMemory chatMemory = MessageWindowChatMemory.withMaxMessages(10);
+    // Create the memory store "in memory", bounded by a number of tokens: the
+    // older turns are summarized in the background by the blocking model
+    MistralAiChatModel summaryModel = MistralAiChatModel.builder()
+        .apiKey(System.getenv("OVH_AI_ENDPOINTS_ACCESS_TOKEN"))
+        .modelName("Mistral-7B-Instruct-v0.2")
+        .baseUrl(
+            "https://mistral-7b-instruct-v02.endpoints.kepler.ai.cloud.ovh.net/api/openai_compat/v1")
+        .maxTokens(256)
+        .temperature(0.0)
+        .build();
+    ChatMemory chatMemory = SummarizingChatMemory.builder()
+        .maxTokens(1000)
+        .maxSummaryTokens(200)
+        .summarizer(summaryModel)
+        .build();
 
     // Build the chatbot thanks to the AIService builder
     // The chatbot must be in streaming mode with memory
@@ -56,17 +71,19 @@ public class MemoryChatbot {
 
     // Send a prompt
     _LOG.info("💬: My name is Stéphane.\n");
-        TokenStream tokenStream = assistant.chat("My name is Stéphane.");
-        _LOG.info("🤖: ");
-        tokenStream
-                .onNext(_LOG::info)
-                .onComplete(token -> {
-                    _LOG.info("\n💬: Do you remember what is my name?\n");
-                    _LOG.info("🤖: ");
-                    assistant.chat("Do you remember what is my name?")
-                            .onNext(_LOG::info)
-                            .onError(Throwable::printStackTrace).start();
-                })
-                .onError(Throwable::printStackTrace).start();
+    TokenStream tokenStream = assistant.chat("My name is Stéphane.");
+    // The tokens are only logged at debug level, the answers are logged once
+    // complete
+    tokenStream
+        .onNext(_LOG::debug)
+        .onComplete(response -> {
+          _LOG.info("🤖: {}\n", response.content().text());
+          _LOG.info("💬: Do you remember what is my name?\n");
+          assistant.chat("Do you remember what is my name?")
+              .onNext(_LOG::debug)
+              .onComplete(secondResponse -> _LOG.info("🤖: {}\n", secondResponse.content().text()))
+              .onError(Throwable::printStackTrace).start();
+        })
+        .onError(Throwable::printStackTrace).start();
   }
 }
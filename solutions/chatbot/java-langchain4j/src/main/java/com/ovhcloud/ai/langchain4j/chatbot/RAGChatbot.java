@@ -1,31 +1,37 @@
 package com.ovhcloud.ai.langchain4j.chatbot;
 
-import java.util.List;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ovhcloud.ai.langchain4j.chatbot.ingest.DirectoryIngestion;
+import com.ovhcloud.ai.langchain4j.chatbot.ingest.IngestionPipeline;
+import com.ovhcloud.ai.langchain4j.chatbot.memory.SummarizingChatMemory;
+import com.ovhcloud.ai.langchain4j.chatbot.retrieval.Bm25Index;
+import com.ovhcloud.ai.langchain4j.chatbot.retrieval.CompressingContentRetriever;
+import com.ovhcloud.ai.langchain4j.chatbot.retrieval.HybridContentRetriever;
+import com.ovhcloud.ai.langchain4j.chatbot.store.HnswEmbeddingStore;
+import com.ovhcloud.ai.langchain4j.chatbot.store.MappedEmbeddingStore;
+import com.ovhcloud.ai.langchain4j.chatbot.store.QuantizedEmbeddingStore;
+
 import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
 import dev.langchain4j.data.document.parser.TextDocumentParser;
 import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.ChatMemory;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.mistralai.MistralAiChatModel;
 import dev.langchain4j.model.mistralai.MistralAiStreamingChatModel;
 import dev.langchain4j.model.ovhai.OvhAiEmbeddingModel;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
-import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.service.AiServices;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.TokenStream;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
-
-import static dev.langchain4j.data.document.loader.FileSystemDocumentLoader.loadDocument;
 
 /**
  * Here is the place where you will add the code to create an advanced chatbot.
@@ -52,7 +58,7 @@ public class RAGChatbot {
     TokenStream chat(String message);
   }
 
-  public static void main(String[] args) {
+  public static void main(String[] args) throws InterruptedException {
     // Select the Mistral model to use (the streaming one)
     MistralAiStreamingChatModel steamingModel = MistralAiStreamingChatModel.builder()
         .apiKey(System.getenv("OVH_AI_ENDPOINTS_ACCESS_TOKEN"))
@@ -65,32 +71,120 @@ public class RAGChatbot {
         .logResponses(false)
         .build();
 
-    // Create the memory store "in memory"
-    ChatMemory chatMemory = MessageWindowChatMemory.withMaxMessages(10);
-
-    // Load the document and split it into chunks
-    DocumentParser documentParser = new TextDocumentParser();
-    Document document = loadDocument(
-        RAGChatbot.class.getResource("/rag-files/content.txt").getFile(),
-        documentParser);
-    DocumentSplitter splitter = DocumentSplitters.recursive(400, 0);
+    // Create the memory store "in memory", bounded by a number of tokens: the
+    // older turns are summarized in the background by the blocking model
+    MistralAiChatModel summaryModel = MistralAiChatModel.builder()
+        .apiKey(System.getenv("OVH_AI_ENDPOINTS_ACCESS_TOKEN"))
+        .modelName("Mistral-7B-Instruct-v0.2")
+        .baseUrl(
+            "https://mistral-7b-instruct-v02.endpoints.kepler.ai.cloud.ovh.net/api/openai_compat/v1")
+        .maxTokens(256)
+        .temperature(0.0)
+        .build();
+    ChatMemory chatMemory = SummarizingChatMemory.builder()
+        .maxTokens(1000)
+        .maxSummaryTokens(200)
+        .summarizer(summaryModel)
+        .build();
 
-    List<TextSegment> segments = splitter.split(document);
+    // Open the persistent embedding store, the segments embedded by a previous
+    // run are reused as is
+    MappedEmbeddingStore embeddingStore = MappedEmbeddingStore.open(Path.of(System.getProperty("rag.store", "target/rag-store")));
 
-    // Do the embeddings with AI Endpoint model
-    // (https://docs.langchain4j.dev/integrations/embedding-models/ovh-ai) and store
-    // them in a in memory embedding store
+    // Load the documents, split them into chunks and do the embeddings of the new
+    // chunks with AI Endpoint model
+    // (https://docs.langchain4j.dev/integrations/embedding-models/ovh-ai), the
+    // batches of chunks are embedded in parallel
+    // Every chunk is also indexed for the lexical search, the index being in
+    // memory only
     EmbeddingModel embeddingModel = OvhAiEmbeddingModel.withApiKey(System.getenv("OVH_AI_ENDPOINTS_ACCESS_TOKEN"));
-    List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+    Bm25Index lexicalIndex = new Bm25Index();
+    String watchedDirectory = System.getProperty("rag.watch");
+    DirectoryIngestion ingestion = null;
+    if (watchedDirectory == null) {
+      Path documents = Path.of(RAGChatbot.class.getResource("/rag-files").getFile()).toAbsolutePath();
+      // The content hashes of the segments the files produce now, the filter
+      // being called by the loading thread only
+      Set<Long> produced = new HashSet<>();
+      IngestionPipeline.builder()
+          .documentParser(new TextDocumentParser())
+          .documentSplitter(DocumentSplitters.recursive(400, 0))
+          .embeddingModel(embeddingModel)
+          .embeddingStore(embeddingStore)
+          .segmentFilter(segments -> {
+            lexicalIndex.addAll(segments);
+            segments.forEach(segment -> produced.add(MappedEmbeddingStore.contentHash(segment)));
+            return embeddingStore.missing(segments);
+          })
+          .build()
+          .ingest(documents);
+      // The segments of the files edited or deleted since the previous run
+      int removed = embeddingStore.retainAll(
+          metadata -> documents.toString().equals(metadata.getString(Document.ABSOLUTE_DIRECTORY_PATH)), produced);
+      _LOG.info("{} stale segments removed from the store\n", removed);
+    } else {
+      // Live mode (-Drag.watch=<directory>): the changes of the files are
+      // ingested while the chatbot runs, only the changed chunks are embedded
+      ingestion = DirectoryIngestion.builder()
+          .directory(Path.of(watchedDirectory))
+          .documentSplitter(DocumentSplitters.recursive(400, 0))
+          .embeddingModel(embeddingModel)
+          .embeddingStore(embeddingStore)
+          .listener(lexicalIndex::replace)
+          .build()
+          .start();
+      // Stopped with Ctrl+C: the file being ingested is finished and the
+      // store written to the disk
+      DirectoryIngestion watching = ingestion;
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        watching.close();
+        embeddingStore.close();
+      }));
+    }
+    embeddingStore.flush();
+
+    // The vector search scans the persistent store, or an in-memory index loaded
+    // from it, faster on a large store with a recall slightly below 100%:
+    // - an HNSW graph with -Drag.index=hnsw,
+    // - the quantized codes of the vectors with -Drag.index=int8 or binary, 4
+    // or 32 times smaller than the vectors
+    EmbeddingStore<TextSegment> searchedStore = embeddingStore;
+    String index = System.getProperty("rag.index", "scan");
+    if (!"scan".equals(index) && watchedDirectory != null) {
+      // The index would miss the changes of the watched files
+      _LOG.warn("The {} index is not kept up to date in live mode, the store is scanned\n", index);
+    } else if ("hnsw".equals(index)) {
+      HnswEmbeddingStore graph = HnswEmbeddingStore.builder().build();
+      embeddingStore.forEach(graph::add);
+      _LOG.info("HNSW index of {} vectors loaded\n", graph.size());
+      searchedStore = graph;
+    } else if ("int8".equals(index) || "binary".equals(index)) {
+      QuantizedEmbeddingStore quantized = QuantizedEmbeddingStore.builder()
+          .quantization(QuantizedEmbeddingStore.Quantization.valueOf(index.toUpperCase(Locale.ROOT)))
+          .build();
+      // The full precision vectors are in a temporary file
+      Runtime.getRuntime().addShutdownHook(new Thread(quantized::close));
+      embeddingStore.forEach(quantized::add);
+      _LOG.info("{} index of {} vectors loaded, {} bytes of heap per vector\n", index, quantized.size(),
+          quantized.codeBytes());
+      searchedStore = quantized;
+    } else if (!"scan".equals(index)) {
+      throw new IllegalArgumentException("Unknown index " + index + ", expected scan, hnsw, int8 or binary");
+    }
 
-    // Store the vectors in the in memory store, see https://docs.langchain4j.dev/integrations/embedding-stores/in-memory
-    EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-    embeddingStore.addAll(embeddings, segments);
-    ContentRetriever contentRetriever = EmbeddingStoreContentRetriever.builder()
-        .embeddingStore(embeddingStore)
-        .embeddingModel(embeddingModel)
+    // Retrieve the chunks with both the lexical and the vector searches, the
+    // query is not embedded when the lexical search alone is good enough
+    // The near duplicates are then removed, and the others are diversified and
+    // packed into a budget of tokens
+    ContentRetriever contentRetriever = CompressingContentRetriever.builder()
+        .contentRetriever(HybridContentRetriever.builder()
+            .index(lexicalIndex)
+            .embeddingStore(searchedStore)
+            .embeddingModel(embeddingModel)
+            .maxResults(10)
+            .build())
         .maxResults(5)
-        .minScore(0.9)
+        .maxTokens(300)
         .build();
 
     // Build the chatbot thanks to the AIService builder
@@ -104,9 +198,17 @@ public class RAGChatbot {
     // Send a prompt
     _LOG.info("💬: What is AI Endpoints?\n");
     TokenStream tokenStream = assistant.chat("What is AI Endpoints?");
-    _LOG.info("🤖: ");
+    // The tokens are only logged at debug level, the answer is logged once
+    // complete
     tokenStream
-        .onNext(_LOG::info)
+        .onNext(_LOG::debug)
+        .onComplete(response -> _LOG.info("🤖: {}\n", response.content().text()))
         .onError(Throwable::printStackTrace).start();
+
+    // In live mode the chatbot runs until it is stopped, the watcher being a
+    // daemon thread
+    if (ingestion != null) {
+      ingestion.join();
+    }
   }
 }
@@ -36,8 +36,8 @@ public class SimpleChatbot {
             "https://mistral-7b-instruct-v02.endpoints.kepler.ai.cloud.ovh.net/api/openai_compat/v1")
         .maxTokens(512)
         .temperature(0.0)
-        .logRequests(true)
-        .logResponses(true)
+        .logRequests(false)
+        .logResponses(false)
         .build();
 
     // Build the chatbot thanks to the AIService builder
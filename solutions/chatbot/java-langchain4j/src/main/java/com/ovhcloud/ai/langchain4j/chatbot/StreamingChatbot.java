@@ -50,9 +50,11 @@ public class StreamingChatbot {
     // Send a prompt
     _LOG.info("💬: What is the Codeurs en Seine conference?\n");
     TokenStream tokenStream = assistant.chat("What is the Codeurs en Seine conference?");
-    _LOG.info("🤖: ");
+    // The tokens are only logged at debug level, the answer is logged once
+    // complete
     tokenStream
-        .onNext(_LOG::info)
+        .onNext(_LOG::debug)
+        .onComplete(response -> _LOG.info("🤖: {}\n", response.content().text()))
         .onError(Throwable::printStackTrace).start();
   }
 }
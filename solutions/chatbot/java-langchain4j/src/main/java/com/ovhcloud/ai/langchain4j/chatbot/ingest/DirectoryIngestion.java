@@ -0,0 +1,387 @@
+package com.ovhcloud.ai.langchain4j.chatbot.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ovhcloud.ai.langchain4j.chatbot.store.MappedEmbeddingStore;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.parser.TextDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+
+import static dev.langchain4j.data.document.loader.FileSystemDocumentLoader.loadDocument;
+
+/**
+ * Live ingestion of a directory: the files are ingested once at start, then
+ * each created, modified or deleted file is ingested again, without restart.
+ * - the id of a segment is the name of its file and the hash of its text, so
+ * only the segments whose text changed are embedded,
+ * - the segments of a file that are gone are removed from the store,
+ * - the new and the removed segments of a file are swapped at once in the
+ * store, then given to the listener (the lexical index for instance),
+ * - the events are grouped until the directory is quiet for the debounce
+ * delay, a file whose size and modification date didn't change is skipped,
+ * - a file that fails (the embedding model being down for instance) is
+ * retried after the retry delay.
+ * The ids of the store tell which segments a previous run left, so the files
+ * changed or deleted while the chatbot was stopped are caught up at start.
+ * The segments of the directory stored by an {@link IngestionPipeline}, whose
+ * ids are not made of their file, are found by their metadata: they are
+ * replaced (and embedded again) the first time the directory is watched.
+ * The watcher is a daemon thread, an application doing nothing else waits
+ * for it with {@link #join()}.
+ */
+public class DirectoryIngestion implements Closeable {
+  private static final Logger _LOG = LoggerFactory.getLogger(DirectoryIngestion.class);
+  private static final String ID_SEPARATOR = "#";
+
+  private final Path directory;
+  private final DocumentParser documentParser;
+  private final DocumentSplitter documentSplitter;
+  private final EmbeddingModel embeddingModel;
+  private final MappedEmbeddingStore embeddingStore;
+  private final BiConsumer<List<TextSegment>, List<TextSegment>> listener;
+  private final int batchSize;
+  private final Duration debounce;
+  private final Duration retryDelay;
+
+  // Segments by id of each file, as they are in the store
+  private final Map<String, Map<String, TextSegment>> segmentsByFile = new HashMap<>();
+  // Size and modification date of each file when it was ingested
+  private final Map<String, String> versions = new HashMap<>();
+  // Files to ingest again, with the time of the retry
+  private final Map<String, Long> retries = new HashMap<>();
+  private WatchService watchService;
+  private Thread watcher;
+
+  private DirectoryIngestion(Builder builder) {
+    this.directory = builder.directory;
+    this.documentParser = builder.documentParser;
+    this.documentSplitter = builder.documentSplitter;
+    this.embeddingModel = builder.embeddingModel;
+    this.embeddingStore = builder.embeddingStore;
+    this.listener = builder.listener;
+    this.batchSize = builder.batchSize;
+    this.debounce = builder.debounce;
+    this.retryDelay = builder.retryDelay;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private Path directory;
+    private DocumentParser documentParser = new TextDocumentParser();
+    private DocumentSplitter documentSplitter = DocumentSplitters.recursive(400, 0);
+    private EmbeddingModel embeddingModel;
+    private MappedEmbeddingStore embeddingStore;
+    private BiConsumer<List<TextSegment>, List<TextSegment>> listener = (removed, added) -> {
+    };
+    private int batchSize = 32;
+    private Duration debounce = Duration.ofMillis(500);
+    private Duration retryDelay = Duration.ofSeconds(30);
+
+    public Builder directory(Path directory) {
+      this.directory = directory;
+      return this;
+    }
+
+    public Builder documentParser(DocumentParser documentParser) {
+      this.documentParser = documentParser;
+      return this;
+    }
+
+    public Builder documentSplitter(DocumentSplitter documentSplitter) {
+      this.documentSplitter = documentSplitter;
+      return this;
+    }
+
+    public Builder embeddingModel(EmbeddingModel embeddingModel) {
+      this.embeddingModel = embeddingModel;
+      return this;
+    }
+
+    public Builder embeddingStore(MappedEmbeddingStore embeddingStore) {
+      this.embeddingStore = embeddingStore;
+      return this;
+    }
+
+    /**
+     * Called with the removed and the added segments after each change of the
+     * store.
+     */
+    public Builder listener(BiConsumer<List<TextSegment>, List<TextSegment>> listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    public Builder batchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    public Builder debounce(Duration debounce) {
+      this.debounce = debounce;
+      return this;
+    }
+
+    public Builder retryDelay(Duration retryDelay) {
+      this.retryDelay = retryDelay;
+      return this;
+    }
+
+    public DirectoryIngestion build() {
+      if (directory == null || embeddingModel == null || embeddingStore == null) {
+        throw new IllegalArgumentException("The directory, the embedding model and the embedding store are mandatory");
+      }
+      if (batchSize < 1) {
+        throw new IllegalArgumentException("The batch size must be positive");
+      }
+      return new DirectoryIngestion(this);
+    }
+  }
+
+  /**
+   * Ingests the files of the directory, then watches it in the background.
+   */
+  public synchronized DirectoryIngestion start() {
+    if (watcher != null) {
+      throw new IllegalStateException("The ingestion is already started");
+    }
+    try {
+      // Registered first so that no change is missed during the first ingestion
+      watchService = directory.getFileSystem().newWatchService();
+      directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    // The segments left by a previous run, by file
+    String absoluteDirectory = directory.toAbsolutePath().toString();
+    embeddingStore.forEach((id, embedding, segment) -> {
+      int separator = id.lastIndexOf(ID_SEPARATOR);
+      String fileName = null;
+      if (separator > 0) {
+        fileName = id.substring(0, separator);
+      } else if (segment != null
+          && absoluteDirectory.equals(segment.metadata().getString(Document.ABSOLUTE_DIRECTORY_PATH))) {
+        fileName = segment.metadata().getString(Document.FILE_NAME);
+      }
+      if (fileName != null) {
+        segmentsByFile.computeIfAbsent(fileName, file -> new LinkedHashMap<>()).put(id, null);
+      }
+    });
+    Set<String> files = new LinkedHashSet<>(segmentsByFile.keySet());
+    files.addAll(listFiles());
+    _LOG.info("Ingestion of {} documents from {}\n", files.size(), directory);
+    files.forEach(this::ingest);
+
+    watcher = new Thread(this::watch, "directory-ingestion");
+    watcher.setDaemon(true);
+    watcher.start();
+    return this;
+  }
+
+  private void watch() {
+    Set<String> changed = new LinkedHashSet<>();
+    try {
+      while (true) {
+        WatchKey key = watchService.poll(debounce.toMillis(), TimeUnit.MILLISECONDS);
+        if (key != null) {
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              // Some events are lost, every file is checked
+              changed.addAll(listFiles());
+              changed.addAll(segmentsByFile.keySet());
+            } else {
+              changed.add(((Path) event.context()).getFileName().toString());
+            }
+          }
+          key.reset();
+          continue;
+        }
+        // Quiet directory: the pending changes and the due retries are ingested
+        long now = System.nanoTime();
+        retries.entrySet().removeIf(retry -> {
+          if (retry.getValue() - now <= 0) {
+            changed.add(retry.getKey());
+            return true;
+          }
+          return false;
+        });
+        for (String file : changed) {
+          ingest(file);
+        }
+        changed.clear();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Closed
+    }
+  }
+
+  /**
+   * Splits the file again, embeds its new segments and removes the ones that
+   * are gone. A deleted file has no segment anymore.
+   */
+  private void ingest(String fileName) {
+    Path file = directory.resolve(fileName);
+    String version = version(file);
+    if (version != null && version.equals(versions.get(fileName))) {
+      return;
+    }
+    try {
+      Map<String, TextSegment> current = segmentsByFile.getOrDefault(fileName, Map.of());
+      Map<String, TextSegment> next = new LinkedHashMap<>();
+      if (version != null) {
+        Document document = loadDocument(file, documentParser);
+        for (TextSegment segment : documentSplitter.split(document)) {
+          // The same text twice in a file is kept once
+          next.putIfAbsent(fileName + ID_SEPARATOR + Long.toHexString(textHash(segment)), segment);
+        }
+      }
+
+      List<String> addedIds = new ArrayList<>();
+      List<TextSegment> added = new ArrayList<>();
+      for (Map.Entry<String, TextSegment> entry : next.entrySet()) {
+        if (!current.containsKey(entry.getKey())) {
+          addedIds.add(entry.getKey());
+          added.add(entry.getValue());
+        }
+      }
+      List<String> removedIds = new ArrayList<>();
+      List<TextSegment> removed = new ArrayList<>();
+      Map<String, TextSegment> kept = new LinkedHashMap<>();
+      for (Map.Entry<String, TextSegment> entry : current.entrySet()) {
+        if (next.containsKey(entry.getKey())) {
+          // Segments of a previous run are only known by their id
+          kept.put(entry.getKey(), entry.getValue() != null ? entry.getValue() : next.get(entry.getKey()));
+        } else {
+          removedIds.add(entry.getKey());
+          if (entry.getValue() != null) {
+            removed.add(entry.getValue());
+          }
+        }
+      }
+
+      List<Embedding> embeddings = new ArrayList<>(added.size());
+      for (int start = 0; start < added.size(); start += batchSize) {
+        embeddings.addAll(embeddingModel.embedAll(added.subList(start, Math.min(added.size(), start + batchSize))).content());
+      }
+      embeddingStore.replace(removedIds, addedIds, embeddings, added);
+      // Kept segments loaded from a previous run are new for the listener
+      List<TextSegment> listened = new ArrayList<>(added);
+      current.forEach((id, segment) -> {
+        if (segment == null && kept.containsKey(id)) {
+          listened.add(kept.get(id));
+        }
+      });
+      listener.accept(removed, listened);
+
+      for (int i = 0; i < addedIds.size(); i++) {
+        kept.put(addedIds.get(i), added.get(i));
+      }
+      if (kept.isEmpty()) {
+        segmentsByFile.remove(fileName);
+        versions.remove(fileName);
+      } else {
+        segmentsByFile.put(fileName, kept);
+        versions.put(fileName, version);
+      }
+      if (!added.isEmpty() || !removedIds.isEmpty()) {
+        _LOG.info("{}: {} segments added, {} removed, {} unchanged\n", fileName, added.size(), removedIds.size(),
+            kept.size() - added.size());
+      }
+    } catch (RuntimeException e) {
+      _LOG.error("Ingestion of {} failed, retry in {} s: {}\n", fileName, retryDelay.toSeconds(), e.getMessage());
+      retries.put(fileName, System.nanoTime() + retryDelay.toNanos());
+    }
+  }
+
+  private List<String> listFiles() {
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths.filter(Files::isRegularFile).map(path -> path.getFileName().toString()).sorted().toList();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Size and modification date of the file, null if it doesn't exist anymore
+  private static String version(Path file) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      return attributes.isRegularFile() ? attributes.size() + "@" + attributes.lastModifiedTime().toMillis() : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  // Hash of the text only: the index given by the splitter changes when a segment moves
+  private static long textHash(TextSegment segment) {
+    return MappedEmbeddingStore.contentHash(TextSegment.from(segment.text()));
+  }
+
+  /**
+   * Waits until the ingestion is closed.
+   */
+  public void join() throws InterruptedException {
+    Thread thread;
+    synchronized (this) {
+      thread = watcher;
+    }
+    if (thread != null) {
+      thread.join();
+    }
+  }
+
+  /**
+   * Stops watching the directory, the file being ingested is finished first
+   * (up to 10 seconds).
+   */
+  @Override
+  public synchronized void close() {
+    try {
+      if (watchService != null) {
+        watchService.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (watcher != null && watcher != Thread.currentThread()) {
+      watcher.interrupt();
+      try {
+        watcher.join(TimeUnit.SECONDS.toMillis(10));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,359 @@
+package com.ovhcloud.ai.langchain4j.chatbot.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.parser.TextDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import static dev.langchain4j.data.document.loader.FileSystemDocumentLoader.loadDocument;
+
+/**
+ * Ingestion pipeline: load the documents of a directory, split them, group the
+ * segments in batches, embed the batches in parallel and write them in the store.
+ * - the documents are loaded one at a time, or read while they are split with
+ * a {@link StreamingDocumentSplitter} for the documents too big for the memory,
+ * - at most parallelism batches are embedded at once, and at most parallelism
+ * more are waiting: the loading blocks when the embedding can't keep up,
+ * - a failed batch is retried with an exponential backoff, a batch still failing
+ * after all the retries is reported and doesn't stop the ingestion,
+ * - a document that can't be read or split is reported and skipped too,
+ * - the progress and the throughput are logged at a fixed interval.
+ */
+public class IngestionPipeline {
+  private static final Logger _LOG = LoggerFactory.getLogger(IngestionPipeline.class);
+
+  private final DocumentParser documentParser;
+  private final DocumentSplitter documentSplitter;
+  private final StreamingDocumentSplitter streamingSplitter;
+  private final EmbeddingModel embeddingModel;
+  private final EmbeddingStore<TextSegment> embeddingStore;
+  private final UnaryOperator<List<TextSegment>> segmentFilter;
+  private final int batchSize;
+  private final int parallelism;
+  private final int maxRetries;
+  private final Duration initialBackoff;
+  private final Duration progressInterval;
+
+  private IngestionPipeline(Builder builder) {
+    this.documentParser = builder.documentParser;
+    this.documentSplitter = builder.documentSplitter;
+    this.streamingSplitter = builder.streamingSplitter;
+    this.embeddingModel = builder.embeddingModel;
+    this.embeddingStore = builder.embeddingStore;
+    this.segmentFilter = builder.segmentFilter;
+    this.batchSize = builder.batchSize;
+    this.parallelism = builder.parallelism;
+    this.maxRetries = builder.maxRetries;
+    this.initialBackoff = builder.initialBackoff;
+    this.progressInterval = builder.progressInterval;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private DocumentParser documentParser = new TextDocumentParser();
+    private DocumentSplitter documentSplitter = DocumentSplitters.recursive(400, 0);
+    private StreamingDocumentSplitter streamingSplitter;
+    private EmbeddingModel embeddingModel;
+    private EmbeddingStore<TextSegment> embeddingStore;
+    private UnaryOperator<List<TextSegment>> segmentFilter = UnaryOperator.identity();
+    private int batchSize = 32;
+    private int parallelism = 4;
+    private int maxRetries = 3;
+    private Duration initialBackoff = Duration.ofMillis(500);
+    private Duration progressInterval = Duration.ofSeconds(10);
+
+    public Builder documentParser(DocumentParser documentParser) {
+      this.documentParser = documentParser;
+      return this;
+    }
+
+    public Builder documentSplitter(DocumentSplitter documentSplitter) {
+      this.documentSplitter = documentSplitter;
+      return this;
+    }
+
+    /**
+     * Reads the text files while splitting them, instead of the document
+     * parser and the document splitter.
+     */
+    public Builder streamingSplitter(StreamingDocumentSplitter streamingSplitter) {
+      this.streamingSplitter = streamingSplitter;
+      return this;
+    }
+
+    public Builder embeddingModel(EmbeddingModel embeddingModel) {
+      this.embeddingModel = embeddingModel;
+      return this;
+    }
+
+    public Builder embeddingStore(EmbeddingStore<TextSegment> embeddingStore) {
+      this.embeddingStore = embeddingStore;
+      return this;
+    }
+
+    /**
+     * Filters the segments of each document before the embedding, to skip the
+     * segments already in the store for instance. The segments are given by
+     * groups of at most batchSize segments.
+     */
+    public Builder segmentFilter(UnaryOperator<List<TextSegment>> segmentFilter) {
+      this.segmentFilter = segmentFilter;
+      return this;
+    }
+
+    public Builder batchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    public Builder parallelism(int parallelism) {
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    public Builder maxRetries(int maxRetries) {
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    public Builder initialBackoff(Duration initialBackoff) {
+      this.initialBackoff = initialBackoff;
+      return this;
+    }
+
+    public Builder progressInterval(Duration progressInterval) {
+      this.progressInterval = progressInterval;
+      return this;
+    }
+
+    public IngestionPipeline build() {
+      if (embeddingModel == null || embeddingStore == null) {
+        throw new IllegalArgumentException("The embedding model and the embedding store are mandatory");
+      }
+      if (batchSize < 1 || parallelism < 1 || maxRetries < 0) {
+        throw new IllegalArgumentException("The batch size and the parallelism must be positive");
+      }
+      return new IngestionPipeline(this);
+    }
+  }
+
+  /**
+   * Ingests all the regular files of a directory (not recursively).
+   */
+  public IngestionReport ingest(Path directory) {
+    List<Path> files;
+    try (Stream<Path> paths = Files.list(directory)) {
+      files = paths.filter(Files::isRegularFile).sorted().toList();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    _LOG.info("Ingestion of {} documents from {}\n", files.size(), directory);
+    Iterator<Path> iterator = files.iterator();
+    // Each document is loaded and split only when the previous one is batched
+    Iterator<Iterator<TextSegment>> segments = new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public Iterator<TextSegment> next() {
+        if (streamingSplitter != null) {
+          return streamingSplitter.split(iterator.next());
+        }
+        Document document = loadDocument(iterator.next(), documentParser);
+        return documentSplitter.split(document).iterator();
+      }
+    };
+    return run(segments);
+  }
+
+  /**
+   * Ingests already split segments, each element of the iterator being the
+   * segments of a document.
+   */
+  public IngestionReport ingest(Iterator<List<TextSegment>> documents) {
+    return run(new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return documents.hasNext();
+      }
+
+      @Override
+      public Iterator<TextSegment> next() {
+        return documents.next().iterator();
+      }
+    });
+  }
+
+  // The segments of a document are read by groups of batchSize, only when the previous group is batched
+  private IngestionReport run(Iterator<Iterator<TextSegment>> documents) {
+    Progress progress = new Progress();
+    ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+    ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+    reporter.scheduleAtFixedRate(() -> _LOG.info("Ingestion in progress: {}\n", progress.report()),
+        progressInterval.toMillis(), progressInterval.toMillis(), TimeUnit.MILLISECONDS);
+    // In-flight batches: parallelism running and as many queued
+    Semaphore inFlight = new Semaphore(2 * parallelism);
+    try {
+      List<TextSegment> batch = new ArrayList<>(batchSize);
+      while (documents.hasNext()) {
+        progress.documents.incrementAndGet();
+        Iterator<TextSegment> segments = null;
+        try {
+          segments = documents.next();
+          List<TextSegment> group = new ArrayList<>(batchSize);
+          while (segments.hasNext()) {
+            group.add(segments.next());
+            if (group.size() < batchSize && segments.hasNext()) {
+              continue;
+            }
+            List<TextSegment> kept = segmentFilter.apply(group);
+            progress.skippedSegments.addAndGet(group.size() - kept.size());
+            group = new ArrayList<>(batchSize);
+            for (TextSegment segment : kept) {
+              batch.add(segment);
+              if (batch.size() == batchSize) {
+                submit(batch, workers, inFlight, progress);
+                batch = new ArrayList<>(batchSize);
+              }
+            }
+          }
+        } catch (RuntimeException e) {
+          // An unreadable document is reported, its segments already batched are still stored
+          _LOG.error("Document #{} failed, skipped: {}\n", progress.documents.get(), e.getMessage());
+          progress.failedDocuments.incrementAndGet();
+        } finally {
+          close(segments);
+        }
+      }
+      if (!batch.isEmpty()) {
+        submit(batch, workers, inFlight, progress);
+      }
+      // Wait for the last batches
+      inFlight.acquire(2 * parallelism);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Ingestion interrupted", e);
+    } finally {
+      workers.shutdownNow();
+      reporter.shutdownNow();
+    }
+    IngestionReport report = progress.report();
+    _LOG.info("Ingestion done: {}\n", report);
+    return report;
+  }
+
+  // The segments of a streamed document left before their end, by a failure
+  // or an interruption, still hold its file
+  private static void close(Iterator<TextSegment> segments) {
+    if (segments instanceof Closeable closeable) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private void submit(List<TextSegment> batch, ExecutorService workers, Semaphore inFlight, Progress progress)
+      throws InterruptedException {
+    inFlight.acquire();
+    workers.execute(() -> {
+      try {
+        embedAndStore(batch, progress);
+      } finally {
+        inFlight.release();
+      }
+    });
+  }
+
+  private void embedAndStore(List<TextSegment> batch, Progress progress) {
+    progress.batches.incrementAndGet();
+    long backoff = initialBackoff.toMillis();
+    for (int attempt = 0; ; attempt++) {
+      try {
+        Response<List<Embedding>> response = embeddingModel.embedAll(batch);
+        embeddingStore.addAll(response.content(), batch);
+        progress.segments.addAndGet(batch.size());
+        progress.tokens.addAndGet(tokenCount(response, batch));
+        return;
+      } catch (RuntimeException e) {
+        if (attempt >= maxRetries) {
+          _LOG.error("Batch of {} segments failed after {} attempts: {}\n", batch.size(), attempt + 1, e.getMessage());
+          progress.failedBatches.incrementAndGet();
+          progress.failedSegments.addAndGet(batch.size());
+          return;
+        }
+        _LOG.warn("Batch of {} segments failed, retry in {} ms: {}\n", batch.size(), backoff, e.getMessage());
+        try {
+          // Full jitter to avoid retrying all the failed batches at once
+          Thread.sleep(ThreadLocalRandom.current().nextLong(0, backoff + 1));
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          progress.failedBatches.incrementAndGet();
+          progress.failedSegments.addAndGet(batch.size());
+          return;
+        }
+        backoff *= 2;
+      }
+    }
+  }
+
+  // The usage given by the model if any, an estimation (4 characters per token) otherwise
+  private static long tokenCount(Response<List<Embedding>> response, List<TextSegment> batch) {
+    if (response.tokenUsage() != null && response.tokenUsage().inputTokenCount() != null) {
+      return response.tokenUsage().inputTokenCount();
+    }
+    return batch.stream().mapToLong(segment -> segment.text().length()).sum() / 4;
+  }
+
+  private static final class Progress {
+    final long start = System.nanoTime();
+    final AtomicLong documents = new AtomicLong();
+    final AtomicLong failedDocuments = new AtomicLong();
+    final AtomicLong segments = new AtomicLong();
+    final AtomicLong skippedSegments = new AtomicLong();
+    final AtomicLong failedSegments = new AtomicLong();
+    final AtomicLong batches = new AtomicLong();
+    final AtomicLong failedBatches = new AtomicLong();
+    final AtomicLong tokens = new AtomicLong();
+
+    IngestionReport report() {
+      return new IngestionReport((int) documents.get(), (int) failedDocuments.get(),
+          segments.get(), skippedSegments.get(), failedSegments.get(), batches.get(), failedBatches.get(),
+          tokens.get(), Duration.ofNanos(System.nanoTime() - start));
+    }
+  }
+}
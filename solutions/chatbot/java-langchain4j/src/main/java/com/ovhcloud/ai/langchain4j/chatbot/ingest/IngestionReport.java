@@ -0,0 +1,34 @@
+package com.ovhcloud.ai.langchain4j.chatbot.ingest;
+
+import java.time.Duration;
+
+/**
+ * Outcome of an ingestion: counts and throughput.
+ * The segments of the batches still failing after all the retries are counted
+ * as failed, the other batches are stored. The documents that can't be read
+ * are counted as failed, the others are ingested.
+ */
+public record IngestionReport(int documents, int failedDocuments, long segments, long skippedSegments, long failedSegments,
+    long batches, long failedBatches, long tokens, Duration duration) {
+
+  public double segmentsPerSecond() {
+    return perSecond(segments);
+  }
+
+  public double tokensPerSecond() {
+    return perSecond(tokens);
+  }
+
+  private double perSecond(long value) {
+    double seconds = duration.toNanos() / 1e9;
+    return seconds == 0 ? 0 : value / seconds;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d documents (%d failed), %d segments embedded (%d skipped, %d failed), %d batches (%d failed), %d tokens in %d ms: %.1f chunks/s, %.1f tokens/s",
+        documents, failedDocuments, segments, skippedSegments, failedSegments, batches, failedBatches, tokens, duration.toMillis(),
+        segmentsPerSecond(), tokensPerSecond());
+  }
+}
@@ -0,0 +1,262 @@
+package com.ovhcloud.ai.langchain4j.chatbot.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+
+/**
+ * Splits a UTF-8 text file into segments without loading it: the file is
+ * read through memory-mapped regions and decoded a few kilobytes at a time,
+ * and the segments are given one by one, so the memory used depends on the
+ * size of the segments and not on the size of the file.
+ * The segments are the ones of DocumentSplitters.recursive(maxSegmentSize, 0)
+ * on the whole file, with the same metadata as FileSystemDocumentLoader:
+ * - the paragraphs (separated by a blank line) are grouped up to the maximum
+ * size of a segment,
+ * - a paragraph too big for a segment is split by the recursive splitter of
+ * langchain4j (lines, sentences, words, then characters).
+ * Only a paragraph longer than maxParagraphSize characters is cut (at its last
+ * line break) before being split, to bound the memory.
+ */
+public class StreamingDocumentSplitter {
+  // Same separator as DocumentByParagraphSplitter
+  private static final Pattern PARAGRAPH_SEPARATOR = Pattern.compile("\\s*(?>\\R)\\s*(?>\\R)\\s*");
+  private static final String PARAGRAPH_DELIMITER = "\n\n";
+  private static final int DECODED_CHARS = 16 * 1024;
+
+  private final int maxSegmentSize;
+  private final int maxParagraphSize;
+  private final long regionSize;
+  private final DocumentSplitter paragraphSplitter;
+
+  private StreamingDocumentSplitter(Builder builder) {
+    this.maxSegmentSize = builder.maxSegmentSize;
+    this.maxParagraphSize = builder.maxParagraphSize;
+    this.regionSize = builder.regionSize;
+    this.paragraphSplitter = DocumentSplitters.recursive(builder.maxSegmentSize, 0);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private int maxSegmentSize = 400;
+    private int maxParagraphSize = 1 << 20;
+    private long regionSize = 64L << 20;
+
+    /**
+     * Maximum size of a segment, in characters.
+     */
+    public Builder maxSegmentSize(int maxSegmentSize) {
+      this.maxSegmentSize = maxSegmentSize;
+      return this;
+    }
+
+    public Builder maxParagraphSize(int maxParagraphSize) {
+      this.maxParagraphSize = maxParagraphSize;
+      return this;
+    }
+
+    /**
+     * Size of the regions of the file mapped at once, in bytes.
+     */
+    public Builder regionSize(long regionSize) {
+      this.regionSize = regionSize;
+      return this;
+    }
+
+    public StreamingDocumentSplitter build() {
+      if (maxSegmentSize < 1 || maxParagraphSize < maxSegmentSize || regionSize < 16) {
+        throw new IllegalArgumentException("The paragraphs must be bigger than the segments");
+      }
+      return new StreamingDocumentSplitter(this);
+    }
+  }
+
+  /**
+   * The segments of the file, read while iterating. The file is closed once
+   * the last segment is read, or on error: a caller stopping before must close
+   * the segments, with a try-with-resources for instance.
+   */
+  public Segments split(Path file) {
+    Metadata metadata = new Metadata()
+        .put(Document.FILE_NAME, file.getFileName().toString())
+        .put(Document.ABSOLUTE_DIRECTORY_PATH, file.toAbsolutePath().getParent().toString());
+    try {
+      return new Segments(FileChannel.open(file, StandardOpenOption.READ), metadata);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Iterator over the segments of a file, holding the file open until its end
+   * or its closing.
+   */
+  public final class Segments implements Iterator<TextSegment>, Closeable {
+    private final FileChannel channel;
+    private final Metadata metadata;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer decoded = CharBuffer.allocate(DECODED_CHARS);
+    // Text read but not cut into paragraphs yet
+    private final StringBuilder text = new StringBuilder();
+    // Paragraphs grouped into the next segment
+    private final StringBuilder segment = new StringBuilder();
+    private final ArrayDeque<TextSegment> ready = new ArrayDeque<>();
+    private MappedByteBuffer region;
+    private long regionStart;
+    private boolean endOfFile;
+    private int index;
+
+    Segments(FileChannel channel, Metadata metadata) {
+      this.channel = channel;
+      this.metadata = metadata;
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        while (ready.isEmpty() && !endOfFile) {
+          read();
+        }
+        return !ready.isEmpty();
+      } catch (IOException | RuntimeException e) {
+        closeFile();
+        throw e instanceof IOException io ? new UncheckedIOException(io) : (RuntimeException) e;
+      }
+    }
+
+    @Override
+    public TextSegment next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return ready.poll();
+    }
+
+    // Decodes the next characters, then cuts the complete paragraphs
+    private void read() throws IOException {
+      if (region == null || !region.hasRemaining()) {
+        // The bytes of a character cut by the end of a region are read again
+        regionStart += region == null ? 0 : region.position();
+        long size = Math.min(regionSize, channel.size() - regionStart);
+        region = size > 0 ? channel.map(FileChannel.MapMode.READ_ONLY, regionStart, size) : null;
+      }
+      boolean lastRegion = region == null || regionStart + region.limit() >= channel.size();
+      if (region != null) {
+        int before = region.position();
+        decoder.decode(region, decoded, lastRegion);
+        if (region.position() == before && !lastRegion && decoded.position() == 0) {
+          // Incomplete character at the end of the region
+          regionStart += before;
+          region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(regionSize, channel.size() - regionStart));
+          return;
+        }
+      }
+      if (lastRegion && (region == null || !region.hasRemaining())) {
+        decoder.flush(decoded);
+        endOfFile = true;
+      }
+      decoded.flip();
+      text.append(decoded);
+      decoded.clear();
+
+      int start = 0;
+      Matcher separator = PARAGRAPH_SEPARATOR.matcher(text);
+      // A separator at the very end may go on in the next characters
+      while (separator.find() && (separator.end() < text.length() || endOfFile)) {
+        paragraph(text.substring(start, separator.start()));
+        start = separator.end();
+      }
+      text.delete(0, start);
+      if (endOfFile) {
+        // String.split drops the empty trailing part
+        if (!text.isEmpty()) {
+          paragraph(text.toString());
+        }
+        text.setLength(0);
+        flushSegment();
+        closeFile();
+      } else if (text.length() > maxParagraphSize) {
+        int cut = text.lastIndexOf("\n", maxParagraphSize);
+        cut = cut > 0 ? cut : maxParagraphSize;
+        paragraph(text.substring(0, cut));
+        text.delete(0, cut);
+      }
+    }
+
+    // Same grouping as HierarchicalDocumentSplitter, without overlap
+    private void paragraph(String paragraph) {
+      int size = segment.isEmpty() ? paragraph.length()
+          : segment.length() + PARAGRAPH_DELIMITER.length() + paragraph.length();
+      if (size <= maxSegmentSize) {
+        if (!segment.isEmpty()) {
+          segment.append(PARAGRAPH_DELIMITER);
+        }
+        segment.append(paragraph);
+        return;
+      }
+      flushSegment();
+      if (paragraph.length() <= maxSegmentSize) {
+        segment.append(paragraph);
+        return;
+      }
+      for (TextSegment part : paragraphSplitter.split(Document.from(paragraph.trim()))) {
+        emit(part.text());
+      }
+    }
+
+    private void flushSegment() {
+      String grouped = segment.toString().trim();
+      segment.setLength(0);
+      if (!grouped.isEmpty()) {
+        emit(grouped);
+      }
+    }
+
+    private void emit(String segmentText) {
+      ready.add(TextSegment.from(segmentText, metadata.copy().put("index", String.valueOf(index++))));
+    }
+
+    /**
+     * Closes the file, the segments not read yet are dropped.
+     */
+    @Override
+    public void close() {
+      ready.clear();
+      closeFile();
+    }
+
+    private void closeFile() {
+      endOfFile = true;
+      region = null;
+      try {
+        channel.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.ovhcloud.ai.langchain4j.chatbot.memory;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.Tokenizer;
+
+/**
+ * Tokenizer estimating the number of tokens from the number of characters
+ * (about 4 characters per token for English text).
+ * The tokenizer of the Mistral models is not available offline, an estimation
+ * is enough to bound the size of the prompts.
+ */
+public class EstimatingTokenizer implements Tokenizer {
+  private static final int CHARACTERS_PER_TOKEN = 4;
+  // Role and formatting tokens added to each message
+  private static final int TOKENS_PER_MESSAGE = 4;
+
+  @Override
+  public int estimateTokenCountInText(String text) {
+    return text == null ? 0 : (text.length() + CHARACTERS_PER_TOKEN - 1) / CHARACTERS_PER_TOKEN;
+  }
+
+  @Override
+  public int estimateTokenCountInMessage(ChatMessage message) {
+    int tokens = TOKENS_PER_MESSAGE;
+    if (message instanceof SystemMessage systemMessage) {
+      tokens += estimateTokenCountInText(systemMessage.text());
+    } else if (message instanceof UserMessage userMessage) {
+      tokens += userMessage.hasSingleText() ? estimateTokenCountInText(userMessage.singleText()) : 0;
+    } else if (message instanceof AiMessage aiMessage) {
+      tokens += estimateTokenCountInText(aiMessage.text());
+      if (aiMessage.hasToolExecutionRequests()) {
+        tokens += estimateTokenCountInToolExecutionRequests(aiMessage.toolExecutionRequests());
+      }
+    } else if (message instanceof ToolExecutionResultMessage toolMessage) {
+      tokens += estimateTokenCountInText(toolMessage.text());
+    }
+    return tokens;
+  }
+
+  @Override
+  public int estimateTokenCountInMessages(Iterable<ChatMessage> messages) {
+    int tokens = 0;
+    for (ChatMessage message : messages) {
+      tokens += estimateTokenCountInMessage(message);
+    }
+    return tokens;
+  }
+
+  @Override
+  public int estimateTokenCountInToolSpecifications(Iterable<ToolSpecification> toolSpecifications) {
+    int tokens = 0;
+    for (ToolSpecification toolSpecification : toolSpecifications) {
+      tokens += estimateTokenCountInText(toolSpecification.toString());
+    }
+    return tokens;
+  }
+
+  @Override
+  public int estimateTokenCountInToolExecutionRequests(Iterable<ToolExecutionRequest> toolExecutionRequests) {
+    int tokens = 0;
+    for (ToolExecutionRequest request : toolExecutionRequests) {
+      tokens += estimateTokenCountInText(request.name()) + estimateTokenCountInText(request.arguments());
+    }
+    return tokens;
+  }
+}
@@ -0,0 +1,316 @@
+package com.ovhcloud.ai.langchain4j.chatbot.memory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.Tokenizer;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+
+/**
+ * Chat memory bounded by a number of tokens instead of a number of messages.
+ * The most recent turns are kept verbatim, the older turns are folded into a
+ * running summary written by a chat model.
+ * The summary is generated in the background: the turns being summarized are
+ * already out of the prompt, so the prompt size stays below the budget and the
+ * request never waits for the summarization.
+ * The summary is sent to the model as part of the system message.
+ * A conversation is summarized by one task at a time, the turns folded
+ * meanwhile wait for the next one. The tasks run on the given executor, or on
+ * a small pool shared by all the memories, with a bounded queue: when it is
+ * full, the turns wait for the next message of the conversation.
+ */
+public class SummarizingChatMemory implements ChatMemory {
+  private static final Logger _LOG = LoggerFactory.getLogger(SummarizingChatMemory.class);
+
+  private static final String SUMMARY_PROMPT = """
+      Summarize the following conversation between a user and an assistant in at most %d words.
+      Keep the facts given by the user (names, preferences, decisions) and the open questions.
+      Previous summary: %s
+      Conversation:
+      %s""";
+
+  private static final int DEFAULT_THREADS = 4;
+  private static final int DEFAULT_QUEUE_SIZE = 1024;
+  private static final Executor DEFAULT_EXECUTOR = defaultExecutor();
+
+  private final Object id;
+  private final int maxTokens;
+  private final int maxSummaryTokens;
+  private final int minRecentMessages;
+  private final Tokenizer tokenizer;
+  private final ChatLanguageModel summarizer;
+  private final Executor executor;
+
+  private SystemMessage systemMessage;
+  private String summary;
+  private final Deque<ChatMessage> recent = new ArrayDeque<>();
+  // Turns out of the prompt, waiting to be folded into the summary
+  private final List<ChatMessage> folding = new ArrayList<>();
+  private boolean summarizing;
+  // Incremented by clear(), a summary of a cleared conversation is dropped
+  private long generation;
+
+  private SummarizingChatMemory(Builder builder) {
+    this.id = builder.id;
+    this.maxTokens = builder.maxTokens;
+    this.maxSummaryTokens = builder.maxSummaryTokens;
+    this.minRecentMessages = builder.minRecentMessages;
+    this.tokenizer = builder.tokenizer;
+    this.summarizer = builder.summarizer;
+    this.executor = builder.executor;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private Object id = "default";
+    private int maxTokens = 1000;
+    private int maxSummaryTokens = 200;
+    private int minRecentMessages = 2;
+    private Tokenizer tokenizer = new EstimatingTokenizer();
+    private ChatLanguageModel summarizer;
+    private Executor executor = DEFAULT_EXECUTOR;
+
+    public Builder id(Object id) {
+      this.id = id;
+      return this;
+    }
+
+    /**
+     * Budget of the whole memory: system message, summary and recent turns.
+     */
+    public Builder maxTokens(int maxTokens) {
+      this.maxTokens = maxTokens;
+      return this;
+    }
+
+    public Builder maxSummaryTokens(int maxSummaryTokens) {
+      this.maxSummaryTokens = maxSummaryTokens;
+      return this;
+    }
+
+    /**
+     * Number of messages always kept verbatim, even over the budget. The
+     * oldest turn is kept too when folding it would leave fewer messages.
+     */
+    public Builder minRecentMessages(int minRecentMessages) {
+      this.minRecentMessages = minRecentMessages;
+      return this;
+    }
+
+    public Builder tokenizer(Tokenizer tokenizer) {
+      this.tokenizer = tokenizer;
+      return this;
+    }
+
+    public Builder summarizer(ChatLanguageModel summarizer) {
+      this.summarizer = summarizer;
+      return this;
+    }
+
+    /**
+     * Executor of the summaries, a pool of 4 threads shared by all the memories
+     * by default.
+     */
+    public Builder executor(Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public SummarizingChatMemory build() {
+      if (summarizer == null) {
+        throw new IllegalArgumentException("The summarizer model is mandatory");
+      }
+      if (maxSummaryTokens >= maxTokens) {
+        throw new IllegalArgumentException("The summary budget must be lower than the memory budget");
+      }
+      return new SummarizingChatMemory(this);
+    }
+  }
+
+  private static Executor defaultExecutor() {
+    AtomicInteger threads = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(DEFAULT_QUEUE_SIZE), runnable -> {
+          Thread thread = new Thread(runnable, "chat-memory-summarizer-" + threads.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  @Override
+  public Object id() {
+    return id;
+  }
+
+  @Override
+  public void add(ChatMessage message) {
+    boolean startSummary;
+    synchronized (this) {
+      if (message instanceof SystemMessage system) {
+        // The AI services add the system message on each call
+        systemMessage = system;
+        return;
+      }
+      recent.addLast(message);
+      foldOverBudget();
+      startSummary = !folding.isEmpty() && !summarizing;
+      summarizing |= startSummary;
+    }
+    if (startSummary) {
+      try {
+        executor.execute(this::summarize);
+      } catch (RejectedExecutionException e) {
+        // The summarizers are saturated, the next message tries again
+        synchronized (this) {
+          summarizing = false;
+        }
+        _LOG.warn("Summarization of the chat memory {} postponed: {}\n", id, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Moves the oldest turns out of the prompt until it fits in the budget. A
+   * turn is moved as a whole, from a user message to the next one, and only
+   * if at least minRecentMessages messages remain after it: the answers or
+   * the tool results are never kept without their question.
+   */
+  private void foldOverBudget() {
+    int budget = maxTokens - tokenizer.estimateTokenCountInMessages(fixedMessages());
+    int tokens = tokenizer.estimateTokenCountInMessages(recent);
+    while (tokens > budget) {
+      int turn = oldestTurnSize();
+      if (turn == 0 || recent.size() - turn < minRecentMessages) {
+        break;
+      }
+      for (int i = 0; i < turn; i++) {
+        ChatMessage oldest = recent.removeFirst();
+        folding.add(oldest);
+        tokens -= tokenizer.estimateTokenCountInMessage(oldest);
+      }
+    }
+  }
+
+  // The oldest message and the following ones up to the next user message
+  private int oldestTurnSize() {
+    int size = 0;
+    for (ChatMessage message : recent) {
+      if (size > 0 && message instanceof UserMessage) {
+        break;
+      }
+      size++;
+    }
+    return size;
+  }
+
+  private void summarize() {
+    while (true) {
+      String previous;
+      List<ChatMessage> batch;
+      long batchGeneration;
+      synchronized (this) {
+        if (folding.isEmpty()) {
+          summarizing = false;
+          return;
+        }
+        batchGeneration = generation;
+        previous = summary;
+        batch = new ArrayList<>(folding);
+      }
+      String updated = previous;
+      try {
+        String prompt = SUMMARY_PROMPT.formatted(maxSummaryTokens * 3 / 4, previous == null ? "none" : previous,
+            transcript(batch));
+        updated = summarizer.generate(prompt);
+      } catch (RuntimeException e) {
+        // The turns are lost but the prompt stays bounded
+        _LOG.warn("Summarization of the chat memory {} failed: {}\n", id, e.getMessage());
+      }
+      synchronized (this) {
+        if (batchGeneration != generation) {
+          continue;
+        }
+        summary = truncate(updated);
+        folding.subList(0, batch.size()).clear();
+        // The summary may have grown, the recent turns may have to move
+        foldOverBudget();
+      }
+    }
+  }
+
+  private String truncate(String text) {
+    if (text == null || tokenizer.estimateTokenCountInText(text) <= maxSummaryTokens) {
+      return text;
+    }
+    int end = text.length() * maxSummaryTokens / tokenizer.estimateTokenCountInText(text);
+    return text.substring(0, end);
+  }
+
+  private static String transcript(List<ChatMessage> messages) {
+    StringBuilder transcript = new StringBuilder();
+    for (ChatMessage message : messages) {
+      if (message instanceof UserMessage user && user.hasSingleText()) {
+        transcript.append("User: ").append(user.singleText()).append('\n');
+      } else if (message instanceof AiMessage ai && ai.text() != null) {
+        transcript.append("Assistant: ").append(ai.text()).append('\n');
+      } else if (message instanceof ToolExecutionResultMessage tool) {
+        transcript.append("Tool ").append(tool.toolName()).append(": ").append(tool.text()).append('\n');
+      }
+    }
+    return transcript.toString();
+  }
+
+  // The system message with the summary, if any
+  private List<ChatMessage> fixedMessages() {
+    if (summary == null) {
+      return systemMessage == null ? List.of() : List.of(systemMessage);
+    }
+    String text = (systemMessage == null ? "" : systemMessage.text() + "\n\n")
+        + "Summary of the beginning of the conversation: " + summary;
+    return List.of(SystemMessage.from(text));
+  }
+
+  @Override
+  public synchronized List<ChatMessage> messages() {
+    List<ChatMessage> messages = new ArrayList<>(fixedMessages());
+    messages.addAll(recent);
+    return messages;
+  }
+
+  /**
+   * Current summary of the folded turns, null if no turn has been folded yet.
+   */
+  public synchronized String summary() {
+    return summary;
+  }
+
+  @Override
+  public synchronized void clear() {
+    recent.clear();
+    folding.clear();
+    summary = null;
+    generation++;
+  }
+}
@@ -0,0 +1,302 @@
+package com.ovhcloud.ai.langchain4j.chatbot.retrieval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import dev.langchain4j.data.segment.TextSegment;
+
+/**
+ * In-process inverted index over text segments, scored with BM25
+ * (https://en.wikipedia.org/wiki/Okapi_BM25).
+ * - the text is split into lower-cased words (letters and digits),
+ * - each term has a posting list of primitive arrays: the segments containing
+ * it and the frequency of the term in each one,
+ * - a search only walks the posting lists of the terms of the query.
+ * Each hit also gives its coverage: the share of the query (weighted by the
+ * IDF of its terms) found in the segment, 1 when every term matches.
+ * The removed segments are flagged: they are skipped by the searches and no
+ * longer counted in the document frequencies nor in the average length. Once
+ * they are a quarter of the index, the posting lists are rebuilt without them.
+ */
+public class Bm25Index {
+  private static final int MIN_TERM_LENGTH = 2;
+  // Share of removed segments past which the index is compacted
+  private static final double MAX_REMOVED_RATIO = 0.25;
+
+  private final double k1;
+  private final double b;
+  private final Map<String, Postings> postings = new HashMap<>();
+  private final List<TextSegment> segments = new ArrayList<>();
+  private final Map<TextSegment, Integer> positions = new HashMap<>();
+  private final BitSet removed = new BitSet();
+  private int live;
+  private int[] lengths = new int[1024];
+  private long totalLength;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * A segment found by a search, with its score and the coverage of the query.
+   */
+  public record Hit(TextSegment segment, double score, double coverage) {
+  }
+
+  // Segments (by position in the index) and frequencies of a term, sorted by segment
+  private static final class Postings {
+    int[] segments = new int[4];
+    int[] frequencies = new int[4];
+    int size;
+    // Segments not removed, the document frequency of the term
+    int live;
+
+    void add(int segment, int frequency) {
+      if (size == segments.length) {
+        segments = Arrays.copyOf(segments, size * 2);
+        frequencies = Arrays.copyOf(frequencies, size * 2);
+      }
+      segments[size] = segment;
+      frequencies[size] = frequency;
+      size++;
+      live++;
+    }
+
+    // Drops the removed segments and renumbers the others, returns the size left
+    int renumber(int[] ids) {
+      int kept = 0;
+      for (int i = 0; i < size; i++) {
+        int id = ids[segments[i]];
+        if (id >= 0) {
+          segments[kept] = id;
+          frequencies[kept] = frequencies[i];
+          kept++;
+        }
+      }
+      size = kept;
+      return kept;
+    }
+  }
+
+  public Bm25Index() {
+    this(1.2, 0.75);
+  }
+
+  /**
+   * @param k1 saturation of the term frequency
+   * @param b normalization by the length of the segment, between 0 and 1
+   */
+  public Bm25Index(double k1, double b) {
+    this.k1 = k1;
+    this.b = b;
+  }
+
+  public void add(TextSegment segment) {
+    addAll(List.of(segment));
+  }
+
+  public void addAll(Collection<TextSegment> newSegments) {
+    replace(List.of(), newSegments);
+  }
+
+  /**
+   * Removes and adds segments at once: a search sees either all of the old
+   * segments or all of the new ones. The segments are removed by equality.
+   */
+  public void replace(Collection<TextSegment> oldSegments, Collection<TextSegment> newSegments) {
+    lock.writeLock().lock();
+    try {
+      for (TextSegment segment : oldSegments) {
+        Integer id = positions.remove(segment);
+        if (id != null) {
+          removed.set(id);
+          totalLength -= lengths[id];
+          live--;
+          for (String term : new HashSet<>(terms(segment.text()))) {
+            postings.get(term).live--;
+          }
+        }
+      }
+      for (TextSegment segment : newSegments) {
+        int id = segments.size();
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        int length = 0;
+        for (String term : terms(segment.text())) {
+          frequencies.merge(term, 1, Integer::sum);
+          length++;
+        }
+        frequencies.forEach((term, frequency) -> postings.computeIfAbsent(term, t -> new Postings()).add(id, frequency));
+        segments.add(segment);
+        positions.put(segment, id);
+        if (id == lengths.length) {
+          lengths = Arrays.copyOf(lengths, id * 2);
+        }
+        lengths[id] = length;
+        totalLength += length;
+        live++;
+      }
+      if (segments.size() - live > MAX_REMOVED_RATIO * segments.size()) {
+        compact();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return live;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Receives the content of an index, see {@link #export(Exporter)}.
+   */
+  public interface Exporter {
+    /**
+     * A segment and its length in terms, its position in the posting lists
+     * being the number of segments received before it.
+     */
+    void segment(TextSegment segment, int length);
+
+    /**
+     * A term with the positions of the segments containing it, increasing, and
+     * the frequency of the term in each one.
+     */
+    void term(String term, int[] segments, int[] frequencies);
+  }
+
+  /**
+   * Gives the segments then the posting lists to the exporter, to write the
+   * index in another format. The removed segments are compacted first.
+   */
+  public void export(Exporter exporter) {
+    lock.writeLock().lock();
+    try {
+      if (live < segments.size()) {
+        compact();
+      }
+      for (int id = 0; id < segments.size(); id++) {
+        exporter.segment(segments.get(id), lengths[id]);
+      }
+      postings.forEach((term, termPostings) -> exporter.term(term,
+          Arrays.copyOf(termPostings.segments, termPostings.size),
+          Arrays.copyOf(termPostings.frequencies, termPostings.size)));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * The best segments for the query, by decreasing score.
+   */
+  public List<Hit> search(String query, int maxResults) {
+    List<String> queryTerms = terms(query).stream().distinct().toList();
+    lock.readLock().lock();
+    try {
+      int count = segments.size();
+      if (live == 0 || queryTerms.isEmpty() || maxResults <= 0) {
+        return List.of();
+      }
+      double averageLength = Math.max(1, (double) totalLength / live);
+      float[] scores = new float[count];
+      float[] matchedIdf = new float[count];
+      double queryIdf = 0;
+      for (String term : queryTerms) {
+        Postings termPostings = postings.get(term);
+        if (termPostings == null) {
+          // An unknown term is as rare as can be
+          queryIdf += idf(0, live);
+          continue;
+        }
+        double idf = idf(termPostings.live, live);
+        queryIdf += idf;
+        for (int i = 0; i < termPostings.size; i++) {
+          int segment = termPostings.segments[i];
+          int frequency = termPostings.frequencies[i];
+          double norm = k1 * (1 - b + b * lengths[segment] / averageLength);
+          scores[segment] += (float) (idf * frequency * (k1 + 1) / (frequency + norm));
+          matchedIdf[segment] += (float) idf;
+        }
+      }
+      // Keep the best ones in a min heap
+      PriorityQueue<Integer> best = new PriorityQueue<>(maxResults + 1, (x, y) -> Float.compare(scores[x], scores[y]));
+      for (int segment = 0; segment < count; segment++) {
+        if (scores[segment] <= 0 || removed.get(segment)) {
+          continue;
+        }
+        if (best.size() < maxResults) {
+          best.add(segment);
+        } else if (scores[segment] > scores[best.peek()]) {
+          best.poll();
+          best.add(segment);
+        }
+      }
+      Hit[] hits = new Hit[best.size()];
+      for (int i = hits.length - 1; i >= 0; i--) {
+        int segment = best.poll();
+        hits[i] = new Hit(segments.get(segment), scores[segment], matchedIdf[segment] / queryIdf);
+      }
+      return List.of(hits);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // Rebuilds the index without the removed segments, under the write lock
+  private void compact() {
+    int[] ids = new int[segments.size()];
+    List<TextSegment> kept = new ArrayList<>(live);
+    int[] keptLengths = new int[Math.max(1024, live)];
+    for (int id = 0; id < ids.length; id++) {
+      if (removed.get(id)) {
+        ids[id] = -1;
+        continue;
+      }
+      ids[id] = kept.size();
+      keptLengths[kept.size()] = lengths[id];
+      kept.add(segments.get(id));
+    }
+    postings.values().removeIf(termPostings -> termPostings.renumber(ids) == 0);
+    positions.replaceAll((segment, id) -> ids[id]);
+    segments.clear();
+    segments.addAll(kept);
+    lengths = keptLengths;
+    removed.clear();
+  }
+
+  private static double idf(int documentFrequency, int count) {
+    return Math.log(1 + (count - documentFrequency + 0.5) / (documentFrequency + 0.5));
+  }
+
+  /**
+   * The terms of a text: lower-cased runs of letters and digits.
+   */
+  static List<String> terms(String text) {
+    List<String> terms = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      } else if (!wordChar && start >= 0) {
+        if (i - start >= MIN_TERM_LENGTH) {
+          terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        start = -1;
+      }
+    }
+    return terms;
+  }
+}
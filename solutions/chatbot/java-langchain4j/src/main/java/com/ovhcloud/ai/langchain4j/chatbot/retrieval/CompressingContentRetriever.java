@@ -0,0 +1,264 @@
+package com.ovhcloud.ai.langchain4j.chatbot.retrieval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ovhcloud.ai.langchain4j.chatbot.memory.EstimatingTokenizer;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.Tokenizer;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+
+/**
+ * Content retriever shrinking the contents of another retriever before they
+ * are added to the prompt:
+ * - near duplicates are removed: a segment sharing more than
+ * duplicateThreshold of its words with a better ranked one (Jaccard index),
+ * - the others are reordered with the maximal marginal relevance: each step
+ * picks the segment the most relevant (by its rank) and the least similar to
+ * the ones already picked, see https://www.cs.cmu.edu/~jgc/publication/The_Use_MMR_Diversity_Based_LTMIR_1998.pdf
+ * - they are packed into the token budget: a segment too big for what is
+ * left keeps only its sentences sharing the most words with the query.
+ * The tokens saved, against the first maxResults contents of the other
+ * retriever as they would be used without compression, are logged at debug
+ * level for each query and summed in tokensSaved().
+ * The similarities use the words of the segments, not their embeddings: the
+ * contents of the lexical fast path of {@link HybridContentRetriever} have none.
+ */
+public class CompressingContentRetriever implements ContentRetriever {
+  private static final Logger _LOG = LoggerFactory.getLogger(CompressingContentRetriever.class);
+  private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?])\\s+");
+
+  private final ContentRetriever delegate;
+  private final Tokenizer tokenizer;
+  private final int maxTokens;
+  private final int maxResults;
+  private final double duplicateThreshold;
+  private final double lambda;
+  private final AtomicLong tokensRetrieved = new AtomicLong();
+  private final AtomicLong tokensSaved = new AtomicLong();
+
+  private CompressingContentRetriever(Builder builder) {
+    if (builder.delegate == null) {
+      throw new IllegalArgumentException("The content retriever is mandatory");
+    }
+    this.delegate = builder.delegate;
+    this.tokenizer = builder.tokenizer;
+    this.maxTokens = builder.maxTokens;
+    this.maxResults = builder.maxResults;
+    this.duplicateThreshold = builder.duplicateThreshold;
+    this.lambda = builder.lambda;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  // A content with its words, relevance between 0 and 1 from its rank
+  private record Candidate(TextSegment segment, Set<String> words, double relevance) {
+  }
+
+  @Override
+  public List<Content> retrieve(Query query) {
+    List<Content> contents = delegate.retrieve(query);
+    // Tokens of the contents used without compression
+    int before = 0;
+    List<Candidate> candidates = new ArrayList<>(contents.size());
+    for (int rank = 0; rank < contents.size(); rank++) {
+      TextSegment segment = contents.get(rank).textSegment();
+      if (rank < maxResults) {
+        before += tokenizer.estimateTokenCountInText(segment.text());
+      }
+      Set<String> words = new HashSet<>(Bm25Index.terms(segment.text()));
+      // Near duplicate of a better ranked segment
+      if (candidates.stream().noneMatch(kept -> jaccard(kept.words(), words) > duplicateThreshold)) {
+        candidates.add(new Candidate(segment, words, 1 - (double) rank / contents.size()));
+      }
+    }
+    int duplicates = contents.size() - candidates.size();
+
+    // Maximal marginal relevance
+    List<Candidate> ordered = new ArrayList<>(candidates.size());
+    while (!candidates.isEmpty() && ordered.size() < maxResults) {
+      Candidate best = null;
+      double bestScore = Double.NEGATIVE_INFINITY;
+      for (Candidate candidate : candidates) {
+        double similarity = 0;
+        for (Candidate picked : ordered) {
+          similarity = Math.max(similarity, jaccard(candidate.words(), picked.words()));
+        }
+        double score = lambda * candidate.relevance() - (1 - lambda) * similarity;
+        if (score > bestScore) {
+          best = candidate;
+          bestScore = score;
+        }
+      }
+      candidates.remove(best);
+      ordered.add(best);
+    }
+
+    // Packing into the budget
+    Set<String> queryWords = new HashSet<>(Bm25Index.terms(query.text()));
+    List<Content> packed = new ArrayList<>(ordered.size());
+    int left = maxTokens;
+    int trimmed = 0;
+    for (Candidate candidate : ordered) {
+      String text = candidate.segment().text();
+      int tokens = tokenizer.estimateTokenCountInText(text);
+      if (tokens > left) {
+        text = bestSentences(text, queryWords, left);
+        tokens = tokenizer.estimateTokenCountInText(text);
+        trimmed++;
+      }
+      if (text.isEmpty()) {
+        continue;
+      }
+      left -= tokens;
+      packed.add(Content.from(TextSegment.from(text, candidate.segment().metadata())));
+    }
+
+    int after = maxTokens - left;
+    // The contents ranked after maxResults, taking the place of the removed
+    // duplicates, can make the context bigger than without compression
+    int saved = Math.max(0, before - after);
+    tokensRetrieved.addAndGet(before);
+    tokensSaved.addAndGet(saved);
+    _LOG.debug("Context of {} tokens instead of {} ({} saved): {} duplicates removed, {} segments trimmed, {} kept\n",
+        after, before, saved, duplicates, trimmed, packed.size());
+    return packed;
+  }
+
+  /**
+   * The sentences sharing the most words with the query that fit in the
+   * budget, in their original order. The sentences without any word of the
+   * query are never kept.
+   */
+  private String bestSentences(String text, Set<String> queryWords, int budget) {
+    String[] sentences = SENTENCE_END.split(text);
+    Integer[] byValue = new Integer[sentences.length];
+    int[] values = new int[sentences.length];
+    for (int i = 0; i < sentences.length; i++) {
+      byValue[i] = i;
+      for (String word : Bm25Index.terms(sentences[i])) {
+        if (queryWords.contains(word)) {
+          values[i]++;
+        }
+      }
+    }
+    Arrays.sort(byValue, (x, y) -> Integer.compare(values[y], values[x]));
+    boolean[] kept = new boolean[sentences.length];
+    int left = budget;
+    for (int i : byValue) {
+      int tokens = tokenizer.estimateTokenCountInText(sentences[i]) + 1;
+      if (values[i] > 0 && tokens <= left) {
+        kept[i] = true;
+        left -= tokens;
+      }
+    }
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < sentences.length; i++) {
+      if (kept[i]) {
+        result.append(result.isEmpty() ? "" : " ").append(sentences[i]);
+      }
+    }
+    return result.toString();
+  }
+
+  private static double jaccard(Set<String> a, Set<String> b) {
+    if (a.isEmpty() && b.isEmpty()) {
+      return 1;
+    }
+    Set<String> smaller = a.size() < b.size() ? a : b;
+    Set<String> larger = smaller == a ? b : a;
+    int common = 0;
+    for (String word : smaller) {
+      if (larger.contains(word)) {
+        common++;
+      }
+    }
+    return (double) common / (a.size() + b.size() - common);
+  }
+
+  /**
+   * Tokens of the first maxResults contents given by the retriever, summed
+   * over the queries.
+   */
+  public long tokensRetrieved() {
+    return tokensRetrieved.get();
+  }
+
+  /**
+   * Tokens saved on the first maxResults contents, summed over the queries.
+   * A query whose context is bigger than these contents saves none.
+   */
+  public long tokensSaved() {
+    return tokensSaved.get();
+  }
+
+  public static class Builder {
+    private ContentRetriever delegate;
+    private Tokenizer tokenizer = new EstimatingTokenizer();
+    private int maxTokens = 300;
+    private int maxResults = 5;
+    private double duplicateThreshold = 0.8;
+    private double lambda = 0.7;
+
+    /**
+     * The retriever giving the contents, by decreasing relevance. It should
+     * give more contents than maxResults, to leave a choice.
+     */
+    public Builder contentRetriever(ContentRetriever delegate) {
+      this.delegate = delegate;
+      return this;
+    }
+
+    public Builder tokenizer(Tokenizer tokenizer) {
+      this.tokenizer = tokenizer;
+      return this;
+    }
+
+    /**
+     * Budget of the contents, in tokens (300 by default).
+     */
+    public Builder maxTokens(int maxTokens) {
+      this.maxTokens = maxTokens;
+      return this;
+    }
+
+    public Builder maxResults(int maxResults) {
+      this.maxResults = maxResults;
+      return this;
+    }
+
+    /**
+     * Share of common words above which a segment is a duplicate (0.8 by default).
+     */
+    public Builder duplicateThreshold(double duplicateThreshold) {
+      this.duplicateThreshold = duplicateThreshold;
+      return this;
+    }
+
+    /**
+     * Weight of the relevance against the diversity, between 0 and 1 (0.7 by
+     * default): 1 keeps the order of the retriever.
+     */
+    public Builder lambda(double lambda) {
+      this.lambda = lambda;
+      return this;
+    }
+
+    public CompressingContentRetriever build() {
+      return new CompressingContentRetriever(this);
+    }
+  }
+}
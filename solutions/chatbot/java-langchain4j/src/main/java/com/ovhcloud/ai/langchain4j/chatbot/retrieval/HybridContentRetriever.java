@@ -0,0 +1,186 @@
+package com.ovhcloud.ai.langchain4j.chatbot.retrieval;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+/**
+ * Content retriever combining a lexical search (BM25) and a vector search.
+ * - the lexical search runs first, it is local and cheap,
+ * - if its best hit covers enough of the query, its hits are used as is:
+ * no embedding of the query, so no call to the embedding model (fast path),
+ * - otherwise the query is embedded, the vector search runs, and the two
+ * lists are fused with the reciprocal rank fusion: a segment scores
+ * 1 / (k + rank) in each list where it appears.
+ * The fusion only uses the ranks, the scores of BM25 and of the cosine
+ * similarity do not need to be comparable, nor a minimum score to be tuned.
+ * see https://plg.uwaterloo.ca/~gvcormac/cormacksigir09-rrf.pdf
+ */
+public class HybridContentRetriever implements ContentRetriever {
+  private static final Logger _LOG = LoggerFactory.getLogger(HybridContentRetriever.class);
+
+  private final Bm25Index index;
+  private final EmbeddingStore<TextSegment> embeddingStore;
+  private final EmbeddingModel embeddingModel;
+  private final int maxResults;
+  private final int candidates;
+  private final int rankConstant;
+  private final double minVectorScore;
+  private final double fastPathCoverage;
+  private final AtomicLong fastPaths = new AtomicLong();
+  private final AtomicLong fusions = new AtomicLong();
+
+  private HybridContentRetriever(Builder builder) {
+    if (builder.index == null || builder.embeddingStore == null || builder.embeddingModel == null) {
+      throw new IllegalArgumentException("The index, the embedding store and the embedding model are mandatory");
+    }
+    this.index = builder.index;
+    this.embeddingStore = builder.embeddingStore;
+    this.embeddingModel = builder.embeddingModel;
+    this.maxResults = builder.maxResults;
+    this.candidates = Math.max(builder.candidates, builder.maxResults);
+    this.rankConstant = builder.rankConstant;
+    this.minVectorScore = builder.minVectorScore;
+    this.fastPathCoverage = builder.fastPathCoverage;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  @Override
+  public List<Content> retrieve(Query query) {
+    List<Bm25Index.Hit> lexicalHits = index.search(query.text(), candidates);
+
+    // Fast path: the query words are all (or almost) in the best segment
+    if (!lexicalHits.isEmpty() && lexicalHits.get(0).coverage() >= fastPathCoverage) {
+      fastPaths.incrementAndGet();
+      _LOG.debug("Lexical fast path, coverage {}\n", lexicalHits.get(0).coverage());
+      return lexicalHits.stream()
+          .limit(maxResults)
+          .map(hit -> Content.from(hit.segment()))
+          .toList();
+    }
+
+    fusions.incrementAndGet();
+    Embedding queryEmbedding = embeddingModel.embed(query.text()).content();
+    List<EmbeddingMatch<TextSegment>> vectorMatches = embeddingStore.search(EmbeddingSearchRequest.builder()
+        .queryEmbedding(queryEmbedding)
+        .maxResults(candidates)
+        .minScore(minVectorScore)
+        .build()).matches();
+
+    // Reciprocal rank fusion, the segments are the same objects in both lists
+    // only if they are equal (same text and metadata)
+    Map<TextSegment, Double> fused = new LinkedHashMap<>();
+    for (int rank = 0; rank < lexicalHits.size(); rank++) {
+      fused.merge(lexicalHits.get(rank).segment(), 1.0 / (rankConstant + rank + 1), Double::sum);
+    }
+    for (int rank = 0; rank < vectorMatches.size(); rank++) {
+      TextSegment segment = vectorMatches.get(rank).embedded();
+      if (segment != null) {
+        fused.merge(segment, 1.0 / (rankConstant + rank + 1), Double::sum);
+      }
+    }
+    List<Map.Entry<TextSegment, Double>> ranked = new ArrayList<>(fused.entrySet());
+    ranked.sort(Map.Entry.<TextSegment, Double>comparingByValue().reversed());
+    return ranked.stream()
+        .limit(maxResults)
+        .map(entry -> Content.from(entry.getKey()))
+        .toList();
+  }
+
+  /**
+   * Number of queries answered by the lexical search alone.
+   */
+  public long fastPaths() {
+    return fastPaths.get();
+  }
+
+  /**
+   * Number of queries answered by the fusion of the two searches.
+   */
+  public long fusions() {
+    return fusions.get();
+  }
+
+  public static class Builder {
+    private Bm25Index index;
+    private EmbeddingStore<TextSegment> embeddingStore;
+    private EmbeddingModel embeddingModel;
+    private int maxResults = 5;
+    private int candidates = 20;
+    private int rankConstant = 60;
+    private double minVectorScore = 0;
+    private double fastPathCoverage = 0.9;
+
+    public Builder index(Bm25Index index) {
+      this.index = index;
+      return this;
+    }
+
+    public Builder embeddingStore(EmbeddingStore<TextSegment> embeddingStore) {
+      this.embeddingStore = embeddingStore;
+      return this;
+    }
+
+    public Builder embeddingModel(EmbeddingModel embeddingModel) {
+      this.embeddingModel = embeddingModel;
+      return this;
+    }
+
+    public Builder maxResults(int maxResults) {
+      this.maxResults = maxResults;
+      return this;
+    }
+
+    /**
+     * Number of results of each search before the fusion.
+     */
+    public Builder candidates(int candidates) {
+      this.candidates = candidates;
+      return this;
+    }
+
+    /**
+     * The k of the reciprocal rank fusion, 60 in the paper.
+     */
+    public Builder rankConstant(int rankConstant) {
+      this.rankConstant = rankConstant;
+      return this;
+    }
+
+    public Builder minVectorScore(double minVectorScore) {
+      this.minVectorScore = minVectorScore;
+      return this;
+    }
+
+    /**
+     * Coverage of the query by the best lexical hit above which the vector
+     * search is skipped (0.9 by default), more than 1 to always fuse.
+     */
+    public Builder fastPathCoverage(double fastPathCoverage) {
+      this.fastPathCoverage = fastPathCoverage;
+      return this;
+    }
+
+    public HybridContentRetriever build() {
+      return new HybridContentRetriever(this);
+    }
+  }
+}
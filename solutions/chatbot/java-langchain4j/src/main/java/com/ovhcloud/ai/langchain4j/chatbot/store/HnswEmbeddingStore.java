@@ -0,0 +1,600 @@
+package com.ovhcloud.ai.langchain4j.chatbot.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import static dev.langchain4j.internal.Utils.randomUUID;
+
+/**
+ * Approximate nearest neighbour embedding store based on a HNSW graph
+ * (Hierarchical Navigable Small World, see https://arxiv.org/abs/1603.09320).
+ * A search visits a few hundred vectors instead of all of them, at the cost of
+ * a recall slightly below 100%, see {@link RecallReport}.
+ * - the vectors are normalized and stored in pages of primitive float arrays,
+ * - m is the number of links per node (2 * m on the bottom layer),
+ * - efConstruction is the size of the candidate list when inserting,
+ * - efSearch is the size of the candidate list when searching.
+ * The removed nodes and the nodes rejected by the filter of a search still
+ * lead to their neighbours but don't take a place in the candidate list: the
+ * search goes on until efSearch nodes are accepted.
+ * Inserts are serialized, searches can run during an insert and only wait for
+ * a {@link #removeAll()}.
+ */
+public class HnswEmbeddingStore implements EmbeddingStore<TextSegment> {
+  private static final int PAGE_BITS = 10;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private final int m;
+  private final int maxLinksLevel0;
+  private final int efConstruction;
+  private volatile int efSearch;
+  private final double levelMultiplier;
+  private final SplittableRandom random;
+
+  private final ReentrantLock insertLock = new ReentrantLock();
+  // Held for writing by removeAll() only, which replaces the whole graph
+  private final ReentrantReadWriteLock clearLock = new ReentrantReadWriteLock();
+  private final Map<String, Integer> nodeById = new ConcurrentHashMap<>();
+  private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+  private volatile int dimension;
+  private volatile int size;
+  private volatile int entryPoint = -1;
+  private volatile float[][] vectorPages = new float[0][];
+  private volatile Node[][] nodePages = new Node[0][];
+
+  private static final class Node {
+    final String id;
+    final TextSegment segment;
+    final int level;
+    // Links per level, replaced as a whole to be read without lock
+    final AtomicReferenceArray<int[]> links;
+    // Similarity to each link, used by the inserts only (under the insert lock)
+    final float[][] linkScores;
+    volatile boolean deleted;
+
+    Node(String id, TextSegment segment, int level) {
+      this.id = id;
+      this.segment = segment;
+      this.level = level;
+      this.links = new AtomicReferenceArray<>(level + 1);
+      this.linkScores = new float[level + 1][];
+      for (int i = 0; i <= level; i++) {
+        links.set(i, new int[0]);
+        linkScores[i] = new float[0];
+      }
+    }
+  }
+
+  // Visited marks reused between searches of the same thread
+  private static final class Visited {
+    int[] marks = new int[0];
+    int epoch;
+
+    void reset(int size) {
+      if (marks.length < size) {
+        marks = new int[Math.max(size, marks.length * 2)];
+        epoch = 0;
+      }
+      epoch++;
+      if (epoch == Integer.MAX_VALUE) {
+        Arrays.fill(marks, 0);
+        epoch = 1;
+      }
+    }
+
+    boolean visit(int node) {
+      if (marks[node] == epoch) {
+        return false;
+      }
+      marks[node] = epoch;
+      return true;
+    }
+  }
+
+  private HnswEmbeddingStore(Builder builder) {
+    this.m = builder.m;
+    this.maxLinksLevel0 = 2 * builder.m;
+    this.efConstruction = builder.efConstruction;
+    this.efSearch = builder.efSearch;
+    this.levelMultiplier = 1 / Math.log(builder.m);
+    this.random = new SplittableRandom(builder.seed);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private int m = 16;
+    private int efConstruction = 100;
+    private int efSearch = 64;
+    private long seed = 42;
+
+    public Builder m(int m) {
+      if (m < 2) {
+        throw new IllegalArgumentException("m must be at least 2");
+      }
+      this.m = m;
+      return this;
+    }
+
+    public Builder efConstruction(int efConstruction) {
+      this.efConstruction = efConstruction;
+      return this;
+    }
+
+    public Builder efSearch(int efSearch) {
+      this.efSearch = efSearch;
+      return this;
+    }
+
+    public Builder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public HnswEmbeddingStore build() {
+      return new HnswEmbeddingStore(this);
+    }
+  }
+
+  /**
+   * Changes the size of the candidate list of the next searches: higher is
+   * slower with a better recall.
+   */
+  public void efSearch(int efSearch) {
+    this.efSearch = efSearch;
+  }
+
+  public int size() {
+    return nodeById.size();
+  }
+
+  @Override
+  public String add(Embedding embedding) {
+    String id = randomUUID();
+    add(id, embedding);
+    return id;
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    insert(id, embedding.vector(), null);
+  }
+
+  @Override
+  public String add(Embedding embedding, TextSegment textSegment) {
+    String id = randomUUID();
+    insert(id, embedding.vector(), textSegment);
+    return id;
+  }
+
+  /**
+   * Adds the vector with the given id, replacing the one with the same id if any.
+   */
+  public void add(String id, Embedding embedding, TextSegment textSegment) {
+    insert(id, embedding.vector(), textSegment);
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    List<String> ids = new ArrayList<>(embeddings.size());
+    for (Embedding embedding : embeddings) {
+      ids.add(add(embedding));
+    }
+    return ids;
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+    if (textSegments.size() != embeddings.size()) {
+      throw new IllegalArgumentException("The list of embeddings and the list of segments must have the same size");
+    }
+    List<String> ids = new ArrayList<>(embeddings.size());
+    for (int i = 0; i < embeddings.size(); i++) {
+      ids.add(add(embeddings.get(i), textSegments.get(i)));
+    }
+    return ids;
+  }
+
+  @Override
+  public void remove(String id) {
+    removeAll(List.of(id));
+  }
+
+  /**
+   * The removed nodes are only flagged: they are still used to navigate the
+   * graph but never returned.
+   */
+  @Override
+  public void removeAll(Collection<String> ids) {
+    for (String id : ids) {
+      Integer node = nodeById.remove(id);
+      if (node != null) {
+        node(node).deleted = true;
+      }
+    }
+  }
+
+  @Override
+  public void removeAll() {
+    insertLock.lock();
+    clearLock.writeLock().lock();
+    try {
+      nodeById.clear();
+      entryPoint = -1;
+      size = 0;
+      dimension = 0;
+      vectorPages = new float[0][];
+      nodePages = new Node[0][];
+    } finally {
+      clearLock.writeLock().unlock();
+      insertLock.unlock();
+    }
+  }
+
+  private void insert(String id, float[] vector, TextSegment segment) {
+    insertLock.lock();
+    try {
+      if (dimension == 0) {
+        dimension = vector.length;
+      } else if (vector.length != dimension) {
+        throw new IllegalArgumentException("Expected an embedding of dimension " + dimension + " but got " + vector.length);
+      }
+      Integer previous = nodeById.get(id);
+      if (previous != null) {
+        node(previous).deleted = true;
+      }
+
+      int node = size;
+      int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+      ensureCapacity(node);
+      storeVector(node, vector);
+      Node created = new Node(id, segment, level);
+      nodePages[node >>> PAGE_BITS][node & PAGE_MASK] = created;
+
+      int entry = entryPoint;
+      if (entry >= 0) {
+        int topLevel = node(entry).level;
+        float entryScore = similarity(node, entry);
+        // Greedy descent on the layers above the level of the new node
+        for (int layer = topLevel; layer > level; layer--) {
+          long best = greedyClosest(vectorOf(node), entry, entryScore, layer, node + 1);
+          entry = (int) (best >>> 32);
+          entryScore = Float.intBitsToFloat((int) best);
+        }
+        for (int layer = Math.min(level, topLevel); layer >= 0; layer--) {
+          NodeHeap candidates = searchLayer(vectorOf(node), entry, entryScore, efConstruction, layer, node + 1);
+          int maxLinks = layer == 0 ? maxLinksLevel0 : m;
+          float[] scores = new float[m];
+          int[] neighbours = selectNeighbours(node, candidates, m, scores);
+          created.linkScores[layer] = Arrays.copyOf(scores, neighbours.length);
+          created.links.set(layer, neighbours);
+          for (int i = 0; i < neighbours.length; i++) {
+            link(neighbours[i], node, scores[i], layer, maxLinks);
+          }
+          // The closest candidate is the entry of the next layer
+          entry = neighbours.length > 0 ? neighbours[0] : entry;
+          entryScore = similarity(node, entry);
+        }
+      }
+      nodeById.put(id, node);
+      size = node + 1;
+      if (entryPoint < 0 || level > node(entryPoint).level) {
+        entryPoint = node;
+      }
+    } finally {
+      insertLock.unlock();
+    }
+  }
+
+  // Adds a backward link, prunes the links of the neighbour if it has too many.
+  // The similarity being symmetric, the scores of the links are reused as is
+  private void link(int from, int to, float score, int layer, int maxLinks) {
+    Node node = node(from);
+    int[] current = node.links.get(layer);
+    float[] currentScores = node.linkScores[layer];
+    int[] updated = Arrays.copyOf(current, current.length + 1);
+    float[] updatedScores = Arrays.copyOf(currentScores, current.length + 1);
+    updated[current.length] = to;
+    updatedScores[current.length] = score;
+    if (updated.length > maxLinks) {
+      NodeHeap candidates = NodeHeap.minHeap(updated.length);
+      for (int i = 0; i < updated.length; i++) {
+        candidates.push(updated[i], updatedScores[i]);
+      }
+      updatedScores = new float[maxLinks];
+      updated = selectNeighbours(from, candidates, maxLinks, updatedScores);
+      updatedScores = Arrays.copyOf(updatedScores, updated.length);
+    }
+    node.linkScores[layer] = updatedScores;
+    node.links.set(layer, updated);
+  }
+
+  /**
+   * Neighbour selection heuristic of the HNSW paper: a candidate is kept if it
+   * is closer to the node than to the neighbours already kept, this keeps links
+   * in every direction. The list is completed with the closest pruned candidates.
+   * The scores of the selected neighbours are written in selectedScores.
+   */
+  private int[] selectNeighbours(int node, NodeHeap candidates, int max, float[] selectedScores) {
+    int count = candidates.size();
+    int[] sorted = new int[count];
+    float[] scores = new float[count];
+    for (int i = count - 1; i >= 0; i--) {
+      scores[i] = candidates.topScore();
+      sorted[i] = candidates.pop();
+    }
+    int[] selected = new int[Math.min(max, count)];
+    int selectedCount = 0;
+    boolean[] kept = new boolean[count];
+    for (int i = 0; i < count && selectedCount < selected.length; i++) {
+      if (sorted[i] == node) {
+        kept[i] = true;
+        continue;
+      }
+      boolean good = true;
+      for (int j = 0; j < selectedCount; j++) {
+        if (similarity(sorted[i], selected[j]) > scores[i]) {
+          good = false;
+          break;
+        }
+      }
+      if (good) {
+        selectedScores[selectedCount] = scores[i];
+        selected[selectedCount++] = sorted[i];
+        kept[i] = true;
+      }
+    }
+    for (int i = 0; i < count && selectedCount < selected.length; i++) {
+      if (!kept[i]) {
+        selectedScores[selectedCount] = scores[i];
+        selected[selectedCount++] = sorted[i];
+      }
+    }
+    return selectedCount == selected.length ? selected : Arrays.copyOf(selected, selectedCount);
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    clearLock.readLock().lock();
+    try {
+      int entry = entryPoint;
+      if (entry < 0) {
+        return new EmbeddingSearchResult<>(List.of());
+      }
+      float[] query = normalize(request.queryEmbedding().vector());
+      if (query.length != dimension) {
+        throw new IllegalArgumentException("Expected an embedding of dimension " + dimension + " but got " + query.length);
+      }
+      // Nodes inserted after this point are ignored, the entry point is read first
+      int limit = size;
+      float entryScore = dot(query, entry);
+      for (int layer = node(entry).level; layer > 0; layer--) {
+        long best = greedyClosest(query, entry, entryScore, layer, limit);
+        entry = (int) (best >>> 32);
+        entryScore = Float.intBitsToFloat((int) best);
+      }
+      int ef = Math.max(efSearch, request.maxResults());
+      Filter filter = request.filter();
+      IntPredicate accepted = node -> {
+        Node candidate = node(node);
+        return !candidate.deleted
+            && (filter == null || candidate.segment != null && filter.test(candidate.segment.metadata()));
+      };
+      NodeHeap results = searchLayer(query, entry, entryScore, ef, 0, limit, accepted);
+      return toResult(results, request);
+    } finally {
+      clearLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Exact search over all the vectors, used as the reference to measure the
+   * recall of the graph.
+   */
+  public EmbeddingSearchResult<TextSegment> exactSearch(EmbeddingSearchRequest request) {
+    clearLock.readLock().lock();
+    try {
+      float[] query = normalize(request.queryEmbedding().vector());
+      NodeHeap results = NodeHeap.minHeap(request.maxResults() + 1);
+      int limit = size;
+      for (int node = 0; node < limit; node++) {
+        if (node(node).deleted) {
+          continue;
+        }
+        results.push(node, dot(query, node));
+        if (results.size() > request.maxResults()) {
+          results.pop();
+        }
+      }
+      return toResult(results, request);
+    } finally {
+      clearLock.readLock().unlock();
+    }
+  }
+
+  private EmbeddingSearchResult<TextSegment> toResult(NodeHeap results, EmbeddingSearchRequest request) {
+    Filter filter = request.filter();
+    List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(results.size());
+    while (!results.isEmpty()) {
+      float cosine = Math.min(1, results.topScore());
+      int index = results.pop();
+      Node node = node(index);
+      double score = RelevanceScore.fromCosineSimilarity(cosine);
+      if (node.deleted || score < request.minScore()) {
+        continue;
+      }
+      if (filter != null && (node.segment == null || !filter.test(node.segment.metadata()))) {
+        continue;
+      }
+      matches.add(new EmbeddingMatch<>(score, node.id, Embedding.from(vectorOf(index)), node.segment));
+    }
+    // The heap gives the worst match first
+    List<EmbeddingMatch<TextSegment>> ordered = new ArrayList<>(matches.size());
+    for (int i = matches.size() - 1; i >= 0 && ordered.size() < request.maxResults(); i--) {
+      ordered.add(matches.get(i));
+    }
+    return new EmbeddingSearchResult<>(ordered);
+  }
+
+  // Returns the closest node of the layer packed with its score
+  private long greedyClosest(float[] query, int entry, float entryScore, int layer, int limit) {
+    int best = entry;
+    float bestScore = entryScore;
+    boolean improved = true;
+    while (improved) {
+      improved = false;
+      for (int neighbour : node(best).links.get(layer)) {
+        if (neighbour >= limit) {
+          continue;
+        }
+        float score = dot(query, neighbour);
+        if (score > bestScore) {
+          best = neighbour;
+          bestScore = score;
+          improved = true;
+        }
+      }
+    }
+    return ((long) best << 32) | (Float.floatToRawIntBits(bestScore) & 0xffffffffL);
+  }
+
+  // Returns the ef closest nodes found, the worst one on top
+  private NodeHeap searchLayer(float[] query, int entry, float entryScore, int ef, int layer, int limit) {
+    return searchLayer(query, entry, entryScore, ef, layer, limit, null);
+  }
+
+  // Returns the ef closest accepted nodes found, the worst one on top. The
+  // rejected nodes are explored but not kept: the search goes further until ef
+  // nodes are accepted, or the whole graph is explored
+  private NodeHeap searchLayer(float[] query, int entry, float entryScore, int ef, int layer, int limit,
+      IntPredicate accepted) {
+    Visited marks = visited.get();
+    marks.reset(limit);
+    NodeHeap candidates = NodeHeap.maxHeap(ef);
+    NodeHeap results = NodeHeap.minHeap(ef + 1);
+    marks.visit(entry);
+    candidates.push(entry, entryScore);
+    if (accepted == null || accepted.test(entry)) {
+      results.push(entry, entryScore);
+    }
+    while (!candidates.isEmpty()) {
+      float candidateScore = candidates.topScore();
+      if (results.size() >= ef && candidateScore < results.topScore()) {
+        break;
+      }
+      int candidate = candidates.pop();
+      Node node = node(candidate);
+      if (layer > node.level) {
+        continue;
+      }
+      for (int neighbour : node.links.get(layer)) {
+        if (neighbour >= limit || !marks.visit(neighbour)) {
+          continue;
+        }
+        float score = dot(query, neighbour);
+        if (results.size() < ef || score > results.topScore()) {
+          candidates.push(neighbour, score);
+          if (accepted == null || accepted.test(neighbour)) {
+            results.push(neighbour, score);
+            if (results.size() > ef) {
+              results.pop();
+            }
+          }
+        }
+      }
+    }
+    return results;
+  }
+
+  private void ensureCapacity(int node) {
+    int page = node >>> PAGE_BITS;
+    if (page >= vectorPages.length) {
+      float[][] vectors = Arrays.copyOf(vectorPages, page + 1);
+      vectors[page] = new float[PAGE_SIZE * dimension];
+      Node[][] nodes = Arrays.copyOf(nodePages, page + 1);
+      nodes[page] = new Node[PAGE_SIZE];
+      nodePages = nodes;
+      vectorPages = vectors;
+    }
+  }
+
+  private void storeVector(int node, float[] vector) {
+    float[] normalized = normalize(vector);
+    System.arraycopy(normalized, 0, vectorPages[node >>> PAGE_BITS], (node & PAGE_MASK) * dimension, dimension);
+  }
+
+  private float[] vectorOf(int node) {
+    int offset = (node & PAGE_MASK) * dimension;
+    return Arrays.copyOfRange(vectorPages[node >>> PAGE_BITS], offset, offset + dimension);
+  }
+
+  private Node node(int node) {
+    return nodePages[node >>> PAGE_BITS][node & PAGE_MASK];
+  }
+
+  private float similarity(int a, int b) {
+    return dot(vectorPages[a >>> PAGE_BITS], (a & PAGE_MASK) * dimension, vectorPages[b >>> PAGE_BITS],
+        (b & PAGE_MASK) * dimension, dimension);
+  }
+
+  private float dot(float[] query, int node) {
+    return dot(query, 0, vectorPages[node >>> PAGE_BITS], (node & PAGE_MASK) * dimension, query.length);
+  }
+
+  // Four independent sums: the JIT doesn't reorder a float sum by itself, one
+  // sum waits for the previous addition at each step
+  private static float dot(float[] a, int offsetA, float[] b, int offsetB, int length) {
+    float sum0 = 0;
+    float sum1 = 0;
+    float sum2 = 0;
+    float sum3 = 0;
+    int i = 0;
+    for (int bound = length - 3; i < bound; i += 4) {
+      sum0 += a[offsetA + i] * b[offsetB + i];
+      sum1 += a[offsetA + i + 1] * b[offsetB + i + 1];
+      sum2 += a[offsetA + i + 2] * b[offsetB + i + 2];
+      sum3 += a[offsetA + i + 3] * b[offsetB + i + 3];
+    }
+    for (; i < length; i++) {
+      sum0 += a[offsetA + i] * b[offsetB + i];
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  static float[] normalize(float[] vector) {
+    double norm = 0;
+    for (float v : vector) {
+      norm += v * v;
+    }
+    norm = Math.sqrt(norm);
+    float[] normalized = new float[vector.length];
+    if (norm > 0) {
+      for (int i = 0; i < vector.length; i++) {
+        normalized[i] = (float) (vector[i] / norm);
+      }
+    }
+    return normalized;
+  }
+}
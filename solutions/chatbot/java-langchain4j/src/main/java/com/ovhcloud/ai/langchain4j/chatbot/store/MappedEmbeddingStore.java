@@ -0,0 +1,795 @@
+package com.ovhcloud.ai.langchain4j.chatbot.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import static dev.langchain4j.internal.Utils.randomUUID;
+
+/**
+ * Persistent embedding store backed by two memory-mapped files:
+ * - vectors.bin: the vectors as contiguous float arrays, each one prefixed by its norm,
+ * - segments.bin: the segments (id, content hash, text and metadata).
+ * Reopening the store only scans the record headers of segments.bin, the vectors
+ * are read straight from the mapping at search time.
+ * The content hash of each segment lets the ingestion skip the segments that
+ * have already been embedded, see {@link #missing(List)}, and remove the ones
+ * its files don't produce anymore, see {@link #retainAll(Predicate, Set)}.
+ * A removal appends a tombstone record, committed with the rest of its batch
+ * by the end of the records in the header of segments.bin. Once most of the
+ * vectors are removed, the files are rewritten without them, see {@link #compact()}.
+ */
+public class MappedEmbeddingStore implements EmbeddingStore<TextSegment>, Closeable {
+  private static final int VECTORS_MAGIC = 0x4c34_4a56;
+  private static final int SEGMENTS_MAGIC = 0x4c34_4a53;
+  private static final int VERSION = 1;
+  // magic, version, dimension, count
+  private static final int VECTORS_HEADER = 16;
+  // magic, version, end of the last record
+  private static final int SEGMENTS_HEADER = 16;
+  private static final long INITIAL_SIZE = 1 << 20;
+  private static final String VECTORS_FILE = "vectors.bin";
+  private static final String SEGMENTS_FILE = "segments.bin";
+  // Suffix of the files written by a compaction, and marker of a complete one
+  private static final String COMPACTED_SUFFIX = ".compacted";
+  private static final String COMPACTED_MARKER = "compacted";
+  private static final int COMPACTION_MIN_DELETED = 1024;
+
+  // Kinds of record: the first version flagged the deleted records in place
+  private static final byte LIVE = 0;
+  private static final byte DELETED = 1;
+  private static final byte TOMBSTONE = 2;
+
+  private static final byte STRING = 0;
+  private static final byte UUID_TYPE = 1;
+  private static final byte INTEGER = 2;
+  private static final byte LONG = 3;
+  private static final byte FLOAT = 4;
+  private static final byte DOUBLE = 5;
+
+  private final Path directory;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private FileChannel vectorsChannel;
+  private FileChannel segmentsChannel;
+  private MappedByteBuffer vectors;
+  private MappedByteBuffer segments;
+  private int dimension;
+  private int count;
+  private long segmentsEnd;
+  // Position of the record of each vector in segments.bin
+  private long[] recordOffsets = new long[1024];
+  private final BitSet deleted = new BitSet();
+  private final Map<String, Integer> indexById = new HashMap<>();
+  // Number of live segments per content hash
+  private final Map<Long, Integer> contentHashes = new HashMap<>();
+
+  private MappedEmbeddingStore(Path directory) throws IOException {
+    this.directory = directory;
+    recoverCompaction(directory);
+    map();
+  }
+
+  // Maps the files, creates them if needed, and loads their records
+  private void map() throws IOException {
+    this.vectorsChannel = FileChannel.open(directory.resolve(VECTORS_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.segmentsChannel = FileChannel.open(directory.resolve(SEGMENTS_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.vectors = vectorsChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_SIZE, vectorsChannel.size()));
+    this.segments = segmentsChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_SIZE, segmentsChannel.size()));
+    if (vectors.getInt(0) == 0) {
+      vectors.putInt(0, VECTORS_MAGIC).putInt(4, VERSION).putInt(8, 0).putInt(12, 0);
+      segments.putInt(0, SEGMENTS_MAGIC).putInt(4, VERSION).putLong(8, SEGMENTS_HEADER);
+    }
+    if (vectors.getInt(0) != VECTORS_MAGIC || segments.getInt(0) != SEGMENTS_MAGIC) {
+      throw new IllegalStateException("Not an embedding store");
+    }
+    if (vectors.getInt(4) != VERSION || segments.getInt(4) != VERSION) {
+      throw new IllegalStateException("Unsupported embedding store version");
+    }
+    this.dimension = vectors.getInt(8);
+    this.segmentsEnd = segments.getLong(8);
+    loadRecordHeaders();
+  }
+
+  /**
+   * Opens the store saved in the directory, creates it if needed.
+   */
+  public static MappedEmbeddingStore open(Path directory) {
+    try {
+      Files.createDirectories(directory);
+      return new MappedEmbeddingStore(directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Only the record headers are read: kind, content hash, vector index and id.
+  // The records written after the committed end are an incomplete batch, the
+  // vectors count is the one of the committed records.
+  private void loadRecordHeaders() {
+    count = 0;
+    deleted.clear();
+    indexById.clear();
+    contentHashes.clear();
+    long position = SEGMENTS_HEADER;
+    while (position < segmentsEnd) {
+      byte kind = segments.get((int) position);
+      int length = segments.getInt((int) position + 1);
+      long hash = segments.getLong((int) position + 5);
+      int index = segments.getInt((int) position + 13);
+      String id = readString(segments, (int) position + 17);
+      if (kind == TOMBSTONE) {
+        // Removes the vector of an earlier record
+        if (!deleted.get(index)) {
+          deleted.set(index);
+          indexById.remove(id, index);
+          forgetContentHash(segments.getLong((int) recordOffsets[index] + 5));
+        }
+      } else {
+        ensureOffsetsCapacity(index);
+        recordOffsets[index] = position;
+        count = Math.max(count, index + 1);
+        if (kind == DELETED) {
+          deleted.set(index);
+        } else {
+          indexById.put(id, index);
+          contentHashes.merge(hash, 1, Integer::sum);
+        }
+      }
+      position += 5 + length;
+    }
+  }
+
+  // A compaction is complete once its marker is written: its files replace
+  // the current ones, otherwise they are dropped
+  private static void recoverCompaction(Path directory) throws IOException {
+    Path marker = directory.resolve(COMPACTED_MARKER);
+    boolean complete = Files.exists(marker);
+    for (String file : List.of(VECTORS_FILE, SEGMENTS_FILE)) {
+      Path compacted = directory.resolve(file + COMPACTED_SUFFIX);
+      if (complete && Files.exists(compacted)) {
+        Files.move(compacted, directory.resolve(file), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } else {
+        Files.deleteIfExists(compacted);
+      }
+    }
+    Files.deleteIfExists(marker);
+  }
+
+  @Override
+  public String add(Embedding embedding) {
+    String id = randomUUID();
+    add(id, embedding);
+    return id;
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    addAll(List.of(id), List.of(embedding), null);
+  }
+
+  @Override
+  public String add(Embedding embedding, TextSegment textSegment) {
+    String id = randomUUID();
+    addAll(List.of(id), List.of(embedding), List.of(textSegment));
+    return id;
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    List<String> ids = embeddings.stream().map(embedding -> randomUUID()).toList();
+    addAll(ids, embeddings, null);
+    return ids;
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+    List<String> ids = embeddings.stream().map(embedding -> randomUUID()).toList();
+    addAll(ids, embeddings, textSegments);
+    return ids;
+  }
+
+  private void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> textSegments) {
+    if (textSegments != null && textSegments.size() != embeddings.size()) {
+      throw new IllegalArgumentException("The list of embeddings and the list of segments must have the same size");
+    }
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < embeddings.size(); i++) {
+        TextSegment segment = textSegments == null ? null : textSegments.get(i);
+        append(ids.get(i), embeddings.get(i).vector(), segment);
+      }
+      commit();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void append(String id, float[] vector, TextSegment segment) throws IOException {
+    if (dimension == 0) {
+      dimension = vector.length;
+      vectors.putInt(8, dimension);
+    } else if (vector.length != dimension) {
+      throw new IllegalArgumentException("Expected an embedding of dimension " + dimension + " but got " + vector.length);
+    }
+    Integer previous = indexById.remove(id);
+    if (previous != null) {
+      markDeleted(previous);
+    }
+
+    int index = count;
+    long vectorOffset = vectorOffset(index);
+    ensureVectorsCapacity(vectorOffset + 4L * (dimension + 1));
+    double norm = 0;
+    for (float v : vector) {
+      norm += v * v;
+    }
+    vectors.putFloat((int) vectorOffset, (float) Math.sqrt(norm));
+    for (int i = 0; i < dimension; i++) {
+      vectors.putFloat((int) vectorOffset + 4 * (i + 1), vector[i]);
+    }
+
+    byte[] record = encodeRecord(id, index, segment);
+    ensureSegmentsCapacity(segmentsEnd + record.length);
+    segments.put((int) segmentsEnd, record);
+    ensureOffsetsCapacity(index);
+    recordOffsets[index] = segmentsEnd;
+    segmentsEnd += record.length;
+
+    indexById.put(id, index);
+    if (segment != null) {
+      contentHashes.merge(contentHash(segment), 1, Integer::sum);
+    }
+    count++;
+  }
+
+  /**
+   * Adds the new vectors and removes the old ones at once: a search sees
+   * either all of the old vectors or all of the new ones.
+   */
+  public void replace(Collection<String> removedIds, List<String> ids, List<Embedding> embeddings,
+      List<TextSegment> textSegments) {
+    if (ids.size() != embeddings.size() || textSegments.size() != embeddings.size()) {
+      throw new IllegalArgumentException("The list of ids, embeddings and segments must have the same size");
+    }
+    lock.writeLock().lock();
+    try {
+      for (int i = 0; i < embeddings.size(); i++) {
+        append(ids.get(i), embeddings.get(i).vector(), textSegments.get(i));
+      }
+      for (String id : removedIds) {
+        Integer index = indexById.remove(id);
+        if (index != null) {
+          markDeleted(index);
+        }
+      }
+      commit();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void remove(String id) {
+    removeAll(List.of(id));
+  }
+
+  @Override
+  public void removeAll(Collection<String> ids) {
+    lock.writeLock().lock();
+    try {
+      for (String id : ids) {
+        Integer index = indexById.remove(id);
+        if (index != null) {
+          markDeleted(index);
+        }
+      }
+      commit();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void removeAll() {
+    lock.writeLock().lock();
+    try {
+      count = 0;
+      segmentsEnd = SEGMENTS_HEADER;
+      segments.putLong(8, SEGMENTS_HEADER);
+      vectors.putInt(12, 0);
+      indexById.clear();
+      contentHashes.clear();
+      deleted.clear();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  // Appends the tombstone of the vector, the removal is committed with its batch
+  private void markDeleted(int index) throws IOException {
+    deleted.set(index);
+    forgetContentHash(segments.getLong((int) recordOffsets[index] + 5));
+    byte[] tombstone = encodeRecord(readId(index), index, null);
+    tombstone[0] = TOMBSTONE;
+    ensureSegmentsCapacity(segmentsEnd + tombstone.length);
+    segments.put((int) segmentsEnd, tombstone);
+    segmentsEnd += tombstone.length;
+  }
+
+  private void forgetContentHash(long hash) {
+    contentHashes.computeIfPresent(hash, (key, live) -> live == 1 ? null : live - 1);
+  }
+
+  // The end of the records is the commit point of a batch, its additions and
+  // its removals. The vectors count only follows it.
+  private void commit() throws IOException {
+    segments.putLong(8, segmentsEnd);
+    vectors.putInt(12, count);
+    int removed = deleted.cardinality();
+    if (removed >= COMPACTION_MIN_DELETED && removed * 2 > count) {
+      compactFiles();
+    }
+  }
+
+  /**
+   * Rewrites the files without the removed vectors and their records. Called
+   * after a batch once most of the vectors are removed, by the upserts of an
+   * incremental ingestion for instance.
+   * The compacted files are written next to the current ones, a marker then
+   * makes them replace the current ones: a crash in between is recovered at
+   * the next opening, with the old files or the compacted ones.
+   */
+  public void compact() {
+    lock.writeLock().lock();
+    try {
+      compactFiles();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void compactFiles() throws IOException {
+    if (deleted.isEmpty()) {
+      return;
+    }
+    int vectorSize = 4 * (dimension + 1);
+    int live = count - deleted.cardinality();
+    long recordsSize = 0;
+    for (int index = 0; index < count; index++) {
+      if (!deleted.get(index)) {
+        recordsSize += 5 + segments.getInt((int) recordOffsets[index] + 1);
+      }
+    }
+    Path compactedVectors = directory.resolve(VECTORS_FILE + COMPACTED_SUFFIX);
+    Path compactedSegments = directory.resolve(SEGMENTS_FILE + COMPACTED_SUFFIX);
+    try (FileChannel vectorsOut = FileChannel.open(compactedVectors, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel segmentsOut = FileChannel.open(compactedSegments, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      MappedByteBuffer newVectors = vectorsOut.map(FileChannel.MapMode.READ_WRITE, 0,
+          Math.max(INITIAL_SIZE, VECTORS_HEADER + (long) vectorSize * live));
+      MappedByteBuffer newSegments = segmentsOut.map(FileChannel.MapMode.READ_WRITE, 0,
+          Math.max(INITIAL_SIZE, SEGMENTS_HEADER + recordsSize));
+      int newIndex = 0;
+      int position = SEGMENTS_HEADER;
+      for (int index = 0; index < count; index++) {
+        if (deleted.get(index)) {
+          continue;
+        }
+        newVectors.put(VECTORS_HEADER + vectorSize * newIndex, vectors, (int) vectorOffset(index), vectorSize);
+        int offset = (int) recordOffsets[index];
+        int length = 5 + segments.getInt(offset + 1);
+        newSegments.put(position, segments, offset, length);
+        newSegments.putInt(position + 13, newIndex);
+        position += length;
+        newIndex++;
+      }
+      newVectors.putInt(0, VECTORS_MAGIC).putInt(4, VERSION).putInt(8, dimension).putInt(12, live);
+      newSegments.putInt(0, SEGMENTS_MAGIC).putInt(4, VERSION).putLong(8, position);
+      newVectors.force();
+      newSegments.force();
+    }
+
+    vectorsChannel.close();
+    segmentsChannel.close();
+    Files.write(directory.resolve(COMPACTED_MARKER), new byte[0]);
+    recoverCompaction(directory);
+    map();
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    float[] query = request.queryEmbedding().vector();
+    Filter filter = request.filter();
+    lock.readLock().lock();
+    try {
+      if (count == 0) {
+        return new EmbeddingSearchResult<>(List.of());
+      }
+      if (query.length != dimension) {
+        throw new IllegalArgumentException("Expected an embedding of dimension " + dimension + " but got " + query.length);
+      }
+      double queryNorm = 0;
+      for (float v : query) {
+        queryNorm += v * v;
+      }
+      queryNorm = Math.sqrt(queryNorm);
+
+      // Min-heap of the best candidates (index, score)
+      PriorityQueue<double[]> best = new PriorityQueue<>(Comparator.comparingDouble(candidate -> candidate[1]));
+      for (int index = 0; index < count; index++) {
+        if (deleted.get(index)) {
+          continue;
+        }
+        int offset = (int) vectorOffset(index);
+        float norm = vectors.getFloat(offset);
+        double dot = 0;
+        for (int i = 0; i < dimension; i++) {
+          dot += query[i] * vectors.getFloat(offset + 4 * (i + 1));
+        }
+        double cosine = norm == 0 || queryNorm == 0 ? 0 : Math.min(1, Math.max(-1, dot / (norm * queryNorm)));
+        double score = RelevanceScore.fromCosineSimilarity(cosine);
+        if (score < request.minScore()) {
+          continue;
+        }
+        if (filter != null) {
+          TextSegment segment = readSegment(index);
+          if (segment == null || !filter.test(segment.metadata())) {
+            continue;
+          }
+        }
+        best.add(new double[] { index, score });
+        if (best.size() > request.maxResults()) {
+          best.poll();
+        }
+      }
+
+      List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(best.size());
+      while (!best.isEmpty()) {
+        double[] candidate = best.poll();
+        int index = (int) candidate[0];
+        matches.add(0, new EmbeddingMatch<>(candidate[1], readId(index), readEmbedding(index), readSegment(index)));
+      }
+      return new EmbeddingSearchResult<>(matches);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the segments whose content is not in the store yet.
+   */
+  public List<TextSegment> missing(List<TextSegment> candidates) {
+    lock.readLock().lock();
+    try {
+      return candidates.stream().filter(segment -> !contentHashes.containsKey(contentHash(segment))).toList();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Removes the segments in the scope whose content hash is not in the given
+   * ones: after an ingestion, the segments of the edited or deleted files.
+   * Returns the number of removed segments.
+   */
+  public int retainAll(Predicate<Metadata> scope, Set<Long> contentHashes) {
+    lock.writeLock().lock();
+    try {
+      List<String> removed = new ArrayList<>();
+      for (Map.Entry<String, Integer> entry : indexById.entrySet()) {
+        int index = entry.getValue();
+        TextSegment segment = readSegment(index);
+        // The hash of the record, a segment hashed differently by an older version is stale too
+        if (segment != null && scope.test(segment.metadata())
+            && !contentHashes.contains(segments.getLong((int) recordOffsets[index] + 5))) {
+          removed.add(entry.getKey());
+        }
+      }
+      for (String id : removed) {
+        markDeleted(indexById.remove(id));
+      }
+      commit();
+      return removed.size();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public boolean contains(TextSegment segment) {
+    lock.readLock().lock();
+    try {
+      return contentHashes.containsKey(contentHash(segment));
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The ids of the vectors in the store.
+   */
+  public Set<String> ids() {
+    lock.readLock().lock();
+    try {
+      return Set.copyOf(indexById.keySet());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Receives the id, the vector and the segment of each vector of the store.
+   */
+  @FunctionalInterface
+  public interface EntryConsumer {
+    void accept(String id, Embedding embedding, TextSegment segment);
+  }
+
+  /**
+   * Gives each vector of the store to the consumer, to load it in an
+   * in-memory index for instance.
+   */
+  public void forEach(EntryConsumer consumer) {
+    lock.readLock().lock();
+    try {
+      for (int index = 0; index < count; index++) {
+        if (!deleted.get(index)) {
+          consumer.accept(readId(index), readEmbedding(index), readSegment(index));
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return indexById.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Forces the pending writes to the disk.
+   */
+  public void flush() {
+    lock.writeLock().lock();
+    try {
+      vectors.force();
+      segments.force();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    flush();
+    try {
+      vectorsChannel.close();
+      segmentsChannel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Hash of the text of a segment and of its file, the first 8 bytes of its SHA-256.
+   * The other metadata are left out: the index given by the splitter changes
+   * when a segment only moves in its file.
+   */
+  public static long contentHash(TextSegment segment) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(segment.text().getBytes(StandardCharsets.UTF_8));
+      String fileName = segment.metadata().getString(Document.FILE_NAME);
+      if (fileName != null) {
+        String directory = segment.metadata().getString(Document.ABSOLUTE_DIRECTORY_PATH);
+        digest.update(("\n" + directory + '/' + fileName).getBytes(StandardCharsets.UTF_8));
+      }
+      return ByteBuffer.wrap(digest.digest()).getLong();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private long vectorOffset(int index) {
+    return VECTORS_HEADER + 4L * (dimension + 1) * index;
+  }
+
+  private String readId(int index) {
+    return readString(segments, (int) recordOffsets[index] + 17);
+  }
+
+  private Embedding readEmbedding(int index) {
+    int offset = (int) vectorOffset(index);
+    float[] vector = new float[dimension];
+    for (int i = 0; i < dimension; i++) {
+      vector[i] = vectors.getFloat(offset + 4 * (i + 1));
+    }
+    return Embedding.from(vector);
+  }
+
+  private TextSegment readSegment(int index) {
+    ByteBuffer record = segments.duplicate();
+    record.position((int) recordOffsets[index] + 17);
+    skipString(record);
+    boolean hasSegment = record.get() != 0;
+    if (!hasSegment) {
+      return null;
+    }
+    String text = readString(record);
+    int entries = record.getInt();
+    Metadata metadata = new Metadata();
+    for (int i = 0; i < entries; i++) {
+      String key = readString(record);
+      byte type = record.get();
+      switch (type) {
+        case UUID_TYPE -> metadata.put(key, new UUID(record.getLong(), record.getLong()));
+        case INTEGER -> metadata.put(key, record.getInt());
+        case LONG -> metadata.put(key, record.getLong());
+        case FLOAT -> metadata.put(key, record.getFloat());
+        case DOUBLE -> metadata.put(key, record.getDouble());
+        default -> metadata.put(key, readString(record));
+      }
+    }
+    return TextSegment.from(text, metadata);
+  }
+
+  // kind, length, hash, vector index, id, has segment, text, metadata
+  private static byte[] encodeRecord(String id, int index, TextSegment segment) {
+    byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+    List<byte[]> fields = new ArrayList<>();
+    int length = 8 + 4 + 4 + idBytes.length + 1;
+    if (segment != null) {
+      byte[] text = segment.text().getBytes(StandardCharsets.UTF_8);
+      fields.add(text);
+      length += 4 + text.length + 4;
+      for (Map.Entry<String, Object> entry : segment.metadata().toMap().entrySet()) {
+        byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        fields.add(key);
+        length += 4 + key.length + 1 + valueLength(entry.getValue());
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + length);
+    buffer.put(LIVE).putInt(length);
+    buffer.putLong(segment == null ? 0 : contentHash(segment)).putInt(index);
+    buffer.putInt(idBytes.length).put(idBytes);
+    buffer.put((byte) (segment == null ? 0 : 1));
+    if (segment != null) {
+      byte[] text = fields.get(0);
+      buffer.putInt(text.length).put(text);
+      Map<String, Object> metadata = segment.metadata().toMap();
+      buffer.putInt(metadata.size());
+      int field = 1;
+      for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+        byte[] key = fields.get(field++);
+        buffer.putInt(key.length).put(key);
+        Object value = entry.getValue();
+        if (value instanceof UUID uuid) {
+          buffer.put(UUID_TYPE).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        } else if (value instanceof Integer integer) {
+          buffer.put(INTEGER).putInt(integer);
+        } else if (value instanceof Long longValue) {
+          buffer.put(LONG).putLong(longValue);
+        } else if (value instanceof Float floatValue) {
+          buffer.put(FLOAT).putFloat(floatValue);
+        } else if (value instanceof Double doubleValue) {
+          buffer.put(DOUBLE).putDouble(doubleValue);
+        } else {
+          byte[] string = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+          buffer.put(STRING).putInt(string.length).put(string);
+        }
+      }
+    }
+    return buffer.array();
+  }
+
+  private static int valueLength(Object value) {
+    if (value instanceof UUID) {
+      return 16;
+    } else if (value instanceof Integer || value instanceof Float) {
+      return 4;
+    } else if (value instanceof Long || value instanceof Double) {
+      return 8;
+    }
+    return 4 + String.valueOf(value).getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  private static String readString(ByteBuffer buffer, int position) {
+    ByteBuffer view = buffer.duplicate();
+    view.position(position);
+    return readString(view);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void skipString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    buffer.position(buffer.position() + length);
+  }
+
+  private void ensureOffsetsCapacity(int index) {
+    if (index >= recordOffsets.length) {
+      recordOffsets = Arrays.copyOf(recordOffsets, Math.max(index + 1, recordOffsets.length * 2));
+    }
+  }
+
+  private void ensureVectorsCapacity(long size) throws IOException {
+    if (size > vectors.capacity()) {
+      vectors = vectorsChannel.map(FileChannel.MapMode.READ_WRITE, 0, grow(vectors.capacity(), size));
+    }
+  }
+
+  private void ensureSegmentsCapacity(long size) throws IOException {
+    if (size > segments.capacity()) {
+      segments = segmentsChannel.map(FileChannel.MapMode.READ_WRITE, 0, grow(segments.capacity(), size));
+    }
+  }
+
+  private static long grow(long capacity, long size) {
+    long grown = capacity;
+    while (grown < size) {
+      grown *= 2;
+    }
+    if (grown > Integer.MAX_VALUE) {
+      throw new IllegalStateException("The embedding store can't grow over 2 GB per file");
+    }
+    return grown;
+  }
+}
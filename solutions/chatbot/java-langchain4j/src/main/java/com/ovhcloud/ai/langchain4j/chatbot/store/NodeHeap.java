@@ -0,0 +1,99 @@
+package com.ovhcloud.ai.langchain4j.chatbot.store;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of (node, score) pairs stored in primitive arrays.
+ * The heap is a min-heap on the score, or a max-heap when reversed.
+ */
+final class NodeHeap {
+  private final boolean maxOnTop;
+  private int[] nodes;
+  private float[] scores;
+  private int size;
+
+  NodeHeap(int capacity, boolean maxOnTop) {
+    this.maxOnTop = maxOnTop;
+    this.nodes = new int[Math.max(capacity, 4)];
+    this.scores = new float[nodes.length];
+  }
+
+  static NodeHeap minHeap(int capacity) {
+    return new NodeHeap(capacity, false);
+  }
+
+  static NodeHeap maxHeap(int capacity) {
+    return new NodeHeap(capacity, true);
+  }
+
+  void push(int node, float score) {
+    if (size == nodes.length) {
+      nodes = Arrays.copyOf(nodes, size * 2);
+      scores = Arrays.copyOf(scores, size * 2);
+    }
+    int i = size++;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!above(score, scores[parent])) {
+        break;
+      }
+      nodes[i] = nodes[parent];
+      scores[i] = scores[parent];
+      i = parent;
+    }
+    nodes[i] = node;
+    scores[i] = score;
+  }
+
+  int topNode() {
+    return nodes[0];
+  }
+
+  float topScore() {
+    return scores[0];
+  }
+
+  int pop() {
+    int top = nodes[0];
+    size--;
+    if (size > 0) {
+      int node = nodes[size];
+      float score = scores[size];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && above(scores[child + 1], scores[child])) {
+          child++;
+        }
+        if (!above(scores[child], score)) {
+          break;
+        }
+        nodes[i] = nodes[child];
+        scores[i] = scores[child];
+        i = child;
+      }
+      nodes[i] = node;
+      scores[i] = score;
+    }
+    return top;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  private boolean above(float a, float b) {
+    return maxOnTop ? a > b : a < b;
+  }
+}
@@ -0,0 +1,550 @@
+package com.ovhcloud.ai.langchain4j.chatbot.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import static dev.langchain4j.internal.Utils.randomUUID;
+
+/**
+ * In memory embedding store keeping only compact codes of the vectors on the
+ * heap, to hold a much bigger corpus than the InMemoryEmbeddingStore of
+ * langchain4j (4 bytes per dimension plus the Embedding objects).
+ * - INT8: each dimension is quantized on a signed byte with a scale per vector,
+ * the candidates are scored with an integer dot product (4x less memory),
+ * - BINARY: only the sign of each dimension is kept, the candidates are scored
+ * with the Hamming distance of the bits (32x less memory).
+ * A search scans the codes, then rescores the best maxResults * rescoreFactor
+ * candidates with the full precision vectors, kept outside of the heap in a
+ * memory-mapped file. The recall loss is measured by {@link RecallReport}.
+ * The store is not persistent: the file is only a buffer of the vectors, a
+ * new one is created for each store.
+ * The removed vectors are flagged, and the store is compacted when they are a
+ * quarter of it: the live vectors are moved down and their slots reused.
+ * Inserts are serialized, searches can run during an insert and only wait
+ * for a compaction.
+ */
+public class QuantizedEmbeddingStore implements EmbeddingStore<TextSegment>, Closeable {
+  private static final int PAGE_BITS = 10;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+  private static final double MAX_DELETED_RATIO = 0.25;
+
+  public enum Quantization {
+    INT8, BINARY
+  }
+
+  private final Quantization quantization;
+  private final int rescoreFactor;
+  private final Path file;
+  private final boolean temporary;
+  private final FileChannel channel;
+
+  private final ReentrantLock insertLock = new ReentrantLock();
+  // Held for writing by the compaction only, which moves the nodes
+  private final ReentrantReadWriteLock compactionLock = new ReentrantReadWriteLock();
+  private final Map<String, Integer> nodeById = new ConcurrentHashMap<>();
+
+  private volatile int dimension;
+  // Number of longs of a binary code
+  private volatile int words;
+  private volatile int size;
+  // Flagged nodes below size, guarded by the insert lock
+  private int deleted;
+  private volatile byte[][] bytePages = new byte[0][];
+  private volatile float[][] scalePages = new float[0][];
+  private volatile long[][] bitPages = new long[0][];
+  // Full precision vectors, one mapping per page
+  private volatile FloatBuffer[] vectorPages = new FloatBuffer[0];
+  private volatile Node[][] nodePages = new Node[0][];
+
+  private static final class Node {
+    final String id;
+    final TextSegment segment;
+    volatile boolean deleted;
+
+    Node(String id, TextSegment segment) {
+      this.id = id;
+      this.segment = segment;
+    }
+  }
+
+  private QuantizedEmbeddingStore(Builder builder) {
+    this.quantization = builder.quantization;
+    this.rescoreFactor = builder.rescoreFactor > 0 ? builder.rescoreFactor
+        : quantization == Quantization.INT8 ? 4 : 16;
+    try {
+      this.temporary = builder.file == null;
+      this.file = temporary ? Files.createTempFile("quantized-store", ".bin") : builder.file;
+      // Never overwrite an existing file, it may be the index of another store
+      this.channel = temporary
+          ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+          : FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (FileAlreadyExistsException e) {
+      throw new IllegalArgumentException("The file of the vectors must not exist: " + builder.file, e);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private Quantization quantization = Quantization.INT8;
+    private int rescoreFactor;
+    private Path file;
+
+    public Builder quantization(Quantization quantization) {
+      this.quantization = quantization;
+      return this;
+    }
+
+    /**
+     * Number of candidates rescored per result, 4 for INT8 and 16 for BINARY
+     * by default: higher is slower with a better recall.
+     */
+    public Builder rescoreFactor(int rescoreFactor) {
+      if (rescoreFactor < 1) {
+        throw new IllegalArgumentException("rescoreFactor must be at least 1");
+      }
+      this.rescoreFactor = rescoreFactor;
+      return this;
+    }
+
+    /**
+     * File of the full precision vectors, created by the store: it must not
+     * exist. A temporary file deleted on close by default.
+     */
+    public Builder file(Path file) {
+      this.file = file;
+      return this;
+    }
+
+    public QuantizedEmbeddingStore build() {
+      return new QuantizedEmbeddingStore(this);
+    }
+  }
+
+  public int size() {
+    return nodeById.size();
+  }
+
+  /**
+   * Bytes of heap used by the code of one vector, to compare with the 4 bytes
+   * per dimension of a float vector.
+   */
+  public int codeBytes() {
+    return quantization == Quantization.INT8 ? dimension + Float.BYTES : words * Long.BYTES;
+  }
+
+  @Override
+  public String add(Embedding embedding) {
+    String id = randomUUID();
+    add(id, embedding);
+    return id;
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    insert(id, embedding.vector(), null);
+  }
+
+  /**
+   * Adds the vector with the given id, replacing the one with the same id if any.
+   */
+  public void add(String id, Embedding embedding, TextSegment textSegment) {
+    insert(id, embedding.vector(), textSegment);
+  }
+
+  @Override
+  public String add(Embedding embedding, TextSegment textSegment) {
+    String id = randomUUID();
+    insert(id, embedding.vector(), textSegment);
+    return id;
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    List<String> ids = new ArrayList<>(embeddings.size());
+    for (Embedding embedding : embeddings) {
+      ids.add(add(embedding));
+    }
+    return ids;
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+    if (textSegments.size() != embeddings.size()) {
+      throw new IllegalArgumentException("The list of embeddings and the list of segments must have the same size");
+    }
+    List<String> ids = new ArrayList<>(embeddings.size());
+    for (int i = 0; i < embeddings.size(); i++) {
+      ids.add(add(embeddings.get(i), textSegments.get(i)));
+    }
+    return ids;
+  }
+
+  @Override
+  public void remove(String id) {
+    removeAll(List.of(id));
+  }
+
+  /**
+   * The removed vectors are flagged, their slots are reclaimed by the next
+   * compaction.
+   */
+  @Override
+  public void removeAll(Collection<String> ids) {
+    insertLock.lock();
+    try {
+      for (String id : ids) {
+        Integer node = nodeById.remove(id);
+        if (node != null) {
+          node(node).deleted = true;
+          deleted++;
+        }
+      }
+      if (deleted > MAX_DELETED_RATIO * size) {
+        compact();
+      }
+    } finally {
+      insertLock.unlock();
+    }
+  }
+
+  /**
+   * Removes all the vectors, the next one added sets the dimension again. The
+   * file of the vectors is kept and written over.
+   */
+  @Override
+  public void removeAll() {
+    insertLock.lock();
+    compactionLock.writeLock().lock();
+    try {
+      nodeById.clear();
+      size = 0;
+      deleted = 0;
+      dimension = 0;
+      words = 0;
+      bytePages = new byte[0][];
+      scalePages = new float[0][];
+      bitPages = new long[0][];
+      vectorPages = new FloatBuffer[0];
+      nodePages = new Node[0][];
+    } finally {
+      compactionLock.writeLock().unlock();
+      insertLock.unlock();
+    }
+  }
+
+  // Moves the live nodes down over the deleted ones, under the insert lock
+  private void compact() {
+    compactionLock.writeLock().lock();
+    try {
+      int kept = 0;
+      for (int node = 0; node < size; node++) {
+        Node live = node(node);
+        if (live.deleted) {
+          continue;
+        }
+        if (kept != node) {
+          move(node, kept);
+          nodeById.put(live.id, kept);
+        }
+        kept++;
+      }
+      // The segments of the deleted nodes can be collected
+      for (int node = kept; node < size; node++) {
+        nodePages[node >>> PAGE_BITS][node & PAGE_MASK] = null;
+      }
+      size = kept;
+      deleted = 0;
+    } finally {
+      compactionLock.writeLock().unlock();
+    }
+  }
+
+  private void move(int from, int to) {
+    vectorPages[to >>> PAGE_BITS].put((to & PAGE_MASK) * dimension, vectorOf(from));
+    if (quantization == Quantization.INT8) {
+      System.arraycopy(bytePages[from >>> PAGE_BITS], (from & PAGE_MASK) * dimension,
+          bytePages[to >>> PAGE_BITS], (to & PAGE_MASK) * dimension, dimension);
+      scalePages[to >>> PAGE_BITS][to & PAGE_MASK] = scalePages[from >>> PAGE_BITS][from & PAGE_MASK];
+    } else {
+      System.arraycopy(bitPages[from >>> PAGE_BITS], (from & PAGE_MASK) * words,
+          bitPages[to >>> PAGE_BITS], (to & PAGE_MASK) * words, words);
+    }
+    nodePages[to >>> PAGE_BITS][to & PAGE_MASK] = node(from);
+  }
+
+  private void insert(String id, float[] vector, TextSegment segment) {
+    insertLock.lock();
+    try {
+      if (dimension == 0) {
+        dimension = vector.length;
+        words = (vector.length + 63) >>> 6;
+      } else if (vector.length != dimension) {
+        throw new IllegalArgumentException("Expected an embedding of dimension " + dimension + " but got " + vector.length);
+      }
+      Integer previous = nodeById.get(id);
+      if (previous != null) {
+        node(previous).deleted = true;
+        deleted++;
+      }
+
+      int node = size;
+      ensureCapacity(node);
+      float[] normalized = HnswEmbeddingStore.normalize(vector);
+      vectorPages[node >>> PAGE_BITS].put((node & PAGE_MASK) * dimension, normalized);
+      if (quantization == Quantization.INT8) {
+        int offset = (node & PAGE_MASK) * dimension;
+        scalePages[node >>> PAGE_BITS][node & PAGE_MASK] = quantize(normalized, bytePages[node >>> PAGE_BITS], offset);
+      } else {
+        binarize(normalized, bitPages[node >>> PAGE_BITS], (node & PAGE_MASK) * words);
+      }
+      nodePages[node >>> PAGE_BITS][node & PAGE_MASK] = new Node(id, segment);
+      nodeById.put(id, node);
+      size = node + 1;
+      if (deleted > MAX_DELETED_RATIO * size) {
+        compact();
+      }
+    } finally {
+      insertLock.unlock();
+    }
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    compactionLock.readLock().lock();
+    try {
+      return search(request, size);
+    } finally {
+      compactionLock.readLock().unlock();
+    }
+  }
+
+  // The vectors inserted after the limit are ignored
+  private EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request, int limit) {
+    if (limit == 0) {
+      return new EmbeddingSearchResult<>(List.of());
+    }
+    float[] query = HnswEmbeddingStore.normalize(request.queryEmbedding().vector());
+    if (query.length != dimension) {
+      throw new IllegalArgumentException("Expected an embedding of dimension " + dimension + " but got " + query.length);
+    }
+    Filter filter = request.filter();
+    int candidateCount = request.maxResults() * rescoreFactor;
+
+    // Scan of the codes, the worst candidate on top
+    NodeHeap candidates = NodeHeap.minHeap(candidateCount + 1);
+    if (quantization == Quantization.INT8) {
+      byte[] queryCodes = new byte[dimension];
+      quantize(query, queryCodes, 0);
+      for (int node = 0; node < limit; node++) {
+        if (accepts(node, filter)) {
+          offer(candidates, candidateCount, node, int8Score(queryCodes, node));
+        }
+      }
+    } else {
+      long[] queryBits = new long[words];
+      binarize(query, queryBits, 0);
+      for (int node = 0; node < limit; node++) {
+        if (accepts(node, filter)) {
+          offer(candidates, candidateCount, node, -hammingDistance(queryBits, node));
+        }
+      }
+    }
+
+    // Rescoring of the candidates with the full precision vectors
+    NodeHeap results = NodeHeap.minHeap(request.maxResults() + 1);
+    while (!candidates.isEmpty()) {
+      int node = candidates.pop();
+      offer(results, request.maxResults(), node, dot(query, node));
+    }
+    return toResult(results, request);
+  }
+
+  private EmbeddingSearchResult<TextSegment> toResult(NodeHeap results, EmbeddingSearchRequest request) {
+    List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(results.size());
+    while (!results.isEmpty()) {
+      float cosine = Math.min(1, results.topScore());
+      int index = results.pop();
+      Node node = node(index);
+      double score = RelevanceScore.fromCosineSimilarity(cosine);
+      if (score < request.minScore()) {
+        continue;
+      }
+      matches.add(new EmbeddingMatch<>(score, node.id, Embedding.from(vectorOf(index)), node.segment));
+    }
+    // The heap gives the worst match first
+    List<EmbeddingMatch<TextSegment>> ordered = new ArrayList<>(matches.size());
+    for (int i = matches.size() - 1; i >= 0; i--) {
+      ordered.add(matches.get(i));
+    }
+    return new EmbeddingSearchResult<>(ordered);
+  }
+
+  // The filter is applied during the scan, so that the candidates are all usable
+  private boolean accepts(int index, Filter filter) {
+    Node node = node(index);
+    if (node.deleted) {
+      return false;
+    }
+    return filter == null || (node.segment != null && filter.test(node.segment.metadata()));
+  }
+
+  private static void offer(NodeHeap heap, int capacity, int node, float score) {
+    if (heap.size() < capacity) {
+      heap.push(node, score);
+    } else if (score > heap.topScore()) {
+      heap.pop();
+      heap.push(node, score);
+    }
+  }
+
+  /**
+   * Symmetric quantization of a normalized vector on [-127, 127], returns the
+   * scale to apply to the codes to get the values back.
+   */
+  static float quantize(float[] vector, byte[] codes, int offset) {
+    float max = 0;
+    for (float v : vector) {
+      max = Math.max(max, Math.abs(v));
+    }
+    if (max == 0) {
+      return 0;
+    }
+    float scale = max / 127;
+    for (int i = 0; i < vector.length; i++) {
+      codes[offset + i] = (byte) Math.round(vector[i] / scale);
+    }
+    return scale;
+  }
+
+  // One bit per dimension, set when the value is positive
+  static void binarize(float[] vector, long[] bits, int offset) {
+    Arrays.fill(bits, offset, offset + ((vector.length + 63) >>> 6), 0L);
+    for (int i = 0; i < vector.length; i++) {
+      if (vector[i] > 0) {
+        bits[offset + (i >>> 6)] |= 1L << (i & 63);
+      }
+    }
+  }
+
+  // The scale of the query is the same for every node, it is not applied
+  private float int8Score(byte[] queryCodes, int node) {
+    byte[] page = bytePages[node >>> PAGE_BITS];
+    int offset = (node & PAGE_MASK) * dimension;
+    int sum = 0;
+    for (int i = 0; i < queryCodes.length; i++) {
+      sum += queryCodes[i] * page[offset + i];
+    }
+    return sum * scalePages[node >>> PAGE_BITS][node & PAGE_MASK];
+  }
+
+  private int hammingDistance(long[] queryBits, int node) {
+    long[] page = bitPages[node >>> PAGE_BITS];
+    int offset = (node & PAGE_MASK) * words;
+    int distance = 0;
+    for (int i = 0; i < queryBits.length; i++) {
+      distance += Long.bitCount(queryBits[i] ^ page[offset + i]);
+    }
+    return distance;
+  }
+
+  private float dot(float[] query, int node) {
+    FloatBuffer page = vectorPages[node >>> PAGE_BITS];
+    int offset = (node & PAGE_MASK) * dimension;
+    float sum = 0;
+    for (int i = 0; i < query.length; i++) {
+      sum += query[i] * page.get(offset + i);
+    }
+    return sum;
+  }
+
+  private float[] vectorOf(int node) {
+    float[] vector = new float[dimension];
+    vectorPages[node >>> PAGE_BITS].get((node & PAGE_MASK) * dimension, vector);
+    return vector;
+  }
+
+  private Node node(int node) {
+    return nodePages[node >>> PAGE_BITS][node & PAGE_MASK];
+  }
+
+  // A page of codes on the heap and a page of vectors mapped from the file
+  private void ensureCapacity(int node) {
+    int page = node >>> PAGE_BITS;
+    if (page < nodePages.length) {
+      return;
+    }
+    long pageBytes = (long) PAGE_SIZE * dimension * Float.BYTES;
+    FloatBuffer vectors;
+    try {
+      vectors = channel.map(FileChannel.MapMode.READ_WRITE, page * pageBytes, pageBytes)
+          .order(ByteOrder.nativeOrder())
+          .asFloatBuffer();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (quantization == Quantization.INT8) {
+      byte[][] bytes = Arrays.copyOf(bytePages, page + 1);
+      bytes[page] = new byte[PAGE_SIZE * dimension];
+      float[][] scales = Arrays.copyOf(scalePages, page + 1);
+      scales[page] = new float[PAGE_SIZE];
+      bytePages = bytes;
+      scalePages = scales;
+    } else {
+      long[][] bits = Arrays.copyOf(bitPages, page + 1);
+      bits[page] = new long[PAGE_SIZE * words];
+      bitPages = bits;
+    }
+    FloatBuffer[] mapped = Arrays.copyOf(vectorPages, page + 1);
+    mapped[page] = vectors;
+    vectorPages = mapped;
+    Node[][] nodes = Arrays.copyOf(nodePages, page + 1);
+    nodes[page] = new Node[PAGE_SIZE];
+    nodePages = nodes;
+  }
+
+  /**
+   * Closes the file of the vectors, and deletes it if it is a temporary one.
+   */
+  @Override
+  public void close() {
+    try {
+      channel.close();
+      if (temporary) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package com.ovhcloud.ai.langchain4j.chatbot.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+/**
+ * Measures the recall and the latency of the approximate and quantized
+ * embedding stores against an exact search, on synthetic clustered vectors (no embedding model
+ * needed).
+ * Usage: mvn exec:java -Dexec.mainClass="com.ovhcloud.ai.langchain4j.chatbot.store.RecallReport" -Dexec.args="100000 1024 200 5"
+ * The arguments are the number of vectors, their dimension, the number of
+ * queries and the number of results per query.
+ */
+public class RecallReport {
+  private static final Logger _LOG = LoggerFactory.getLogger(RecallReport.class);
+
+  public static void main(String[] args) {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+    int dimension = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+    int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+    int k = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+    Random random = new Random(42);
+    List<float[]> vectors = clusteredVectors(random, count, dimension);
+    List<float[]> queryVectors = clusteredVectors(random, queries, dimension);
+    List<float[]> normalized = vectors.stream().map(HnswEmbeddingStore::normalize).toList();
+    List<Set<Integer>> expected = new ArrayList<>();
+    long[] exactLatencies = new long[queries];
+    for (int q = 0; q < queries; q++) {
+      long start = System.nanoTime();
+      expected.add(exactTopK(normalized, queryVectors.get(q), k));
+      exactLatencies[q] = System.nanoTime() - start;
+    }
+    _LOG.info("exact search: {} vectors of dimension {}, {}\n", count, dimension, latencies(exactLatencies));
+
+    for (int efSearch : new int[] { 16, 64, 256 }) {
+      report("hnsw m=16 efConstruction=100 efSearch=" + efSearch,
+          () -> HnswEmbeddingStore.builder().m(16).efConstruction(100).efSearch(efSearch).build(),
+          vectors, queryVectors, expected, k);
+    }
+
+    for (QuantizedEmbeddingStore.Quantization quantization : QuantizedEmbeddingStore.Quantization.values()) {
+      for (int rescoreFactor : new int[] { 1, 4, 16 }) {
+        try (QuantizedEmbeddingStore store = QuantizedEmbeddingStore.builder()
+            .quantization(quantization)
+            .rescoreFactor(rescoreFactor)
+            .build()) {
+          report(quantization.name().toLowerCase() + " rescoreFactor=" + rescoreFactor, () -> store,
+              vectors, queryVectors, expected, k);
+          _LOG.info("{}: {} bytes of heap per vector instead of {}\n", quantization, store.codeBytes(),
+              dimension * Float.BYTES);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads the vectors in the store, runs the queries and logs the recall@k and
+   * the latencies.
+   */
+  static void report(String name, Supplier<EmbeddingStore<TextSegment>> storeFactory, List<float[]> vectors,
+      List<float[]> queries, List<Set<Integer>> expected, int k) {
+    EmbeddingStore<TextSegment> store = storeFactory.get();
+    long start = System.nanoTime();
+    for (int i = 0; i < vectors.size(); i++) {
+      store.add(Integer.toString(i), Embedding.from(vectors.get(i)));
+    }
+    long indexing = System.nanoTime() - start;
+
+    long[] latencies = new long[queries.size()];
+    int found = 0;
+    for (int q = 0; q < queries.size(); q++) {
+      EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+          .queryEmbedding(Embedding.from(queries.get(q)))
+          .maxResults(k)
+          .build();
+      long queryStart = System.nanoTime();
+      List<EmbeddingMatch<TextSegment>> matches = store.search(request).matches();
+      latencies[q] = System.nanoTime() - queryStart;
+      for (EmbeddingMatch<TextSegment> match : matches) {
+        if (expected.get(q).contains(Integer.parseInt(match.embeddingId()))) {
+          found++;
+        }
+      }
+    }
+    _LOG.info("{}: recall@{}={}, indexing {} ms, {}\n", name, k,
+        String.format("%.4f", (double) found / (queries.size() * k)), indexing / 1_000_000, latencies(latencies));
+  }
+
+  // The vectors must be normalized
+  static Set<Integer> exactTopK(List<float[]> vectors, float[] query, int k) {
+    float[] normalizedQuery = HnswEmbeddingStore.normalize(query);
+    NodeHeap best = NodeHeap.minHeap(k + 1);
+    for (int i = 0; i < vectors.size(); i++) {
+      float[] vector = vectors.get(i);
+      float score = 0;
+      for (int d = 0; d < vector.length; d++) {
+        score += vector[d] * normalizedQuery[d];
+      }
+      best.push(i, score);
+      if (best.size() > k) {
+        best.pop();
+      }
+    }
+    Set<Integer> top = new HashSet<>();
+    while (!best.isEmpty()) {
+      top.add(best.pop());
+    }
+    return top;
+  }
+
+  // Vectors around a few hundred random centroids, closer to real embeddings than uniform noise
+  static List<float[]> clusteredVectors(Random random, int count, int dimension) {
+    int clusters = Math.max(1, Math.min(500, count / 20));
+    float[][] centroids = new float[clusters][dimension];
+    Random centroidRandom = new Random(7);
+    for (float[] centroid : centroids) {
+      for (int d = 0; d < dimension; d++) {
+        centroid[d] = (float) centroidRandom.nextGaussian();
+      }
+    }
+    List<float[]> vectors = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      float[] centroid = centroids[random.nextInt(clusters)];
+      float[] vector = new float[dimension];
+      for (int d = 0; d < dimension; d++) {
+        vector[d] = centroid[d] + 0.5f * (float) random.nextGaussian();
+      }
+      vectors.add(vector);
+    }
+    return vectors;
+  }
+
+  static String latencies(long[] nanos) {
+    long[] sorted = nanos.clone();
+    Arrays.sort(sorted);
+    return String.format("latency p50=%.3f ms p99=%.3f ms", sorted[sorted.length / 2] / 1e6,
+        sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 1e6);
+  }
+}
@@ -0,0 +1,123 @@
+package com.ovhcloud.ai.langchain4j.chatbot.ingest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.parser.TextDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+
+class StreamingDocumentSplitterTest {
+  private static final String[] WORDS = { "AI", "Endpoints", "serves", "the", "models", "through", "an", "API",
+      "déjà", "vu", "😀", "embedding", "of", "segments" };
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void segmentsAreTheOnesOfTheRecursiveSplitter() throws IOException {
+    Random random = new Random(42);
+    for (int file = 0; file < 20; file++) {
+      Path path = Files.writeString(directory.resolve("document" + file + ".txt"), text(random, 60));
+      Document document = FileSystemDocumentLoader.loadDocument(path, new TextDocumentParser());
+      List<TextSegment> expected = DocumentSplitters.recursive(200, 0).split(document);
+
+      // Small regions cut the characters of several bytes
+      for (long regionSize : new long[] { 17, 64, 1 << 20 }) {
+        StreamingDocumentSplitter splitter = StreamingDocumentSplitter.builder()
+            .maxSegmentSize(200)
+            .regionSize(regionSize)
+            .build();
+        assertEquals(expected, segments(splitter.split(path)), path + " with regions of " + regionSize);
+      }
+    }
+  }
+
+  @Test
+  void tooLongParagraphIsCutAtALineBreak() throws IOException {
+    String line = "A line of a log file without any blank line between the entries.\n";
+    Path path = Files.writeString(directory.resolve("log.txt"), line.repeat(100));
+    StreamingDocumentSplitter splitter = StreamingDocumentSplitter.builder()
+        .maxSegmentSize(200)
+        .maxParagraphSize(1000)
+        .build();
+
+    List<TextSegment> segments = segments(splitter.split(path));
+    Document document = FileSystemDocumentLoader.loadDocument(path, new TextDocumentParser());
+    assertEquals(DocumentSplitters.recursive(200, 0).split(document), segments);
+    // The lines of the log fit three by three in a segment
+    assertEquals(34, segments.size());
+    for (TextSegment segment : segments) {
+      assertTrue(segment.text().length() <= 200);
+      assertTrue(segment.text().endsWith("entries."));
+    }
+  }
+
+  @Test
+  void metadataAreTheOnesOfTheFileLoader() throws IOException {
+    Path path = Files.writeString(directory.resolve("faq.md"), "First paragraph.\n\nSecond paragraph.");
+
+    TextSegment segment = StreamingDocumentSplitter.builder().build().split(path).next();
+    assertEquals("faq.md", segment.metadata().getString(Document.FILE_NAME));
+    assertEquals(directory.toAbsolutePath().toString(), segment.metadata().getString(Document.ABSOLUTE_DIRECTORY_PATH));
+    assertEquals("0", segment.metadata().getString("index"));
+  }
+
+  @Test
+  void closingStopsTheSegments() throws IOException {
+    Path path = Files.writeString(directory.resolve("document.txt"), text(new Random(42), 60));
+    StreamingDocumentSplitter.Segments segments = StreamingDocumentSplitter.builder()
+        .maxSegmentSize(200)
+        .regionSize(64)
+        .build()
+        .split(path);
+    segments.next();
+    segments.close();
+
+    assertFalse(segments.hasNext());
+    assertThrows(NoSuchElementException.class, segments::next);
+    // The file is not held anymore
+    Files.delete(path);
+  }
+
+  // Paragraphs of a few words to a few hundred, with lines, sentences and blank lines of spaces
+  private static String text(Random random, int paragraphs) {
+    StringBuilder text = new StringBuilder(random.nextBoolean() ? "\n  " : "");
+    for (int p = 0; p < paragraphs; p++) {
+      int words = random.nextInt(10) == 0 ? 100 + random.nextInt(200) : 1 + random.nextInt(30);
+      for (int w = 0; w < words; w++) {
+        text.append(WORDS[random.nextInt(WORDS.length)]);
+        int separator = random.nextInt(20);
+        text.append(separator == 0 ? ".\n" : separator == 1 ? ". " : " ");
+      }
+      text.append(switch (random.nextInt(4)) {
+        case 0 -> "\n\n";
+        case 1 -> "\r\n\r\n";
+        case 2 -> " \n \t\n\n";
+        default -> "\n\n\n";
+      });
+    }
+    return text.toString();
+  }
+
+  private static List<TextSegment> segments(StreamingDocumentSplitter.Segments segments) {
+    List<TextSegment> list = new ArrayList<>();
+    segments.forEachRemaining(list::add);
+    return list;
+  }
+}
@@ -0,0 +1,90 @@
+package com.ovhcloud.ai.langchain4j.chatbot.memory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageType;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+class SummarizingChatMemoryTest {
+  private final AtomicInteger summaries = new AtomicInteger();
+  private final ChatLanguageModel summarizer = messages -> {
+    summaries.incrementAndGet();
+    return Response.from(AiMessage.from("The user asked about AI Endpoints."));
+  };
+
+  @Test
+  void answerIsNeverKeptWithoutItsQuestion() {
+    SummarizingChatMemory memory = memory(300);
+    memory.add(SystemMessage.from("You are Nestor, a virtual assistant."));
+    memory.add(UserMessage.from("q".repeat(200)));
+    memory.add(AiMessage.from("a".repeat(1000)));
+    memory.add(UserMessage.from("And what about the embeddings?"));
+
+    // Over the budget, but folding the first turn would leave a single message
+    assertEquals(List.of(ChatMessageType.SYSTEM, ChatMessageType.USER, ChatMessageType.AI, ChatMessageType.USER),
+        types(memory.messages()));
+    assertNull(memory.summary());
+
+    memory.add(AiMessage.from("They are computed by a dedicated model."));
+    assertEquals(List.of(ChatMessageType.SYSTEM, ChatMessageType.USER, ChatMessageType.AI),
+        types(memory.messages()));
+    assertEquals("The user asked about AI Endpoints.", memory.summary());
+    assertEquals(1, summaries.get());
+  }
+
+  @Test
+  void promptStaysWithinTheBudget() {
+    SummarizingChatMemory memory = memory(200);
+    EstimatingTokenizer tokenizer = new EstimatingTokenizer();
+    memory.add(SystemMessage.from("You are Nestor, a virtual assistant."));
+    for (int i = 0; i < 50; i++) {
+      memory.add(UserMessage.from("Question number " + i + " about the AI Endpoints models?"));
+      memory.add(AiMessage.from("Answer number " + i + ", with some details about the models."));
+
+      List<ChatMessage> messages = memory.messages();
+      assertTrue(tokenizer.estimateTokenCountInMessages(messages) <= 200);
+      assertEquals(ChatMessageType.SYSTEM, messages.get(0).type());
+      assertEquals(ChatMessageType.USER, messages.get(1).type());
+    }
+    assertTrue(summaries.get() > 0);
+  }
+
+  @Test
+  void clearForgetsTheSummary() {
+    SummarizingChatMemory memory = memory(200);
+    for (int i = 0; i < 10; i++) {
+      memory.add(UserMessage.from("Question number " + i + " about the AI Endpoints models?"));
+      memory.add(AiMessage.from("Answer number " + i + ", with some details about the models."));
+    }
+    memory.clear();
+
+    assertEquals(List.of(), memory.messages());
+    assertNull(memory.summary());
+  }
+
+  // The summaries run on the calling thread
+  private SummarizingChatMemory memory(int maxTokens) {
+    return SummarizingChatMemory.builder()
+        .maxTokens(maxTokens)
+        .maxSummaryTokens(50)
+        .summarizer(summarizer)
+        .executor(Runnable::run)
+        .build();
+  }
+
+  private static List<ChatMessageType> types(List<ChatMessage> messages) {
+    return messages.stream().map(ChatMessage::type).toList();
+  }
+}
@@ -0,0 +1,125 @@
+package com.ovhcloud.ai.langchain4j.chatbot.retrieval;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.segment.TextSegment;
+
+class Bm25IndexTest {
+  private static final TextSegment SHORT = TextSegment.from("The embedding models.");
+  private static final TextSegment LONG = TextSegment.from("The embedding models of AI Endpoints, and the chat models too.");
+  private static final TextSegment OTHER = TextSegment.from("The datacenters are cooled by water.");
+
+  @Test
+  void termsAreLowerCasedWordsOfTwoCharactersOrMore() {
+    assertEquals(List.of("ai", "endpoints", "v1", "api", "is", "up"), Bm25Index.terms("AI Endpoints: v1 API (a) is up!"));
+  }
+
+  @Test
+  void shorterSegmentRanksFirstForTheSameTerms() {
+    Bm25Index index = index(SHORT, LONG, OTHER);
+
+    List<Bm25Index.Hit> hits = index.search("embedding", 10);
+    assertEquals(List.of(SHORT, LONG), segments(hits));
+    assertTrue(hits.get(0).score() > hits.get(1).score());
+  }
+
+  @Test
+  void rareTermWeighsMoreThanACommonOne() {
+    Bm25Index index = index(SHORT, LONG, OTHER);
+
+    // "chat" is in one segment, "models" in two
+    assertEquals(LONG, index.search("models chat", 1).get(0).segment());
+    assertTrue(index.search("chat", 1).get(0).score() > index.search("models", 1).get(0).score());
+  }
+
+  @Test
+  void coverageIsTheShareOfTheQueryFound() {
+    Bm25Index index = index(SHORT, LONG, OTHER);
+
+    List<Bm25Index.Hit> hits = index.search("embedding models", 10);
+    assertEquals(1.0, hits.get(0).coverage(), 1e-6);
+    assertEquals(1.0, hits.get(1).coverage(), 1e-6);
+    // An unknown word counts as the rarest one
+    double coverage = index.search("embedding models pricing", 1).get(0).coverage();
+    assertTrue(coverage > 0 && coverage < 0.7, "coverage=" + coverage);
+  }
+
+  @Test
+  void replacedSegmentsAreNeverFound() {
+    Bm25Index index = index(SHORT, LONG, OTHER);
+    TextSegment edited = TextSegment.from("The reranking models.");
+    index.replace(List.of(SHORT), List.of(edited));
+
+    assertEquals(3, index.size());
+    assertEquals(List.of(LONG), segments(index.search("embedding", 10)));
+    assertEquals(List.of(edited), segments(index.search("reranking", 10)));
+  }
+
+  @Test
+  void compactedIndexScoresAsAFreshOne() {
+    List<TextSegment> segments = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      segments.add(TextSegment.from("Segment " + i + " about " + (i % 3 == 0 ? "embedding models" : "chat models")
+          + (i % 7 == 0 ? " and their pricing" : "")));
+    }
+    Bm25Index index = new Bm25Index();
+    index.addAll(segments);
+    // Over a quarter of the index, the posting lists are rebuilt
+    List<TextSegment> removed = segments.subList(0, 40);
+    index.replace(removed, List.of());
+    Bm25Index fresh = new Bm25Index();
+    fresh.addAll(segments.subList(40, 100));
+
+    assertEquals(60, index.size());
+    for (String query : List.of("embedding", "chat models", "pricing", "segment 42")) {
+      List<Bm25Index.Hit> hits = index.search(query, 10);
+      List<Bm25Index.Hit> expected = fresh.search(query, 10);
+      assertEquals(segments(expected), segments(hits));
+      for (int i = 0; i < hits.size(); i++) {
+        assertEquals(expected.get(i).score(), hits.get(i).score(), 1e-6);
+      }
+    }
+  }
+
+  @Test
+  void exportGivesTheLiveSegmentsAndTheirPostings() {
+    Bm25Index index = index(SHORT, LONG, OTHER);
+    index.replace(List.of(OTHER), List.of());
+    List<TextSegment> exported = new ArrayList<>();
+    Map<String, int[]> frequencies = new TreeMap<>();
+    index.export(new Bm25Index.Exporter() {
+      @Override
+      public void segment(TextSegment segment, int length) {
+        exported.add(segment);
+      }
+
+      @Override
+      public void term(String term, int[] segments, int[] termFrequencies) {
+        frequencies.put(term, termFrequencies);
+      }
+    });
+
+    assertEquals(List.of(SHORT, LONG), exported);
+    assertEquals(List.of("ai", "and", "chat", "embedding", "endpoints", "models", "of", "the", "too"),
+        List.copyOf(frequencies.keySet()));
+    assertEquals(List.of(1, 2), List.of(frequencies.get("models")[0], frequencies.get("models")[1]));
+  }
+
+  private static Bm25Index index(TextSegment... segments) {
+    Bm25Index index = new Bm25Index();
+    index.addAll(List.of(segments));
+    return index;
+  }
+
+  private static List<TextSegment> segments(List<Bm25Index.Hit> hits) {
+    return hits.stream().map(Bm25Index.Hit::segment).toList();
+  }
+}
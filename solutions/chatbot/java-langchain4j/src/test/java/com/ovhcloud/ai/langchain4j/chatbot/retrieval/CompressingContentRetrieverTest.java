@@ -0,0 +1,48 @@
+package com.ovhcloud.ai.langchain4j.chatbot.retrieval;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.query.Query;
+
+class CompressingContentRetrieverTest {
+  private static final String SERVED = "AI Endpoints serves the models through an OpenAI compatible API.";
+  private static final String EMBEDDINGS = "The embeddings of the documents are computed by a dedicated model,"
+      + " then stored with their segments so that the retrieval only embeds the question of the user.";
+
+  @Test
+  void duplicateIsReplacedByTheNextContent() {
+    CompressingContentRetriever retriever = retriever(List.of(SERVED, SERVED, EMBEDDINGS), 2, 300);
+
+    assertEquals(List.of(SERVED, EMBEDDINGS), texts(retriever.retrieve(Query.from("Which models are served?"))));
+    // The context is bigger than the first two contents, nothing is saved
+    assertEquals(32, retriever.tokensRetrieved());
+    assertEquals(0, retriever.tokensSaved());
+  }
+
+  @Test
+  void contentOverTheBudgetKeepsTheSentencesOfTheQuery() {
+    String text = "The weather is nice in Roubaix. " + SERVED + " The datacenters are cooled by water.";
+    CompressingContentRetriever retriever = retriever(List.of(text), 1, 20);
+
+    assertEquals(List.of(SERVED), texts(retriever.retrieve(Query.from("Which models are served by AI Endpoints?"))));
+    assertEquals(34, retriever.tokensRetrieved());
+    assertEquals(34 - 16, retriever.tokensSaved());
+  }
+
+  private static CompressingContentRetriever retriever(List<String> texts, int maxResults, int maxTokens) {
+    return CompressingContentRetriever.builder()
+        .contentRetriever(query -> texts.stream().map(Content::from).toList())
+        .maxResults(maxResults)
+        .maxTokens(maxTokens)
+        .build();
+  }
+
+  private static List<String> texts(List<Content> contents) {
+    return contents.stream().map(content -> content.textSegment().text()).toList();
+  }
+}
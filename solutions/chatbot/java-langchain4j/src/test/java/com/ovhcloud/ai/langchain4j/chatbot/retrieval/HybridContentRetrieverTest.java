@@ -0,0 +1,85 @@
+package com.ovhcloud.ai.langchain4j.chatbot.retrieval;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+
+class HybridContentRetrieverTest {
+  private static final TextSegment MODELS = TextSegment.from("The embedding models of AI Endpoints.");
+  private static final TextSegment SERVED = TextSegment.from("The models are served through an OpenAI compatible API.");
+  private static final TextSegment COSTS = TextSegment.from("Each token is billed once the answer is complete.");
+
+  private final AtomicInteger embeddings = new AtomicInteger();
+  // Every query is embedded on the first axis
+  private final EmbeddingModel embeddingModel = segments -> {
+    embeddings.incrementAndGet();
+    return Response.from(segments.stream().map(segment -> Embedding.from(new float[] { 1, 0 })).toList());
+  };
+  private final InMemoryEmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
+  private final Bm25Index index = new Bm25Index();
+
+  HybridContentRetrieverTest() {
+    index.addAll(List.of(MODELS, SERVED, COSTS));
+    embeddingStore.add(Embedding.from(new float[] { 1, 0 }), COSTS);
+    embeddingStore.add(Embedding.from(new float[] { 0.6f, 0.8f }), MODELS);
+  }
+
+  @Test
+  void coveredQueryTakesTheLexicalFastPath() {
+    HybridContentRetriever retriever = retriever();
+
+    assertEquals(List.of(MODELS, SERVED), segments(retriever.retrieve(Query.from("embedding models"))));
+    assertEquals(0, embeddings.get());
+    assertEquals(1, retriever.fastPaths());
+    assertEquals(0, retriever.fusions());
+  }
+
+  @Test
+  void listsAreFusedByTheirRanks() {
+    HybridContentRetriever retriever = retriever();
+
+    // Lexical: MODELS then SERVED, vector: COSTS then MODELS
+    List<TextSegment> segments = segments(retriever.retrieve(Query.from("What is the pricing of the embedding models?")));
+    // MODELS 1/61 + 1/62, COSTS 1/61, SERVED 1/62
+    assertEquals(List.of(MODELS, COSTS, SERVED), segments);
+    assertEquals(1, embeddings.get());
+    assertEquals(1, retriever.fusions());
+  }
+
+  @Test
+  void fastPathCanBeDisabled() {
+    HybridContentRetriever retriever = HybridContentRetriever.builder()
+        .index(index)
+        .embeddingStore(embeddingStore)
+        .embeddingModel(embeddingModel)
+        .fastPathCoverage(1.1)
+        .maxResults(1)
+        .build();
+
+    assertEquals(List.of(MODELS), segments(retriever.retrieve(Query.from("embedding models"))));
+    assertEquals(1, retriever.fusions());
+  }
+
+  private HybridContentRetriever retriever() {
+    return HybridContentRetriever.builder()
+        .index(index)
+        .embeddingStore(embeddingStore)
+        .embeddingModel(embeddingModel)
+        .build();
+  }
+
+  private static List<TextSegment> segments(List<Content> contents) {
+    return contents.stream().map(Content::textSegment).toList();
+  }
+}
@@ -0,0 +1,136 @@
+package com.ovhcloud.ai.langchain4j.chatbot.store;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+class HnswEmbeddingStoreTest {
+  private final Random random = new Random(42);
+  private final List<float[]> vectors = RecallReport.clusteredVectors(random, 5000, 64);
+  private final List<float[]> queries = RecallReport.clusteredVectors(random, 100, 64);
+
+  @Test
+  void graphSearchFindsAlmostAllTheExactNeighbours() {
+    HnswEmbeddingStore store = store();
+    List<float[]> normalized = vectors.stream().map(HnswEmbeddingStore::normalize).toList();
+
+    int found = 0;
+    for (float[] query : queries) {
+      Set<Integer> expected = RecallReport.exactTopK(normalized, query, 10);
+      assertEquals(expected, numbers(store.exactSearch(request(query, 10, null))));
+      for (int number : numbers(store.search(request(query, 10, null)))) {
+        if (expected.contains(number)) {
+          found++;
+        }
+      }
+    }
+    double recall = (double) found / (queries.size() * 10);
+    assertTrue(recall >= 0.95, "recall@10=" + recall);
+  }
+
+  @Test
+  void removedNodesAreNeverReturnedButStillLeadToTheirNeighbours() {
+    HnswEmbeddingStore store = store();
+    for (int i = 0; i < vectors.size(); i += 2) {
+      store.remove(Integer.toString(i));
+    }
+
+    assertEquals(2500, store.size());
+    int found = 0;
+    for (float[] query : queries) {
+      Set<Integer> expected = numbers(store.exactSearch(request(query, 10, null)));
+      Set<Integer> numbers = numbers(store.search(request(query, 10, null)));
+      assertEquals(10, numbers.size());
+      for (int number : numbers) {
+        assertEquals(1, number % 2);
+        if (expected.contains(number)) {
+          found++;
+        }
+      }
+    }
+    double recall = (double) found / (queries.size() * 10);
+    assertTrue(recall >= 0.9, "recall@10=" + recall);
+  }
+
+  @Test
+  void searchGoesOnUntilEnoughNodesPassTheFilter() {
+    HnswEmbeddingStore store = HnswEmbeddingStore.builder().build();
+    for (int i = 0; i < 2000; i++) {
+      // One segment in ten is in the file searched
+      Metadata metadata = Metadata.from("file", i % 10 == 0 ? "searched.md" : "other.md");
+      store.add(Integer.toString(i), Embedding.from(vectors.get(i)), TextSegment.from("segment " + i, metadata));
+    }
+
+    for (float[] query : queries.subList(0, 20)) {
+      Set<Integer> numbers = numbers(store.search(request(query, 10, metadataKey("file").isEqualTo("searched.md"))));
+      assertEquals(10, numbers.size());
+      for (int number : numbers) {
+        assertEquals(0, number % 10);
+      }
+    }
+  }
+
+  @Test
+  void addingAnIdAgainReplacesItsVector() {
+    HnswEmbeddingStore store = HnswEmbeddingStore.builder().build();
+    store.add("id", Embedding.from(new float[] { 1, 0, 0, 0 }), TextSegment.from("east"));
+    store.add("id", Embedding.from(new float[] { 0, 1, 0, 0 }), TextSegment.from("north"));
+
+    assertEquals(1, store.size());
+    List<EmbeddingMatch<TextSegment>> matches = store.search(request(new float[] { 1, 0, 0, 0 }, 10, null)).matches();
+    assertEquals(1, matches.size());
+    assertEquals("north", matches.get(0).embedded().text());
+  }
+
+  @Test
+  void removeAllEmptiesTheGraph() {
+    HnswEmbeddingStore store = store();
+    store.removeAll();
+
+    assertEquals(0, store.size());
+    assertTrue(store.search(request(queries.get(0), 10, null)).matches().isEmpty());
+    // The dimension is set again by the next vector
+    store.add("id", Embedding.from(new float[] { 0, 1 }));
+    assertEquals("id", store.search(request(new float[] { 0, 1 }, 10, null)).matches().get(0).embeddingId());
+  }
+
+  private HnswEmbeddingStore store() {
+    HnswEmbeddingStore store = HnswEmbeddingStore.builder().build();
+    for (int i = 0; i < vectors.size(); i++) {
+      store.add(Integer.toString(i), Embedding.from(vectors.get(i)));
+    }
+    return store;
+  }
+
+  private static EmbeddingSearchRequest request(float[] query, int maxResults, Filter filter) {
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(Embedding.from(query))
+        .maxResults(maxResults)
+        .filter(filter)
+        .build();
+  }
+
+  // The ids are the numbers of the vectors
+  private static Set<Integer> numbers(EmbeddingSearchResult<TextSegment> result) {
+    Set<Integer> numbers = new HashSet<>();
+    for (EmbeddingMatch<TextSegment> match : result.matches()) {
+      numbers.add(Integer.parseInt(match.embeddingId()));
+    }
+    return numbers;
+  }
+}
@@ -0,0 +1,147 @@
+package com.ovhcloud.ai.langchain4j.chatbot.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+
+class MappedEmbeddingStoreTest {
+  @TempDir
+  Path directory;
+
+  @Test
+  void reopenedStoreFindsTheSameSegments() {
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      store.addAll(List.of(vector(1, 0), vector(0, 1), vector(1, 1)),
+          List.of(TextSegment.from("east"), TextSegment.from("north"), TextSegment.from("north-east")));
+    }
+
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      assertEquals(3, store.size());
+      assertEquals("north", best(store, vector(0, 2)).embedded().text());
+      assertTrue(store.contains(TextSegment.from("east")));
+    }
+  }
+
+  @Test
+  void upsertReplacesTheVector() {
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      store.replace(List.of(), List.of("id"), List.of(vector(1, 0)), List.of(TextSegment.from("east")));
+      store.replace(List.of(), List.of("id"), List.of(vector(0, 1)), List.of(TextSegment.from("north")));
+      assertEquals(1, store.size());
+    }
+
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      assertEquals(Set.of("id"), store.ids());
+      assertEquals("north", best(store, vector(1, 0)).embedded().text());
+      assertFalse(store.contains(TextSegment.from("east")));
+    }
+  }
+
+  @Test
+  void removalIsLostWithAnUncommittedBatch() throws IOException {
+    long committedEnd;
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      store.replace(List.of(), List.of("old"), List.of(vector(1, 0)), List.of(TextSegment.from("old text")));
+      committedEnd = segmentsEnd();
+      store.replace(List.of("old"), List.of("new"), List.of(vector(0, 1)), List.of(TextSegment.from("new text")));
+    }
+    // A crash before the commit point: the records and the tombstone are written, not the end
+    writeSegmentsEnd(committedEnd);
+
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      assertEquals(Set.of("old"), store.ids());
+      assertEquals("old text", best(store, vector(0, 1)).embedded().text());
+      // The next batch overwrites the uncommitted one
+      store.replace(List.of("old"), List.of("new"), List.of(vector(0, 1)), List.of(TextSegment.from("new text")));
+    }
+
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      assertEquals(Set.of("new"), store.ids());
+      assertEquals("new text", best(store, vector(1, 0)).embedded().text());
+    }
+  }
+
+  @Test
+  void compactionKeepsTheLiveVectorsOnly() {
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      for (int i = 0; i < 5; i++) {
+        store.add("id" + i, vector(1, i));
+      }
+      store.removeAll(List.of("id0", "id2"));
+      store.compact();
+
+      assertEquals(Set.of("id1", "id3", "id4"), store.ids());
+      assertEquals("id4", best(store, vector(1, 4)).embeddingId());
+      store.add("id5", vector(1, 5));
+    }
+
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      assertEquals(Set.of("id1", "id3", "id4", "id5"), store.ids());
+      assertEquals("id1", best(store, vector(1, 1)).embeddingId());
+      assertEquals("id5", best(store, vector(1, 5)).embeddingId());
+    }
+  }
+
+  @Test
+  void upsertsDoNotGrowTheFiles() throws IOException {
+    String text = "A segment of a file watched by the ingestion, edited again and again. ".repeat(4);
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      // 20,000 upserts of 400 bytes each, with their tombstones
+      for (int round = 0; round < 2000; round++) {
+        for (int i = 0; i < 10; i++) {
+          store.replace(List.of(), List.of("id" + i), List.of(vector(i, round)),
+              List.of(TextSegment.from(text + round)));
+        }
+      }
+      assertEquals(10, store.size());
+    }
+
+    assertTrue(Files.size(directory.resolve("segments.bin")) <= 1 << 20);
+    assertFalse(Files.exists(directory.resolve("segments.bin.compacted")));
+    try (MappedEmbeddingStore store = MappedEmbeddingStore.open(directory)) {
+      assertEquals(10, store.size());
+      assertEquals(text + 1999, best(store, vector(3, 1999)).embedded().text());
+    }
+  }
+
+  private static Embedding vector(float x, float y) {
+    return Embedding.from(new float[] { x, y, 0, 0 });
+  }
+
+  private static EmbeddingMatch<TextSegment> best(MappedEmbeddingStore store, Embedding query) {
+    return store.search(EmbeddingSearchRequest.builder().queryEmbedding(query).maxResults(1).build())
+        .matches().get(0);
+  }
+
+  // The end of the records in the header of segments.bin, the commit point
+  private long segmentsEnd() throws IOException {
+    try (FileChannel channel = FileChannel.open(directory.resolve("segments.bin"), StandardOpenOption.READ)) {
+      ByteBuffer end = ByteBuffer.allocate(8);
+      channel.read(end, 8);
+      return end.flip().getLong();
+    }
+  }
+
+  private void writeSegmentsEnd(long end) throws IOException {
+    try (FileChannel channel = FileChannel.open(directory.resolve("segments.bin"), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(8).putLong(0, end), 8);
+    }
+  }
+}
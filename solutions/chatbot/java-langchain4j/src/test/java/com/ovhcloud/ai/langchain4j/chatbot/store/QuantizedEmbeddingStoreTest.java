@@ -0,0 +1,139 @@
+package com.ovhcloud.ai.langchain4j.chatbot.store;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.ovhcloud.ai.langchain4j.chatbot.store.QuantizedEmbeddingStore.Quantization;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+
+class QuantizedEmbeddingStoreTest {
+  @TempDir
+  Path directory;
+
+  @Test
+  void rescoringFindsTheExactNeighbours() {
+    Random random = new Random(42);
+    List<float[]> vectors = RecallReport.clusteredVectors(random, 2000, 64);
+    List<float[]> queries = RecallReport.clusteredVectors(random, 50, 64);
+    List<float[]> normalized = vectors.stream().map(HnswEmbeddingStore::normalize).toList();
+
+    for (Quantization quantization : Quantization.values()) {
+      try (QuantizedEmbeddingStore store = QuantizedEmbeddingStore.builder().quantization(quantization).build()) {
+        for (int i = 0; i < vectors.size(); i++) {
+          store.add(Integer.toString(i), Embedding.from(vectors.get(i)));
+        }
+        int found = 0;
+        for (float[] query : queries) {
+          Set<Integer> expected = RecallReport.exactTopK(normalized, query, 5);
+          for (EmbeddingMatch<TextSegment> match : search(store, query, 5)) {
+            if (expected.contains(Integer.parseInt(match.embeddingId()))) {
+              found++;
+            }
+          }
+        }
+        double recall = (double) found / (queries.size() * 5);
+        assertTrue(recall >= 0.9, quantization + " recall@5=" + recall);
+      }
+    }
+  }
+
+  @Test
+  void addingAnIdAgainReplacesItsVector() {
+    try (QuantizedEmbeddingStore store = QuantizedEmbeddingStore.builder().build()) {
+      store.add("id", Embedding.from(new float[] { 1, 0, 0, 0 }), TextSegment.from("east"));
+      store.add("id", Embedding.from(new float[] { 0, 1, 0, 0 }), TextSegment.from("north"));
+
+      assertEquals(1, store.size());
+      List<EmbeddingMatch<TextSegment>> matches = search(store, new float[] { 1, 0, 0, 0 }, 10);
+      assertEquals(1, matches.size());
+      assertEquals("north", matches.get(0).embedded().text());
+    }
+  }
+
+  @Test
+  void removedVectorsAreNeverFound() {
+    try (QuantizedEmbeddingStore store = QuantizedEmbeddingStore.builder().quantization(Quantization.BINARY).build()) {
+      Random random = new Random(42);
+      for (int i = 0; i < 100; i++) {
+        store.add(Integer.toString(i), Embedding.from(RecallReport.clusteredVectors(random, 1, 32).get(0)));
+      }
+      // Over a quarter of the vectors, the store is compacted
+      for (int i = 0; i < 100; i += 2) {
+        store.remove(Integer.toString(i));
+      }
+
+      assertEquals(50, store.size());
+      List<EmbeddingMatch<TextSegment>> matches = search(store, new float[32], 100);
+      assertEquals(50, matches.size());
+      for (EmbeddingMatch<TextSegment> match : matches) {
+        assertEquals(1, Integer.parseInt(match.embeddingId()) % 2);
+      }
+    }
+  }
+
+  @Test
+  void filterIsAppliedBeforeTheRescoring() {
+    try (QuantizedEmbeddingStore store = QuantizedEmbeddingStore.builder().rescoreFactor(1).build()) {
+      store.add(Embedding.from(new float[] { 1, 0, 0, 0 }), TextSegment.from("east", Metadata.from("file", "a")));
+      store.add(Embedding.from(new float[] { 1, 0.1f, 0, 0 }), TextSegment.from("east too", Metadata.from("file", "a")));
+      store.add(Embedding.from(new float[] { 0, 1, 0, 0 }), TextSegment.from("north", Metadata.from("file", "b")));
+
+      List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+          .queryEmbedding(Embedding.from(new float[] { 1, 0, 0, 0 }))
+          .filter(metadataKey("file").isEqualTo("b"))
+          .maxResults(1)
+          .build()).matches();
+      assertEquals(1, matches.size());
+      assertEquals("north", matches.get(0).embedded().text());
+    }
+  }
+
+  @Test
+  void removeAllEmptiesTheStore() {
+    try (QuantizedEmbeddingStore store = QuantizedEmbeddingStore.builder().build()) {
+      store.add(Embedding.from(new float[] { 1, 0, 0, 0 }));
+      store.removeAll();
+
+      assertEquals(0, store.size());
+      assertTrue(search(store, new float[] { 1, 0, 0, 0 }, 10).isEmpty());
+      // The dimension is set again by the next vector
+      store.add("id", Embedding.from(new float[] { 0, 1 }));
+      assertEquals("id", search(store, new float[] { 0, 1 }, 10).get(0).embeddingId());
+    }
+  }
+
+  @Test
+  void existingFileIsNeverOverwritten() throws IOException {
+    Path file = Files.writeString(directory.resolve("vectors.bin"), "index of another store");
+
+    assertThrows(IllegalArgumentException.class, () -> QuantizedEmbeddingStore.builder().file(file).build());
+    assertEquals("index of another store", Files.readString(file));
+    try (QuantizedEmbeddingStore store = QuantizedEmbeddingStore.builder().file(directory.resolve("new.bin")).build()) {
+      assertEquals(0, store.size());
+    }
+  }
+
+  private static List<EmbeddingMatch<TextSegment>> search(QuantizedEmbeddingStore store, float[] query, int maxResults) {
+    return store.search(EmbeddingSearchRequest.builder()
+        .queryEmbedding(Embedding.from(query))
+        .maxResults(maxResults)
+        .build()).matches();
+  }
+}
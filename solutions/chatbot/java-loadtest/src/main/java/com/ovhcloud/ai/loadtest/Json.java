@@ -0,0 +1,154 @@
+package com.ovhcloud.ai.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Just enough JSON for the simulated endpoint: it reads a few fields of the
+ * requests and writes its answers with string concatenation.
+ * It is not a parser, a field is found by its name wherever it is.
+ */
+final class Json {
+
+  private Json() {
+  }
+
+  static String quote(String text) {
+    StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '"' -> quoted.append("\\\"");
+        case '\\' -> quoted.append("\\\\");
+        case '\n' -> quoted.append("\\n");
+        case '\r' -> quoted.append("\\r");
+        case '\t' -> quoted.append("\\t");
+        default -> {
+          if (c < 0x20) {
+            quoted.append(String.format("\\u%04x", (int) c));
+          } else {
+            quoted.append(c);
+          }
+        }
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  /**
+   * Value of a boolean field, false if it is missing.
+   */
+  static boolean booleanField(String json, String field) {
+    int value = valueStart(json, field);
+    return value >= 0 && json.startsWith("true", value);
+  }
+
+  /**
+   * Value of a string field, the default value if it is missing.
+   */
+  static String stringField(String json, String field, String defaultValue) {
+    int value = valueStart(json, field);
+    if (value < 0 || json.charAt(value) != '"') {
+      return defaultValue;
+    }
+    StringBuilder text = new StringBuilder();
+    readString(json, value, text);
+    return text.toString();
+  }
+
+  /**
+   * Values of a field which is a string or an array of strings.
+   */
+  static List<String> stringsField(String json, String field) {
+    List<String> strings = new ArrayList<>();
+    int value = valueStart(json, field);
+    if (value < 0) {
+      return strings;
+    }
+    if (json.charAt(value) == '"') {
+      StringBuilder text = new StringBuilder();
+      readString(json, value, text);
+      strings.add(text.toString());
+      return strings;
+    }
+    if (json.charAt(value) != '[') {
+      return strings;
+    }
+    int i = value + 1;
+    while (i < json.length()) {
+      char c = json.charAt(i);
+      if (c == ']') {
+        break;
+      }
+      if (c == '"') {
+        StringBuilder text = new StringBuilder();
+        i = readString(json, i, text);
+        strings.add(text.toString());
+      } else {
+        i++;
+      }
+    }
+    return strings;
+  }
+
+  // Index of the value of the field, or -1
+  private static int valueStart(String json, String field) {
+    String key = "\"" + field + "\"";
+    int from = 0;
+    while (true) {
+      int index = json.indexOf(key, from);
+      if (index < 0) {
+        return -1;
+      }
+      from = index + key.length();
+      if (index > 0 && json.charAt(index - 1) == '\\') {
+        // Inside a string value
+        continue;
+      }
+      int i = skipWhitespaces(json, from);
+      if (i < json.length() && json.charAt(i) == ':') {
+        i = skipWhitespaces(json, i + 1);
+        return i < json.length() ? i : -1;
+      }
+    }
+  }
+
+  private static int skipWhitespaces(String json, int from) {
+    int i = from;
+    while (i < json.length() && Character.isWhitespace(json.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  // Reads the string starting at the quote, returns the index after the closing quote
+  private static int readString(String json, int quote, StringBuilder text) {
+    int i = quote + 1;
+    while (i < json.length()) {
+      char c = json.charAt(i++);
+      if (c == '"') {
+        return i;
+      }
+      if (c != '\\' || i >= json.length()) {
+        text.append(c);
+        continue;
+      }
+      char escaped = json.charAt(i++);
+      switch (escaped) {
+        case 'n' -> text.append('\n');
+        case 'r' -> text.append('\r');
+        case 't' -> text.append('\t');
+        case 'b' -> text.append('\b');
+        case 'f' -> text.append('\f');
+        case 'u' -> {
+          if (i + 4 <= json.length()) {
+            text.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+            i += 4;
+          }
+        }
+        default -> text.append(escaped);
+      }
+    }
+    return i;
+  }
+}
@@ -0,0 +1,64 @@
+package com.ovhcloud.ai.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Samples of one endpoint during a load test: the latencies and times to
+ * first byte of the successful requests, in nanoseconds, and the failures
+ * by HTTP status (0 when there is no response at all).
+ * Every sample is kept, a test of a few minutes is at most a few hundred
+ * thousands of them.
+ */
+final class LatencyRecorder {
+  private long[] latencies = new long[1024];
+  private long[] timesToFirstByte = new long[1024];
+  private int count;
+  private long bytes;
+  private final Map<Integer, Integer> failures = new TreeMap<>();
+
+  synchronized void success(long latencyNanos, long timeToFirstByteNanos, long responseBytes) {
+    if (count == latencies.length) {
+      latencies = Arrays.copyOf(latencies, count * 2);
+      timesToFirstByte = Arrays.copyOf(timesToFirstByte, count * 2);
+    }
+    latencies[count] = latencyNanos;
+    timesToFirstByte[count] = timeToFirstByteNanos;
+    count++;
+    bytes += responseBytes;
+  }
+
+  synchronized void failure(int status) {
+    failures.merge(status, 1, Integer::sum);
+  }
+
+  /**
+   * Summary of the samples, for a test which lasted the given time.
+   */
+  synchronized Summary summary(long durationNanos) {
+    long[] sortedLatencies = Arrays.copyOf(latencies, count);
+    long[] sortedTimesToFirstByte = Arrays.copyOf(timesToFirstByte, count);
+    Arrays.sort(sortedLatencies);
+    Arrays.sort(sortedTimesToFirstByte);
+    int failed = failures.values().stream().mapToInt(Integer::intValue).sum();
+    double seconds = durationNanos / 1e9;
+    return new Summary(count, failed, new TreeMap<>(failures), count / seconds, bytes / seconds,
+        percentile(sortedLatencies, 0.50), percentile(sortedLatencies, 0.90), percentile(sortedLatencies, 0.99),
+        count == 0 ? 0 : sortedLatencies[count - 1],
+        percentile(sortedTimesToFirstByte, 0.50), percentile(sortedTimesToFirstByte, 0.99));
+  }
+
+  private static long percentile(long[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percentile * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+  }
+
+  record Summary(int succeeded, int failed, Map<Integer, Integer> failuresByStatus, double throughput,
+      double bytesPerSecond, long p50, long p90, long p99, long max, long timeToFirstByteP50,
+      long timeToFirstByteP99) {
+  }
+}
@@ -0,0 +1,174 @@
+package com.ovhcloud.ai.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the chatbot endpoints at a target rate and reports, per endpoint,
+ * the p50/p90/p99 latencies, the time to first byte (the first token for
+ * the streaming endpoints) and the throughput.
+ * The requests are sent at a fixed rate whatever the response times (open
+ * model), and the latencies are measured from the time a request should
+ * have been sent: a slow server is not hidden by a late load generator.
+ * Settings, as system properties:
+ * - load.target (http://localhost:8080),
+ * - load.endpoints (simple,advanced,memory), used in turn,
+ * - load.rate (10 requests per second, for all the endpoints),
+ * - load.duration-seconds (60) and load.timeout-seconds (60),
+ * - load.questions (50): number of distinct questions, repeated at random,
+ * - load.sessions (100): number of memory ids of the memory endpoint,
+ * - load.sse (false): ask the streaming endpoints for Server-Sent Events.
+ * Start the chatbot on the simulated endpoint, see {@link SimulatedEndpoint}.
+ */
+public class LoadGenerator {
+
+  record Settings(URI target, List<String> endpoints, double rate, Duration duration, Duration timeout,
+      int questions, int sessions, boolean sse) {
+
+    static Settings fromSystemProperties() {
+      return new Settings(
+          URI.create(System.getProperty("load.target", "http://localhost:8080")),
+          List.of(System.getProperty("load.endpoints", "simple,advanced,memory").split(",")),
+          Double.parseDouble(System.getProperty("load.rate", "10")),
+          Duration.ofSeconds(Long.getLong("load.duration-seconds", 60)),
+          Duration.ofSeconds(Long.getLong("load.timeout-seconds", 60)),
+          Integer.getInteger("load.questions", 50),
+          Integer.getInteger("load.sessions", 100),
+          Boolean.getBoolean("load.sse"));
+    }
+  }
+
+  private final Settings settings;
+  private final HttpClient client;
+  private final Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+  private final AtomicLong inFlight = new AtomicLong();
+
+  public LoadGenerator(Settings settings) {
+    this.settings = settings;
+    this.client = HttpClient.newBuilder()
+        .connectTimeout(Duration.ofSeconds(10))
+        .build();
+    for (String endpoint : settings.endpoints()) {
+      recorders.put(endpoint, new LatencyRecorder());
+    }
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    Settings settings = Settings.fromSystemProperties();
+    System.out.println("Load test " + settings);
+    new LoadGenerator(settings).run();
+  }
+
+  public void run() throws InterruptedException {
+    long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / settings.rate());
+    long start = System.nanoTime();
+    long end = start + settings.duration().toNanos();
+    long maxInFlight = 0;
+    // One virtual thread per request, they mostly wait for the chatbot
+    ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    for (long i = 0;; i++) {
+      long intended = start + i * intervalNanos;
+      if (intended >= end) {
+        break;
+      }
+      long wait = intended - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      String endpoint = settings.endpoints().get((int) (i % settings.endpoints().size()));
+      inFlight.incrementAndGet();
+      executor.execute(() -> {
+        try {
+          send(endpoint, intended);
+        } finally {
+          inFlight.decrementAndGet();
+        }
+      });
+      maxInFlight = Math.max(maxInFlight, inFlight.get());
+    }
+    executor.shutdown();
+    if (!executor.awaitTermination(settings.timeout().toSeconds(), TimeUnit.SECONDS)) {
+      executor.shutdownNow();
+    }
+    long duration = System.nanoTime() - start;
+    report(duration, maxInFlight);
+  }
+
+  private void send(String endpoint, long intended) {
+    LatencyRecorder recorder = recorders.get(endpoint);
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String question = "Question " + random.nextInt(settings.questions())
+        + ": what is the name of the OVHcloud product to use an LLM?";
+    String path = "/chatbot/" + endpoint;
+    HttpRequest.Builder request = HttpRequest.newBuilder()
+        .timeout(settings.timeout())
+        .POST(HttpRequest.BodyPublishers.ofString(question));
+    if ("memory".equals(endpoint)) {
+      request.header("X-Memory-Id", "load-" + random.nextInt(settings.sessions()));
+    }
+    if (settings.sse() && !"simple".equals(endpoint)) {
+      request.header("Accept", "text/event-stream");
+    }
+    request.uri(settings.target().resolve(path));
+    try {
+      HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+      try (InputStream body = response.body()) {
+        long timeToFirstByte = -1;
+        long bytes = 0;
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = body.read(buffer)) >= 0) {
+          if (timeToFirstByte < 0 && read > 0) {
+            timeToFirstByte = System.nanoTime() - intended;
+          }
+          bytes += read;
+        }
+        long latency = System.nanoTime() - intended;
+        if (response.statusCode() / 100 != 2) {
+          recorder.failure(response.statusCode());
+        } else {
+          recorder.success(latency, timeToFirstByte < 0 ? latency : timeToFirstByte, bytes);
+        }
+      }
+    } catch (IOException e) {
+      recorder.failure(0);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      recorder.failure(0);
+    }
+  }
+
+  private void report(long durationNanos, long maxInFlight) {
+    System.out.printf(Locale.ROOT, "Duration %.1f s, target rate %.1f req/s, max in flight %d%n",
+        durationNanos / 1e9, settings.rate(), maxInFlight);
+    System.out.printf(Locale.ROOT, "%-10s %8s %8s %10s %10s %9s %9s %9s %9s %10s %10s %s%n",
+        "endpoint", "ok", "failed", "req/s", "KB/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "ttfb p50",
+        "ttfb p99", "failures");
+    recorders.forEach((endpoint, recorder) -> {
+      LatencyRecorder.Summary summary = recorder.summary(durationNanos);
+      System.out.printf(Locale.ROOT, "%-10s %8d %8d %10.2f %10.1f %9.1f %9.1f %9.1f %9.1f %10.1f %10.1f %s%n",
+          endpoint, summary.succeeded(), summary.failed(), summary.throughput(), summary.bytesPerSecond() / 1024,
+          millis(summary.p50()), millis(summary.p90()), millis(summary.p99()), millis(summary.max()),
+          millis(summary.timeToFirstByteP50()), millis(summary.timeToFirstByteP99()), summary.failuresByStatus());
+    });
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+}
@@ -0,0 +1,222 @@
+package com.ovhcloud.ai.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the OVHcloud AI Endpoints model, to load-test the
+ * chatbot without paying for tokens nor measuring the noise of the real
+ * endpoint.
+ * It speaks the OpenAI compatible API used by the Mistral clients:
+ * - POST .../chat/completions, with or without "stream": true,
+ * - POST .../embeddings, with deterministic vectors for a given text.
+ * The answers are made of random words and their timing is configurable
+ * with system properties:
+ * - simulator.port (8090),
+ * - simulator.time-to-first-token-ms (300) and simulator.tokens-per-second (50),
+ * - simulator.answer-tokens (120),
+ * - simulator.jitter (0.2): each delay varies randomly by +/- this ratio,
+ * - simulator.error-rate (0.0) and simulator.error-status (503),
+ * - simulator.embedding-dimension (1024).
+ * Point the Quarkus chatbot at it with:
+ * OVH_AI_ENDPOINTS_MODEL_URL=http://localhost:8090/v1
+ */
+public class SimulatedEndpoint {
+  private static final String[] WORDS = {
+      "Nestor", "is", "a", "virtual", "assistant", "and", "the", "answer", "to", "your", "question", "is",
+      "that", "OVHcloud", "AI", "Endpoints", "serves", "open", "models", "with", "an", "API", "so", "you",
+      "can", "use", "them", "from", "Java", "with", "LangChain4j", "or", "Quarkus."
+  };
+
+  record Settings(int port, long timeToFirstTokenMs, double tokensPerSecond, int answerTokens, double jitter,
+      double errorRate, int errorStatus, int embeddingDimension) {
+
+    static Settings fromSystemProperties() {
+      return new Settings(
+          Integer.getInteger("simulator.port", 8090),
+          Long.getLong("simulator.time-to-first-token-ms", 300),
+          Double.parseDouble(System.getProperty("simulator.tokens-per-second", "50")),
+          Integer.getInteger("simulator.answer-tokens", 120),
+          Double.parseDouble(System.getProperty("simulator.jitter", "0.2")),
+          Double.parseDouble(System.getProperty("simulator.error-rate", "0.0")),
+          Integer.getInteger("simulator.error-status", 503),
+          Integer.getInteger("simulator.embedding-dimension", 1024));
+    }
+  }
+
+  private final Settings settings;
+  private HttpServer server;
+
+  public SimulatedEndpoint(Settings settings) {
+    this.settings = settings;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Settings settings = Settings.fromSystemProperties();
+    new SimulatedEndpoint(settings).start();
+    System.out.println("Simulated endpoint listening on http://localhost:" + settings.port() + "/v1 " + settings);
+  }
+
+  public void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(settings.port()), 1024);
+    // The answers are mostly waiting: one virtual thread per request
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.createContext("/", this::handle);
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      String path = exchange.getRequestURI().getPath();
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        sendJson(exchange, 405, error("Only POST is supported"));
+        return;
+      }
+      String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+      if (ThreadLocalRandom.current().nextDouble() < settings.errorRate()) {
+        sleep(jittered(settings.timeToFirstTokenMs()));
+        sendJson(exchange, settings.errorStatus(), error("Simulated error"));
+      } else if (path.endsWith("/chat/completions")) {
+        chatCompletion(exchange, request);
+      } else if (path.endsWith("/embeddings")) {
+        embeddings(exchange, request);
+      } else {
+        sendJson(exchange, 404, error("Unknown path " + path));
+      }
+    } catch (IOException e) {
+      // The client went away, typically a cancelled stream
+    }
+  }
+
+  private void chatCompletion(HttpExchange exchange, String request) throws IOException {
+    String model = Json.stringField(request, "model", "simulated");
+    String id = "chatcmpl-" + UUID.randomUUID();
+    long created = System.currentTimeMillis() / 1000;
+    int promptTokens = Math.max(1, request.length() / 4);
+    int answerTokens = settings.answerTokens();
+    String usage = "{\"prompt_tokens\":" + promptTokens + ",\"completion_tokens\":" + answerTokens
+        + ",\"total_tokens\":" + (promptTokens + answerTokens) + "}";
+
+    sleep(jittered(settings.timeToFirstTokenMs()));
+    if (!Json.booleanField(request, "stream")) {
+      // The whole answer once generated
+      sleep(jittered((long) ((answerTokens - 1) * 1000 / settings.tokensPerSecond())));
+      StringBuilder answer = new StringBuilder();
+      for (int i = 0; i < answerTokens; i++) {
+        answer.append(token(i));
+      }
+      sendJson(exchange, 200, "{\"id\":\"" + id + "\",\"object\":\"chat.completion\",\"created\":" + created
+          + ",\"model\":" + Json.quote(model)
+          + ",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":"
+          + Json.quote(answer.toString()) + "},\"finish_reason\":\"stop\"}],\"usage\":" + usage + "}");
+      return;
+    }
+
+    // One server-sent event per token
+    exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    exchange.sendResponseHeaders(200, 0);
+    OutputStream body = exchange.getResponseBody();
+    String chunkStart = "data: {\"id\":\"" + id + "\",\"object\":\"chat.completion.chunk\",\"created\":" + created
+        + ",\"model\":" + Json.quote(model) + ",\"choices\":[{\"index\":0,\"delta\":";
+    long tokenIntervalMs = (long) (1000 / settings.tokensPerSecond());
+    for (int i = 0; i < answerTokens; i++) {
+      if (i > 0) {
+        sleep(jittered(tokenIntervalMs));
+      }
+      String delta = (i == 0 ? "{\"role\":\"assistant\",\"content\":" : "{\"content\":") + Json.quote(token(i)) + "}";
+      write(body, chunkStart + delta + ",\"finish_reason\":null}]}\n\n");
+    }
+    write(body, chunkStart + "{\"content\":\"\"},\"finish_reason\":\"stop\"}],\"usage\":" + usage + "}\n\n");
+    write(body, "data: [DONE]\n\n");
+  }
+
+  private void embeddings(HttpExchange exchange, String request) throws IOException {
+    String model = Json.stringField(request, "model", "simulated");
+    List<String> inputs = Json.stringsField(request, "input");
+    int tokens = 0;
+    StringBuilder data = new StringBuilder();
+    for (int i = 0; i < inputs.size(); i++) {
+      String input = inputs.get(i);
+      tokens += Math.max(1, input.length() / 4);
+      data.append(i == 0 ? "" : ",").append("{\"object\":\"embedding\",\"index\":").append(i).append(",\"embedding\":[");
+      float[] vector = vector(input);
+      for (int d = 0; d < vector.length; d++) {
+        data.append(d == 0 ? "" : ",").append(vector[d]);
+      }
+      data.append("]}");
+    }
+    // An embedding costs about the time to first token
+    sleep(jittered(settings.timeToFirstTokenMs() / 4));
+    sendJson(exchange, 200, "{\"object\":\"list\",\"data\":[" + data + "],\"model\":" + Json.quote(model)
+        + ",\"usage\":{\"prompt_tokens\":" + tokens + ",\"total_tokens\":" + tokens + "}}");
+  }
+
+  // Same text, same unit vector: the semantic cache of the chatbot hits on
+  // repeated questions
+  private float[] vector(String text) {
+    SplittableRandom random = new SplittableRandom(text.hashCode());
+    float[] vector = new float[settings.embeddingDimension()];
+    double norm = 0;
+    for (int i = 0; i < vector.length; i++) {
+      vector[i] = (float) random.nextDouble(-1, 1);
+      norm += vector[i] * vector[i];
+    }
+    float inverse = (float) (1 / Math.sqrt(norm));
+    for (int i = 0; i < vector.length; i++) {
+      vector[i] *= inverse;
+    }
+    return vector;
+  }
+
+  private static String token(int index) {
+    return WORDS[index % WORDS.length] + " ";
+  }
+
+  private long jittered(long delayMs) {
+    double jitter = settings.jitter();
+    if (jitter <= 0 || delayMs <= 0) {
+      return delayMs;
+    }
+    return Math.max(0, Math.round(delayMs * (1 + ThreadLocalRandom.current().nextDouble(-jitter, jitter))));
+  }
+
+  private static String error(String message) {
+    return "{\"error\":{\"message\":" + Json.quote(message) + ",\"type\":\"server_error\"}}";
+  }
+
+  private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    exchange.getResponseBody().write(bytes);
+  }
+
+  private static void write(OutputStream body, String text) throws IOException {
+    body.write(text.getBytes(StandardCharsets.UTF_8));
+    body.flush();
+  }
+
+  private static void sleep(long delayMs) {
+    try {
+      TimeUnit.MILLISECONDS.sleep(delayMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
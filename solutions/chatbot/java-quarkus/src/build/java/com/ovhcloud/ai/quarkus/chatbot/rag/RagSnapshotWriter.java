@@ -0,0 +1,134 @@
+package com.ovhcloud.ai.quarkus.chatbot.rag;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import com.ovhcloud.ai.langchain4j.chatbot.retrieval.Bm25Index;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.parser.TextDocumentParser;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+
+import static dev.langchain4j.data.document.loader.FileSystemDocumentLoader.loadDocument;
+
+/**
+ * Builds the RAG snapshot at build time, see the exec-maven-plugin in the pom.xml:
+ * the files of the directory are split and indexed by the Bm25Index of the
+ * langchain4j chatbot, then the index is written in the layout of
+ * {@link RagSnapshot}.
+ * This class is only compiled for the build (src/build/java), it is not part
+ * of the application.
+ * Usage: RagSnapshotWriter src/main/rag-files target/classes/rag/index.bin
+ */
+public class RagSnapshotWriter implements Bm25Index.Exporter {
+  private final List<String> texts = new ArrayList<>();
+  private final List<String> sources = new ArrayList<>();
+  private final List<Integer> lengths = new ArrayList<>();
+  private long totalLength;
+  // Positions of the segments and frequencies of each term
+  private final Map<String, int[][]> postings = new LinkedHashMap<>();
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      throw new IllegalArgumentException("Usage: RagSnapshotWriter <directory> <snapshot>");
+    }
+    Path directory = Path.of(args[0]);
+    Path snapshot = Path.of(args[1]);
+    List<Path> files;
+    try (Stream<Path> paths = Files.list(directory)) {
+      files = paths.filter(Files::isRegularFile).sorted().toList();
+    }
+    Bm25Index index = new Bm25Index();
+    for (Path file : files) {
+      Document document = loadDocument(file, new TextDocumentParser());
+      index.addAll(DocumentSplitters.recursive(400, 0).split(document));
+    }
+    RagSnapshotWriter writer = new RagSnapshotWriter();
+    index.export(writer);
+    Files.createDirectories(snapshot.toAbsolutePath().getParent());
+    Files.write(snapshot, writer.toBytes());
+    System.out.printf("RAG snapshot: %d segments of %d files in %s (%d bytes)%n", writer.texts.size(), files.size(),
+        snapshot, Files.size(snapshot));
+  }
+
+  @Override
+  public void segment(TextSegment segment, int length) {
+    texts.add(segment.text());
+    sources.add(segment.metadata().getString(Document.FILE_NAME));
+    lengths.add(length);
+    totalLength += length;
+  }
+
+  @Override
+  public void term(String term, int[] segments, int[] frequencies) {
+    postings.put(term, new int[][] { segments, frequencies });
+  }
+
+  byte[] toBytes() {
+    // Half full at most, a power of two
+    int slotCount = Integer.highestOneBit(Math.max(2, postings.size()) * 2 - 1) << 1;
+    int slotsOffset = RagSnapshot.HEADER + texts.size() * RagSnapshot.SEGMENT_ENTRY;
+    int dataOffset = slotsOffset + slotCount * RagSnapshot.SLOT_ENTRY;
+
+    try {
+      ByteBuffer head = ByteBuffer.allocate(dataOffset);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(bytes);
+      head.putInt(RagSnapshot.MAGIC).putInt(RagSnapshot.VERSION).putInt(texts.size()).putInt(slotCount)
+          .putLong(totalLength);
+      // The sources are written once
+      Map<String, Integer> sourceOffsets = new HashMap<>();
+      for (int segment = 0; segment < texts.size(); segment++) {
+        byte[] text = texts.get(segment).getBytes(StandardCharsets.UTF_8);
+        byte[] source = sources.get(segment).getBytes(StandardCharsets.UTF_8);
+        head.putInt(dataOffset + data.size()).putInt(text.length);
+        data.write(text);
+        Integer sourceOffset = sourceOffsets.get(sources.get(segment));
+        if (sourceOffset == null) {
+          sourceOffset = dataOffset + data.size();
+          sourceOffsets.put(sources.get(segment), sourceOffset);
+          data.write(source);
+        }
+        head.putInt(sourceOffset).putInt(source.length).putInt(lengths.get(segment));
+      }
+      for (Map.Entry<String, int[][]> entry : postings.entrySet()) {
+        byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        int[] segments = entry.getValue()[0];
+        int[] frequencies = entry.getValue()[1];
+        int termOffset = dataOffset + data.size();
+        data.write(term);
+        int postingsOffset = dataOffset + data.size();
+        for (int i = 0; i < segments.length; i++) {
+          data.writeInt(segments[i]);
+          data.writeInt(frequencies[i]);
+        }
+        int probe = RagSnapshot.hash(term) & (slotCount - 1);
+        while (head.getInt(slotsOffset + probe * RagSnapshot.SLOT_ENTRY + 4) != 0) {
+          probe = (probe + 1) & (slotCount - 1);
+        }
+        head.position(slotsOffset + probe * RagSnapshot.SLOT_ENTRY);
+        head.putInt(termOffset).putInt(term.length).putInt(postingsOffset).putInt(segments.length);
+      }
+      data.flush();
+      byte[] snapshot = new byte[dataOffset + data.size()];
+      System.arraycopy(head.array(), 0, snapshot, 0, dataOffset);
+      System.arraycopy(bytes.toByteArray(), 0, snapshot, dataOffset, data.size());
+      return snapshot;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
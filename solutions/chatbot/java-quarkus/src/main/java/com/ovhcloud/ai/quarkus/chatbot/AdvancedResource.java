@@ -1,11 +1,24 @@
 package com.ovhcloud.ai.quarkus.chatbot;
 
+import com.ovhcloud.ai.quarkus.chatbot.admission.Bulkhead;
+import com.ovhcloud.ai.quarkus.chatbot.audit.ConversationAuditLog;
+import com.ovhcloud.ai.quarkus.chatbot.cache.SemanticCache;
+import com.ovhcloud.ai.quarkus.chatbot.coalescing.RequestCoalescer;
+import com.ovhcloud.ai.quarkus.chatbot.generation.GenerationLimiter;
+import com.ovhcloud.ai.quarkus.chatbot.metrics.ChatMetrics;
 import com.ovhcloud.ai.quarkus.chatbot.service.AIAdvancedService;
+import com.ovhcloud.ai.quarkus.chatbot.sse.TokenFramer;
 
 import io.smallrye.mutiny.Multi;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.BeanParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
 
 /**
  * Main entry for the simple chatbot exercise.
@@ -14,6 +27,13 @@ import jakarta.ws.rs.Path;
  * The verb to use is POST.
  * The payload is the question to send to the LLM.
  * The response is the answer given by the LLM.
+ * With the "Accept: text/event-stream" header the answer is sent as
+ * Server-Sent Events, see {@link TokenFramer}; any other Accept header gets
+ * the plain text stream.
+ * The generation stops when the client leaves, and at the deadline or the
+ * maximum number of tokens given in the headers, see {@link GenerationLimiter}.
+ * The caller is identified by the X-Api-Key header, the tenant sharing the
+ * LLM fairly with the others in the bulkhead.
  * see https://quarkus.io/guides/rest
  */
 // Declare a base path for the resource. call it "chatbot"
@@ -23,13 +43,63 @@ public class AdvancedResource {
   @Inject
   AIAdvancedService advancedService;
 
+  // Inject the semantic cache, used only if enabled
+  @Inject
+  SemanticCache semanticCache;
+
+  // Inject the coalescer to share the identical in-flight questions
+  @Inject
+  RequestCoalescer requestCoalescer;
+
+  // Inject the bulkhead limiting the concurrent calls to the LLM
+  @Inject
+  Bulkhead bulkhead;
+
+  // Inject the metrics of the calls to the LLM
+  @Inject
+  ChatMetrics chatMetrics;
+
+  // Inject the audit log of the conversations
+  @Inject
+  ConversationAuditLog auditLog;
+
+  // Inject the limiter ending the generations early
+  @Inject
+  GenerationLimiter generationLimiter;
+
+  // Inject the framer grouping the tokens into Server-Sent Events
+  @Inject
+  TokenFramer tokenFramer;
+
   // Declare a POST method with the "advanced" path and activate the streaming
   // mode
   @Path("advanced")
   @POST
-  public Multi<String> ask(String question) {
+  @Produces(MediaType.TEXT_PLAIN)
+  public Multi<String> ask(@BeanParam ChatHeaders headers, String question) {
     // Call the askAQuestion method of the AISimpleService service and stream the
     // answer, see https://quarkus.io/guides/getting-started-reactive
-    return advancedService.askAQuestion(question);
+    // A cached answer is replayed as a stream, identical in-flight questions
+    // share the same upstream stream, which goes through the bulkhead and is
+    // measured. The budget applies to each client, the shared upstream stream
+    // is cancelled once no client listens to it anymore. The answer received by
+    // the client is audited as a whole
+    GenerationLimiter.Budget budget = headers.budget(generationLimiter);
+    String tenant = Bulkhead.tenant(headers.apiKey);
+    return auditLog.stream("advanced", tenant, question,
+        () -> generationLimiter.limit(budget, () -> requestCoalescer.stream("advanced", question,
+            () -> semanticCache.stream("advanced", question,
+                () -> bulkhead.stream(tenant, Bulkhead.Priority.INTERACTIVE,
+                    () -> chatMetrics.stream("advanced", question,
+                        () -> generationLimiter.upstream(() -> advancedService.askAQuestion(question))))))));
+  }
+
+  // Same endpoint as Server-Sent Events, selected by the Accept header only:
+  // the lower quality leaves the plain text to the clients accepting anything
+  @Path("advanced")
+  @POST
+  @Produces(MediaType.SERVER_SENT_EVENTS + ";qs=0.5")
+  public Multi<OutboundSseEvent> askAsEvents(@BeanParam ChatHeaders headers, String question, @Context Sse sse) {
+    return tokenFramer.frames(ask(headers, question), sse);
   }
 }
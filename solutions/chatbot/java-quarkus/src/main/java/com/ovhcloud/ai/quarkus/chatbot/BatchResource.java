@@ -0,0 +1,157 @@
+package com.ovhcloud.ai.quarkus.chatbot;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.RestMediaType;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+
+import com.ovhcloud.ai.quarkus.chatbot.admission.Bulkhead;
+import com.ovhcloud.ai.quarkus.chatbot.audit.ConversationAuditLog;
+import com.ovhcloud.ai.quarkus.chatbot.cache.SemanticCache;
+import com.ovhcloud.ai.quarkus.chatbot.coalescing.RequestCoalescer;
+import com.ovhcloud.ai.quarkus.chatbot.metrics.ChatMetrics;
+import com.ovhcloud.ai.quarkus.chatbot.service.AISimpleService;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Entry for the batch jobs, to ask many questions at once.
+ * The goal is to have a endpoint as following : http://localhost:8080/chatbot/batch.
+ * The verb to use is POST.
+ * The payload is a JSON array of questions.
+ * The response is a stream of JSON lines (NDJSON), one per question, in the
+ * order the answers come, with the index of the question:
+ * {"index":3,"answer":"...","durationMs":1234} or {"index":4,"error":"..."}
+ * The questions are answered like the ones of the simple endpoint (cache,
+ * coalescing, bulkhead), a few at a time, each one with a timeout.
+ * They are bulk calls for the bulkhead: the interactive questions go first.
+ * So they have their own namespace in the cache and the coalescer: a
+ * question of the simple endpoint never waits for a bulk generation.
+ * see https://quarkus.io/guides/rest#streaming-support
+ */
+// Declare a base path for the resource. call it "chatbot"
+@Path("/chatbot")
+public class BatchResource {
+
+  @ConfigProperty(name = "chatbot.batch.concurrency", defaultValue = "16")
+  int concurrency;
+
+  @ConfigProperty(name = "chatbot.batch.item-timeout", defaultValue = "60s")
+  Duration itemTimeout;
+
+  @ConfigProperty(name = "chatbot.batch.max-questions", defaultValue = "10000")
+  int maxQuestions;
+
+  // Inject the AISimpleService service
+  @Inject
+  AISimpleService aiEndpointService;
+
+  // Inject the components in front of the LLM, shared with the simple endpoint
+  @Inject
+  SemanticCache semanticCache;
+
+  @Inject
+  RequestCoalescer requestCoalescer;
+
+  @Inject
+  Bulkhead bulkhead;
+
+  @Inject
+  ChatMetrics chatMetrics;
+
+  @Inject
+  ConversationAuditLog auditLog;
+
+  // The calls to the LLM are blocking, one virtual thread per question
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+  // Declare a POST method with the "batch" path, streaming JSON lines
+  @Path("batch")
+  @POST
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(RestMediaType.APPLICATION_NDJSON)
+  @RestStreamElementType(MediaType.TEXT_PLAIN)
+  public Multi<String> ask(@HeaderParam(Bulkhead.API_KEY_HEADER) String apiKey, String questions) {
+    JsonArray batch = questions(questions);
+    String tenant = Bulkhead.tenant(apiKey);
+    // At most "concurrency" questions in flight, the answers are emitted as
+    // soon as they come; a disconnected client cancels the remaining ones
+    return Multi.createFrom().range(0, batch.size())
+        .onItem().transformToUni(index -> answer(tenant, index, batch.getString(index)))
+        .merge(concurrency);
+  }
+
+  private JsonArray questions(String body) {
+    JsonArray batch;
+    try {
+      batch = new JsonArray(body == null ? "[]" : body);
+    } catch (DecodeException e) {
+      throw new BadRequestException("The payload must be a JSON array of questions");
+    }
+    if (batch.size() > maxQuestions) {
+      throw new BadRequestException("A batch must not exceed " + maxQuestions + " questions");
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      if (!(batch.getValue(i) instanceof String question) || question.isBlank()) {
+        throw new BadRequestException("The question " + i + " must be a non blank string");
+      }
+    }
+    return batch;
+  }
+
+  private Uni<String> answer(String tenant, int index, String question) {
+    long start = System.nanoTime();
+    return Uni.createFrom().<String>emitter(emitter -> {
+      Future<?> task = executor.submit(() -> {
+        try {
+          emitter.complete(askOne(tenant, question));
+        } catch (RuntimeException e) {
+          emitter.fail(e);
+        }
+      });
+      // Timed out or cancelled: stop waiting for the LLM
+      emitter.onTermination(() -> task.cancel(true));
+    })
+        .ifNoItem().after(itemTimeout).fail()
+        .map(answer -> new JsonObject()
+            .put("index", index)
+            .put("answer", answer)
+            .put("durationMs", (System.nanoTime() - start) / 1_000_000)
+            .encode())
+        .onFailure().recoverWithItem(failure -> new JsonObject()
+            .put("index", index)
+            .put("error", failure.getMessage() != null ? failure.getMessage() : failure.getClass().getSimpleName())
+            .put("durationMs", (System.nanoTime() - start) / 1_000_000)
+            .encode());
+  }
+
+  // Same path as the simple endpoint, at the bulk priority
+  private String askOne(String tenant, String question) {
+    return auditLog.call("batch", tenant, question, () -> requestCoalescer.call("batch", question,
+        () -> semanticCache.get("batch", question,
+            () -> bulkhead.call(tenant, Bulkhead.Priority.BULK,
+                () -> chatMetrics.call("batch", question, () -> aiEndpointService.askAQuestion(question))))));
+  }
+
+  void onStop(@Observes ShutdownEvent event) {
+    executor.shutdownNow();
+  }
+}
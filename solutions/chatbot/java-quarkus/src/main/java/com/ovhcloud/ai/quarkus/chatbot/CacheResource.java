@@ -0,0 +1,40 @@
+package com.ovhcloud.ai.quarkus.chatbot;
+
+import com.ovhcloud.ai.quarkus.chatbot.cache.SemanticCache;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Statistics of the semantic cache, used to tune the similarity threshold.
+ * http://localhost:8080/chatbot/cache gives the hit and miss counts.
+ * A DELETE on the same URL empties the cache.
+ */
+@Path("/chatbot/cache")
+public class CacheResource {
+
+  @Inject
+  SemanticCache semanticCache;
+
+  @GET
+  @Produces(MediaType.TEXT_PLAIN)
+  public String stats() {
+    long hits = semanticCache.hits();
+    long misses = semanticCache.misses();
+    long total = hits + misses;
+    return "enabled=" + semanticCache.isEnabled() + "\n"
+        + "size=" + semanticCache.size() + "\n"
+        + "hits=" + hits + "\n"
+        + "misses=" + misses + "\n"
+        + "hit-ratio=" + (total == 0 ? 0 : (double) hits / total) + "\n";
+  }
+
+  @DELETE
+  public void clear() {
+    semanticCache.clear();
+  }
+}
@@ -0,0 +1,28 @@
+package com.ovhcloud.ai.quarkus.chatbot;
+
+import com.ovhcloud.ai.quarkus.chatbot.admission.Bulkhead;
+import com.ovhcloud.ai.quarkus.chatbot.generation.GenerationLimiter;
+
+import jakarta.ws.rs.HeaderParam;
+
+/**
+ * Headers shared by the streaming endpoints, see
+ * https://quarkus.io/guides/rest#grouping-parameters-in-a-custom-class:
+ * - X-Api-Key, the caller, see {@link Bulkhead},
+ * - X-Generation-Deadline-Ms and X-Generation-Max-Tokens, the budget of the
+ * generation, see {@link GenerationLimiter}.
+ */
+public class ChatHeaders {
+  @HeaderParam(Bulkhead.API_KEY_HEADER)
+  String apiKey;
+
+  @HeaderParam(GenerationLimiter.DEADLINE_HEADER)
+  String deadline;
+
+  @HeaderParam(GenerationLimiter.MAX_TOKENS_HEADER)
+  String maxTokens;
+
+  GenerationLimiter.Budget budget(GenerationLimiter generationLimiter) {
+    return generationLimiter.budget(deadline, maxTokens);
+  }
+}
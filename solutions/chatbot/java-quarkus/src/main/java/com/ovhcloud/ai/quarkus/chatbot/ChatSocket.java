@@ -0,0 +1,282 @@
+package com.ovhcloud.ai.quarkus.chatbot;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.ovhcloud.ai.quarkus.chatbot.admission.Bulkhead;
+import com.ovhcloud.ai.quarkus.chatbot.admission.BulkheadRejectedException;
+import com.ovhcloud.ai.quarkus.chatbot.audit.ConversationAuditLog;
+import com.ovhcloud.ai.quarkus.chatbot.generation.GenerationLimiter;
+import com.ovhcloud.ai.quarkus.chatbot.memory.SessionChatMemoryProvider;
+import com.ovhcloud.ai.quarkus.chatbot.metrics.ChatMetrics;
+import com.ovhcloud.ai.quarkus.chatbot.service.AIMemoryService;
+
+import io.quarkus.websockets.next.CloseReason;
+import io.quarkus.websockets.next.OnClose;
+import io.quarkus.websockets.next.OnOpen;
+import io.quarkus.websockets.next.OnTextMessage;
+import io.quarkus.websockets.next.WebSocket;
+import io.quarkus.websockets.next.WebSocketConnection;
+import io.smallrye.mutiny.Multi;
+import io.vertx.core.json.JsonObject;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+
+/**
+ * WebSocket entry of the memory chatbot, for the clients staying connected:
+ * ws://localhost:8080/chatbot/chat/{memoryId}.
+ * The connection is bound to the memory id of the path, the conversation
+ * goes on over the turns without a new HTTP request per question.
+ * - the client sends a question as a text frame, one answer at a time,
+ * - the answer comes as frames starting with "+" followed by the text, the
+ * tokens received while a frame is being sent are grouped in the next one,
+ * - the answer ends with a frame starting with "$" followed by its usage in
+ * JSON, or with "!" followed by the error in JSON,
+ * - the client sends "/cancel" to stop the answer in progress, the upstream
+ * generation is cancelled; closing the connection does the same.
+ * A client reading slowly doesn't slow down the generation: the streamed
+ * model doesn't propagate the demand upstream, so all the tokens are requested
+ * and the ones received while a frame is being sent wait in memory, the
+ * answer being bounded by the generation budget. They are grouped in the next
+ * frames, of at most max-frame-length characters.
+ * The turns go through the same components as the memory endpoint, with the
+ * configured generation budget.
+ * see https://quarkus.io/guides/websockets-next-reference
+ */
+@WebSocket(path = "/chatbot/chat/{memoryId}")
+public class ChatSocket {
+  private static final Logger LOG = Logger.getLogger(ChatSocket.class);
+  static final String CANCEL = "/cancel";
+  private static final String TEXT_FRAME = "+";
+  private static final String END_FRAME = "$";
+  private static final String ERROR_FRAME = "!";
+  // Policy violation
+  private static final int INVALID_MEMORY_ID = 1008;
+
+  @ConfigProperty(name = "chatbot.websocket.max-frame-length", defaultValue = "1024")
+  int maxFrameLength;
+
+  // Inject the AIMemoryService service
+  @Inject
+  AIMemoryService aiMemoryService;
+
+  // Inject the components in front of the LLM, shared with the memory endpoint
+  @Inject
+  Bulkhead bulkhead;
+
+  @Inject
+  ChatMetrics chatMetrics;
+
+  @Inject
+  SessionChatMemoryProvider memoryProvider;
+
+  @Inject
+  GenerationLimiter generationLimiter;
+
+  @Inject
+  ConversationAuditLog auditLog;
+
+  // The answer in progress of each connection
+  private final Map<String, Answer> answers = new ConcurrentHashMap<>();
+
+  @OnOpen
+  void onOpen(WebSocketConnection connection) {
+    try {
+      MemoryResource.validMemoryId(connection.pathParam("memoryId"));
+    } catch (BadRequestException e) {
+      connection.close(new CloseReason(INVALID_MEMORY_ID, e.getMessage()))
+          .subscribe().with(closed -> {
+          }, failure -> LOG.warnf("Failed to close the connection %s: %s", connection.id(), failure.getMessage()));
+    }
+  }
+
+  @OnTextMessage
+  void onMessage(String message, WebSocketConnection connection) {
+    Answer current = answers.get(connection.id());
+    if (CANCEL.equals(message.trim())) {
+      if (current != null) {
+        current.cancel();
+      }
+      return;
+    }
+    if (message.isBlank()) {
+      sendError(connection, "The question must not be blank");
+      return;
+    }
+    Answer answer = new Answer(connection);
+    if (current != null || answers.putIfAbsent(connection.id(), answer) != null) {
+      sendError(connection, "An answer is in progress, send " + CANCEL + " to stop it");
+      return;
+    }
+    // The subscription only starts the turn, the tokens come on the threads
+    // of the LLM client
+    ask(connection, message).subscribe().withSubscriber(answer);
+  }
+
+  @OnClose
+  void onClose(WebSocketConnection connection) {
+    Answer answer = answers.remove(connection.id());
+    if (answer != null) {
+      answer.cancel();
+    }
+  }
+
+  private Multi<String> ask(WebSocketConnection connection, String question) {
+    String memoryId = connection.pathParam("memoryId");
+    String tenant = Bulkhead.tenant(connection.handshakeRequest().header(Bulkhead.API_KEY_HEADER));
+    return auditLog.stream("chat", tenant, question,
+        () -> generationLimiter.limit(generationLimiter.budget(null, null),
+            () -> bulkhead.stream(tenant, Bulkhead.Priority.INTERACTIVE,
+                () -> chatMetrics.stream("chat", question, () -> memoryProvider.peek(memoryId),
+                    () -> generationLimiter.upstream(() -> aiMemoryService.askAQuestion(question, memoryId))))));
+  }
+
+  private static void sendError(WebSocketConnection connection, String message) {
+    send(connection, ERROR_FRAME + new JsonObject().put("error", message).encode(), () -> {
+    });
+  }
+
+  private static void send(WebSocketConnection connection, String frame, Runnable onSent) {
+    connection.sendText(frame).subscribe().with(sent -> onSent.run(), failure -> {
+      // The connection is closed, the answer is cancelled by onClose
+      LOG.debugf("Failed to send a frame on %s: %s", connection.id(), failure.getMessage());
+    });
+  }
+
+  // State of one answer: the frames are sent one at a time, under the lock to
+  // keep them in order between the LLM thread and the end of the sendings
+  private final class Answer implements Flow.Subscriber<String> {
+    private final WebSocketConnection connection;
+    private final long start = System.nanoTime();
+    private final StringBuilder pending = new StringBuilder();
+    private Flow.Subscription subscription;
+    private boolean sending;
+    // Outcome of the answer, or its error, once the stream is over
+    private String end;
+    private JsonObject error;
+    private boolean endSent;
+    private boolean cancelled;
+    private long firstTokenNanos = -1;
+    private int tokenCount;
+    private int frameCount;
+
+    Answer(WebSocketConnection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public synchronized void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (cancelled) {
+        subscription.cancel();
+        return;
+      }
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized void onNext(String token) {
+      if (end != null) {
+        return;
+      }
+      if (firstTokenNanos < 0) {
+        firstTokenNanos = System.nanoTime() - start;
+      }
+      tokenCount++;
+      pending.append(token);
+      sendNext();
+    }
+
+    @Override
+    public synchronized void onError(Throwable failure) {
+      if (end != null) {
+        return;
+      }
+      error = new JsonObject().put("error", String.valueOf(failure.getMessage()));
+      if (failure instanceof BulkheadRejectedException rejection) {
+        error.put("retryAfterMs", rejection.retryAfter().toMillis());
+      }
+      end = "failed";
+      sendNext();
+    }
+
+    @Override
+    public synchronized void onComplete() {
+      if (end != null) {
+        return;
+      }
+      end = "completed";
+      sendNext();
+    }
+
+    // Stops the generation, the tokens already received are still sent
+    void cancel() {
+      Flow.Subscription toCancel;
+      synchronized (this) {
+        if (cancelled) {
+          return;
+        }
+        cancelled = true;
+        toCancel = subscription;
+        if (end == null) {
+          end = "cancelled";
+          sendNext();
+        }
+      }
+      if (toCancel != null) {
+        toCancel.cancel();
+      }
+    }
+
+    // Sends the pending text, or the last frame, unless a frame is being sent
+    private void sendNext() {
+      if (sending || endSent) {
+        return;
+      }
+      String frame;
+      if (!pending.isEmpty()) {
+        int length = Math.min(pending.length(), maxFrameLength);
+        // A surrogate pair is never split over two frames
+        if (length < pending.length() && Character.isHighSurrogate(pending.charAt(length - 1))) {
+          length--;
+        }
+        frame = TEXT_FRAME + pending.substring(0, length);
+        pending.delete(0, length);
+        frameCount++;
+      } else if (end != null) {
+        frame = error != null ? ERROR_FRAME + error.encode() : END_FRAME + usage();
+        endSent = true;
+      } else {
+        return;
+      }
+      sending = true;
+      send(connection, frame, this::onSent);
+    }
+
+    private synchronized void onSent() {
+      sending = false;
+      if (endSent) {
+        answers.remove(connection.id(), this);
+        return;
+      }
+      sendNext();
+    }
+
+    // The counts are the chunks streamed by the model, as the SSE usage event
+    private String usage() {
+      long timeToFirstTokenMs = firstTokenNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstTokenNanos);
+      return new JsonObject()
+          .put("outcome", end)
+          .put("tokens", tokenCount)
+          .put("frames", frameCount)
+          .put("timeToFirstTokenMs", timeToFirstTokenMs)
+          .put("durationMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+          .encode();
+    }
+  }
+}
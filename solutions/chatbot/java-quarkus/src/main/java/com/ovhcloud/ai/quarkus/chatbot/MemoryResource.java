@@ -1,12 +1,26 @@
 package com.ovhcloud.ai.quarkus.chatbot;
 
-import com.ovhcloud.ai.quarkus.chatbot.service.AIAdvancedService;
+import com.ovhcloud.ai.quarkus.chatbot.admission.Bulkhead;
+import com.ovhcloud.ai.quarkus.chatbot.audit.ConversationAuditLog;
+import com.ovhcloud.ai.quarkus.chatbot.generation.GenerationLimiter;
+import com.ovhcloud.ai.quarkus.chatbot.memory.SessionChatMemoryProvider;
+import com.ovhcloud.ai.quarkus.chatbot.metrics.ChatMetrics;
 import com.ovhcloud.ai.quarkus.chatbot.service.AIMemoryService;
+import com.ovhcloud.ai.quarkus.chatbot.sse.TokenFramer;
 
 import io.smallrye.mutiny.Multi;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.BeanParam;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
 
 /**
  * Main entry for the simple chatbot exercise.
@@ -15,22 +29,110 @@ import jakarta.ws.rs.Path;
  * The verb to use is POST.
  * The payload is the question to send to the LLM.
  * The response is the answer given by the LLM.
+ * The conversation is identified by the X-Memory-Id header, or by the path:
+ * http://localhost:8080/chatbot/memory/{memoryId}.
+ * With the "Accept: text/event-stream" header the answer is sent as
+ * Server-Sent Events, see {@link TokenFramer}; any other Accept header gets
+ * the plain text stream.
+ * The generation stops when the client leaves, and at the deadline or the
+ * maximum number of tokens given in the headers, see {@link GenerationLimiter}.
+ * The tenant sharing the LLM fairly with the others in the bulkhead is the
+ * caller identified by the X-Api-Key header, else the anonymous callers: a
+ * memory id is chosen by the client, it doesn't get a quota of its own.
  * see https://quarkus.io/guides/rest
  */
 // Declare a base path for the resource. call it "chatbot"
 @Path("/chatbot")
 public class MemoryResource {
+  static final String MEMORY_ID_HEADER = "X-Memory-Id";
+  private static final int MAX_MEMORY_ID_LENGTH = 128;
+
   // Inject the AIMemoryService service
   @Inject
   AIMemoryService aiMemoryService;
 
+  // Inject the bulkhead limiting the concurrent calls to the LLM
+  @Inject
+  Bulkhead bulkhead;
+
+  // Inject the metrics of the calls to the LLM, and the memories to measure
+  // their size
+  @Inject
+  ChatMetrics chatMetrics;
+
+  @Inject
+  SessionChatMemoryProvider memoryProvider;
+
+  // Inject the audit log of the conversations
+  @Inject
+  ConversationAuditLog auditLog;
+
+  // Inject the limiter ending the generations early
+  @Inject
+  GenerationLimiter generationLimiter;
+
+  // Inject the framer grouping the tokens into Server-Sent Events
+  @Inject
+  TokenFramer tokenFramer;
+
   // Declare a POST method with the "memory" path and activate the streaming
-  // mode
+  // mode, the memory id is given by a header
   @Path("memory")
   @POST
-  public Multi<String> ask(String question) {
+  @Produces(MediaType.TEXT_PLAIN)
+  public Multi<String> ask(@HeaderParam(MEMORY_ID_HEADER) String memoryId, @BeanParam ChatHeaders headers,
+      String question) {
+    return askInConversation(memoryId, headers, question);
+  }
+
+  // Same endpoint with the memory id in the path
+  @Path("memory/{memoryId}")
+  @POST
+  @Produces(MediaType.TEXT_PLAIN)
+  public Multi<String> askWithPath(@PathParam("memoryId") String memoryId, @BeanParam ChatHeaders headers,
+      String question) {
+    return askInConversation(memoryId, headers, question);
+  }
+
+  // Same endpoints as Server-Sent Events, selected by the Accept header only:
+  // the lower quality leaves the plain text to the clients accepting anything
+  @Path("memory")
+  @POST
+  @Produces(MediaType.SERVER_SENT_EVENTS + ";qs=0.5")
+  public Multi<OutboundSseEvent> askAsEvents(@HeaderParam(MEMORY_ID_HEADER) String memoryId,
+      @BeanParam ChatHeaders headers, String question, @Context Sse sse) {
+    return tokenFramer.frames(askInConversation(memoryId, headers, question), sse);
+  }
+
+  @Path("memory/{memoryId}")
+  @POST
+  @Produces(MediaType.SERVER_SENT_EVENTS + ";qs=0.5")
+  public Multi<OutboundSseEvent> askWithPathAsEvents(@PathParam("memoryId") String memoryId,
+      @BeanParam ChatHeaders headers, String question, @Context Sse sse) {
+    return tokenFramer.frames(askInConversation(memoryId, headers, question), sse);
+  }
+
+  // The pipeline shared by the four variants
+  private Multi<String> askInConversation(String memoryId, ChatHeaders headers, String question) {
     // Call the askAQuestion method of the AISimpleService service and stream the
     // answer, see https://quarkus.io/guides/getting-started-reactive
-    return aiMemoryService.askAQuestion(question, "user-one");
+    // No cache nor coalescing here: the answer depends on the conversation
+    String validMemoryId = validMemoryId(memoryId);
+    GenerationLimiter.Budget budget = headers.budget(generationLimiter);
+    String tenant = Bulkhead.tenant(headers.apiKey);
+    return auditLog.stream("memory", tenant, question, () -> generationLimiter.limit(budget,
+        () -> bulkhead.stream(tenant, Bulkhead.Priority.INTERACTIVE,
+            () -> chatMetrics.stream("memory", question, () -> memoryProvider.peek(validMemoryId),
+                () -> generationLimiter.upstream(() -> aiMemoryService.askAQuestion(question, validMemoryId))))));
+  }
+
+  static String validMemoryId(String memoryId) {
+    if (memoryId == null || memoryId.isBlank()) {
+      throw new BadRequestException("A memory id is required, in the " + MEMORY_ID_HEADER + " header or in the path");
+    }
+    if (memoryId.length() > MAX_MEMORY_ID_LENGTH) {
+      throw new BadRequestException("The memory id must not exceed " + MAX_MEMORY_ID_LENGTH + " characters");
+    }
+    return memoryId;
   }
 }
@@ -0,0 +1,55 @@
+package com.ovhcloud.ai.quarkus.chatbot;
+
+import com.ovhcloud.ai.quarkus.chatbot.admission.Bulkhead;
+import com.ovhcloud.ai.quarkus.chatbot.audit.ConversationAuditLog;
+import com.ovhcloud.ai.quarkus.chatbot.coalescing.RequestCoalescer;
+import com.ovhcloud.ai.quarkus.chatbot.metrics.ChatMetrics;
+import com.ovhcloud.ai.quarkus.chatbot.service.AIRagService;
+
+import io.smallrye.common.annotation.RunOnVirtualThread;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+
+/**
+ * RAG chatbot: the endpoint is http://localhost:8080/chatbot/rag.
+ * The verb to use is POST.
+ * The payload is the question to send to the LLM.
+ * The response is the answer given by the LLM, with the segments of the
+ * documents of src/main/rag-files the most relevant for the question.
+ * The segments are indexed when the application is built, see RagIndex.
+ */
+@Path("/chatbot")
+public class RagResource {
+
+  // Inject the AIRagService service
+  @Inject
+  AIRagService aiRagService;
+
+  // Inject the coalescer to share the identical in-flight questions
+  @Inject
+  RequestCoalescer requestCoalescer;
+
+  // Inject the bulkhead limiting the concurrent calls to the LLM
+  @Inject
+  Bulkhead bulkhead;
+
+  // Inject the metrics of the calls to the LLM
+  @Inject
+  ChatMetrics chatMetrics;
+
+  // Inject the audit log of the conversations
+  @Inject
+  ConversationAuditLog auditLog;
+
+  @Path("rag")
+  @POST
+  @RunOnVirtualThread
+  public String ask(@HeaderParam(Bulkhead.API_KEY_HEADER) String apiKey, String question) {
+    String tenant = Bulkhead.tenant(apiKey);
+    return auditLog.call("rag", tenant, question, () -> requestCoalescer.call("rag", question,
+        () -> bulkhead.call(tenant, Bulkhead.Priority.INTERACTIVE,
+            () -> chatMetrics.call("rag", question, () -> aiRagService.askAQuestion(question)))));
+  }
+}
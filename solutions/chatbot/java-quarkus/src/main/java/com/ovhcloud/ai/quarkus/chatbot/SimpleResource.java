@@ -1,8 +1,15 @@
 package com.ovhcloud.ai.quarkus.chatbot;
 
+import com.ovhcloud.ai.quarkus.chatbot.admission.Bulkhead;
+import com.ovhcloud.ai.quarkus.chatbot.audit.ConversationAuditLog;
+import com.ovhcloud.ai.quarkus.chatbot.cache.SemanticCache;
+import com.ovhcloud.ai.quarkus.chatbot.coalescing.RequestCoalescer;
+import com.ovhcloud.ai.quarkus.chatbot.metrics.ChatMetrics;
 import com.ovhcloud.ai.quarkus.chatbot.service.AISimpleService;
 
+import io.smallrye.common.annotation.RunOnVirtualThread;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 
@@ -12,6 +19,10 @@ import jakarta.ws.rs.Path;
  * The verb to use is POST.
  * The payload is the question to send to the LLM.
  * The response is the answer given by the LLM.
+ * The call to the LLM is blocking, so it runs on a virtual thread: a
+ * request waiting for the LLM does not hold a worker thread.
+ * The caller is identified by the X-Api-Key header, the tenant sharing the
+ * LLM fairly with the others in the bulkhead.
  * see https://quarkus.io/guides/rest
  */
 // Declare a base path for the resource. call it "chatbot"
@@ -22,11 +33,39 @@ public class SimpleResource {
   @Inject
   AISimpleService aiEndpointService;
 
+  // Inject the semantic cache, used only if enabled
+  @Inject
+  SemanticCache semanticCache;
+
+  // Inject the coalescer to share the identical in-flight questions
+  @Inject
+  RequestCoalescer requestCoalescer;
+
+  // Inject the bulkhead limiting the concurrent calls to the LLM
+  @Inject
+  Bulkhead bulkhead;
+
+  // Inject the metrics of the calls to the LLM
+  @Inject
+  ChatMetrics chatMetrics;
+
+  // Inject the audit log of the conversations
+  @Inject
+  ConversationAuditLog auditLog;
+
   // Declare a POST method with the "simple" path
   @Path("simple")
   @POST
-  public String ask(String question) {
-    // Call the askAQuestion method of the AISimpleService service
-    return aiEndpointService.askAQuestion(question);
+  @RunOnVirtualThread
+  public String ask(@HeaderParam(Bulkhead.API_KEY_HEADER) String apiKey, String question) {
+    // Call the askAQuestion method of the AISimpleService service, unless the
+    // answer is already in the cache or the same question is already in flight.
+    // Only the actual calls to the LLM go through the bulkhead and are measured,
+    // every answer given to the caller is audited
+    String tenant = Bulkhead.tenant(apiKey);
+    return auditLog.call("simple", tenant, question, () -> requestCoalescer.call("simple", question,
+        () -> semanticCache.get("simple", question,
+            () -> bulkhead.call(tenant, Bulkhead.Priority.INTERACTIVE,
+                () -> chatMetrics.call("simple", question, () -> aiEndpointService.askAQuestion(question))))));
   }
 }
\ No newline at end of file
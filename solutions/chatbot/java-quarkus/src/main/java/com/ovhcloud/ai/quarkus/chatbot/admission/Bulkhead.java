@@ -0,0 +1,441 @@
+package com.ovhcloud.ai.quarkus.chatbot.admission;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Admission control in front of the LLM: a maximum number of concurrent
+ * upstream calls shared fairly between the tenants (an API key, or the
+ * anonymous callers all together).
+ * - a tenant has a quota, a token bucket of tenant-rate calls per second up
+ * to tenant-burst (anonymous-rate and anonymous-burst for the anonymous
+ * tenant): a call over the quota is rejected right away with a 429,
+ * - a call gets a permit right away if a slot is free and nobody waits,
+ * - otherwise it waits in the queue of its priority: the interactive calls
+ * always go before the bulk ones, which never use more than max-bulk-calls
+ * slots, so that a batch leaves room for the interactive users,
+ * - within a priority the slots go to the tenants by weighted fair queuing
+ * (start-time fair queuing): a tenant of weight 2 gets twice as many slots as
+ * a tenant of weight 1 when both are waiting, whatever the number of calls
+ * they queued,
+ * - a call waits up to the queue timeout; if the queue is full the call is
+ * rejected right away, and a tenant can't take more than max-queue-per-tenant
+ * places of the queue.
+ * A rejection is a {@link BulkheadRejectedException}, answered with a 429 or
+ * a 503 and a Retry-After header. Waiting never blocks a thread: the permit is
+ * a future, so the same bulkhead serves the blocking and the streaming endpoints.
+ * Meters: chatbot.bulkhead.in.use, queued and tenants, and the
+ * chatbot.bulkhead.rejected and throttled counts.
+ */
+@ApplicationScoped
+public class Bulkhead {
+  public static final String API_KEY_HEADER = "X-Api-Key";
+  static final String ANONYMOUS = "anonymous";
+  private static final int MAX_IDLE_TENANTS = 10_000;
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  @ConfigProperty(name = "chatbot.bulkhead.enabled", defaultValue = "true")
+  boolean enabled;
+
+  @ConfigProperty(name = "chatbot.bulkhead.max-concurrent-calls", defaultValue = "64")
+  int maxConcurrentCalls;
+
+  @ConfigProperty(name = "chatbot.bulkhead.max-bulk-calls", defaultValue = "48")
+  int maxBulkCalls;
+
+  @ConfigProperty(name = "chatbot.bulkhead.max-queue", defaultValue = "256")
+  int maxQueue;
+
+  @ConfigProperty(name = "chatbot.bulkhead.max-queue-per-tenant", defaultValue = "32")
+  int maxQueuePerTenant;
+
+  @ConfigProperty(name = "chatbot.bulkhead.queue-timeout", defaultValue = "10s")
+  Duration queueTimeout;
+
+  @ConfigProperty(name = "chatbot.bulkhead.retry-after", defaultValue = "2s")
+  Duration retryAfter;
+
+  // Quota of each API key, in calls per second
+  @ConfigProperty(name = "chatbot.bulkhead.tenant-rate", defaultValue = "10")
+  double tenantRate;
+
+  @ConfigProperty(name = "chatbot.bulkhead.tenant-burst", defaultValue = "50")
+  double tenantBurst;
+
+  // Quota shared by the callers without an API key
+  @ConfigProperty(name = "chatbot.bulkhead.anonymous-rate", defaultValue = "50")
+  double anonymousRate;
+
+  @ConfigProperty(name = "chatbot.bulkhead.anonymous-burst", defaultValue = "100")
+  double anonymousBurst;
+
+  // tenant=weight entries, the weight is 1 by default
+  @ConfigProperty(name = "chatbot.bulkhead.tenant-weights")
+  Optional<List<String>> tenantWeights;
+
+  @Inject
+  MeterRegistry registry;
+
+  /**
+   * Interactive calls are answered before bulk ones.
+   */
+  public enum Priority {
+    INTERACTIVE, BULK
+  }
+
+  private final Map<String, Double> weights = new HashMap<>();
+  private final Map<String, Tenant> tenants = new HashMap<>();
+  private final PriorityQueue<Waiter>[] queues = newQueues();
+  // Start tag of the last call given a slot, per priority
+  private final double[] virtualTime = new double[Priority.values().length];
+  private long sequence;
+  private long sweptAt = System.nanoTime();
+  private int inUse;
+  private int bulkInUse;
+  private int queued;
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong throttled = new AtomicLong();
+
+  // State of a tenant, guarded by the bulkhead
+  private static final class Tenant {
+    final String id;
+    final double weight;
+    final double rate;
+    final double burst;
+    double tokens;
+    long refilledAt = System.nanoTime();
+    final double[] lastStart = new double[Priority.values().length];
+    int queued;
+    int inUse;
+
+    Tenant(String id, double weight, double rate, double burst) {
+      this.id = id;
+      this.weight = weight;
+      this.rate = rate;
+      this.burst = burst;
+      this.tokens = burst;
+    }
+  }
+
+  // A queued call, ordered by its start tag then by arrival
+  private record Waiter(CompletableFuture<Permit> future, Tenant tenant, Priority priority, double start,
+      long sequence) {
+  }
+
+  @SuppressWarnings("unchecked")
+  private static PriorityQueue<Waiter>[] newQueues() {
+    PriorityQueue<Waiter>[] queues = new PriorityQueue[Priority.values().length];
+    for (int i = 0; i < queues.length; i++) {
+      queues[i] = new PriorityQueue<>(Comparator.comparingDouble(Waiter::start).thenComparingLong(Waiter::sequence));
+    }
+    return queues;
+  }
+
+  @PostConstruct
+  void init() {
+    for (String entry : tenantWeights.orElse(List.of())) {
+      int separator = entry.lastIndexOf('=');
+      if (separator <= 0) {
+        throw new IllegalArgumentException("Expected a tenant=weight entry instead of " + entry);
+      }
+      weights.put(entry.substring(0, separator).trim(), Double.parseDouble(entry.substring(separator + 1).trim()));
+    }
+    Gauge.builder("chatbot.bulkhead.in.use", this, Bulkhead::inUse).register(registry);
+    Gauge.builder("chatbot.bulkhead.queued", this, Bulkhead::queued).register(registry);
+    Gauge.builder("chatbot.bulkhead.tenants", this, Bulkhead::tenants).register(registry);
+    FunctionCounter.builder("chatbot.bulkhead.rejected", this, Bulkhead::rejected).register(registry);
+    FunctionCounter.builder("chatbot.bulkhead.throttled", this, Bulkhead::throttled).register(registry);
+  }
+
+  /**
+   * A slot of the bulkhead, released once by {@link #close()}.
+   */
+  public final class Permit implements AutoCloseable {
+    private final AtomicBoolean released = new AtomicBoolean();
+    private final Tenant tenant;
+    private final Priority priority;
+
+    private Permit(Tenant tenant, Priority priority) {
+      this.tenant = tenant;
+      this.priority = priority;
+    }
+
+    @Override
+    public void close() {
+      if (released.compareAndSet(false, true)) {
+        release(this);
+      }
+    }
+  }
+
+  /**
+   * The tenant of a call: its API key (only a fingerprint of it is kept),
+   * else the anonymous tenant. Nothing else chosen by the client (a memory id
+   * for instance) makes a tenant, it would give it a quota of its own.
+   */
+  public static String tenant(String apiKey) {
+    if (apiKey != null && !apiKey.isBlank()) {
+      try {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(apiKey.trim().getBytes(StandardCharsets.UTF_8));
+        return "key-" + HexFormat.of().formatHex(digest, 0, 8);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return ANONYMOUS;
+  }
+
+  /**
+   * Runs a blocking call to the LLM once admitted. An interrupted caller
+   * leaves the queue.
+   */
+  public <T> T call(String tenant, Priority priority, Supplier<T> call) {
+    if (!enabled) {
+      return call.get();
+    }
+    CompletableFuture<Permit> pending = acquire(tenant, priority);
+    Permit permit;
+    try {
+      permit = pending.get();
+    } catch (InterruptedException e) {
+      abandon(pending);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a slot", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+    try (permit) {
+      return call.get();
+    }
+  }
+
+  /**
+   * Subscribes to the stream of the LLM once admitted, the slot is released
+   * when the stream ends, is cancelled or fails to start.
+   */
+  public Multi<String> stream(String tenant, Priority priority, Supplier<Multi<String>> generation) {
+    if (!enabled) {
+      return generation.get();
+    }
+    return Multi.createFrom().deferred(() -> {
+      CompletableFuture<Permit> pending = acquire(tenant, priority);
+      return Uni.createFrom().completionStage(pending)
+          .onCancellation().invoke(() -> abandon(pending))
+          // The permit is the resource of the stream: it is closed even if the
+          // generation fails to start
+          .onItem().transformToMulti(permit -> Multi.createFrom().resource(() -> permit, granted -> generation.get())
+              .withFinalizer(Permit::close));
+    });
+  }
+
+  /**
+   * Asks for a slot: the future completes with a permit when a slot is free,
+   * or fails with a {@link BulkheadRejectedException}.
+   */
+  public CompletableFuture<Permit> acquire(String tenantId, Priority priority) {
+    Waiter waiter;
+    synchronized (this) {
+      Tenant tenant = tenantOf(tenantId);
+      if (!takeToken(tenant)) {
+        throttled.incrementAndGet();
+        // Time for the bucket to get a token back
+        long retryMillis = (long) Math.ceil((1 - tenant.tokens) / tenant.rate * 1000);
+        return CompletableFuture.failedFuture(new BulkheadRejectedException(
+            "Too many questions for this tenant, retry later", 429, Duration.ofMillis(retryMillis)));
+      }
+      if (queues[Priority.INTERACTIVE.ordinal()].isEmpty()
+          && (priority == Priority.INTERACTIVE || queues[Priority.BULK.ordinal()].isEmpty())
+          && hasSlot(priority)) {
+        return CompletableFuture.completedFuture(grant(tenant, priority));
+      }
+      if (queued >= maxQueue || tenant.queued >= maxQueuePerTenant) {
+        rejected.incrementAndGet();
+        // Not admitted, the quota is given back
+        tenant.tokens = Math.min(tenant.burst, tenant.tokens + 1);
+        boolean tenantFull = tenant.queued >= maxQueuePerTenant;
+        return CompletableFuture.failedFuture(new BulkheadRejectedException(
+            tenantFull ? "Too many queued questions for this tenant, retry later"
+                : "Too many concurrent questions, retry later",
+            tenantFull ? 429 : 503, retryAfter));
+      }
+      // Start-time fair queuing: a tenant's calls are spaced by 1 / weight
+      int p = priority.ordinal();
+      double start = Math.max(virtualTime[p], tenant.lastStart[p] + 1 / tenant.weight);
+      tenant.lastStart[p] = start;
+      waiter = new Waiter(new CompletableFuture<>(), tenant, priority, start, sequence++);
+      queues[p].add(waiter);
+      queued++;
+      tenant.queued++;
+    }
+    // Timed out or cancelled: leave the queue
+    waiter.future().whenComplete((permit, failure) -> {
+      if (failure != null) {
+        dequeue(waiter);
+      }
+    });
+    CompletableFuture.delayedExecutor(queueTimeout.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+      if (waiter.future().completeExceptionally(
+          new BulkheadRejectedException("No slot available in time, retry later", 503, retryAfter))) {
+        rejected.incrementAndGet();
+      }
+    });
+    return waiter.future();
+  }
+
+  // Cancelled while queued: leave the queue, or give back the slot just granted
+  private static void abandon(CompletableFuture<Permit> pending) {
+    if (!pending.cancel(false)) {
+      pending.thenAccept(Permit::close);
+    }
+  }
+
+  private Tenant tenantOf(String id) {
+    long now = System.nanoTime();
+    // The idle buckets are forgotten from time to time, and when there are
+    // too many of them
+    if (now - sweptAt >= SWEEP_INTERVAL_NANOS || (tenants.size() >= MAX_IDLE_TENANTS && !tenants.containsKey(id))) {
+      forgetIdleTenants(now);
+      sweptAt = now;
+    }
+    Tenant tenant = tenants.get(id);
+    if (tenant == null) {
+      tenant = ANONYMOUS.equals(id)
+          ? new Tenant(id, weights.getOrDefault(id, 1.0), anonymousRate, anonymousBurst)
+          : new Tenant(id, weights.getOrDefault(id, 1.0), tenantRate, tenantBurst);
+      tenants.put(id, tenant);
+    }
+    return tenant;
+  }
+
+  // A tenant with nothing in flight and a full bucket is as good as a new one
+  private void forgetIdleTenants(long now) {
+    tenants.values().removeIf(tenant -> tenant.queued == 0 && tenant.inUse == 0
+        && (tenant.rate <= 0 || tenant.tokens + (now - tenant.refilledAt) / 1e9 * tenant.rate >= tenant.burst));
+  }
+
+  private boolean takeToken(Tenant tenant) {
+    if (tenant.rate <= 0) {
+      return true;
+    }
+    long now = System.nanoTime();
+    tenant.tokens = Math.min(tenant.burst, tenant.tokens + (now - tenant.refilledAt) / 1e9 * tenant.rate);
+    tenant.refilledAt = now;
+    if (tenant.tokens < 1) {
+      return false;
+    }
+    tenant.tokens--;
+    return true;
+  }
+
+  private boolean hasSlot(Priority priority) {
+    return inUse < maxConcurrentCalls && (priority == Priority.INTERACTIVE || bulkInUse < maxBulkCalls);
+  }
+
+  private Permit grant(Tenant tenant, Priority priority) {
+    inUse++;
+    tenant.inUse++;
+    if (priority == Priority.BULK) {
+      bulkInUse++;
+    }
+    return new Permit(tenant, priority);
+  }
+
+  private synchronized void dequeue(Waiter waiter) {
+    if (queues[waiter.priority().ordinal()].remove(waiter)) {
+      queued--;
+      waiter.tenant().queued--;
+    }
+  }
+
+  // Hands the slot over to the next waiter, completed outside the lock as it
+  // may start the next call on this thread
+  private void release(Permit permit) {
+    Permit released = permit;
+    while (true) {
+      Waiter next;
+      Permit granted;
+      synchronized (this) {
+        inUse--;
+        released.tenant.inUse--;
+        if (released.priority == Priority.BULK) {
+          bulkInUse--;
+        }
+        next = next();
+        if (next == null) {
+          return;
+        }
+        queued--;
+        next.tenant().queued--;
+        virtualTime[next.priority().ordinal()] = next.start();
+        granted = grant(next.tenant(), next.priority());
+      }
+      if (next.future().complete(granted)) {
+        return;
+      }
+      // Timed out or cancelled meanwhile, give the slot to the next one
+      released = granted;
+    }
+  }
+
+  private Waiter next() {
+    for (Priority priority : Priority.values()) {
+      PriorityQueue<Waiter> queue = queues[priority.ordinal()];
+      if (!queue.isEmpty() && hasSlot(priority)) {
+        return queue.poll();
+      }
+    }
+    return null;
+  }
+
+  public synchronized int inUse() {
+    return inUse;
+  }
+
+  public synchronized int queued() {
+    return queued;
+  }
+
+  public synchronized int tenants() {
+    return tenants.size();
+  }
+
+  public long rejected() {
+    return rejected.get();
+  }
+
+  /**
+   * Calls rejected because their tenant was over its quota.
+   */
+  public long throttled() {
+    return throttled.get();
+  }
+}
@@ -0,0 +1,25 @@
+package com.ovhcloud.ai.quarkus.chatbot.admission;
+
+import org.jboss.resteasy.reactive.server.ServerExceptionMapper;
+
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Maps a rejection of the bulkhead to a fast 429/503 response with a
+ * Retry-After header (in seconds).
+ * see https://quarkus.io/guides/rest#exception-mapping
+ */
+public class BulkheadExceptionMapper {
+
+  @ServerExceptionMapper
+  public Response mapRejection(BulkheadRejectedException rejection) {
+    long retryAfter = Math.max(1, (rejection.retryAfter().toMillis() + 999) / 1000);
+    return Response.status(rejection.status())
+        .header(HttpHeaders.RETRY_AFTER, retryAfter)
+        .type(MediaType.TEXT_PLAIN)
+        .entity(rejection.getMessage())
+        .build();
+  }
+}
@@ -0,0 +1,27 @@
+package com.ovhcloud.ai.quarkus.chatbot.admission;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a call to the LLM is not admitted by the bulkhead.
+ * It is mapped to an HTTP response with the given status and a Retry-After
+ * header, see {@link BulkheadExceptionMapper}.
+ */
+public class BulkheadRejectedException extends RuntimeException {
+  private final int status;
+  private final Duration retryAfter;
+
+  public BulkheadRejectedException(String message, int status, Duration retryAfter) {
+    super(message, null, false, false);
+    this.status = status;
+    this.retryAfter = retryAfter;
+  }
+
+  public int status() {
+    return status;
+  }
+
+  public Duration retryAfter() {
+    return retryAfter;
+  }
+}
@@ -0,0 +1,75 @@
+package com.ovhcloud.ai.quarkus.chatbot.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer, many producers and one consumer.
+ * Each slot has a sequence number telling whether it is free for the producer
+ * of a given position or ready for the consumer, so a producer only does a CAS
+ * on the head and never waits: when the ring is full the element is refused.
+ * see https://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+ */
+final class AuditRing<T> {
+  private final int mask;
+  private final AtomicReferenceArray<T> elements;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  // Used by the consumer only
+  private long tail;
+
+  AuditRing(int capacity) {
+    // A power of two to get a slot with a mask
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    this.mask = size - 1;
+    this.elements = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Adds the element, false if the ring is full.
+   */
+  boolean offer(T element) {
+    while (true) {
+      long position = head.get();
+      int slot = (int) position & mask;
+      long difference = sequences.get(slot) - position;
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          elements.lazySet(slot, element);
+          // Publishes the element to the consumer
+          sequences.set(slot, position + 1);
+          return true;
+        }
+      } else if (difference < 0) {
+        // The consumer hasn't freed the slot of the previous lap
+        return false;
+      }
+      // Taken by another producer meanwhile, try the next position
+    }
+  }
+
+  /**
+   * The oldest element, null if there is none. Called by the consumer only.
+   */
+  T poll() {
+    int slot = (int) tail & mask;
+    if (sequences.get(slot) != tail + 1) {
+      return null;
+    }
+    T element = elements.get(slot);
+    elements.lazySet(slot, null);
+    // Frees the slot for the producer of the next lap
+    sequences.set(slot, tail + mask + 1);
+    tail++;
+    return element;
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+}
@@ -0,0 +1,335 @@
+package com.ovhcloud.ai.quarkus.chatbot.audit;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Multi;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Audit log of the conversations, in the directory given by
+ * chatbot.audit.directory (the audit is disabled without it).
+ * - one record per turn: the question and the whole answer, a stream being
+ * aggregated until its end, with its outcome, tokens and duration,
+ * - the request threads only put the record in a lock-free ring buffer, a
+ * background thread writes them in batches; when the ring is full the
+ * records are dropped and counted, a turn never waits for the audit,
+ * - the turns are sampled with sample-rate, the failed ones are always kept,
+ * - the redaction pattern is applied by the background thread, the matches are
+ * replaced by [redacted],
+ * - the files roll at max-file-size, the oldest are deleted beyond max-files.
+ * Record: one line of tab separated fields, timestamp, endpoint, tenant,
+ * outcome, tokens, duration in milliseconds, question and answer, with the
+ * tabs and line breaks escaped.
+ * Meters: the chatbot.audit.written and chatbot.audit.dropped counts.
+ */
+@ApplicationScoped
+public class ConversationAuditLog {
+  private static final Logger LOG = Logger.getLogger(ConversationAuditLog.class);
+  private static final String PREFIX = "audit-";
+  private static final String SUFFIX = ".tsv";
+  private static final byte[] HEADER = "#timestamp\tendpoint\ttenant\toutcome\ttokens\tduration_ms\tquestion\tanswer\n"
+      .getBytes(StandardCharsets.UTF_8);
+  private static final int MAX_BATCH = 512;
+  private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @ConfigProperty(name = "chatbot.audit.directory")
+  Optional<String> directory;
+
+  @ConfigProperty(name = "chatbot.audit.buffer-size", defaultValue = "8192")
+  int bufferSize;
+
+  @ConfigProperty(name = "chatbot.audit.sample-rate", defaultValue = "1.0")
+  double sampleRate;
+
+  // E-mail addresses, card numbers and API keys
+  @ConfigProperty(name = "chatbot.audit.redaction-pattern",
+      defaultValue = "[\\w.+-]+@[\\w-]+(\\.[\\w-]+)+|\\b\\d([ -]?\\d){12,18}\\b|\\b(sk|key|token)[-_][A-Za-z0-9]{16,}\\b")
+  Optional<String> redactionPattern;
+
+  @ConfigProperty(name = "chatbot.audit.max-text-length", defaultValue = "4096")
+  int maxTextLength;
+
+  @ConfigProperty(name = "chatbot.audit.max-file-size", defaultValue = "67108864")
+  long maxFileSize;
+
+  @ConfigProperty(name = "chatbot.audit.max-files", defaultValue = "10")
+  int maxFiles;
+
+  @Inject
+  MeterRegistry registry;
+
+  // One turn, the durations in nanoseconds
+  private record Entry(long timestamp, String endpoint, String tenant, String outcome, int tokens, long duration,
+      String question, String answer) {
+  }
+
+  private Path auditDirectory;
+  private AuditRing<Entry> ring;
+  private Pattern redaction;
+  // Used by the writer only, the size in bytes
+  private OutputStream file;
+  private long fileSize;
+  private Thread writer;
+  private volatile boolean closed;
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  @PostConstruct
+  void init() {
+    FunctionCounter.builder("chatbot.audit.written", this, ConversationAuditLog::written).register(registry);
+    FunctionCounter.builder("chatbot.audit.dropped", this, ConversationAuditLog::dropped).register(registry);
+    if (directory.isEmpty()) {
+      return;
+    }
+    auditDirectory = Path.of(directory.get());
+    ring = new AuditRing<>(bufferSize);
+    redaction = redactionPattern.filter(pattern -> !pattern.isBlank()).map(Pattern::compile).orElse(null);
+    try {
+      Files.createDirectories(auditDirectory);
+      roll();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    writer = new Thread(this::writeBehind, "conversation-audit-writer");
+    writer.setDaemon(true);
+    writer.start();
+    LOG.infof("Conversation audit in %s, %d records buffered, %.0f%% of the turns sampled", auditDirectory,
+        ring.capacity(), sampleRate * 100);
+  }
+
+  public boolean isEnabled() {
+    return ring != null;
+  }
+
+  /**
+   * Audits a blocking turn.
+   */
+  public String call(String endpoint, String tenant, String question, Supplier<String> call) {
+    if (!isEnabled()) {
+      return call.get();
+    }
+    boolean sampled = sampled();
+    long start = System.nanoTime();
+    try {
+      String answer = call.get();
+      if (sampled) {
+        record(endpoint, tenant, "completed", 0, start, question, answer);
+      }
+      return answer;
+    } catch (RuntimeException e) {
+      record(endpoint, tenant, outcome(e), 0, start, question, null);
+      throw e;
+    }
+  }
+
+  /**
+   * Audits a streamed turn, the tokens are aggregated into one record at the
+   * end of the stream. Only the failure of a turn not sampled is recorded.
+   */
+  public Multi<String> stream(String endpoint, String tenant, String question, Supplier<Multi<String>> tokens) {
+    if (!isEnabled()) {
+      return tokens.get();
+    }
+    return Multi.createFrom().deferred(() -> {
+      long start = System.nanoTime();
+      if (!sampled()) {
+        return tokens.get()
+            .onFailure().invoke(failure -> record(endpoint, tenant, outcome(failure), 0, start, question, null));
+      }
+      // The tokens are received one at a time, no synchronization is needed
+      StringBuilder answer = new StringBuilder();
+      int[] count = new int[1];
+      return tokens.get()
+          .onItem().invoke(token -> {
+            count[0]++;
+            if (answer.length() < maxTextLength) {
+              answer.append(token);
+            }
+          })
+          .onTermination().invoke((failure, cancelled) -> record(endpoint, tenant,
+              failure != null ? outcome(failure) : cancelled ? "cancelled" : "completed", count[0], start, question,
+              answer.toString()));
+    });
+  }
+
+  private boolean sampled() {
+    return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
+  private static String outcome(Throwable failure) {
+    return "failed:" + failure.getClass().getSimpleName();
+  }
+
+  private void record(String endpoint, String tenant, String outcome, int tokens, long start, String question,
+      String answer) {
+    Entry entry = new Entry(System.currentTimeMillis(), endpoint, tenant, outcome, tokens, System.nanoTime() - start,
+        question, answer);
+    if (!ring.offer(entry)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  // Writes the records of the ring until the application stops
+  private void writeBehind() {
+    StringBuilder batch = new StringBuilder(64 * 1024);
+    while (true) {
+      boolean stopping = closed;
+      int count = 0;
+      Entry entry;
+      while (count < MAX_BATCH && (entry = ring.poll()) != null) {
+        format(entry, batch);
+        count++;
+      }
+      if (count > 0) {
+        write(batch, count);
+        batch.setLength(0);
+      } else if (stopping) {
+        break;
+      } else {
+        LockSupport.parkNanos(IDLE_WAIT_NANOS);
+      }
+    }
+    try {
+      file.close();
+    } catch (IOException e) {
+      LOG.warnf("Failed to close the conversation audit: %s", e.getMessage());
+    }
+  }
+
+  private void write(StringBuilder batch, int count) {
+    try {
+      if (fileSize >= maxFileSize) {
+        roll();
+      }
+      // Encoded once, the size of the file counts the bytes of the non ASCII characters
+      byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+      file.write(bytes);
+      file.flush();
+      fileSize += bytes.length;
+      written.addAndGet(count);
+    } catch (IOException e) {
+      dropped.addAndGet(count);
+      LOG.warnf("Failed to write %d records to the conversation audit: %s", count, e.getMessage());
+    }
+  }
+
+  // Starts a new file and deletes the oldest ones
+  private void roll() throws IOException {
+    if (file != null) {
+      file.close();
+    }
+    long stamp = System.currentTimeMillis();
+    Path path = auditDirectory.resolve(PREFIX + stamp + SUFFIX);
+    // Never overwrite a file rolled in the same millisecond
+    while (Files.exists(path)) {
+      path = auditDirectory.resolve(PREFIX + ++stamp + SUFFIX);
+    }
+    file = new BufferedOutputStream(Files.newOutputStream(path));
+    file.write(HEADER);
+    fileSize = HEADER.length;
+    List<Path> files;
+    try (Stream<Path> listed = Files.list(auditDirectory)) {
+      files = listed.filter(candidate -> {
+        String name = candidate.getFileName().toString();
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+      }).sorted().toList();
+    }
+    for (int i = 0; i < files.size() - maxFiles; i++) {
+      Files.deleteIfExists(files.get(i));
+    }
+  }
+
+  private void format(Entry entry, StringBuilder line) {
+    line.append(Instant.ofEpochMilli(entry.timestamp())).append('\t');
+    append(entry.endpoint(), line);
+    line.append('\t');
+    append(entry.tenant(), line);
+    line.append('\t').append(entry.outcome())
+        .append('\t').append(entry.tokens())
+        .append('\t').append(TimeUnit.NANOSECONDS.toMillis(entry.duration()))
+        .append('\t');
+    append(redact(entry.question()), line);
+    line.append('\t');
+    append(redact(entry.answer()), line);
+    line.append('\n');
+  }
+
+  private String redact(String text) {
+    if (text == null) {
+      return "";
+    }
+    if (text.length() > maxTextLength) {
+      text = text.substring(0, maxTextLength);
+    }
+    return redaction == null ? text : redaction.matcher(text).replaceAll("[redacted]");
+  }
+
+  // Escapes the separators of the fields and of the records
+  private static void append(String text, StringBuilder line) {
+    if (text == null) {
+      return;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '\t' -> line.append("\\t");
+        case '\n' -> line.append("\\n");
+        case '\r' -> line.append("\\r");
+        case '\\' -> line.append("\\\\");
+        default -> line.append(c);
+      }
+    }
+  }
+
+  /**
+   * Records written to the audit files.
+   */
+  public long written() {
+    return written.get();
+  }
+
+  /**
+   * Records lost, the ring being full or the write failing.
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  @PreDestroy
+  void close() {
+    if (!isEnabled()) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
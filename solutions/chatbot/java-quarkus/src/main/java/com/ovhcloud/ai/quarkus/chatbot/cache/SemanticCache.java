@@ -0,0 +1,262 @@
+package com.ovhcloud.ai.quarkus.chatbot.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+
+/**
+ * Semantic cache of the answers given by the LLM.
+ * The cache sits between the resources and the AI services and avoids a full
+ * round trip to the LLM when a question has already been answered, even in a
+ * slightly different wording:
+ * - the question is normalized (case and spaces) and looked up as is, this is free,
+ * - otherwise the question is embedded and compared to the cached questions,
+ * - a cached answer is reused if the cosine similarity is above the threshold.
+ * Entries are evicted in LRU order when the cache is full and after a time to live,
+ * an entry found by similarity is used as much as one found by its text.
+ * The similarity scan runs on a copy of the entries, out of the lock.
+ * The cache is opt-in, see the chatbot.cache.* properties.
+ * Meters: chatbot.cache.size, chatbot.cache.hits and chatbot.cache.misses.
+ */
+@ApplicationScoped
+public class SemanticCache {
+
+  @ConfigProperty(name = "chatbot.cache.enabled", defaultValue = "false")
+  boolean enabled;
+
+  @ConfigProperty(name = "chatbot.cache.similarity-threshold", defaultValue = "0.95")
+  double similarityThreshold;
+
+  @ConfigProperty(name = "chatbot.cache.max-entries", defaultValue = "1000")
+  int maxEntries;
+
+  @ConfigProperty(name = "chatbot.cache.ttl", defaultValue = "1h")
+  Duration ttl;
+
+  // The embedding model is only resolved when the cache is enabled
+  @Inject
+  Instance<EmbeddingModel> embeddingModel;
+
+  @Inject
+  MeterRegistry registry;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  // Access ordered map: the eldest entry is the least recently used one
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > maxEntries;
+    }
+  };
+
+  private record Entry(String key, String namespace, float[] vector, String answer, long expiresAt) {
+  }
+
+  /**
+   * Result of a lookup, keeps the computed embedding to store the answer on a
+   * miss without a second embedding call.
+   */
+  public record Lookup(String namespace, String key, float[] vector, String answer) {
+    public boolean isHit() {
+      return answer != null;
+    }
+  }
+
+  @PostConstruct
+  void init() {
+    Gauge.builder("chatbot.cache.size", this, SemanticCache::size).register(registry);
+    FunctionCounter.builder("chatbot.cache.hits", this, SemanticCache::hits).register(registry);
+    FunctionCounter.builder("chatbot.cache.misses", this, SemanticCache::misses).register(registry);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the cached answer for the question or calls the LLM and caches its
+   * answer. This method blocks, it must be called from a worker thread.
+   */
+  public String get(String namespace, String question, Supplier<String> generation) {
+    if (!enabled) {
+      return generation.get();
+    }
+    Lookup lookup = lookup(namespace, question);
+    if (lookup.isHit()) {
+      return lookup.answer();
+    }
+    String answer = generation.get();
+    put(lookup, answer);
+    return answer;
+  }
+
+  /**
+   * Streaming flavor of {@link #get}: a cached answer is replayed as a stream of
+   * words, otherwise the tokens of the LLM are forwarded and the full answer is
+   * cached once the stream completes.
+   */
+  public Multi<String> stream(String namespace, String question, Supplier<Multi<String>> generation) {
+    if (!enabled) {
+      return generation.get();
+    }
+    // The embedding call blocks, don't run it on the event loop
+    return Uni.createFrom().item(() -> lookup(namespace, question))
+        .runSubscriptionOn(Infrastructure.getDefaultWorkerPool())
+        .onItem().transformToMulti(lookup -> {
+          if (lookup.isHit()) {
+            return replay(lookup.answer());
+          }
+          StringBuilder answer = new StringBuilder();
+          return generation.get()
+              .onItem().invoke(answer::append)
+              .onCompletion().invoke(() -> put(lookup, answer.toString()));
+        });
+  }
+
+  /**
+   * Looks the question up, first by its normalized text then by similarity.
+   */
+  public Lookup lookup(String namespace, String question) {
+    String key = namespace + '\u0000' + normalize(question);
+    long now = System.nanoTime();
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.expiresAt() - now > 0) {
+        hits.incrementAndGet();
+        return new Lookup(namespace, key, entry.vector(), entry.answer());
+      }
+    }
+
+    // Embed outside the lock, this is the slow part
+    float[] vector = normalizedVector(embeddingModel.get().embed(normalize(question)).content().vector());
+
+    // Scan a copy of the entries, the lookups don't wait for each other
+    Entry[] candidates;
+    synchronized (entries) {
+      candidates = entries.values().toArray(new Entry[0]);
+    }
+    Entry best = null;
+    double bestScore = similarityThreshold;
+    List<Entry> expired = new ArrayList<>();
+    for (Entry candidate : candidates) {
+      if (candidate.expiresAt() - now <= 0) {
+        expired.add(candidate);
+        continue;
+      }
+      if (!candidate.namespace().equals(namespace)) {
+        continue;
+      }
+      double score = dot(vector, candidate.vector());
+      if (score >= bestScore) {
+        best = candidate;
+        bestScore = score;
+      }
+    }
+    synchronized (entries) {
+      for (Entry entry : expired) {
+        entries.remove(entry.key(), entry);
+      }
+      if (best != null) {
+        // Moves the entry to the most recently used end
+        entries.get(best.key());
+      }
+    }
+    if (best != null) {
+      hits.incrementAndGet();
+      return new Lookup(namespace, key, vector, best.answer());
+    }
+    misses.incrementAndGet();
+    return new Lookup(namespace, key, vector, null);
+  }
+
+  public void put(Lookup lookup, String answer) {
+    if (answer == null || answer.isBlank()) {
+      return;
+    }
+    long expiresAt = System.nanoTime() + ttl.toNanos();
+    synchronized (entries) {
+      entries.put(lookup.key(), new Entry(lookup.key(), lookup.namespace(), lookup.vector(), answer, expiresAt));
+    }
+  }
+
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Replays a cached answer word by word so that streaming clients get the same
+   * kind of stream as with the LLM.
+   */
+  static Multi<String> replay(String answer) {
+    return Multi.createFrom().iterable(List.of(answer.split("(?<=\\s)")));
+  }
+
+  static String normalize(String question) {
+    return question.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+
+  private static float[] normalizedVector(float[] vector) {
+    double norm = 0;
+    for (float v : vector) {
+      norm += v * v;
+    }
+    norm = Math.sqrt(norm);
+    float[] normalized = new float[vector.length];
+    if (norm == 0) {
+      return normalized;
+    }
+    for (int i = 0; i < vector.length; i++) {
+      normalized[i] = (float) (vector[i] / norm);
+    }
+    return normalized;
+  }
+
+  // Vectors are normalized, the dot product is the cosine similarity
+  private static double dot(float[] a, float[] b) {
+    if (a.length != b.length) {
+      return -1;
+    }
+    double sum = 0;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,153 @@
+package com.ovhcloud.ai.quarkus.chatbot.coalescing;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Multi;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Single-flight deduplication of the calls to the LLM.
+ * Concurrent identical questions sent to the same AI service method (so with
+ * the same system/user template and the same model parameters) share one
+ * upstream generation:
+ * - blocking callers wait on the same future,
+ * - streaming callers get the same tokens, late joiners get a replay first.
+ * The namespace must identify the AI service method.
+ * Never use it for calls with a memory, their answers depend on the conversation.
+ * A caller interrupted while waiting only stops waiting itself, and a leader
+ * interrupted during the generation doesn't fail the others: one of them
+ * runs the generation again.
+ * Meter: chatbot.coalescing.in.flight, the shared generations in progress.
+ */
+@ApplicationScoped
+public class RequestCoalescer {
+
+  @ConfigProperty(name = "chatbot.coalescing.enabled", defaultValue = "true")
+  boolean enabled;
+
+  @Inject
+  MeterRegistry registry;
+
+  private final ConcurrentMap<String, CompletableFuture<String>> calls = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, SharedGeneration> generations = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  void init() {
+    Gauge.builder("chatbot.coalescing.in.flight", this, RequestCoalescer::inFlight).register(registry);
+  }
+
+  /**
+   * Blocking flavor: the first caller runs the generation, the others park on
+   * its result.
+   */
+  public String call(String namespace, String question, Supplier<String> generation) {
+    if (!enabled) {
+      return generation.get();
+    }
+    String key = key(namespace, question);
+    while (true) {
+      CompletableFuture<String> call = new CompletableFuture<>();
+      CompletableFuture<String> inFlight = calls.putIfAbsent(key, call);
+      if (inFlight == null) {
+        return lead(key, call, generation);
+      }
+      try {
+        return await(inFlight);
+      } catch (AbandonedCallException e) {
+        // The leader was cancelled, not the question: ask it again
+      }
+    }
+  }
+
+  private String lead(String key, CompletableFuture<String> call, Supplier<String> generation) {
+    try {
+      String answer = generation.get();
+      call.complete(answer);
+      return answer;
+    } catch (RuntimeException e) {
+      if (Thread.currentThread().isInterrupted() || e.getCause() instanceof InterruptedException) {
+        // Removed first, so that the followers don't find this call again
+        calls.remove(key, call);
+        call.completeExceptionally(new AbandonedCallException());
+      } else {
+        call.completeExceptionally(e);
+      }
+      throw e;
+    } finally {
+      calls.remove(key, call);
+    }
+  }
+
+  /**
+   * Streaming flavor: the first subscriber starts the generation, the tokens
+   * are broadcast to all the subscribers of the same question.
+   */
+  public Multi<String> stream(String namespace, String question, Supplier<Multi<String>> generation) {
+    if (!enabled) {
+      return generation.get();
+    }
+    String key = key(namespace, question);
+    return Multi.createFrom().deferred(() -> {
+      while (true) {
+        SharedGeneration inFlight = generations.get(key);
+        if (inFlight != null && inFlight.retain()) {
+          return inFlight.tokens();
+        }
+        if (inFlight != null) {
+          // Cancelled but not yet removed
+          generations.remove(key, inFlight);
+          continue;
+        }
+        SharedGeneration[] holder = new SharedGeneration[1];
+        SharedGeneration created = new SharedGeneration(() -> generations.remove(key, holder[0]));
+        holder[0] = created;
+        if (generations.putIfAbsent(key, created) == null) {
+          created.retain();
+          Multi<String> tokens = created.tokens();
+          created.start(generation);
+          return tokens;
+        }
+      }
+    });
+  }
+
+  public int inFlight() {
+    return calls.size() + generations.size();
+  }
+
+  private static String await(CompletableFuture<String> inFlight) {
+    try {
+      return inFlight.get();
+    } catch (InterruptedException e) {
+      // The shared call goes on for the others
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the coalesced call", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  // Given to the followers of a leader interrupted during the generation
+  private static final class AbandonedCallException extends RuntimeException {
+    AbandonedCallException() {
+      super("The coalesced call was abandoned", null, false, false);
+    }
+  }
+
+  private static String key(String namespace, String question) {
+    return namespace + '\u0000' + question;
+  }
+}
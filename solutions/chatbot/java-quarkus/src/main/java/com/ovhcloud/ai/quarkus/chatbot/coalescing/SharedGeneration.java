@@ -0,0 +1,135 @@
+package com.ovhcloud.ai.quarkus.chatbot.coalescing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+
+/**
+ * One upstream generation shared by several subscribers.
+ * The tokens are broadcast to every subscriber, a late subscriber first gets a
+ * replay of the tokens already sent.
+ * The upstream is cancelled when the last subscriber leaves before the end of
+ * the generation.
+ */
+final class SharedGeneration {
+  private final Runnable onTermination;
+  private final List<String> tokens = new ArrayList<>();
+  private final List<MultiEmitter<? super String>> emitters = new ArrayList<>();
+  private Cancellable upstream;
+  private int references;
+  private boolean completed;
+  private boolean cancelled;
+  private Throwable failure;
+
+  SharedGeneration(Runnable onTermination) {
+    this.onTermination = onTermination;
+  }
+
+  /**
+   * Takes a reference on the generation, fails if the generation has already
+   * been cancelled: the caller has to start a new one.
+   */
+  synchronized boolean retain() {
+    if (cancelled) {
+      return false;
+    }
+    references++;
+    return true;
+  }
+
+  /**
+   * Subscribes to the upstream, must be called once, after a first
+   * {@link #retain()}.
+   */
+  void start(Supplier<Multi<String>> generation) {
+    Cancellable cancellable;
+    try {
+      cancellable = generation.get().subscribe().with(this::onItem, this::onFailure, this::onCompletion);
+    } catch (RuntimeException e) {
+      onFailure(e);
+      return;
+    }
+    boolean cancel;
+    synchronized (this) {
+      upstream = cancellable;
+      cancel = cancelled;
+    }
+    if (cancel) {
+      cancellable.cancel();
+    }
+  }
+
+  /**
+   * The stream of a retained subscriber: replay then live tokens.
+   */
+  Multi<String> tokens() {
+    return Multi.createFrom().emitter(emitter -> {
+      emitter.onTermination(() -> release(emitter));
+      synchronized (this) {
+        tokens.forEach(emitter::emit);
+        if (completed) {
+          emitter.complete();
+        } else if (failure != null) {
+          emitter.fail(failure);
+        } else {
+          emitters.add(emitter);
+        }
+      }
+    });
+  }
+
+  private void release(MultiEmitter<? super String> emitter) {
+    boolean cancel = false;
+    Cancellable toCancel = null;
+    synchronized (this) {
+      emitters.remove(emitter);
+      references--;
+      if (references == 0 && !completed && failure == null && !cancelled) {
+        // Nobody is listening anymore, stop the upstream generation
+        cancelled = true;
+        cancel = true;
+        toCancel = upstream;
+      }
+    }
+    if (cancel) {
+      onTermination.run();
+      if (toCancel != null) {
+        toCancel.cancel();
+      }
+    }
+  }
+
+  private synchronized void onItem(String token) {
+    tokens.add(token);
+    // A subscriber may leave while it gets the token (a limit on its tokens,
+    // a closed connection), releasing its emitter: iterate over a copy
+    for (MultiEmitter<? super String> emitter : new ArrayList<>(emitters)) {
+      emitter.emit(token);
+    }
+  }
+
+  private void onFailure(Throwable throwable) {
+    synchronized (this) {
+      failure = throwable;
+      // Terminating an emitter releases it, iterate over a copy
+      List<MultiEmitter<? super String>> current = new ArrayList<>(emitters);
+      emitters.clear();
+      current.forEach(emitter -> emitter.fail(throwable));
+    }
+    onTermination.run();
+  }
+
+  private void onCompletion() {
+    synchronized (this) {
+      completed = true;
+      List<MultiEmitter<? super String>> current = new ArrayList<>(emitters);
+      emitters.clear();
+      current.forEach(MultiEmitter::complete);
+    }
+    onTermination.run();
+  }
+}
@@ -0,0 +1,155 @@
+package com.ovhcloud.ai.quarkus.chatbot.generation;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import com.ovhcloud.ai.quarkus.chatbot.routing.RoutingStreamingChatModel;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.mutiny.Multi;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+
+/**
+ * Ends the streamed generations early:
+ * - when the client leaves (closed tab, dropped connection), the response
+ * stream is cancelled, and the cancellation goes up to the model which closes
+ * the upstream HTTP stream, see {@link RoutingStreamingChatModel},
+ * - when the budget of the request is spent: a deadline from the reception of
+ * the question, and a maximum number of tokens. The answer is then truncated
+ * and the upstream generation cancelled the same way.
+ * The budget is given by the X-Generation-Deadline-Ms and
+ * X-Generation-Max-Tokens headers, it can only lower the configured one.
+ * The cancelled and truncated generations are counted:
+ * chatbot.generation.cancelled, chatbot.generation.truncated (by deadline or
+ * by tokens) and chatbot.generation.upstream.cancelled.
+ */
+@ApplicationScoped
+public class GenerationLimiter {
+  public static final String DEADLINE_HEADER = "X-Generation-Deadline-Ms";
+  public static final String MAX_TOKENS_HEADER = "X-Generation-Max-Tokens";
+
+  @ConfigProperty(name = "chatbot.generation.deadline", defaultValue = "60s")
+  Duration deadline;
+
+  @ConfigProperty(name = "chatbot.generation.max-tokens", defaultValue = "512")
+  int maxTokens;
+
+  @Inject
+  MeterRegistry registry;
+
+  private final AtomicLong cancelled = new AtomicLong();
+  private final AtomicLong truncatedByDeadline = new AtomicLong();
+  private final AtomicLong truncatedByTokens = new AtomicLong();
+  private final AtomicLong upstreamCancelled = new AtomicLong();
+
+  @PostConstruct
+  void init() {
+    FunctionCounter.builder("chatbot.generation.cancelled", this, GenerationLimiter::cancelled).register(registry);
+    FunctionCounter.builder("chatbot.generation.truncated", this, GenerationLimiter::truncatedByDeadline)
+        .tag("reason", "deadline")
+        .register(registry);
+    FunctionCounter.builder("chatbot.generation.truncated", this, GenerationLimiter::truncatedByTokens)
+        .tag("reason", "tokens")
+        .register(registry);
+    FunctionCounter.builder("chatbot.generation.upstream.cancelled", this, GenerationLimiter::upstreamCancelled)
+        .register(registry);
+  }
+
+  /**
+   * Budget of one generation.
+   */
+  public record Budget(Duration deadline, int maxTokens) {
+  }
+
+  /**
+   * The budget of a request, from its headers (null when absent).
+   */
+  public Budget budget(String deadlineHeader, String maxTokensHeader) {
+    Duration requestDeadline = deadline;
+    int requestMaxTokens = maxTokens;
+    if (deadlineHeader != null) {
+      requestDeadline = Duration.ofMillis(Math.min(deadline.toMillis(), positive(DEADLINE_HEADER, deadlineHeader)));
+    }
+    if (maxTokensHeader != null) {
+      requestMaxTokens = (int) Math.min(maxTokens, positive(MAX_TOKENS_HEADER, maxTokensHeader));
+    }
+    return new Budget(requestDeadline, requestMaxTokens);
+  }
+
+  private static long positive(String header, String value) {
+    try {
+      long parsed = Long.parseLong(value.trim());
+      if (parsed > 0) {
+        return parsed;
+      }
+    } catch (NumberFormatException e) {
+      // Rejected below
+    }
+    throw new BadRequestException("The " + header + " header must be a positive integer");
+  }
+
+  /**
+   * Applies the budget to the tokens of a client: the stream completes at
+   * the deadline or at the maximum number of tokens, cancelling its upstream.
+   */
+  public Multi<String> limit(Budget budget, Supplier<Multi<String>> generation) {
+    return Multi.createFrom().deferred(() -> {
+      AtomicInteger tokens = new AtomicInteger();
+      boolean[] upstreamCompleted = new boolean[1];
+      return generation.get()
+          .onItem().invoke(tokens::incrementAndGet)
+          .onCompletion().invoke(() -> upstreamCompleted[0] = true)
+          .select().first(budget.maxTokens())
+          .select().first(budget.deadline())
+          .onCompletion().invoke(() -> {
+            if (upstreamCompleted[0]) {
+              return;
+            }
+            if (tokens.get() >= budget.maxTokens()) {
+              truncatedByTokens.incrementAndGet();
+            } else {
+              truncatedByDeadline.incrementAndGet();
+            }
+          })
+          .onCancellation().invoke(cancelled::incrementAndGet);
+    });
+  }
+
+  /**
+   * Counts the cancellations reaching the upstream generation: the stream of
+   * the model, once cancelled, closes its HTTP stream.
+   */
+  public Multi<String> upstream(Supplier<Multi<String>> generation) {
+    return Multi.createFrom().deferred(generation).onCancellation().invoke(upstreamCancelled::incrementAndGet);
+  }
+
+  /**
+   * Streams cancelled by their client.
+   */
+  public long cancelled() {
+    return cancelled.get();
+  }
+
+  public long truncatedByDeadline() {
+    return truncatedByDeadline.get();
+  }
+
+  public long truncatedByTokens() {
+    return truncatedByTokens.get();
+  }
+
+  /**
+   * Upstream generations stopped before their end.
+   */
+  public long upstreamCancelled() {
+    return upstreamCancelled.get();
+  }
+}
@@ -0,0 +1,505 @@
+package com.ovhcloud.ai.quarkus.chatbot.memory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Chat memory store surviving the restarts, the messages of the sessions are
+ * appended to a log in the directory given by chatbot.memory.log.directory
+ * (the store is disabled without it).
+ * - an update only replaces the pending messages of the session and queues
+ * its id, a background thread writes the queued sessions in batches, with one
+ * fsync per batch (write-behind): the turns never wait for the disk. When
+ * the bounded queue is full the id goes to an overflow set instead, drained
+ * by the writer too, and the update is counted,
+ * - the log is made of segments, a new one is started when the current one is
+ * bigger than segment-size,
+ * - the closed segments are compacted when less than half of their bytes are
+ * still the last messages of a session: these records are copied to the
+ * current segment and the closed segments are deleted. The sessions not
+ * updated for the retention are dropped at the same time,
+ * - at startup only the ids and positions of the records are read, the
+ * messages of a session are read and parsed when it is used again.
+ * Record: length, CRC32 of the rest, type, timestamp, id, messages in JSON.
+ * Meters: the chatbot.memory.log.written, batches and overflowed.updates counts.
+ */
+@ApplicationScoped
+public class LogChatMemoryStore implements ChatMemoryStore {
+  private static final Logger LOG = Logger.getLogger(LogChatMemoryStore.class);
+  private static final byte UPDATE = 1;
+  private static final byte DELETE = 2;
+  // Length, CRC, type, timestamp and length of the id
+  private static final int RECORD_HEADER = 4 + 4 + 1 + 8 + 2;
+  private static final String SUFFIX = ".log";
+  private static final int MAX_BATCH = 256;
+
+  @ConfigProperty(name = "chatbot.memory.log.directory")
+  Optional<String> directory;
+
+  @ConfigProperty(name = "chatbot.memory.log.segment-size", defaultValue = "16777216")
+  long segmentSize;
+
+  @ConfigProperty(name = "chatbot.memory.log.queue-capacity", defaultValue = "10000")
+  int queueCapacity;
+
+  @ConfigProperty(name = "chatbot.memory.log.fsync", defaultValue = "true")
+  boolean fsync;
+
+  @ConfigProperty(name = "chatbot.memory.log.compaction-interval", defaultValue = "5m")
+  Duration compactionInterval;
+
+  @ConfigProperty(name = "chatbot.memory.log.retention", defaultValue = "7d")
+  Duration retention;
+
+  @Inject
+  MeterRegistry registry;
+
+  // Position of the last record of each session written to the log
+  private record Location(int segment, long offset, int length, long timestamp) {
+  }
+
+  private Path logDirectory;
+  private final Map<String, Location> index = new ConcurrentHashMap<>();
+  // Messages not written yet, an empty list is a deletion
+  private final Map<String, List<ChatMessage>> pending = new ConcurrentHashMap<>();
+  private BlockingQueue<String> queue;
+  // Ids queued while the queue was full
+  private final Set<String> overflow = ConcurrentHashMap.newKeySet();
+  // Used by the writer only: the segments, their bytes and bytes still in the
+  // index, the ids to write again
+  private final Map<Integer, FileChannel> segments = new HashMap<>();
+  private final Map<Integer, long[]> segmentBytes = new TreeMap<>();
+  private final ArrayDeque<String> carried = new ArrayDeque<>();
+  private int current;
+  private long currentSize;
+  private long lastCompaction = System.nanoTime();
+  private Thread writer;
+  private volatile boolean closed;
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong overflowedUpdates = new AtomicLong();
+
+  @PostConstruct
+  void init() {
+    FunctionCounter.builder("chatbot.memory.log.written", this, LogChatMemoryStore::written).register(registry);
+    FunctionCounter.builder("chatbot.memory.log.batches", this, LogChatMemoryStore::batches).register(registry);
+    FunctionCounter.builder("chatbot.memory.log.overflowed.updates", this, LogChatMemoryStore::overflowedUpdates)
+        .register(registry);
+    if (directory.isEmpty()) {
+      return;
+    }
+    long start = System.nanoTime();
+    logDirectory = Path.of(directory.get());
+    queue = new ArrayBlockingQueue<>(queueCapacity);
+    try {
+      Files.createDirectories(logDirectory);
+      List<Integer> numbers;
+      try (Stream<Path> files = Files.list(logDirectory)) {
+        numbers = files.map(file -> file.getFileName().toString())
+            .filter(name -> name.endsWith(SUFFIX))
+            .map(name -> Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())))
+            .sorted()
+            .toList();
+      }
+      for (int number : numbers) {
+        recover(number, number == numbers.get(numbers.size() - 1));
+      }
+      current = numbers.isEmpty() ? 1 : numbers.get(numbers.size() - 1);
+      currentSize = numbers.isEmpty() ? open(current).size() : segments.get(current).size();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    writer = new Thread(this::writeBehind, "chat-memory-log-writer");
+    writer.setDaemon(true);
+    writer.start();
+    LOG.infof("Chat memory log of %d sessions in %d segments recovered from %s in %.3f ms", index.size(),
+        segmentBytes.size(), logDirectory, (System.nanoTime() - start) / 1e6);
+  }
+
+  /**
+   * Whether the messages are persisted, a directory being configured.
+   */
+  public boolean isEnabled() {
+    return logDirectory != null;
+  }
+
+  @Override
+  public List<ChatMessage> getMessages(Object memoryId) {
+    if (!isEnabled()) {
+      return List.of();
+    }
+    String id = memoryId.toString();
+    // A compaction may move the record while reading it
+    for (int attempt = 0; ; attempt++) {
+      List<ChatMessage> messages = pending.get(id);
+      if (messages != null) {
+        return messages;
+      }
+      Location location = index.get(id);
+      if (location == null) {
+        return List.of();
+      }
+      try {
+        return read(id, location);
+      } catch (FileNotFoundException e) {
+        if (attempt > 2) {
+          throw new UncheckedIOException(e);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  @Override
+  public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+    if (!isEnabled()) {
+      return;
+    }
+    String id = memoryId.toString();
+    // Only the last messages of a session are written, the queue holds each id once
+    if (pending.put(id, List.copyOf(messages)) == null && !queue.offer(id)) {
+      // The writer is behind, the turn doesn't wait for it
+      overflow.add(id);
+      overflowedUpdates.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void deleteMessages(Object memoryId) {
+    updateMessages(memoryId, List.of());
+  }
+
+  public long written() {
+    return written.get();
+  }
+
+  public long batches() {
+    return batches.get();
+  }
+
+  /**
+   * Updates put in the overflow, the queue being full.
+   */
+  public long overflowedUpdates() {
+    return overflowedUpdates.get();
+  }
+
+  private List<ChatMessage> read(String id, Location location) throws IOException {
+    // Not the channel of the writer: a read interrupted by a cancelled request would close it
+    ByteBuffer record = ByteBuffer.allocate(location.length());
+    try (RandomAccessFile file = new RandomAccessFile(segmentFile(location.segment()).toFile(), "r")) {
+      file.seek(location.offset());
+      file.readFully(record.array());
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 8, location.length() - 8);
+    if (record.getInt(4) != (int) crc.getValue()) {
+      LOG.warnf("Corrupted chat memory record of the session %s, its messages are lost", id);
+      return List.of();
+    }
+    int idLength = record.getShort(17) & 0xFFFF;
+    int offset = RECORD_HEADER + idLength;
+    String json = new String(record.array(), offset, location.length() - offset, StandardCharsets.UTF_8);
+    return ChatMessageDeserializer.messagesFromJson(json);
+  }
+
+  // Reads the ids and positions of the records, not the messages
+  private void recover(int number, boolean last) throws IOException {
+    Path file = segmentFile(number);
+    long size = Files.size(file);
+    long offset = 0;
+    try (InputStream stream = Files.newInputStream(file);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(stream, 64 * 1024))) {
+      while (offset + RECORD_HEADER <= size) {
+        int length = input.readInt();
+        if (length < RECORD_HEADER || offset + length > size) {
+          break;
+        }
+        input.readInt();
+        byte type = input.readByte();
+        long timestamp = input.readLong();
+        byte[] id = new byte[input.readUnsignedShort()];
+        input.readFully(id);
+        input.skipNBytes(length - RECORD_HEADER - id.length);
+        apply(new String(id, StandardCharsets.UTF_8), type, new Location(number, offset, length, timestamp));
+        offset += length;
+      }
+    }
+    if (offset < size) {
+      // A record cut by a crash, the next ones are written over it
+      LOG.warnf("Chat memory log %s truncated from %d to %d bytes", file, size, offset);
+      if (last) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+          channel.truncate(offset);
+        }
+      }
+    }
+    segmentBytes.computeIfAbsent(number, n -> new long[2])[0] = offset;
+    open(number);
+  }
+
+  // Updates the index and the live bytes of the segments with a record
+  private void apply(String id, byte type, Location location) {
+    Location previous = type == UPDATE ? index.put(id, location) : index.remove(id);
+    if (previous != null) {
+      segmentBytes.get(previous.segment())[1] -= previous.length();
+    }
+    if (type == UPDATE) {
+      segmentBytes.computeIfAbsent(location.segment(), n -> new long[2])[1] += location.length();
+    }
+  }
+
+  // Background thread: writes the queued sessions, then compacts when it is time
+  private void writeBehind() {
+    List<String> batch = new ArrayList<>(MAX_BATCH);
+    while (!closed || !queue.isEmpty() || !overflow.isEmpty() || !carried.isEmpty()) {
+      try {
+        batch.addAll(carried);
+        carried.clear();
+        // Closing is noticed within a second, the writer isn't interrupted:
+        // that would close the channel it is writing to
+        String first = batch.isEmpty() && overflow.isEmpty() ? queue.poll(1, TimeUnit.SECONDS) : queue.poll();
+        if (first != null) {
+          batch.add(first);
+        }
+        queue.drainTo(batch, MAX_BATCH - batch.size());
+        for (Iterator<String> ids = overflow.iterator(); batch.size() < MAX_BATCH && ids.hasNext(); ) {
+          batch.add(ids.next());
+          ids.remove();
+        }
+        if (!batch.isEmpty()) {
+          write(batch);
+          batch.clear();
+        }
+        if (System.nanoTime() - lastCompaction > compactionInterval.toNanos()) {
+          lastCompaction = System.nanoTime();
+          compact();
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (IOException | RuntimeException e) {
+        LOG.warnf("Failed to write %d chat memories, retrying: %s", batch.size(), e);
+        // The ids are still pending, they are written again
+        carried.addAll(batch);
+        batch.clear();
+        if (closed) {
+          return;
+        }
+        sleep();
+      }
+    }
+  }
+
+  private void write(List<String> ids) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    List<Object[]> records = new ArrayList<>(ids.size());
+    long now = System.currentTimeMillis();
+    for (String id : ids) {
+      List<ChatMessage> messages = pending.get(id);
+      if (messages == null) {
+        continue;
+      }
+      byte type = messages.isEmpty() ? DELETE : UPDATE;
+      int offset = bytes.size();
+      record(bytes, type, now, id, type == UPDATE ? ChatMessageSerializer.messagesToJson(messages) : "");
+      records.add(new Object[] { id, messages, type, offset, bytes.size() - offset });
+    }
+    if (currentSize > 0 && currentSize + bytes.size() > segmentSize) {
+      roll();
+    }
+    append(bytes.toByteArray());
+    long base = currentSize - bytes.size();
+    for (Object[] record : records) {
+      String id = (String) record[0];
+      apply(id, (byte) record[2], new Location(current, base + (int) record[3], (int) record[4], now));
+      // Updated meanwhile: written again by the next batch
+      if (!pending.remove(id, record[1])) {
+        carried.add(id);
+      }
+    }
+    written.addAndGet(ids.size());
+    batches.incrementAndGet();
+  }
+
+  private static void record(ByteArrayOutputStream bytes, byte type, long timestamp, String id, String json) {
+    byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+    byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + idBytes.length + jsonBytes.length);
+    record.putInt(record.capacity()).putInt(0).put(type).putLong(timestamp)
+        .putShort((short) idBytes.length).put(idBytes).put(jsonBytes);
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 8, record.capacity() - 8);
+    record.putInt(4, (int) crc.getValue());
+    bytes.write(record.array(), 0, record.capacity());
+  }
+
+  private void append(byte[] bytes) throws IOException {
+    FileChannel channel = segments.get(current);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, currentSize + buffer.position());
+    }
+    if (fsync) {
+      channel.force(false);
+    }
+    currentSize += bytes.length;
+    segmentBytes.computeIfAbsent(current, n -> new long[2])[0] = currentSize;
+  }
+
+  private void roll() throws IOException {
+    if (fsync) {
+      segments.get(current).force(false);
+    }
+    current++;
+    currentSize = 0;
+    open(current);
+    segmentBytes.put(current, new long[2]);
+  }
+
+  /**
+   * Copies the records still used of the closed segments to the current one,
+   * then deletes the closed segments, oldest first: a deletion record is
+   * dropped with the records it hides.
+   */
+  private void compact() throws IOException {
+    long total = 0;
+    long live = 0;
+    for (Map.Entry<Integer, long[]> entry : segmentBytes.entrySet()) {
+      if (entry.getKey() != current) {
+        total += entry.getValue()[0];
+        live += entry.getValue()[1];
+      }
+    }
+    if (total == 0 || live * 2 > total) {
+      return;
+    }
+    long expired = System.currentTimeMillis() - retention.toMillis();
+    Map<String, Location> moved = new HashMap<>();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int dropped = 0;
+    for (Map.Entry<String, Location> entry : index.entrySet()) {
+      Location location = entry.getValue();
+      if (location.segment() == current) {
+        continue;
+      }
+      if (location.timestamp() < expired) {
+        // The session can't be updated meanwhile: only this thread removes pending ids
+        if (!pending.containsKey(entry.getKey()) && index.remove(entry.getKey(), location)) {
+          dropped++;
+        }
+        continue;
+      }
+      ByteBuffer record = ByteBuffer.allocate(location.length());
+      FileChannel channel = segments.get(location.segment());
+      while (record.hasRemaining()) {
+        if (channel.read(record, location.offset() + record.position()) < 0) {
+          throw new EOFException("Truncated chat memory record of " + entry.getKey());
+        }
+      }
+      moved.put(entry.getKey(), new Location(current, bytes.size(), location.length(), location.timestamp()));
+      bytes.write(record.array(), 0, location.length());
+    }
+    if (bytes.size() > 0) {
+      append(bytes.toByteArray());
+    }
+    long base = currentSize - bytes.size();
+    long[] currentBytes = segmentBytes.get(current);
+    moved.forEach((id, location) -> {
+      index.put(id, new Location(current, base + location.offset(), location.length(), location.timestamp()));
+      currentBytes[1] += location.length();
+    });
+    List<Integer> compacted = segmentBytes.keySet().stream().filter(number -> number != current).toList();
+    for (int number : compacted) {
+      segmentBytes.remove(number);
+      segments.remove(number).close();
+      Files.delete(segmentFile(number));
+    }
+    LOG.infof("Chat memory log compacted: %d segments (%d bytes) into %d bytes, %d expired sessions dropped",
+        compacted.size(), total, bytes.size(), dropped);
+  }
+
+  private FileChannel open(int number) throws IOException {
+    FileChannel channel = FileChannel.open(segmentFile(number), StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    segments.put(number, channel);
+    return channel;
+  }
+
+  private Path segmentFile(int number) {
+    return logDirectory.resolve(String.format("%08d%s", number, SUFFIX));
+  }
+
+  private void sleep() {
+    try {
+      Thread.sleep(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes the pending messages, then closes the segments.
+   */
+  @PreDestroy
+  void close() {
+    if (!isEnabled()) {
+      return;
+    }
+    closed = true;
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(10));
+      for (FileChannel channel : segments.values()) {
+        channel.close();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      LOG.warnf("Failed to close the chat memory log: %s", e);
+    }
+  }
+}
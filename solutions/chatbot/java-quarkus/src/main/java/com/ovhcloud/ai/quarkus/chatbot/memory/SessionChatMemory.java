@@ -0,0 +1,179 @@
+package com.ovhcloud.ai.quarkus.chatbot.memory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.memory.ChatMemory;
+
+/**
+ * Chat memory of one session, a window of the last messages.
+ * The weight of the messages (a count of messages or of tokens) is reported
+ * to the provider so that it can enforce a global budget, and each change of
+ * the messages is given to the provider to be persisted.
+ * Like MessageWindowChatMemory, the system message is always kept and a new
+ * system message replaces the previous one.
+ * The AI service keeps the memory for the whole turn: once evicted, the memory
+ * hands the calls over to the memory the provider gives for the same id.
+ */
+final class SessionChatMemory implements ChatMemory {
+  private final Object id;
+  private final int maxMessages;
+  private final ToIntFunction<ChatMessage> weigher;
+  private final SessionChatMemoryProvider provider;
+  private final LinkedList<ChatMessage> messages = new LinkedList<>();
+  private long weight;
+  private volatile long lastAccess = System.nanoTime();
+  private volatile boolean evicted;
+
+  SessionChatMemory(Object id, int maxMessages, ToIntFunction<ChatMessage> weigher, SessionChatMemoryProvider provider,
+      List<ChatMessage> recovered) {
+    this.id = id;
+    this.maxMessages = maxMessages;
+    this.weigher = weigher;
+    this.provider = provider;
+    // Messages of a previous run, the window may be smaller now
+    for (ChatMessage message : recovered) {
+      messages.add(message);
+      weight += weigher.applyAsInt(message);
+    }
+    weight -= trim();
+  }
+
+  @Override
+  public Object id() {
+    return id;
+  }
+
+  @Override
+  public void add(ChatMessage message) {
+    if (!addIfLive(message)) {
+      // Evicted meanwhile (by the budget or the idle TTL, during a long answer
+      // for instance): the message goes to the memory of the session now, read
+      // again from the log when the persistence is enabled
+      provider.get(id).add(message);
+    }
+  }
+
+  // False if the memory has been evicted, the message is not added then
+  private boolean addIfLive(ChatMessage message) {
+    long delta = 0;
+    synchronized (this) {
+      if (evicted) {
+        return false;
+      }
+      if (message instanceof SystemMessage) {
+        ChatMessage current = messages.stream().filter(SystemMessage.class::isInstance).findFirst().orElse(null);
+        if (message.equals(current)) {
+          return true;
+        }
+        if (current != null) {
+          messages.remove(current);
+          delta -= weigher.applyAsInt(current);
+        }
+      }
+      messages.add(message);
+      delta += weigher.applyAsInt(message);
+      delta -= trim();
+      weight += delta;
+      // Under the lock, for the changes to be persisted in order
+      provider.onMessagesChange(id, messages);
+    }
+    touch();
+    provider.onWeightChange(delta);
+    return true;
+  }
+
+  // Evicts the oldest messages over the window, the system message excepted
+  private long trim() {
+    long removed = 0;
+    while (messages.size() > maxMessages) {
+      Iterator<ChatMessage> iterator = messages.iterator();
+      while (iterator.hasNext()) {
+        ChatMessage oldest = iterator.next();
+        if (oldest instanceof SystemMessage) {
+          continue;
+        }
+        iterator.remove();
+        removed += weigher.applyAsInt(oldest);
+        // The results of the tool executions are useless without their request
+        if (oldest instanceof AiMessage aiMessage && aiMessage.hasToolExecutionRequests()) {
+          while (iterator.hasNext()) {
+            ChatMessage next = iterator.next();
+            if (!(next instanceof ToolExecutionResultMessage)) {
+              break;
+            }
+            iterator.remove();
+            removed += weigher.applyAsInt(next);
+          }
+        }
+        break;
+      }
+      if (messages.size() == 1 && messages.getFirst() instanceof SystemMessage) {
+        break;
+      }
+    }
+    return removed;
+  }
+
+  @Override
+  public List<ChatMessage> messages() {
+    touch();
+    synchronized (this) {
+      if (!evicted) {
+        return new ArrayList<>(messages);
+      }
+    }
+    return provider.get(id).messages();
+  }
+
+  @Override
+  public void clear() {
+    long removed = 0;
+    boolean live;
+    synchronized (this) {
+      live = !evicted;
+      if (live) {
+        messages.clear();
+        removed = weight;
+        weight = 0;
+        provider.onMessagesChange(id, messages);
+      }
+    }
+    if (live) {
+      provider.onWeightChange(-removed);
+    } else {
+      provider.get(id).clear();
+    }
+  }
+
+  /**
+   * Marks the memory as evicted and returns its weight, to be removed from the
+   * global budget.
+   */
+  synchronized long evict() {
+    evicted = true;
+    long removed = weight;
+    weight = 0;
+    messages.clear();
+    return removed;
+  }
+
+  synchronized long weight() {
+    return weight;
+  }
+
+  long lastAccess() {
+    return lastAccess;
+  }
+
+  void touch() {
+    lastAccess = System.nanoTime();
+  }
+}
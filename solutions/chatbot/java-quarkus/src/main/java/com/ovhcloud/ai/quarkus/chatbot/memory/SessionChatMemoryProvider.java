@@ -0,0 +1,284 @@
+package com.ovhcloud.ai.quarkus.chatbot.memory;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Provider of the chat memories of the AIMemoryService, one memory per
+ * memory id (so per user or per conversation).
+ * The memories are kept in a lock-striped map, each stripe being in LRU order,
+ * with bounds to get a predictable heap usage:
+ * - a maximum number of messages per session,
+ * - a maximum number of sessions,
+ * - a global budget of messages or tokens for all the sessions,
+ * - an idle time to live after which a session is forgotten.
+ * When a bound is exceeded, the least recently used session of two randomly
+ * chosen stripes is evicted, until the bound is respected again.
+ * With a {@link LogChatMemoryStore} enabled, the messages are also persisted:
+ * an evicted session, or a session of a previous run, is read again from the
+ * log when it is used. Only remove() deletes the messages from the log.
+ * Meters: chatbot.memory.sessions, chatbot.memory.weight (in the unit of the
+ * budget) and the chatbot.memory.evictions count.
+ */
+@ApplicationScoped
+public class SessionChatMemoryProvider implements ChatMemoryProvider {
+
+  @ConfigProperty(name = "chatbot.memory.max-messages-per-session", defaultValue = "10")
+  int maxMessagesPerSession;
+
+  @ConfigProperty(name = "chatbot.memory.max-sessions", defaultValue = "50000")
+  int maxSessions;
+
+  // Unit of the budget: messages or tokens (estimated, 4 characters per token)
+  @ConfigProperty(name = "chatbot.memory.budget-unit", defaultValue = "messages")
+  String budgetUnit;
+
+  @ConfigProperty(name = "chatbot.memory.budget", defaultValue = "250000")
+  long budget;
+
+  @ConfigProperty(name = "chatbot.memory.idle-ttl", defaultValue = "30m")
+  Duration idleTtl;
+
+  @ConfigProperty(name = "chatbot.memory.stripes", defaultValue = "64")
+  int stripeCount;
+
+  @Inject
+  LogChatMemoryStore store;
+
+  @Inject
+  MeterRegistry registry;
+
+  private Stripe[] stripes;
+  private ToIntFunction<ChatMessage> weigher;
+  private final AtomicInteger sessions = new AtomicInteger();
+  private final AtomicLong weight = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private static final class Stripe {
+    final ReentrantLock lock = new ReentrantLock();
+    // Access ordered: the eldest entry is the least recently used session
+    final LinkedHashMap<Object, SessionChatMemory> sessions = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  @PostConstruct
+  void init() {
+    // A power of two to select a stripe with a mask
+    int count = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+    stripes = new Stripe[count];
+    for (int i = 0; i < count; i++) {
+      stripes[i] = new Stripe();
+    }
+    weigher = "tokens".equalsIgnoreCase(budgetUnit) ? SessionChatMemoryProvider::estimateTokens : message -> 1;
+    Gauge.builder("chatbot.memory.sessions", this, SessionChatMemoryProvider::sessions).register(registry);
+    Gauge.builder("chatbot.memory.weight", this, SessionChatMemoryProvider::weight).register(registry);
+    FunctionCounter.builder("chatbot.memory.evictions", this, SessionChatMemoryProvider::evictions)
+        .register(registry);
+  }
+
+  @Override
+  public ChatMemory get(Object memoryId) {
+    Stripe stripe = stripeOf(memoryId);
+    SessionChatMemory memory;
+    stripe.lock.lock();
+    try {
+      expire(stripe, System.nanoTime());
+      memory = stripe.sessions.get(memoryId);
+      if (memory != null) {
+        memory.touch();
+        return memory;
+      }
+    } finally {
+      stripe.lock.unlock();
+    }
+    // Read from the log out of the lock, the other sessions of the stripe don't wait
+    List<ChatMessage> recovered = store.getMessages(memoryId);
+    boolean created = false;
+    stripe.lock.lock();
+    try {
+      memory = stripe.sessions.get(memoryId);
+      if (memory == null) {
+        memory = new SessionChatMemory(memoryId, maxMessagesPerSession, weigher, this, recovered);
+        stripe.sessions.put(memoryId, memory);
+        created = true;
+      }
+      memory.touch();
+    } finally {
+      stripe.lock.unlock();
+    }
+    if (created) {
+      sessions.incrementAndGet();
+      onWeightChange(memory.weight());
+      evictUntilWithinBounds();
+    }
+    return memory;
+  }
+
+  /**
+   * Forgets a session, when the user leaves for instance.
+   */
+  public void remove(Object memoryId) {
+    Stripe stripe = stripeOf(memoryId);
+    stripe.lock.lock();
+    try {
+      SessionChatMemory memory = stripe.sessions.remove(memoryId);
+      if (memory != null) {
+        release(memory);
+      }
+    } finally {
+      stripe.lock.unlock();
+    }
+    store.deleteMessages(memoryId);
+  }
+
+  /**
+   * Messages of a session, empty if there is none, without creating it.
+   */
+  public List<ChatMessage> peek(Object memoryId) {
+    Stripe stripe = stripeOf(memoryId);
+    SessionChatMemory memory;
+    stripe.lock.lock();
+    try {
+      memory = stripe.sessions.get(memoryId);
+    } finally {
+      stripe.lock.unlock();
+    }
+    return memory == null ? store.getMessages(memoryId) : memory.messages();
+  }
+
+  public int sessions() {
+    return sessions.get();
+  }
+
+  public long weight() {
+    return weight.get();
+  }
+
+  public long evictions() {
+    return evictions.get();
+  }
+
+  // Called by the memories when messages are added or evicted
+  void onWeightChange(long delta) {
+    if (weight.addAndGet(delta) > budget) {
+      evictUntilWithinBounds();
+    }
+  }
+
+  // Called by the memories, under their lock, when their messages change
+  void onMessagesChange(Object memoryId, List<ChatMessage> messages) {
+    store.updateMessages(memoryId, messages);
+  }
+
+  private void evictUntilWithinBounds() {
+    while (sessions.get() > maxSessions || weight.get() > budget) {
+      if (!evictOne()) {
+        return;
+      }
+    }
+  }
+
+  // Evicts the least recently used session of two random stripes
+  private boolean evictOne() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int attempt = 0; attempt < stripes.length; attempt++) {
+      Stripe first = stripes[random.nextInt(stripes.length)];
+      Stripe second = stripes[random.nextInt(stripes.length)];
+      long firstAccess = eldestAccess(first);
+      long secondAccess = eldestAccess(second);
+      Stripe victim = firstAccess - secondAccess <= 0 ? first : second;
+      if (victim.lock.tryLock()) {
+        try {
+          Iterator<SessionChatMemory> iterator = victim.sessions.values().iterator();
+          if (iterator.hasNext()) {
+            SessionChatMemory memory = iterator.next();
+            iterator.remove();
+            release(memory);
+            evictions.incrementAndGet();
+            return true;
+          }
+        } finally {
+          victim.lock.unlock();
+        }
+      }
+    }
+    return false;
+  }
+
+  private long eldestAccess(Stripe stripe) {
+    stripe.lock.lock();
+    try {
+      // Iterating doesn't change the access order
+      Iterator<SessionChatMemory> iterator = stripe.sessions.values().iterator();
+      return iterator.hasNext() ? iterator.next().lastAccess() : Long.MAX_VALUE;
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  // Removes the idle sessions of the stripe, the eldest ones come first
+  private void expire(Stripe stripe, long now) {
+    Iterator<Map.Entry<Object, SessionChatMemory>> iterator = stripe.sessions.entrySet().iterator();
+    while (iterator.hasNext()) {
+      SessionChatMemory memory = iterator.next().getValue();
+      if (now - memory.lastAccess() < idleTtl.toNanos()) {
+        return;
+      }
+      iterator.remove();
+      release(memory);
+    }
+  }
+
+  private void release(SessionChatMemory memory) {
+    sessions.decrementAndGet();
+    weight.addAndGet(-memory.evict());
+  }
+
+  private Stripe stripeOf(Object memoryId) {
+    int hash = memoryId.hashCode();
+    hash ^= hash >>> 16;
+    return stripes[hash & (stripes.length - 1)];
+  }
+
+  /**
+   * Estimated number of tokens of a message, 4 characters per token.
+   */
+  public static int estimateTokens(ChatMessage message) {
+    String text = null;
+    if (message instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+      text = userMessage.singleText();
+    } else if (message instanceof AiMessage aiMessage) {
+      text = aiMessage.text();
+    } else if (message instanceof SystemMessage systemMessage) {
+      text = systemMessage.text();
+    } else if (message instanceof ToolExecutionResultMessage toolMessage) {
+      text = toolMessage.text();
+    }
+    int characters = text == null ? 0 : text.length();
+    // A few tokens for the role and the formatting of the message
+    return 4 + characters / 4;
+  }
+}
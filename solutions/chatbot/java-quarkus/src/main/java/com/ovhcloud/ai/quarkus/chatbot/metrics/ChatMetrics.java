@@ -0,0 +1,221 @@
+package com.ovhcloud.ai.quarkus.chatbot.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import com.ovhcloud.ai.quarkus.chatbot.memory.SessionChatMemoryProvider;
+
+import dev.langchain4j.data.message.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+/**
+ * Micrometer metrics of the calls to the LLM, tagged by endpoint and model,
+ * exposed on http://localhost:8080/q/metrics:
+ * - chatbot.generation.time.to.first.token and chatbot.generation.duration,
+ * - chatbot.generation.tokens.per.second,
+ * - chatbot.generation.prompt.tokens and chatbot.generation.completion.tokens,
+ * - chatbot.generation.memory.messages, the size of the memory sent with the question,
+ * - chatbot.generation.in.flight and chatbot.generation.failures.
+ * The components in front of the LLM register their own meters.
+ * The Mistral AI services give neither the token usage nor the connection
+ * time: the prompt tokens are estimated (4 characters per token, templates
+ * excluded) and the completion tokens are the streamed chunks. The latency of
+ * the upstream streaming calls, up to the response headers, is the
+ * chatbot.upstream.response.time timer of each deployment, see
+ * HttpStreamingChatModel; a blocking call gets its whole answer with the
+ * response, its latency is the chatbot.generation.duration of its endpoint.
+ * Nothing is recorded per token but a counter in the state of the generation.
+ */
+@ApplicationScoped
+public class ChatMetrics {
+
+  @ConfigProperty(name = "quarkus.langchain4j.mistralai.chat-model.model-name", defaultValue = "unknown")
+  String model;
+
+  @Inject
+  MeterRegistry registry;
+
+  private final Map<String, EndpointMeters> meters = new ConcurrentHashMap<>();
+
+  // The meters of an endpoint, looked up once
+  private record EndpointMeters(Timer timeToFirstToken, Timer duration, DistributionSummary tokensPerSecond,
+      DistributionSummary promptTokens, DistributionSummary completionTokens, DistributionSummary memoryMessages,
+      Counter failures, AtomicInteger inFlight) {
+  }
+
+  /**
+   * Measures a blocking call to the LLM.
+   */
+  public String call(String endpoint, String question, Supplier<String> call) {
+    Generation generation = new Generation(meters(endpoint), question, List.of());
+    generation.start();
+    try {
+      String answer = call.get();
+      generation.onAnswer(answer);
+      generation.end(null, false);
+      return answer;
+    } catch (RuntimeException e) {
+      generation.end(e, false);
+      throw e;
+    }
+  }
+
+  /**
+   * Measures a stream of tokens of the LLM.
+   */
+  public Multi<String> stream(String endpoint, String question, Supplier<Multi<String>> tokens) {
+    return measure(endpoint, question, List::of, tokens);
+  }
+
+  /**
+   * Measures a stream of tokens of the LLM, answering with the given memory.
+   * The memory may be read from the disk: it is only read once the stream is
+   * subscribed, on a worker thread.
+   */
+  public Multi<String> stream(String endpoint, String question, Supplier<List<ChatMessage>> memory,
+      Supplier<Multi<String>> tokens) {
+    return measure(endpoint, question, memory, tokens)
+        .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
+  }
+
+  private Multi<String> measure(String endpoint, String question, Supplier<List<ChatMessage>> memory,
+      Supplier<Multi<String>> tokens) {
+    EndpointMeters endpointMeters = meters(endpoint);
+    return Multi.createFrom().deferred(() -> {
+      Generation generation = new Generation(endpointMeters, question, memory.get());
+      return tokens.get()
+          .onSubscription().invoke(generation::start)
+          .onItem().invoke(generation::onToken)
+          .onTermination().invoke(generation::end);
+    });
+  }
+
+  private EndpointMeters meters(String endpoint) {
+    return meters.computeIfAbsent(endpoint, this::register);
+  }
+
+  private EndpointMeters register(String endpoint) {
+    Tags tags = Tags.of("endpoint", endpoint, "model", model);
+    AtomicInteger inFlight = new AtomicInteger();
+    Gauge.builder("chatbot.generation.in.flight", inFlight, AtomicInteger::get)
+        .tags(tags)
+        .description("Calls to the LLM in progress")
+        .register(registry);
+    return new EndpointMeters(
+        Timer.builder("chatbot.generation.time.to.first.token")
+            .tags(tags)
+            .description("Time from the call to the LLM to its first token")
+            .publishPercentileHistogram()
+            .register(registry),
+        Timer.builder("chatbot.generation.duration")
+            .tags(tags)
+            .description("Time from the call to the LLM to its last token")
+            .publishPercentileHistogram()
+            .register(registry),
+        DistributionSummary.builder("chatbot.generation.tokens.per.second")
+            .tags(tags)
+            .description("Speed of the generation after the first token")
+            .publishPercentileHistogram()
+            .register(registry),
+        DistributionSummary.builder("chatbot.generation.prompt.tokens")
+            .tags(tags)
+            .description("Estimated tokens of the question and of the memory")
+            .register(registry),
+        DistributionSummary.builder("chatbot.generation.completion.tokens")
+            .tags(tags)
+            .description("Tokens of the answer, streamed chunks or estimated")
+            .register(registry),
+        DistributionSummary.builder("chatbot.generation.memory.messages")
+            .tags(tags)
+            .description("Messages of the memory sent with the question")
+            .register(registry),
+        Counter.builder("chatbot.generation.failures")
+            .tags(tags)
+            .description("Calls to the LLM ending with an error")
+            .register(registry),
+        inFlight);
+  }
+
+  // State of one call to the LLM, the tokens of a stream are received one
+  // at a time so no synchronization is needed
+  private static final class Generation {
+    private final EndpointMeters meters;
+    private final int promptTokens;
+    private final int memoryMessages;
+    private long start;
+    private long firstToken;
+    private int completionTokens;
+    private boolean ended;
+
+    Generation(EndpointMeters meters, String question, List<ChatMessage> memory) {
+      this.meters = meters;
+      int tokens = estimateTokens(question);
+      for (ChatMessage message : memory) {
+        tokens += SessionChatMemoryProvider.estimateTokens(message);
+      }
+      this.promptTokens = tokens;
+      this.memoryMessages = memory.size();
+    }
+
+    void start() {
+      start = System.nanoTime();
+      meters.inFlight().incrementAndGet();
+    }
+
+    void onToken(String token) {
+      if (completionTokens++ == 0) {
+        firstToken = System.nanoTime();
+        meters.timeToFirstToken().record(firstToken - start, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    // The answer of a blocking call comes at once
+    void onAnswer(String answer) {
+      firstToken = System.nanoTime();
+      meters.timeToFirstToken().record(firstToken - start, TimeUnit.NANOSECONDS);
+      completionTokens = estimateTokens(answer);
+    }
+
+    void end(Throwable failure, boolean cancelled) {
+      if (ended || start == 0) {
+        return;
+      }
+      ended = true;
+      long end = System.nanoTime();
+      meters.inFlight().decrementAndGet();
+      meters.duration().record(end - start, TimeUnit.NANOSECONDS);
+      meters.promptTokens().record(promptTokens);
+      meters.memoryMessages().record(memoryMessages);
+      if (failure != null) {
+        meters.failures().increment();
+      }
+      if (completionTokens == 0) {
+        return;
+      }
+      meters.completionTokens().record(completionTokens);
+      long generationNanos = end - firstToken;
+      if (completionTokens > 1 && generationNanos > 0) {
+        meters.tokensPerSecond().record((completionTokens - 1) * 1e9 / generationNanos);
+      }
+    }
+
+    private static int estimateTokens(String text) {
+      return text == null ? 0 : 1 + text.length() / 4;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.ovhcloud.ai.quarkus.chatbot.rag;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.query.Query;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.spi.CDI;
+
+/**
+ * Retrieval of the RAG endpoint, from the snapshot built with the application
+ * (see RagSnapshotWriter): nothing is split nor embedded at startup.
+ * - the snapshot file given by chatbot.rag.index-file is memory-mapped, the
+ * Docker images copy it next to the application,
+ * - otherwise the snapshot is read from the classpath (rag/index.bin), which
+ * also works in native mode.
+ */
+@ApplicationScoped
+@Startup
+public class RagIndex {
+  private static final Logger LOG = Logger.getLogger(RagIndex.class);
+  static final String RESOURCE = "rag/index.bin";
+
+  @ConfigProperty(name = "chatbot.rag.index-file")
+  Optional<String> indexFile;
+
+  @ConfigProperty(name = "chatbot.rag.max-results", defaultValue = "3")
+  int maxResults;
+
+  private RagSnapshot snapshot;
+
+  @PostConstruct
+  void init() {
+    long start = System.nanoTime();
+    Optional<Path> file = indexFile.map(Path::of).filter(Files::isRegularFile);
+    ByteBuffer buffer = file.map(RagIndex::map).orElseGet(RagIndex::readResource);
+    if (buffer == null) {
+      LOG.warn("No RAG snapshot, the RAG endpoint answers without context: build the application with Maven");
+      snapshot = RagSnapshot.empty();
+      return;
+    }
+    snapshot = RagSnapshot.of(buffer);
+    LOG.infof("RAG snapshot of %d segments loaded from %s in %.3f ms", snapshot.size(),
+        file.map(Path::toString).orElse("classpath:" + RESOURCE), (System.nanoTime() - start) / 1e6);
+  }
+
+  private static ByteBuffer map(Path file) {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static ByteBuffer readResource() {
+    try (InputStream input = Thread.currentThread().getContextClassLoader().getResourceAsStream(RESOURCE)) {
+      return input == null ? null : ByteBuffer.wrap(input.readAllBytes());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public List<RagSnapshot.Hit> search(String query) {
+    return snapshot.search(query, maxResults);
+  }
+
+  public int size() {
+    return snapshot.size();
+  }
+
+  /**
+   * The content retriever of the AI service.
+   */
+  public List<Content> retrieve(Query query) {
+    return search(query.text()).stream()
+        .map(hit -> Content.from(TextSegment.from(hit.text(), Metadata.from(Document.FILE_NAME, hit.source()))))
+        .toList();
+  }
+
+  /**
+   * Supplier of the retrieval augmentor, for RegisterAiService.retrievalAugmentor.
+   */
+  public static class RetrievalAugmentorSupplier implements Supplier<RetrievalAugmentor> {
+    @Override
+    public RetrievalAugmentor get() {
+      RagIndex index = CDI.current().select(RagIndex.class).get();
+      return DefaultRetrievalAugmentor.builder()
+          .contentRetriever(index::retrieve)
+          .build();
+    }
+  }
+}
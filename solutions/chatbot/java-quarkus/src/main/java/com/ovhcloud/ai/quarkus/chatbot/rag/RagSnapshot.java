@@ -0,0 +1,182 @@
+package com.ovhcloud.ai.quarkus.chatbot.rag;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Lexical (BM25) index of the RAG segments, as a binary snapshot used in
+ * place: opening it only checks the header, a search reads the posting lists
+ * of the terms of the query straight from the buffer.
+ * Layout, all the offsets being from the start of the snapshot:
+ * - header: magic, version, number of segments, number of slots, total length of the segments,
+ * - segments: offset and length of the text, offset and length of the source, length in terms,
+ * - slots: open addressing hash table of the terms (offset and length of the
+ * term, offset of the posting list, number of segments containing it),
+ * - data: the UTF-8 strings and the posting lists (segment, frequency).
+ * The snapshot is written at build time by RagSnapshotWriter, see
+ * src/build/java.
+ */
+public final class RagSnapshot {
+  static final int MAGIC = 0x5241_4731;
+  static final int VERSION = 1;
+  static final int HEADER = 24;
+  static final int SEGMENT_ENTRY = 20;
+  static final int SLOT_ENTRY = 16;
+  private static final int MIN_TERM_LENGTH = 2;
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+
+  private final ByteBuffer buffer;
+  private final int segmentCount;
+  private final int slotCount;
+  private final double averageLength;
+  private final int slotsOffset;
+
+  /**
+   * A segment found by a search, with the file it comes from.
+   */
+  public record Hit(String text, String source, double score) {
+  }
+
+  private RagSnapshot(ByteBuffer buffer) {
+    this.buffer = buffer;
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IllegalStateException("Not a RAG snapshot");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IllegalStateException("Unsupported RAG snapshot version " + buffer.getInt(4));
+    }
+    this.segmentCount = buffer.getInt(8);
+    this.slotCount = buffer.getInt(12);
+    this.averageLength = Math.max(1, (double) buffer.getLong(16) / Math.max(1, segmentCount));
+    this.slotsOffset = HEADER + segmentCount * SEGMENT_ENTRY;
+  }
+
+  /**
+   * Uses the snapshot in the buffer, mapped from a file or read from the classpath.
+   */
+  public static RagSnapshot of(ByteBuffer buffer) {
+    return new RagSnapshot(buffer);
+  }
+
+  public static RagSnapshot empty() {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER + 2 * SLOT_ENTRY);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(2).putLong(0);
+    return new RagSnapshot(buffer);
+  }
+
+  public int size() {
+    return segmentCount;
+  }
+
+  /**
+   * The best segments for the query, by decreasing score.
+   */
+  public List<Hit> search(String query, int maxResults) {
+    List<String> queryTerms = terms(query).stream().distinct().toList();
+    if (segmentCount == 0 || queryTerms.isEmpty() || maxResults <= 0) {
+      return List.of();
+    }
+    float[] scores = new float[segmentCount];
+    for (String term : queryTerms) {
+      int slot = find(term.getBytes(StandardCharsets.UTF_8));
+      if (slot < 0) {
+        continue;
+      }
+      int postings = buffer.getInt(slot + 8);
+      int documentFrequency = buffer.getInt(slot + 12);
+      double idf = Math.log(1 + (segmentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+      for (int i = 0; i < documentFrequency; i++) {
+        int segment = buffer.getInt(postings + 8 * i);
+        int frequency = buffer.getInt(postings + 8 * i + 4);
+        int length = buffer.getInt(HEADER + segment * SEGMENT_ENTRY + 16);
+        double norm = K1 * (1 - B + B * length / averageLength);
+        scores[segment] += (float) (idf * frequency * (K1 + 1) / (frequency + norm));
+      }
+    }
+    // Keep the best ones in a min heap
+    PriorityQueue<Integer> best = new PriorityQueue<>(maxResults + 1, (x, y) -> Float.compare(scores[x], scores[y]));
+    for (int segment = 0; segment < segmentCount; segment++) {
+      if (scores[segment] <= 0) {
+        continue;
+      }
+      if (best.size() < maxResults) {
+        best.add(segment);
+      } else if (scores[segment] > scores[best.peek()]) {
+        best.poll();
+        best.add(segment);
+      }
+    }
+    Hit[] hits = new Hit[best.size()];
+    for (int i = hits.length - 1; i >= 0; i--) {
+      int segment = best.poll();
+      int entry = HEADER + segment * SEGMENT_ENTRY;
+      hits[i] = new Hit(string(buffer.getInt(entry), buffer.getInt(entry + 4)),
+          string(buffer.getInt(entry + 8), buffer.getInt(entry + 12)), scores[segment]);
+    }
+    return List.of(hits);
+  }
+
+  // Position of the slot of the term, -1 if it is not in the index
+  private int find(byte[] term) {
+    int mask = slotCount - 1;
+    for (int probe = hash(term) & mask; ; probe = (probe + 1) & mask) {
+      int slot = slotsOffset + probe * SLOT_ENTRY;
+      int length = buffer.getInt(slot + 4);
+      if (length == 0) {
+        return -1;
+      }
+      if (length == term.length && sameBytes(buffer.getInt(slot), term)) {
+        return slot;
+      }
+    }
+  }
+
+  private boolean sameBytes(int offset, byte[] term) {
+    for (int i = 0; i < term.length; i++) {
+      if (buffer.get(offset + i) != term[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String string(int offset, int length) {
+    byte[] bytes = new byte[length];
+    buffer.get(offset, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static int hash(byte[] term) {
+    int hash = 1;
+    for (byte b : term) {
+      hash = 31 * hash + b;
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * The terms of a text: lower-cased runs of letters and digits, as in the
+   * Bm25Index of the langchain4j chatbot which indexed the segments.
+   */
+  static List<String> terms(String text) {
+    List<String> terms = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      } else if (!wordChar && start >= 0) {
+        if (i - start >= MIN_TERM_LENGTH) {
+          terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        start = -1;
+      }
+    }
+    return terms;
+  }
+}
@@ -0,0 +1,341 @@
+package com.ovhcloud.ai.quarkus.chatbot.routing;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A streaming chat model calling the OpenAI compatible API of AI Endpoints
+ * ({baseUrl}/chat/completions) with the JDK HTTP client.
+ * Unlike the Mistral client, a call can be stopped: {@link #start} returns a
+ * handle cancelling the request, or the subscription to the response body,
+ * and the HTTP client closes the upstream stream right away. Once cancelled,
+ * the handler is not called anymore: the failure of the closed stream is
+ * expected.
+ * The messages are sent as text, the tools are not supported.
+ * With a meter registry, the time from the request to the headers of the
+ * response is recorded by the chatbot.upstream.response.time timer, tagged by
+ * base URL and HTTP status ("error" without response): the JDK HTTP client is
+ * not instrumented.
+ */
+public class HttpStreamingChatModel implements StreamingChatLanguageModel {
+  private static final String DATA = "data:";
+  private static final String DONE = "[DONE]";
+
+  private final HttpClient client;
+  private final String baseUrl;
+  private final URI uri;
+  private final String apiKey;
+  private final String modelName;
+  private final Double temperature;
+  private final Integer maxTokens;
+  private final Duration timeout;
+  private final MeterRegistry registry;
+
+  private HttpStreamingChatModel(Builder builder) {
+    this.baseUrl = builder.baseUrl;
+    this.uri = URI.create(builder.baseUrl.replaceAll("/+$", "") + "/chat/completions");
+    this.apiKey = builder.apiKey;
+    this.modelName = builder.modelName;
+    this.temperature = builder.temperature;
+    this.maxTokens = builder.maxTokens;
+    this.timeout = builder.timeout;
+    this.registry = builder.registry;
+    this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  @Override
+  public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+    start(messages, handler);
+  }
+
+  /**
+   * Starts a generation, the returned handle stops it.
+   */
+  public Cancellable start(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+    HttpRequest request = HttpRequest.newBuilder(uri)
+        // Up to the headers of the response, the tokens may take longer
+        .timeout(timeout)
+        .header("Authorization", "Bearer " + apiKey)
+        .header("Content-Type", "application/json")
+        .header("Accept", "text/event-stream")
+        .POST(HttpRequest.BodyPublishers.ofString(body(messages)))
+        .build();
+    Call call = new Call(handler);
+    CompletableFuture<HttpResponse<Void>> response = client.sendAsync(request, call::bodySubscriber);
+    response.whenComplete((ignored, failure) -> {
+      if (failure != null) {
+        call.fail(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+      }
+    });
+    call.started(response);
+    return call::cancel;
+  }
+
+  private String body(List<ChatMessage> messages) {
+    JsonArray jsonMessages = new JsonArray();
+    for (ChatMessage message : messages) {
+      jsonMessages.add(message(message));
+    }
+    JsonObject body = new JsonObject()
+        .put("model", modelName)
+        .put("messages", jsonMessages)
+        .put("stream", true);
+    if (temperature != null) {
+      body.put("temperature", temperature);
+    }
+    if (maxTokens != null) {
+      body.put("max_tokens", maxTokens);
+    }
+    return body.encode();
+  }
+
+  private static JsonObject message(ChatMessage message) {
+    if (message instanceof SystemMessage systemMessage) {
+      return new JsonObject().put("role", "system").put("content", systemMessage.text());
+    }
+    if (message instanceof UserMessage userMessage) {
+      return new JsonObject().put("role", "user").put("content", userMessage.singleText());
+    }
+    if (message instanceof AiMessage aiMessage) {
+      return new JsonObject().put("role", "assistant").put("content", aiMessage.text());
+    }
+    throw new IllegalArgumentException("Unsupported message type " + message.type());
+  }
+
+  private static FinishReason finishReason(String reason) {
+    return switch (reason) {
+      case "stop" -> FinishReason.STOP;
+      case "length" -> FinishReason.LENGTH;
+      case "tool_calls" -> FinishReason.TOOL_EXECUTION;
+      case "content_filter" -> FinishReason.CONTENT_FILTER;
+      default -> FinishReason.OTHER;
+    };
+  }
+
+  // One call: reads the Server-Sent Events of the response line by line, the
+  // handler is called once at most for its end (completion, failure or
+  // cancellation)
+  private final class Call implements Flow.Subscriber<String> {
+    private final StreamingResponseHandler<AiMessage> handler;
+    private final long start = System.nanoTime();
+    private final AtomicBoolean terminated = new AtomicBoolean();
+    private final AtomicBoolean responded = new AtomicBoolean();
+    private volatile Flow.Subscription subscription;
+    private volatile CompletableFuture<?> response;
+    // Used by the thread of the HTTP client only
+    private final StringBuilder text = new StringBuilder();
+    private TokenUsage tokenUsage;
+    private FinishReason finishReason;
+
+    Call(StreamingResponseHandler<AiMessage> handler) {
+      this.handler = handler;
+    }
+
+    BodySubscriber<Void> bodySubscriber(HttpResponse.ResponseInfo info) {
+      responded(String.valueOf(info.statusCode()));
+      if (info.statusCode() != 200) {
+        return BodySubscribers.mapping(BodySubscribers.ofString(StandardCharsets.UTF_8), error -> {
+          fail(new IllegalStateException("The LLM answered " + info.statusCode() + ": " + error));
+          return null;
+        });
+      }
+      return BodySubscribers.fromLineSubscriber(this);
+    }
+
+    void started(CompletableFuture<?> response) {
+      this.response = response;
+      if (terminated.get()) {
+        // Cancelled meanwhile, a no-op if the call is already over
+        response.cancel(true);
+      }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (terminated.get()) {
+        subscription.cancel();
+      } else {
+        subscription.request(Long.MAX_VALUE);
+      }
+    }
+
+    @Override
+    public void onNext(String line) {
+      if (terminated.get() || !line.startsWith(DATA)) {
+        return;
+      }
+      String data = line.substring(DATA.length()).strip();
+      if (DONE.equals(data)) {
+        complete();
+        return;
+      }
+      try {
+        JsonObject chunk = new JsonObject(data);
+        JsonArray choices = chunk.getJsonArray("choices");
+        if (choices != null && !choices.isEmpty()) {
+          JsonObject choice = choices.getJsonObject(0);
+          JsonObject delta = choice.getJsonObject("delta");
+          String token = delta == null ? null : delta.getString("content");
+          if (choice.getString("finish_reason") != null) {
+            finishReason = finishReason(choice.getString("finish_reason"));
+          }
+          if (token != null && !token.isEmpty()) {
+            text.append(token);
+            handler.onNext(token);
+          }
+        }
+        JsonObject usage = chunk.getJsonObject("usage");
+        if (usage != null) {
+          tokenUsage = new TokenUsage(usage.getInteger("prompt_tokens"), usage.getInteger("completion_tokens"));
+        }
+      } catch (RuntimeException e) {
+        // A malformed event, or a failure of the handler: the call is over
+        fail(e);
+      }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      fail(error);
+    }
+
+    @Override
+    public void onComplete() {
+      // Ended without [DONE], the answer is complete anyway
+      complete();
+    }
+
+    private void complete() {
+      if (terminated.compareAndSet(false, true)) {
+        handler.onComplete(Response.from(AiMessage.from(text.toString()), tokenUsage, finishReason));
+      }
+    }
+
+    void fail(Throwable error) {
+      if (terminated.compareAndSet(false, true)) {
+        // No response at all: connection refused, timeout...
+        responded("error");
+        stop();
+        handler.onError(error);
+      }
+    }
+
+    // The failure caused by the closed stream is swallowed by the terminated flag
+    void cancel() {
+      if (terminated.compareAndSet(false, true)) {
+        stop();
+      }
+    }
+
+    private void responded(String status) {
+      if (registry != null && responded.compareAndSet(false, true)) {
+        Timer.builder("chatbot.upstream.response.time")
+            .tags(Tags.of("upstream", baseUrl, "status", status))
+            .description("Time from the request to a deployment to the headers of its response")
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    private void stop() {
+      Flow.Subscription current = subscription;
+      if (current != null) {
+        current.cancel();
+      }
+      CompletableFuture<?> pending = response;
+      if (pending != null) {
+        pending.cancel(true);
+      }
+    }
+  }
+
+  public static class Builder {
+    private String baseUrl;
+    private String apiKey;
+    private String modelName;
+    private Double temperature;
+    private Integer maxTokens;
+    private Duration timeout = Duration.ofSeconds(60);
+    private MeterRegistry registry;
+
+    public Builder baseUrl(String baseUrl) {
+      this.baseUrl = baseUrl;
+      return this;
+    }
+
+    public Builder apiKey(String apiKey) {
+      this.apiKey = apiKey;
+      return this;
+    }
+
+    public Builder modelName(String modelName) {
+      this.modelName = modelName;
+      return this;
+    }
+
+    public Builder temperature(Double temperature) {
+      this.temperature = temperature;
+      return this;
+    }
+
+    public Builder maxTokens(Integer maxTokens) {
+      this.maxTokens = maxTokens;
+      return this;
+    }
+
+    /**
+     * Timeout of the connection, and of the call up to the headers of the
+     * response.
+     */
+    public Builder timeout(Duration timeout) {
+      this.timeout = timeout;
+      return this;
+    }
+
+    /**
+     * Registry of the timer of the responses, none by default.
+     */
+    public Builder meterRegistry(MeterRegistry registry) {
+      this.registry = registry;
+      return this;
+    }
+
+    public HttpStreamingChatModel build() {
+      return new HttpStreamingChatModel(this);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.ovhcloud.ai.quarkus.chatbot.routing;
+
+import java.util.Arrays;
+
+/**
+ * The last latencies of the calls to the LLM, to get a percentile of them.
+ * The percentile is computed again every few samples only.
+ */
+final class LatencyWindow {
+  private static final int MIN_SAMPLES = 20;
+  private static final int RECOMPUTE_EVERY = 32;
+
+  private final long[] samples;
+  private final double percentile;
+  private int next;
+  private int count;
+  private int sinceComputed;
+  private long value = -1;
+
+  LatencyWindow(int size, double percentile) {
+    this.samples = new long[size];
+    this.percentile = percentile;
+  }
+
+  synchronized void add(long latencyNanos) {
+    samples[next] = latencyNanos;
+    next = (next + 1) % samples.length;
+    count = Math.min(count + 1, samples.length);
+    sinceComputed++;
+  }
+
+  /**
+   * The percentile of the latencies, or the default value while there are
+   * not enough samples.
+   */
+  synchronized long percentileNanos(long defaultNanos) {
+    if (count < MIN_SAMPLES) {
+      return defaultNanos;
+    }
+    if (value < 0 || sinceComputed >= RECOMPUTE_EVERY) {
+      long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      value = sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+      sinceComputed = 0;
+    }
+    return value;
+  }
+}
@@ -0,0 +1,148 @@
+package com.ovhcloud.ai.quarkus.chatbot.routing;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.mistralai.MistralAiChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.spi.CDI;
+import jakarta.inject.Inject;
+
+/**
+ * The chat models of the chatbot, routed over the deployments listed in
+ * chatbot.routing.base-urls (the Mistral base URL alone by default).
+ * The other settings of the models are the ones of the Mistral extension.
+ * The blocking model is used by the AI services through the supplier of this
+ * class, see https://docs.quarkiverse.io/quarkus-langchain4j/dev/ai-services.html,
+ * the streaming one is called directly to be able to stop its generations.
+ */
+@ApplicationScoped
+public class RoutedModels {
+
+  @ConfigProperty(name = "chatbot.routing.base-urls")
+  Optional<List<String>> baseUrls;
+
+  @ConfigProperty(name = "chatbot.routing.latency-weight", defaultValue = "0.3")
+  double latencyWeight;
+
+  @ConfigProperty(name = "chatbot.routing.failure-threshold", defaultValue = "3")
+  int failureThreshold;
+
+  @ConfigProperty(name = "chatbot.routing.open-duration", defaultValue = "30s")
+  Duration openDuration;
+
+  @ConfigProperty(name = "chatbot.routing.max-attempts", defaultValue = "2")
+  int maxAttempts;
+
+  @ConfigProperty(name = "chatbot.routing.hedging.enabled", defaultValue = "false")
+  boolean hedging;
+
+  @ConfigProperty(name = "chatbot.routing.hedging.initial-delay", defaultValue = "2s")
+  Duration initialHedgeDelay;
+
+  @ConfigProperty(name = "chatbot.routing.hedging.min-delay", defaultValue = "100ms")
+  Duration minHedgeDelay;
+
+  @ConfigProperty(name = "chatbot.routing.hedging.max-ratio", defaultValue = "0.1")
+  double maxHedgeRatio;
+
+  @ConfigProperty(name = "quarkus.langchain4j.mistralai.base-url")
+  String defaultBaseUrl;
+
+  @ConfigProperty(name = "quarkus.langchain4j.mistralai.api-key")
+  String apiKey;
+
+  @ConfigProperty(name = "quarkus.langchain4j.mistralai.chat-model.model-name")
+  String modelName;
+
+  @ConfigProperty(name = "quarkus.langchain4j.mistralai.chat-model.temperature", defaultValue = "0.7")
+  double temperature;
+
+  @ConfigProperty(name = "quarkus.langchain4j.mistralai.chat-model.max-tokens", defaultValue = "512")
+  int maxTokens;
+
+  @ConfigProperty(name = "quarkus.langchain4j.mistralai.timeout", defaultValue = "60s")
+  Duration timeout;
+
+  @ConfigProperty(name = "quarkus.langchain4j.mistralai.log-requests", defaultValue = "false")
+  boolean logRequests;
+
+  @ConfigProperty(name = "quarkus.langchain4j.mistralai.log-responses", defaultValue = "false")
+  boolean logResponses;
+
+  @Inject
+  MeterRegistry registry;
+
+  private RoutingChatModel chatModel;
+  private RoutingStreamingChatModel streamingChatModel;
+
+  @PostConstruct
+  void init() {
+    List<String> urls = baseUrls.filter(list -> !list.isEmpty()).orElse(List.of(defaultBaseUrl));
+    RoutingChatModel.Builder chatModelBuilder = RoutingChatModel.builder()
+        .latencyWeight(latencyWeight)
+        .failureThreshold(failureThreshold)
+        .openDuration(openDuration)
+        .maxAttempts(maxAttempts)
+        .hedging(hedging)
+        .initialHedgeDelay(initialHedgeDelay)
+        .minHedgeDelay(minHedgeDelay)
+        .maxHedgeRatio(maxHedgeRatio);
+    RoutingStreamingChatModel.Builder streamingChatModelBuilder = RoutingStreamingChatModel.builder()
+        .latencyWeight(latencyWeight)
+        .failureThreshold(failureThreshold)
+        .openDuration(openDuration)
+        .maxAttempts(maxAttempts);
+    for (String url : urls) {
+      chatModelBuilder.upstream(url, MistralAiChatModel.builder()
+          .baseUrl(url)
+          .apiKey(apiKey)
+          .modelName(modelName)
+          .temperature(temperature)
+          .maxTokens(maxTokens)
+          .timeout(timeout)
+          .logRequests(logRequests)
+          .logResponses(logResponses)
+          // Retries go to another deployment
+          .maxRetries(0)
+          .build());
+      // The streams are read with the JDK HTTP client, to close them on cancellation
+      streamingChatModelBuilder.upstream(url, HttpStreamingChatModel.builder()
+          .baseUrl(url)
+          .apiKey(apiKey)
+          .modelName(modelName)
+          .temperature(temperature)
+          .maxTokens(maxTokens)
+          .timeout(timeout)
+          .meterRegistry(registry)
+          .build());
+    }
+    chatModel = chatModelBuilder.build();
+    streamingChatModel = streamingChatModelBuilder.build();
+  }
+
+  public RoutingChatModel chatModel() {
+    return chatModel;
+  }
+
+  public RoutingStreamingChatModel streamingChatModel() {
+    return streamingChatModel;
+  }
+
+  /**
+   * Supplier of the blocking model, for RegisterAiService.chatLanguageModelSupplier.
+   */
+  public static class ChatModelSupplier implements Supplier<ChatLanguageModel> {
+    @Override
+    public ChatLanguageModel get() {
+      return CDI.current().select(RoutedModels.class).get().chatModel();
+    }
+  }
+}
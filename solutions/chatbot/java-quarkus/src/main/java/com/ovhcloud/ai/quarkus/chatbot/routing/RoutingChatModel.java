@@ -0,0 +1,297 @@
+package com.ovhcloud.ai.quarkus.chatbot.routing;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+
+import com.ovhcloud.ai.quarkus.chatbot.routing.UpstreamPool.Upstream;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+/**
+ * A blocking chat model sending each request to one of several deployments,
+ * see {@link UpstreamPool} for the choice.
+ * - a failed call is sent again to another deployment, up to maxAttempts,
+ * - with hedging, when the call is not answered after the p95 of the last
+ * latencies, a duplicate is sent to another deployment: the first answer
+ * wins and the other call is cancelled (its thread is interrupted).
+ * The hedges are limited to a ratio of the recent requests, so that a slow
+ * period does not double the load of the deployments: each request earns
+ * maxHedgeRatio of a hedge, saved up to the hedges of 100 requests, and a
+ * hedge spends one. A long healthy period doesn't allow a burst of hedges.
+ */
+public class RoutingChatModel implements ChatLanguageModel {
+  private static final Logger LOG = Logger.getLogger(RoutingChatModel.class);
+  // Requests whose hedges can be saved up
+  private static final int HEDGE_WINDOW = 100;
+
+  private final UpstreamPool<ChatLanguageModel> pool;
+  private final int maxAttempts;
+  private final boolean hedging;
+  private final Duration initialHedgeDelay;
+  private final Duration minHedgeDelay;
+  private final double maxHedgeRatio;
+  private final ExecutorService executor;
+  private final LatencyWindow latencies = new LatencyWindow(512, 0.95);
+  private final double maxHedgeTokens;
+  private final AtomicLong hedges = new AtomicLong();
+  // Hedges allowed right now, guarded by the lock
+  private final Object hedgeLock = new Object();
+  private double hedgeTokens;
+
+  private RoutingChatModel(Builder builder) {
+    this.pool = new UpstreamPool<>(builder.models, builder.latencyWeight, builder.failureThreshold,
+        builder.openDuration);
+    this.maxAttempts = builder.maxAttempts;
+    this.hedging = builder.hedging;
+    this.initialHedgeDelay = builder.initialHedgeDelay;
+    this.minHedgeDelay = builder.minHedgeDelay;
+    this.maxHedgeRatio = builder.maxHedgeRatio;
+    this.maxHedgeTokens = Math.max(1, maxHedgeRatio * HEDGE_WINDOW);
+    this.executor = builder.executor != null
+        ? builder.executor
+        : Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-hedge-", 0).factory());
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  @Override
+  public Response<AiMessage> generate(List<ChatMessage> messages) {
+    if (hedging) {
+      synchronized (hedgeLock) {
+        hedgeTokens = Math.min(maxHedgeTokens, hedgeTokens + maxHedgeRatio);
+      }
+    }
+    return hedging && pool.upstreams().size() > 1 ? generateHedged(messages) : generateWithRetries(messages);
+  }
+
+  public long hedges() {
+    return hedges.get();
+  }
+
+  private Response<AiMessage> generateWithRetries(List<ChatMessage> messages) {
+    Set<Upstream<ChatLanguageModel>> tried = new HashSet<>();
+    RuntimeException failure = null;
+    for (int attempt = 0; attempt < maxAttempts; attempt++) {
+      Upstream<ChatLanguageModel> upstream = pool.acquire(tried);
+      if (upstream == null) {
+        break;
+      }
+      tried.add(upstream);
+      long start = System.nanoTime();
+      try {
+        Response<AiMessage> response = upstream.model.generate(messages);
+        record(upstream, System.nanoTime() - start);
+        return response;
+      } catch (RuntimeException e) {
+        pool.failure(upstream);
+        LOG.warnf("Call to %s failed: %s", upstream, e.getMessage());
+        failure = e;
+      } finally {
+        pool.release(upstream);
+      }
+    }
+    throw failure != null ? failure : new IllegalStateException("No upstream available");
+  }
+
+  private Response<AiMessage> generateHedged(List<ChatMessage> messages) {
+    ExecutorCompletionService<Response<AiMessage>> completion = new ExecutorCompletionService<>(executor);
+    Set<Upstream<ChatLanguageModel>> tried = new HashSet<>();
+    Map<Future<Response<AiMessage>>, AtomicBoolean> calls = new LinkedHashMap<>();
+    RuntimeException failure = null;
+    try {
+      if (!start(completion, messages, tried, calls)) {
+        throw new IllegalStateException("No upstream available");
+      }
+      long hedgeDelay = Math.max(minHedgeDelay.toNanos(), latencies.percentileNanos(initialHedgeDelay.toNanos()));
+      Future<Response<AiMessage>> done = completion.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+      if (done == null && takeHedgeToken()) {
+        if (start(completion, messages, tried, calls)) {
+          hedges.incrementAndGet();
+        } else {
+          // No other upstream, the hedge was not sent
+          returnHedgeToken();
+        }
+      }
+      int pending = calls.size();
+      while (pending > 0) {
+        if (done == null) {
+          done = completion.take();
+        }
+        pending--;
+        try {
+          return done.get();
+        } catch (ExecutionException e) {
+          failure = e.getCause() instanceof RuntimeException runtimeException
+              ? runtimeException
+              : new IllegalStateException(e.getCause());
+        }
+        done = null;
+        // Nothing left in flight: try another upstream while attempts remain
+        if (pending == 0 && tried.size() < maxAttempts && start(completion, messages, tried, calls)) {
+          pending++;
+        }
+      }
+      throw failure != null ? failure : new IllegalStateException("No upstream available");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the LLM", e);
+    } finally {
+      // Cancel the calls still in flight, the loser of the race
+      calls.forEach((call, abandoned) -> {
+        if (!call.isDone()) {
+          abandoned.set(true);
+          call.cancel(true);
+        }
+      });
+    }
+  }
+
+  // Starts a call on an upstream not tried yet, returns false if there is none
+  private boolean start(ExecutorCompletionService<Response<AiMessage>> completion, List<ChatMessage> messages,
+      Set<Upstream<ChatLanguageModel>> tried, Map<Future<Response<AiMessage>>, AtomicBoolean> calls) {
+    Upstream<ChatLanguageModel> upstream = pool.acquire(tried);
+    if (upstream == null) {
+      return false;
+    }
+    tried.add(upstream);
+    AtomicBoolean abandoned = new AtomicBoolean();
+    Future<Response<AiMessage>> call = completion.submit(() -> {
+      long start = System.nanoTime();
+      try {
+        Response<AiMessage> response = upstream.model.generate(messages);
+        record(upstream, System.nanoTime() - start);
+        return response;
+      } catch (RuntimeException e) {
+        if (abandoned.get()) {
+          // Slower than the other call: at least this latency
+          pool.sample(upstream, System.nanoTime() - start);
+        } else {
+          pool.failure(upstream);
+          LOG.warnf("Call to %s failed: %s", upstream, e.getMessage());
+        }
+        throw e;
+      } finally {
+        pool.release(upstream);
+      }
+    });
+    calls.put(call, abandoned);
+    return true;
+  }
+
+  private boolean takeHedgeToken() {
+    synchronized (hedgeLock) {
+      if (hedgeTokens < 1) {
+        return false;
+      }
+      hedgeTokens--;
+      return true;
+    }
+  }
+
+  private void returnHedgeToken() {
+    synchronized (hedgeLock) {
+      hedgeTokens = Math.min(maxHedgeTokens, hedgeTokens + 1);
+    }
+  }
+
+  private void record(Upstream<ChatLanguageModel> upstream, long latencyNanos) {
+    pool.success(upstream, latencyNanos);
+    latencies.add(latencyNanos);
+  }
+
+  public static class Builder {
+    private final Map<String, ChatLanguageModel> models = new LinkedHashMap<>();
+    private double latencyWeight = 0.3;
+    private int failureThreshold = 3;
+    private Duration openDuration = Duration.ofSeconds(30);
+    private int maxAttempts = 2;
+    private boolean hedging;
+    private Duration initialHedgeDelay = Duration.ofSeconds(2);
+    private Duration minHedgeDelay = Duration.ofMillis(100);
+    private double maxHedgeRatio = 0.1;
+    private ExecutorService executor;
+
+    /**
+     * Adds a deployment of the model, the name is used in the logs.
+     */
+    public Builder upstream(String name, ChatLanguageModel model) {
+      this.models.put(name, model);
+      return this;
+    }
+
+    public Builder latencyWeight(double latencyWeight) {
+      this.latencyWeight = latencyWeight;
+      return this;
+    }
+
+    public Builder failureThreshold(int failureThreshold) {
+      this.failureThreshold = failureThreshold;
+      return this;
+    }
+
+    public Builder openDuration(Duration openDuration) {
+      this.openDuration = openDuration;
+      return this;
+    }
+
+    public Builder maxAttempts(int maxAttempts) {
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    public Builder hedging(boolean hedging) {
+      this.hedging = hedging;
+      return this;
+    }
+
+    /**
+     * Delay before a hedge while there are not enough latencies for the p95.
+     */
+    public Builder initialHedgeDelay(Duration initialHedgeDelay) {
+      this.initialHedgeDelay = initialHedgeDelay;
+      return this;
+    }
+
+    public Builder minHedgeDelay(Duration minHedgeDelay) {
+      this.minHedgeDelay = minHedgeDelay;
+      return this;
+    }
+
+    /**
+     * Maximum ratio of hedges to the recent requests.
+     */
+    public Builder maxHedgeRatio(double maxHedgeRatio) {
+      this.maxHedgeRatio = maxHedgeRatio;
+      return this;
+    }
+
+    public Builder executor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public RoutingChatModel build() {
+      return new RoutingChatModel(this);
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package com.ovhcloud.ai.quarkus.chatbot.routing;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.logging.Logger;
+
+import com.ovhcloud.ai.quarkus.chatbot.routing.UpstreamPool.Upstream;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.Cancellable;
+
+/**
+ * A streaming chat model sending each request to one of several deployments,
+ * see {@link UpstreamPool} for the choice.
+ * The latency of a deployment is its time to first token. A call failing
+ * before its first token is sent again to another deployment, up to
+ * maxAttempts; once tokens are streamed, a failure goes to the caller.
+ * Cancelling the stream of {@link #stream} stops the generation: the call in
+ * flight is cancelled, which closes the upstream HTTP stream (see
+ * {@link HttpStreamingChatModel}), and its deployment is released without
+ * counting a failure.
+ */
+public class RoutingStreamingChatModel implements StreamingChatLanguageModel {
+  private static final Logger LOG = Logger.getLogger(RoutingStreamingChatModel.class);
+
+  private final UpstreamPool<HttpStreamingChatModel> pool;
+  private final int maxAttempts;
+
+  private RoutingStreamingChatModel(Builder builder) {
+    this.pool = new UpstreamPool<>(builder.models, builder.latencyWeight, builder.failureThreshold,
+        builder.openDuration);
+    this.maxAttempts = builder.maxAttempts;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  @Override
+  public void generate(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+    new Generation(messages, handler).route();
+  }
+
+  /**
+   * Streams the tokens of the answer, cancelling the stream stops the
+   * upstream generation.
+   */
+  public Multi<String> stream(List<ChatMessage> messages) {
+    return Multi.createFrom().emitter(emitter -> {
+      Generation generation = new Generation(messages, new StreamingResponseHandler<>() {
+        @Override
+        public void onNext(String token) {
+          emitter.emit(token);
+        }
+
+        @Override
+        public void onComplete(Response<AiMessage> response) {
+          emitter.complete();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+          emitter.fail(error);
+        }
+      });
+      emitter.onTermination(() -> {
+        if (emitter.isCancelled()) {
+          generation.cancel();
+        }
+      });
+      generation.route();
+    });
+  }
+
+  // One generation, over one or several attempts
+  private final class Generation {
+    private final List<ChatMessage> messages;
+    private final StreamingResponseHandler<AiMessage> handler;
+    private final Set<Upstream<HttpStreamingChatModel>> tried = new HashSet<>();
+    // Guarded by this
+    private Attempt current;
+    private boolean cancelled;
+
+    Generation(List<ChatMessage> messages, StreamingResponseHandler<AiMessage> handler) {
+      this.messages = messages;
+      this.handler = handler;
+    }
+
+    void route() {
+      Upstream<HttpStreamingChatModel> upstream = pool.acquire(tried);
+      if (upstream == null) {
+        handler.onError(new IllegalStateException("No upstream available"));
+        return;
+      }
+      tried.add(upstream);
+      Attempt attempt = new Attempt(this, upstream);
+      synchronized (this) {
+        if (cancelled) {
+          attempt.terminate();
+          pool.release(upstream);
+          return;
+        }
+        current = attempt;
+      }
+      try {
+        attempt.started(upstream.model.start(messages, attempt));
+      } catch (RuntimeException e) {
+        attempt.onError(e);
+      }
+    }
+
+    void cancel() {
+      Attempt attempt;
+      synchronized (this) {
+        if (cancelled) {
+          return;
+        }
+        cancelled = true;
+        attempt = current;
+      }
+      if (attempt != null) {
+        attempt.cancel();
+      }
+    }
+  }
+
+  // A call to one deployment, ended once: by its completion, its failure or
+  // its cancellation
+  private final class Attempt implements StreamingResponseHandler<AiMessage> {
+    private final Generation generation;
+    private final Upstream<HttpStreamingChatModel> upstream;
+    private final long start = System.nanoTime();
+    private final AtomicBoolean terminated = new AtomicBoolean();
+    private volatile Cancellable call;
+    // Used by the thread of the HTTP client only
+    private boolean streaming;
+
+    Attempt(Generation generation, Upstream<HttpStreamingChatModel> upstream) {
+      this.generation = generation;
+      this.upstream = upstream;
+    }
+
+    void started(Cancellable call) {
+      this.call = call;
+      if (terminated.get()) {
+        // Cancelled meanwhile, a no-op if the call is already over
+        call.cancel();
+      }
+    }
+
+    void cancel() {
+      if (terminate()) {
+        pool.release(upstream);
+        Cancellable started = call;
+        if (started != null) {
+          started.cancel();
+        }
+      }
+    }
+
+    @Override
+    public void onNext(String token) {
+      if (terminated.get()) {
+        return;
+      }
+      if (!streaming) {
+        streaming = true;
+        pool.success(upstream, System.nanoTime() - start);
+      }
+      generation.handler.onNext(token);
+    }
+
+    @Override
+    public void onComplete(Response<AiMessage> response) {
+      if (terminate()) {
+        if (!streaming) {
+          pool.success(upstream, System.nanoTime() - start);
+        }
+        pool.release(upstream);
+        generation.handler.onComplete(response);
+      }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      if (!terminate()) {
+        return;
+      }
+      if (streaming) {
+        pool.release(upstream);
+        generation.handler.onError(error);
+        return;
+      }
+      pool.failure(upstream);
+      pool.release(upstream);
+      LOG.warnf("Call to %s failed: %s", upstream, error.getMessage());
+      if (generation.tried.size() < maxAttempts && generation.tried.size() < pool.upstreams().size()) {
+        generation.route();
+      } else {
+        generation.handler.onError(error);
+      }
+    }
+
+    // The deployment is released by the caller, once the outcome is recorded
+    private boolean terminate() {
+      return terminated.compareAndSet(false, true);
+    }
+  }
+
+  public static class Builder {
+    private final Map<String, HttpStreamingChatModel> models = new LinkedHashMap<>();
+    private double latencyWeight = 0.3;
+    private int failureThreshold = 3;
+    private Duration openDuration = Duration.ofSeconds(30);
+    private int maxAttempts = 2;
+
+    /**
+     * Adds a deployment of the model, the name is used in the logs.
+     */
+    public Builder upstream(String name, HttpStreamingChatModel model) {
+      this.models.put(name, model);
+      return this;
+    }
+
+    public Builder latencyWeight(double latencyWeight) {
+      this.latencyWeight = latencyWeight;
+      return this;
+    }
+
+    public Builder failureThreshold(int failureThreshold) {
+      this.failureThreshold = failureThreshold;
+      return this;
+    }
+
+    public Builder openDuration(Duration openDuration) {
+      this.openDuration = openDuration;
+      return this;
+    }
+
+    public Builder maxAttempts(int maxAttempts) {
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    public RoutingStreamingChatModel build() {
+      return new RoutingStreamingChatModel(this);
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package com.ovhcloud.ai.quarkus.chatbot.routing;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The deployments of a model, and the choice of one of them per request.
+ * - each upstream has a latency (an EWMA of the last calls) and a count of
+ * calls in flight, its cost is the latency times the calls in flight plus one,
+ * - two upstreams are drawn at random and the cheaper is used (power of two
+ * choices): the load goes to the fast upstreams without all the requests
+ * rushing to the fastest one,
+ * - after consecutive failures an upstream is put aside for a while (circuit
+ * breaker), then a single call probes it again.
+ * If every upstream is put aside, the one coming back first is used anyway.
+ */
+final class UpstreamPool<M> {
+
+  static final class Upstream<M> {
+    final String name;
+    final M model;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Guarded by this
+    private double latencyNanos = -1;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean open;
+    private boolean probing;
+
+    Upstream(String name, M model) {
+      this.name = name;
+      this.model = model;
+    }
+
+    int inFlight() {
+      return inFlight.get();
+    }
+
+    synchronized double latencyNanos() {
+      return latencyNanos;
+    }
+
+    // An upstream never called is free, so that it gets a first sample
+    private synchronized double cost() {
+      return Math.max(0, latencyNanos) * (inFlight.get() + 1);
+    }
+
+    private synchronized boolean isAvailable(long now) {
+      return !open || (now >= openUntil && !probing);
+    }
+
+    // Takes the upstream, the single probe if its circuit is open
+    private synchronized boolean tryAcquire(long now) {
+      if (open) {
+        if (now < openUntil || probing) {
+          return false;
+        }
+        probing = true;
+      }
+      inFlight.incrementAndGet();
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private final List<Upstream<M>> upstreams = new ArrayList<>();
+  private final double latencyWeight;
+  private final int failureThreshold;
+  private final long openNanos;
+
+  /**
+   * @param models the models by name, one per deployment
+   * @param latencyWeight the weight of a new sample in the latency, between 0 and 1
+   * @param failureThreshold the consecutive failures opening the circuit
+   * @param openDuration the time an upstream is put aside
+   */
+  UpstreamPool(Map<String, M> models, double latencyWeight, int failureThreshold, Duration openDuration) {
+    if (models.isEmpty()) {
+      throw new IllegalArgumentException("At least one upstream is required");
+    }
+    models.forEach((name, model) -> upstreams.add(new Upstream<>(name, model)));
+    this.latencyWeight = latencyWeight;
+    this.failureThreshold = failureThreshold;
+    this.openNanos = openDuration.toNanos();
+  }
+
+  List<Upstream<M>> upstreams() {
+    return upstreams;
+  }
+
+  /**
+   * Chooses and takes an upstream, not one of the excluded ones, or returns
+   * null if there is none left. It must be released once the call is over.
+   */
+  Upstream<M> acquire(Collection<Upstream<M>> excluded) {
+    while (true) {
+      long now = System.nanoTime();
+      List<Upstream<M>> candidates = new ArrayList<>(upstreams.size());
+      Upstream<M> soonestBack = null;
+      for (Upstream<M> upstream : upstreams) {
+        if (excluded.contains(upstream)) {
+          continue;
+        }
+        if (upstream.isAvailable(now)) {
+          candidates.add(upstream);
+        } else if (soonestBack == null || upstream.openUntil < soonestBack.openUntil) {
+          soonestBack = upstream;
+        }
+      }
+      if (candidates.isEmpty()) {
+        if (soonestBack != null) {
+          soonestBack.inFlight.incrementAndGet();
+        }
+        return soonestBack;
+      }
+      Upstream<M> chosen = choose(candidates);
+      if (chosen.tryAcquire(now)) {
+        return chosen;
+      }
+      // Another call took the probe meanwhile, choose again
+    }
+  }
+
+  private Upstream<M> choose(List<Upstream<M>> candidates) {
+    if (candidates.size() == 1) {
+      return candidates.get(0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(candidates.size());
+    int second = random.nextInt(candidates.size() - 1);
+    if (second >= first) {
+      second++;
+    }
+    Upstream<M> a = candidates.get(first);
+    Upstream<M> b = candidates.get(second);
+    return a.cost() <= b.cost() ? a : b;
+  }
+
+  /**
+   * A successful call, with its latency: the circuit is closed.
+   */
+  void success(Upstream<M> upstream, long latencyNanos) {
+    synchronized (upstream) {
+      sample(upstream, latencyNanos);
+      upstream.consecutiveFailures = 0;
+      upstream.open = false;
+      upstream.probing = false;
+    }
+  }
+
+  /**
+   * A failed call: the circuit opens after too many consecutive failures,
+   * or right away if it was the probe.
+   */
+  void failure(Upstream<M> upstream) {
+    synchronized (upstream) {
+      upstream.consecutiveFailures++;
+      if (upstream.probing || upstream.consecutiveFailures >= failureThreshold) {
+        upstream.open = true;
+        upstream.openUntil = System.nanoTime() + openNanos;
+      }
+      upstream.probing = false;
+    }
+  }
+
+  /**
+   * A latency without outcome, a lower bound of the latency of an abandoned
+   * call for instance.
+   */
+  void sample(Upstream<M> upstream, long latencyNanos) {
+    synchronized (upstream) {
+      upstream.latencyNanos = upstream.latencyNanos < 0
+          ? latencyNanos
+          : upstream.latencyNanos + latencyWeight * (latencyNanos - upstream.latencyNanos);
+    }
+  }
+
+  /**
+   * The call is over, after its outcome if it has one. A probe ending
+   * without outcome (the loser of a hedge, a cancelled call) leaves the
+   * circuit open, and the next call probes the upstream again.
+   */
+  void release(Upstream<M> upstream) {
+    synchronized (upstream) {
+      upstream.probing = false;
+    }
+    upstream.inFlight.decrementAndGet();
+  }
+}
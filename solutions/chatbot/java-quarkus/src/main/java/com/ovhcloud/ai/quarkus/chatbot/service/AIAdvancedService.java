@@ -1,23 +1,38 @@
 package com.ovhcloud.ai.quarkus.chatbot.service;
 
-import dev.langchain4j.service.SystemMessage;
-import dev.langchain4j.service.UserMessage;
-import io.quarkiverse.langchain4j.RegisterAiService;
-import io.smallrye.mutiny.Multi;
+import java.util.List;
+
+import com.ovhcloud.ai.quarkus.chatbot.routing.RoutedModels;
 
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import io.smallrye.mutiny.Multi;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 
 /**
  * Service to send prompt to the LLM.
- * The service use the RegisterAiService annotation, see https://docs.quarkiverse.io/quarkus-langchain4j/dev/ai-services.html
  * Set a system message to indicate that this a virtual assistant named Nestor
- * Set a user message to answer to questions. 
+ * Set a user message to answer to questions.
  * The response must be in a streaming mode.
+ * The prompt is sent to the routed model directly, not through an AI service
+ * (see https://docs.quarkiverse.io/quarkus-langchain4j/dev/ai-services.html):
+ * cancelling the stream of an AI service doesn't reach the model, cancelling
+ * this one closes the upstream HTTP stream.
  */
-// add class annotation here
-@RegisterAiService
-public interface AIAdvancedService {
-  // Set the System and User message and activate the streaming mode
-  @SystemMessage("You are a virtual assistant and your name is Nestor.")
-  @UserMessage("Answer as best possible to the following question: {question}. The answer must be in a style of a virtual assistant.")
-  Multi<String> askAQuestion(String question);
+// No memory: the questions are independent, which also allows to cache and coalesce them
+// The model is routed over the deployments
+@ApplicationScoped
+public class AIAdvancedService {
+  // The System and User messages
+  static final String SYSTEM_MESSAGE = "You are a virtual assistant and your name is Nestor.";
+  static final String USER_MESSAGE = "Answer as best possible to the following question: %s. The answer must be in a style of a virtual assistant.";
+
+  @Inject
+  RoutedModels routedModels;
+
+  public Multi<String> askAQuestion(String question) {
+    return routedModels.streamingChatModel()
+        .stream(List.of(SystemMessage.from(SYSTEM_MESSAGE), UserMessage.from(USER_MESSAGE.formatted(question))));
+  }
 }
@@ -1,28 +1,70 @@
 package com.ovhcloud.ai.quarkus.chatbot.service;
 
-import dev.langchain4j.service.MemoryId;
-import dev.langchain4j.service.SystemMessage;
-import dev.langchain4j.service.UserMessage;
-import io.quarkiverse.langchain4j.RegisterAiService;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ovhcloud.ai.quarkus.chatbot.memory.SessionChatMemoryProvider;
+import com.ovhcloud.ai.quarkus.chatbot.routing.RoutedModels;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
 import io.smallrye.mutiny.Multi;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 
 /**
  * Service to send prompt to the LLM.
- * The service use the RegisterAiService annotation, see
- * https://docs.quarkiverse.io/quarkus-langchain4j/dev/ai-services.html
  * Set a system message to indicate that this a virtual assistant named Nestor
  * Set a user message to answer to questions.
  * The response must be in a streaming mode.
  * The chatbot must remember previous messages.
+ * The memories are given by the SessionChatMemoryProvider bean, one per memory id.
  * The scope of the bean is application.
+ * As for the AIAdvancedService, the prompt is sent to the routed model
+ * directly so that a cancelled answer stops the upstream generation. The
+ * memory is used as an AI service would do (see
+ * https://docs.quarkiverse.io/quarkus-langchain4j/dev/ai-services.html#memory),
+ * except that the question is added with its answer, once the answer is
+ * complete or cut (the client leaving, the budget spent): the memory never
+ * holds a question without answer, which would give two user messages in a
+ * row to the next prompt.
  */
-// add class annotation here
+// The model is routed over the deployments
 @ApplicationScoped
-@RegisterAiService
-public interface AIMemoryService {
-  // Set the System and User message, activate the streaming mode and the memory. see https://docs.quarkiverse.io/quarkus-langchain4j/dev/ai-services.html#memory
-  @SystemMessage("You are a virtual assistant and your name is Nestor.")
-  @UserMessage("Answer as best possible to the following question: {question}. The answer must be in a style of a virtual assistant.")
-  Multi<String> askAQuestion(String question, @MemoryId String memoryId);
+public class AIMemoryService {
+
+  @Inject
+  RoutedModels routedModels;
+
+  @Inject
+  SessionChatMemoryProvider memoryProvider;
+
+  public Multi<String> askAQuestion(String question, String memoryId) {
+    // The memory may be read from the log, at the subscription
+    return Multi.createFrom().deferred(() -> {
+      ChatMemory memory = memoryProvider.get(memoryId);
+      memory.add(SystemMessage.from(AIAdvancedService.SYSTEM_MESSAGE));
+      UserMessage userMessage = UserMessage.from(AIAdvancedService.USER_MESSAGE.formatted(question));
+      List<ChatMessage> messages = new ArrayList<>(memory.messages());
+      messages.add(userMessage);
+      // Appended by the thread of the upstream, read by the one cancelling
+      StringBuffer answer = new StringBuffer();
+      return routedModels.streamingChatModel().stream(messages)
+          .onItem().invoke(answer::append)
+          .onTermination().invoke(() -> remember(memory, userMessage, answer));
+    });
+  }
+
+  // Completed, truncated or cancelled: the question is stored with the answer
+  // sent so far, a question without answer is forgotten
+  private static void remember(ChatMemory memory, UserMessage userMessage, StringBuffer answer) {
+    String text = answer.toString();
+    if (!text.isEmpty()) {
+      memory.add(userMessage);
+      memory.add(AiMessage.from(text));
+    }
+  }
 }
@@ -0,0 +1,27 @@
+package com.ovhcloud.ai.quarkus.chatbot.service;
+
+import com.ovhcloud.ai.quarkus.chatbot.rag.RagIndex;
+import com.ovhcloud.ai.quarkus.chatbot.routing.RoutedModels;
+
+import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.UserMessage;
+import io.quarkiverse.langchain4j.RegisterAiService;
+
+/**
+ * Service to send prompt to the LLM, with the segments of the RAG snapshot
+ * the most relevant for the question.
+ * The service use the RegisterAiService annotation, see https://docs.quarkiverse.io/quarkus-langchain4j/dev/rag.html
+ * Set a system message to indicate that this a virtual assistant named Nestor
+ * Set a user message to answer to questions.
+ */
+// No memory: the questions are independent, which also allows to coalesce them
+// The segments are retrieved from the snapshot built with the application
+@RegisterAiService(chatMemoryProviderSupplier = RegisterAiService.NoChatMemoryProviderSupplier.class,
+    chatLanguageModelSupplier = RoutedModels.ChatModelSupplier.class,
+    retrievalAugmentor = RagIndex.RetrievalAugmentorSupplier.class)
+public interface AIRagService {
+  // Set the System and User message
+  @SystemMessage("You are Nestor, a virtual assistant. Answer to the question with the information given with it.")
+  @UserMessage("{question}")
+  String askAQuestion(String question);
+}
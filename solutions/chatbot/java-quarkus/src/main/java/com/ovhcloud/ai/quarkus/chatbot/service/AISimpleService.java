@@ -1,5 +1,7 @@
 package com.ovhcloud.ai.quarkus.chatbot.service;
 
+import com.ovhcloud.ai.quarkus.chatbot.routing.RoutedModels;
+
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
 import io.quarkiverse.langchain4j.RegisterAiService;
@@ -11,7 +13,10 @@ import io.quarkiverse.langchain4j.RegisterAiService;
  * Set a user message to answer to questions. 
  */
 // add class annotation here
-@RegisterAiService
+// No memory: the questions are independent, which also allows to cache and coalesce them
+// The model is routed over the deployments, with hedging if enabled
+@RegisterAiService(chatMemoryProviderSupplier = RegisterAiService.NoChatMemoryProviderSupplier.class,
+    chatLanguageModelSupplier = RoutedModels.ChatModelSupplier.class)
 public interface AISimpleService {
   // Set the System and User message
   @SystemMessage("You are a virtual assistant and your name is Nestor.")
@@ -0,0 +1,195 @@
+package com.ovhcloud.ai.quarkus.chatbot.sse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import com.ovhcloud.ai.quarkus.chatbot.admission.BulkheadRejectedException;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+import io.vertx.core.json.JsonObject;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+
+/**
+ * Turns the stream of tokens of the LLM into Server-Sent Events.
+ * Writing and flushing one event per token is costly and proxies buffer it
+ * badly, so the tokens are grouped into frames:
+ * - the first token is sent right away, to keep the time to first token low,
+ * - then a frame is sent when the time window is over or when it is big enough,
+ * - a last "usage" event gives the statistics of the answer.
+ * A failure of the LLM is sent as an "error" event, {"error":"..."}. The
+ * headers of an SSE response are sent before the first token, so a rejection
+ * of the bulkhead can't be a 429/503 response with a Retry-After header as
+ * for the plain text stream: the event also gives the status and the delay,
+ * {"error":"...","status":429,"retryAfterMs":1000}, and sets the SSE retry
+ * field to the delay.
+ */
+@ApplicationScoped
+public class TokenFramer {
+  static final String USAGE_EVENT = "usage";
+  static final String ERROR_EVENT = "error";
+
+  @ConfigProperty(name = "chatbot.sse.frame-window", defaultValue = "50ms")
+  Duration frameWindow;
+
+  @ConfigProperty(name = "chatbot.sse.frame-max-bytes", defaultValue = "1024")
+  int frameMaxBytes;
+
+  /**
+   * Groups the tokens into SSE frames, cancelling the events cancels the
+   * generation.
+   */
+  public Multi<OutboundSseEvent> frames(Multi<String> tokens, Sse sse) {
+    return Multi.createFrom().emitter(emitter -> new Framing(sse, emitter).start(tokens));
+  }
+
+  // State of one answer, the events are emitted under the lock to keep them
+  // in order between the LLM thread and the timer
+  private final class Framing {
+    private final Sse sse;
+    private final MultiEmitter<? super OutboundSseEvent> emitter;
+    private final long start = System.nanoTime();
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingBytes;
+    private ScheduledFuture<?> scheduledFlush;
+    private Cancellable upstream;
+    private boolean terminated;
+    private long firstTokenNanos = -1;
+    private int tokenCount;
+    private int frameCount;
+    private long byteCount;
+
+    Framing(Sse sse, MultiEmitter<? super OutboundSseEvent> emitter) {
+      this.sse = sse;
+      this.emitter = emitter;
+    }
+
+    void start(Multi<String> tokens) {
+      emitter.onTermination(this::terminate);
+      Cancellable subscription = tokens.subscribe().with(this::onToken, this::onFailure, this::onCompletion);
+      synchronized (this) {
+        upstream = subscription;
+        if (!terminated) {
+          return;
+        }
+      }
+      // Cancelled while subscribing
+      subscription.cancel();
+    }
+
+    private synchronized void onToken(String token) {
+      if (terminated) {
+        return;
+      }
+      int bytes = token.getBytes(StandardCharsets.UTF_8).length;
+      tokenCount++;
+      byteCount += bytes;
+      if (firstTokenNanos < 0) {
+        firstTokenNanos = System.nanoTime() - start;
+        send(token);
+        return;
+      }
+      pending.append(token);
+      pendingBytes += bytes;
+      if (pendingBytes >= frameMaxBytes) {
+        flush();
+      } else if (scheduledFlush == null) {
+        scheduledFlush = Infrastructure.getDefaultWorkerPool()
+            .schedule(this::flushOnTimer, frameWindow.toNanos(), TimeUnit.NANOSECONDS);
+      }
+    }
+
+    private synchronized void onFailure(Throwable failure) {
+      if (terminated) {
+        return;
+      }
+      flush();
+      JsonObject error = new JsonObject().put("error", String.valueOf(failure.getMessage()));
+      OutboundSseEvent.Builder event = sse.newEventBuilder().name(ERROR_EVENT);
+      if (failure instanceof BulkheadRejectedException rejection) {
+        // The response is already a 200, the status and the delay go in the
+        // event, and in its retry field for the EventSource clients
+        error.put("status", rejection.status()).put("retryAfterMs", rejection.retryAfter().toMillis());
+        event.reconnectDelay(rejection.retryAfter().toMillis());
+      }
+      emitter.emit(event.mediaType(MediaType.APPLICATION_JSON_TYPE).data(error.encode()).build());
+      emitter.complete();
+    }
+
+    private synchronized void onCompletion() {
+      if (terminated) {
+        return;
+      }
+      flush();
+      emitter.emit(sse.newEventBuilder()
+          .name(USAGE_EVENT)
+          .mediaType(MediaType.APPLICATION_JSON_TYPE)
+          .data(usage())
+          .build());
+      emitter.complete();
+    }
+
+    private synchronized void flushOnTimer() {
+      if (!terminated) {
+        flush();
+      }
+    }
+
+    private void flush() {
+      if (scheduledFlush != null) {
+        scheduledFlush.cancel(false);
+        scheduledFlush = null;
+      }
+      if (pending.isEmpty()) {
+        return;
+      }
+      send(pending.toString());
+      pending.setLength(0);
+      pendingBytes = 0;
+    }
+
+    private void send(String text) {
+      frameCount++;
+      emitter.emit(sse.newEventBuilder().data(text).build());
+    }
+
+    // The counts are the chunks streamed by the model, the output tokens as
+    // far as the streaming API tells
+    private String usage() {
+      long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      long timeToFirstTokenMs = firstTokenNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstTokenNanos);
+      return "{\"tokens\":" + tokenCount
+          + ",\"frames\":" + frameCount
+          + ",\"bytes\":" + byteCount
+          + ",\"timeToFirstTokenMs\":" + timeToFirstTokenMs
+          + ",\"durationMs\":" + durationMs + "}";
+    }
+
+    private void terminate() {
+      Cancellable subscription;
+      synchronized (this) {
+        if (terminated) {
+          return;
+        }
+        terminated = true;
+        if (scheduledFlush != null) {
+          scheduledFlush.cancel(false);
+          scheduledFlush = null;
+        }
+        subscription = upstream;
+      }
+      if (subscription != null) {
+        subscription.cancel();
+      }
+    }
+  }
+}
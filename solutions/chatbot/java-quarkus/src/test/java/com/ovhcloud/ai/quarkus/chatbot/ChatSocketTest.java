@@ -0,0 +1,264 @@
+package com.ovhcloud.ai.quarkus.chatbot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.ovhcloud.ai.quarkus.chatbot.admission.Bulkhead;
+import com.ovhcloud.ai.quarkus.chatbot.audit.ConversationAuditLog;
+import com.ovhcloud.ai.quarkus.chatbot.generation.GenerationLimiter;
+import com.ovhcloud.ai.quarkus.chatbot.metrics.ChatMetrics;
+import com.ovhcloud.ai.quarkus.chatbot.service.AIMemoryService;
+
+import dev.langchain4j.data.message.ChatMessage;
+import io.quarkus.websockets.next.CloseReason;
+import io.quarkus.websockets.next.HandshakeRequest;
+import io.quarkus.websockets.next.WebSocketConnection;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+import io.smallrye.mutiny.subscription.UniEmitter;
+import io.vertx.core.json.JsonObject;
+
+class ChatSocketTest {
+  private final Upstream upstream = new Upstream();
+  private final ChatSocket socket = socket();
+
+  @Test
+  void answerIsSentAsTextFramesThenItsUsage() {
+    Client client = new Client("memory");
+    socket.onMessage("What is AI Endpoints?", client.connection);
+    upstream.emitter.emit("AI");
+    upstream.emitter.emit(" Endpoints");
+    upstream.emitter.complete();
+
+    assertEquals(List.of("+AI", "+ Endpoints"), client.frames.subList(0, 2));
+    JsonObject usage = client.end("$");
+    assertEquals("completed", usage.getString("outcome"));
+    assertEquals(2, usage.getInteger("tokens"));
+    assertEquals(2, usage.getInteger("frames"));
+    assertEquals(3, client.frames.size());
+  }
+
+  @Test
+  void tokensAreGroupedWhileAFrameIsSent() {
+    socket.maxFrameLength = 8;
+    Client client = new Client("memory");
+    client.holdFrames();
+    socket.onMessage("What is AI Endpoints?", client.connection);
+    upstream.emitter.emit("AI");
+    upstream.emitter.emit(" Endpoints");
+    upstream.emitter.emit(" is");
+    upstream.emitter.complete();
+
+    // The first frame is sent alone, the rest by frames of 8 characters at most
+    assertEquals(List.of("+AI"), client.frames);
+    client.acknowledge();
+    assertEquals(List.of("+AI", "+ Endpoin"), client.frames);
+    client.acknowledge();
+    assertEquals(List.of("+AI", "+ Endpoin", "+ts is"), client.frames);
+    client.acknowledge();
+    assertEquals(3, client.end("$").getInteger("frames"));
+    assertEquals(4, client.frames.size());
+  }
+
+  @Test
+  void failureEndsTheAnswerWithAnErrorFrame() {
+    Client client = new Client("memory");
+    socket.onMessage("What is AI Endpoints?", client.connection);
+    upstream.emitter.emit("AI");
+    upstream.emitter.fail(new IllegalStateException("Upstream down"));
+
+    assertEquals("+AI", client.frames.get(0));
+    assertEquals(new JsonObject().put("error", "Upstream down"), client.end("!"));
+  }
+
+  @Test
+  void cancelStopsTheGeneration() {
+    Client client = new Client("memory");
+    socket.onMessage("What is AI Endpoints?", client.connection);
+    upstream.emitter.emit("AI");
+    socket.onMessage(ChatSocket.CANCEL, client.connection);
+
+    assertTrue(upstream.cancelled.get());
+    assertEquals("+AI", client.frames.get(0));
+    assertEquals("cancelled", client.end("$").getString("outcome"));
+    // The connection is ready for the next question
+    socket.onMessage("And the embeddings?", client.connection);
+    assertEquals(2, upstream.subscriptions.get());
+  }
+
+  @Test
+  void closingTheConnectionCancelsTheAnswer() {
+    Client client = new Client("memory");
+    socket.onMessage("What is AI Endpoints?", client.connection);
+    socket.onClose(client.connection);
+
+    assertTrue(upstream.cancelled.get());
+  }
+
+  @Test
+  void secondQuestionIsRejectedWhileAnAnswerIsInProgress() {
+    Client client = new Client("memory");
+    socket.onMessage("What is AI Endpoints?", client.connection);
+    socket.onMessage("And the embeddings?", client.connection);
+
+    assertEquals(1, client.frames.size());
+    assertEquals("An answer is in progress, send /cancel to stop it", client.end("!").getString("error"));
+    assertEquals(1, upstream.subscriptions.get());
+    // The first answer goes on
+    upstream.emitter.emit("AI");
+    upstream.emitter.complete();
+    assertEquals("+AI", client.frames.get(1));
+    assertEquals("completed", client.end("$").getString("outcome"));
+    assertFalse(upstream.cancelled.get());
+  }
+
+  @Test
+  void blankQuestionIsRejected() {
+    Client client = new Client("memory");
+    socket.onMessage("  ", client.connection);
+
+    assertEquals("The question must not be blank", client.end("!").getString("error"));
+    assertEquals(0, upstream.subscriptions.get());
+  }
+
+  @Test
+  void invalidMemoryIdClosesTheConnection() {
+    Client valid = new Client("memory");
+    socket.onOpen(valid.connection);
+    assertNull(valid.closeReason);
+
+    Client invalid = new Client("m".repeat(129));
+    socket.onOpen(invalid.connection);
+    assertEquals(1008, invalid.closeReason.getCode());
+  }
+
+  // The components in front of the LLM let the tokens through
+  private ChatSocket socket() {
+    ChatSocket socket = new ChatSocket();
+    socket.maxFrameLength = 1024;
+    socket.auditLog = new ConversationAuditLog() {
+      @Override
+      public Multi<String> stream(String endpoint, String tenant, String question, Supplier<Multi<String>> tokens) {
+        return tokens.get();
+      }
+    };
+    socket.generationLimiter = new GenerationLimiter() {
+      @Override
+      public Budget budget(String deadlineHeader, String maxTokensHeader) {
+        return null;
+      }
+
+      @Override
+      public Multi<String> limit(Budget budget, Supplier<Multi<String>> generation) {
+        return generation.get();
+      }
+
+      @Override
+      public Multi<String> upstream(Supplier<Multi<String>> generation) {
+        return generation.get();
+      }
+    };
+    socket.bulkhead = new Bulkhead() {
+      @Override
+      public Multi<String> stream(String tenant, Priority priority, Supplier<Multi<String>> generation) {
+        return generation.get();
+      }
+    };
+    socket.chatMetrics = new ChatMetrics() {
+      @Override
+      public Multi<String> stream(String endpoint, String question, Supplier<List<ChatMessage>> memory,
+          Supplier<Multi<String>> tokens) {
+        return tokens.get();
+      }
+    };
+    socket.aiMemoryService = new AIMemoryService() {
+      @Override
+      public Multi<String> askAQuestion(String question, String memoryId) {
+        return upstream.get();
+      }
+    };
+    return socket;
+  }
+
+  // An upstream generation emitting the tokens given by the test
+  private static final class Upstream implements Supplier<Multi<String>> {
+    final AtomicInteger subscriptions = new AtomicInteger();
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    volatile MultiEmitter<? super String> emitter;
+
+    @Override
+    public Multi<String> get() {
+      return Multi.createFrom().<String>emitter(created -> {
+        subscriptions.incrementAndGet();
+        emitter = created;
+      }).onCancellation().invoke(() -> cancelled.set(true));
+    }
+  }
+
+  // The client side of a connection, recording the frames it receives. The
+  // frames are acknowledged at once, or by the test once held.
+  private static final class Client {
+    final List<String> frames = new ArrayList<>();
+    final List<UniEmitter<? super Void>> unacknowledged = new ArrayList<>();
+    final WebSocketConnection connection;
+    CloseReason closeReason;
+    boolean held;
+
+    Client(String memoryId) {
+      HandshakeRequest handshake = (HandshakeRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] { HandshakeRequest.class }, (proxy, method, args) -> null);
+      connection = (WebSocketConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+          new Class<?>[] { WebSocketConnection.class }, (proxy, method, args) -> switch (method.getName()) {
+            case "id" -> "connection";
+            case "pathParam" -> memoryId;
+            case "handshakeRequest" -> handshake;
+            case "sendText" -> send(String.valueOf(args[0]));
+            case "close" -> {
+              closeReason = (CloseReason) args[0];
+              yield Uni.createFrom().voidItem();
+            }
+            default -> throw new UnsupportedOperationException(method.getName());
+          });
+    }
+
+    void holdFrames() {
+      held = true;
+    }
+
+    private synchronized Uni<Void> send(String frame) {
+      frames.add(frame);
+      if (!held) {
+        return Uni.createFrom().voidItem();
+      }
+      return Uni.createFrom().emitter(unacknowledged::add);
+    }
+
+    // The oldest frame held is received
+    void acknowledge() {
+      UniEmitter<? super Void> emitter;
+      synchronized (this) {
+        emitter = unacknowledged.remove(0);
+      }
+      emitter.complete(null);
+    }
+
+    // The payload of the last frame, which must start with the given prefix
+    JsonObject end(String prefix) {
+      String frame = frames.get(frames.size() - 1);
+      assertTrue(frame.startsWith(prefix), frame);
+      return new JsonObject(frame.substring(prefix.length()));
+    }
+  }
+}
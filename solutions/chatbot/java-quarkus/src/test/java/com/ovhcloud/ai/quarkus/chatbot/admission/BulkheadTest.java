@@ -0,0 +1,180 @@
+package com.ovhcloud.ai.quarkus.chatbot.admission;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import com.ovhcloud.ai.quarkus.chatbot.admission.Bulkhead.Permit;
+import com.ovhcloud.ai.quarkus.chatbot.admission.Bulkhead.Priority;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Multi;
+
+class BulkheadTest {
+
+  @Test
+  void queuedCallGetsTheReleasedSlot() {
+    Bulkhead bulkhead = bulkhead(1, 10);
+    Permit first = bulkhead.acquire("a", Priority.INTERACTIVE).join();
+    CompletableFuture<Permit> second = bulkhead.acquire("b", Priority.INTERACTIVE);
+    assertFalse(second.isDone());
+    assertEquals(1, bulkhead.queued());
+
+    first.close();
+    assertTrue(second.isDone());
+    assertEquals(1, bulkhead.inUse());
+    assertEquals(0, bulkhead.queued());
+    second.join().close();
+    assertEquals(0, bulkhead.inUse());
+  }
+
+  @Test
+  void permitIsReleasedOnce() {
+    Bulkhead bulkhead = bulkhead(2, 10);
+    Permit permit = bulkhead.acquire("a", Priority.INTERACTIVE).join();
+    bulkhead.acquire("b", Priority.INTERACTIVE).join();
+    permit.close();
+    permit.close();
+    assertEquals(1, bulkhead.inUse());
+  }
+
+  @Test
+  void interactiveCallsGoBeforeBulkOnes() {
+    Bulkhead bulkhead = bulkhead(1, 10);
+    Permit first = bulkhead.acquire("a", Priority.INTERACTIVE).join();
+    CompletableFuture<Permit> bulk = bulkhead.acquire("b", Priority.BULK);
+    CompletableFuture<Permit> interactive = bulkhead.acquire("c", Priority.INTERACTIVE);
+
+    first.close();
+    assertTrue(interactive.isDone());
+    assertFalse(bulk.isDone());
+    interactive.join().close();
+    assertTrue(bulk.isDone());
+  }
+
+  @Test
+  void fullQueueIsRejectedWith503() {
+    Bulkhead bulkhead = bulkhead(1, 1);
+    bulkhead.acquire("a", Priority.INTERACTIVE).join();
+    bulkhead.acquire("b", Priority.INTERACTIVE);
+
+    BulkheadRejectedException rejected = rejection(bulkhead.acquire("c", Priority.INTERACTIVE));
+    assertEquals(503, rejected.status());
+    assertEquals(Duration.ofSeconds(2), rejected.retryAfter());
+    assertEquals(1, bulkhead.rejected());
+  }
+
+  @Test
+  void tenantOverItsQuotaIsRejectedWith429() {
+    Bulkhead bulkhead = bulkhead(10, 10);
+    bulkhead.tenantRate = 0.001;
+    bulkhead.tenantBurst = 2;
+    bulkhead.acquire("a", Priority.INTERACTIVE).join();
+    bulkhead.acquire("a", Priority.INTERACTIVE).join();
+
+    assertEquals(429, rejection(bulkhead.acquire("a", Priority.INTERACTIVE)).status());
+    assertEquals(1, bulkhead.throttled());
+    // The other tenants have their own quota
+    bulkhead.acquire("b", Priority.INTERACTIVE).join();
+  }
+
+  @Test
+  void anonymousCallersShareOneQuota() {
+    Bulkhead bulkhead = bulkhead(10, 10);
+    bulkhead.anonymousRate = 0.001;
+    bulkhead.anonymousBurst = 2;
+    bulkhead.acquire(Bulkhead.tenant(null), Priority.INTERACTIVE).join();
+    bulkhead.acquire(Bulkhead.tenant(" "), Priority.INTERACTIVE).join();
+
+    assertEquals(429, rejection(bulkhead.acquire(Bulkhead.tenant(null), Priority.INTERACTIVE)).status());
+    bulkhead.acquire(Bulkhead.tenant("api-key"), Priority.INTERACTIVE).join();
+  }
+
+  @Test
+  void tenantIsAFingerprintOfTheApiKey() {
+    assertEquals(Bulkhead.ANONYMOUS, Bulkhead.tenant(null));
+    assertEquals(Bulkhead.tenant("first-key"), Bulkhead.tenant(" first-key "));
+    assertNotEquals(Bulkhead.tenant("first-key"), Bulkhead.tenant("second-key"));
+    assertFalse(Bulkhead.tenant("first-key").contains("first-key"));
+  }
+
+  @Test
+  void streamReleasesTheSlotWhenTheGenerationFailsToStart() {
+    Bulkhead bulkhead = bulkhead(1, 10);
+    Multi<String> stream = bulkhead.stream("a", Priority.INTERACTIVE, () -> {
+      throw new IllegalStateException("Upstream down");
+    });
+
+    assertThrows(IllegalStateException.class, () -> stream.collect().asList().await().atMost(Duration.ofSeconds(5)));
+    assertEquals(0, bulkhead.inUse());
+  }
+
+  @Test
+  void streamReleasesTheSlotWhenItEnds() {
+    Bulkhead bulkhead = bulkhead(1, 10);
+    Multi<String> stream = bulkhead.stream("a", Priority.INTERACTIVE, () -> Multi.createFrom().items("Hello", "!"));
+
+    assertEquals(2, stream.collect().asList().await().atMost(Duration.ofSeconds(5)).size());
+    assertEquals(0, bulkhead.inUse());
+  }
+
+  @Test
+  void interruptedCallLeavesTheQueue() throws InterruptedException {
+    Bulkhead bulkhead = bulkhead(1, 10);
+    Permit first = bulkhead.acquire("a", Priority.INTERACTIVE).join();
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    Thread caller = new Thread(() -> {
+      try {
+        bulkhead.call("b", Priority.INTERACTIVE, () -> "answer");
+      } catch (RuntimeException e) {
+        failure.set(e);
+      }
+    });
+    caller.start();
+    while (bulkhead.queued() == 0) {
+      Thread.sleep(1);
+    }
+
+    caller.interrupt();
+    caller.join();
+    assertInstanceOf(IllegalStateException.class, failure.get());
+    assertEquals(0, bulkhead.queued());
+    first.close();
+    assertEquals(0, bulkhead.inUse());
+  }
+
+  private static Bulkhead bulkhead(int maxConcurrentCalls, int maxQueue) {
+    Bulkhead bulkhead = new Bulkhead();
+    bulkhead.enabled = true;
+    bulkhead.maxConcurrentCalls = maxConcurrentCalls;
+    bulkhead.maxBulkCalls = maxConcurrentCalls;
+    bulkhead.maxQueue = maxQueue;
+    bulkhead.maxQueuePerTenant = maxQueue;
+    bulkhead.queueTimeout = Duration.ofSeconds(10);
+    bulkhead.retryAfter = Duration.ofSeconds(2);
+    bulkhead.tenantRate = 0;
+    bulkhead.tenantBurst = 50;
+    bulkhead.anonymousRate = 0;
+    bulkhead.anonymousBurst = 100;
+    bulkhead.tenantWeights = Optional.empty();
+    bulkhead.registry = new SimpleMeterRegistry();
+    bulkhead.init();
+    return bulkhead;
+  }
+
+  private static BulkheadRejectedException rejection(CompletableFuture<Permit> future) {
+    CompletionException failure = assertThrows(CompletionException.class, future::join);
+    return assertInstanceOf(BulkheadRejectedException.class, failure.getCause());
+  }
+}
@@ -0,0 +1,136 @@
+package com.ovhcloud.ai.quarkus.chatbot.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.ovhcloud.ai.quarkus.chatbot.cache.SemanticCache.Lookup;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.enterprise.inject.Instance;
+
+class SemanticCacheTest {
+  // Embeddings of the normalized questions, the first two are 0.99 similar
+  private static final Map<String, float[]> VECTORS = Map.of(
+      "what is ai endpoints?", new float[] { 1, 0, 0 },
+      "what's ai endpoints?", new float[] { 0.99f, 0.141f, 0 },
+      "how much is a token?", new float[] { 0, 1, 0 },
+      "where are the datacenters?", new float[] { 0, 0, 1 });
+
+  private final AtomicInteger embeddings = new AtomicInteger();
+  private final AtomicInteger generations = new AtomicInteger();
+
+  @Test
+  void sameQuestionIsFoundByItsTextWithoutEmbedding() {
+    SemanticCache cache = cache(10, Duration.ofHours(1));
+
+    assertEquals("answer 1", cache.get("simple", "What is AI Endpoints?", this::generate));
+    assertEquals("answer 1", cache.get("simple", "  what is   AI endpoints? ", this::generate));
+    assertEquals(1, generations.get());
+    assertEquals(1, embeddings.get());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  void similarQuestionGetsTheCachedAnswer() {
+    SemanticCache cache = cache(10, Duration.ofHours(1));
+    cache.get("simple", "What is AI Endpoints?", this::generate);
+
+    assertEquals("answer 1", cache.get("simple", "What's AI Endpoints?", this::generate));
+    assertEquals("answer 2", cache.get("simple", "How much is a token?", this::generate));
+    assertEquals(2, generations.get());
+    assertEquals(1, cache.hits());
+  }
+
+  @Test
+  void answerIsNeverSharedBetweenNamespaces() {
+    SemanticCache cache = cache(10, Duration.ofHours(1));
+    cache.get("simple", "What is AI Endpoints?", this::generate);
+
+    assertEquals("answer 2", cache.get("advanced", "What is AI Endpoints?", this::generate));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  void leastRecentlyUsedEntryIsEvicted() {
+    SemanticCache cache = cache(2, Duration.ofHours(1));
+    cache.get("simple", "What is AI Endpoints?", this::generate);
+    cache.get("simple", "How much is a token?", this::generate);
+    // A hit by similarity uses the entry as much as a hit by its text
+    assertTrue(cache.lookup("simple", "What's AI Endpoints?").isHit());
+    cache.get("simple", "Where are the datacenters?", this::generate);
+
+    assertEquals(2, cache.size());
+    assertTrue(cache.lookup("simple", "What is AI Endpoints?").isHit());
+    assertFalse(cache.lookup("simple", "How much is a token?").isHit());
+  }
+
+  @Test
+  void expiredEntryIsMissedAndRemoved() {
+    SemanticCache cache = cache(10, Duration.ZERO);
+    cache.get("simple", "What is AI Endpoints?", this::generate);
+
+    Lookup lookup = cache.lookup("simple", "What is AI Endpoints?");
+    assertNull(lookup.answer());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void blankAnswerIsNotCached() {
+    SemanticCache cache = cache(10, Duration.ofHours(1));
+    cache.put(cache.lookup("simple", "What is AI Endpoints?"), " ");
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void disabledCacheAlwaysCallsTheLlm() {
+    SemanticCache cache = cache(10, Duration.ofHours(1));
+    cache.enabled = false;
+    cache.get("simple", "What is AI Endpoints?", this::generate);
+    cache.get("simple", "What is AI Endpoints?", this::generate);
+
+    assertEquals(2, generations.get());
+    assertEquals(0, embeddings.get());
+    assertEquals(0, cache.size());
+  }
+
+  private String generate() {
+    return "answer " + generations.incrementAndGet();
+  }
+
+  @SuppressWarnings("unchecked")
+  private SemanticCache cache(int maxEntries, Duration ttl) {
+    EmbeddingModel model = segments -> {
+      embeddings.incrementAndGet();
+      return Response.from(segments.stream().map(segment -> Embedding.from(VECTORS.get(segment.text()))).toList());
+    };
+    SemanticCache cache = new SemanticCache();
+    cache.enabled = true;
+    cache.similarityThreshold = 0.95;
+    cache.maxEntries = maxEntries;
+    cache.ttl = ttl;
+    cache.embeddingModel = (Instance<EmbeddingModel>) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { Instance.class }, (proxy, method, args) -> {
+          if (method.getName().equals("get")) {
+            return model;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        });
+    cache.registry = new SimpleMeterRegistry();
+    cache.init();
+    return cache;
+  }
+}
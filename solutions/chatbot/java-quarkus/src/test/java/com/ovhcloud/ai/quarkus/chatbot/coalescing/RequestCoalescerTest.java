@@ -0,0 +1,162 @@
+package com.ovhcloud.ai.quarkus.chatbot.coalescing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+
+class RequestCoalescerTest {
+
+  @Test
+  void identicalCallsShareOneGeneration() throws InterruptedException {
+    RequestCoalescer coalescer = coalescer();
+    AtomicInteger generations = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch answer = new CountDownLatch(1);
+    Supplier<String> generation = () -> {
+      generations.incrementAndGet();
+      started.countDown();
+      try {
+        answer.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      }
+      return "answer";
+    };
+    AtomicReference<String> leaderAnswer = new AtomicReference<>();
+    AtomicReference<String> followerAnswer = new AtomicReference<>();
+    Thread leader = new Thread(() -> leaderAnswer.set(coalescer.call("simple", "question", generation)));
+    leader.start();
+    started.await();
+    Thread follower = new Thread(() -> followerAnswer.set(coalescer.call("simple", "question", generation)));
+    follower.start();
+    while (follower.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+
+    answer.countDown();
+    leader.join();
+    follower.join();
+    assertEquals("answer", leaderAnswer.get());
+    assertEquals("answer", followerAnswer.get());
+    assertEquals(1, generations.get());
+    assertEquals(0, coalescer.inFlight());
+  }
+
+  @Test
+  void namespacesAreKeptApart() {
+    RequestCoalescer coalescer = coalescer();
+    AtomicInteger generations = new AtomicInteger();
+    // The nested call runs while the first one is in flight
+    String answer = coalescer.call("simple", "question", () -> {
+      generations.incrementAndGet();
+      return coalescer.call("batch", "question", () -> {
+        generations.incrementAndGet();
+        return "answer";
+      });
+    });
+
+    assertEquals("answer", answer);
+    assertEquals(2, generations.get());
+  }
+
+  @Test
+  void streamsShareOneGeneration() {
+    RequestCoalescer coalescer = coalescer();
+    Upstream upstream = new Upstream();
+    List<String> first = new ArrayList<>();
+    List<String> second = new ArrayList<>();
+    coalescer.stream("advanced", "question", upstream).subscribe().with(first::add);
+    upstream.emitter.emit("Hello");
+    // A late subscriber gets the tokens already sent first
+    coalescer.stream("advanced", "question", upstream).subscribe().with(second::add);
+    upstream.emitter.emit("!");
+    upstream.emitter.complete();
+
+    assertEquals(List.of("Hello", "!"), first);
+    assertEquals(List.of("Hello", "!"), second);
+    assertEquals(1, upstream.subscriptions.get());
+    assertEquals(0, coalescer.inFlight());
+  }
+
+  @Test
+  void subscriberCutOffByItsLimitLeavesTheOthersUntouched() {
+    RequestCoalescer coalescer = coalescer();
+    Upstream upstream = new Upstream();
+    List<String> limited = new ArrayList<>();
+    List<String> second = new ArrayList<>();
+    List<String> third = new ArrayList<>();
+    AtomicInteger completions = new AtomicInteger();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    // The limit cancels its subscription while the token is broadcast
+    coalescer.stream("advanced", "question", upstream).select().first(2)
+        .subscribe().with(limited::add, failure::set, completions::incrementAndGet);
+    coalescer.stream("advanced", "question", upstream)
+        .subscribe().with(second::add, failure::set, completions::incrementAndGet);
+    coalescer.stream("advanced", "question", upstream)
+        .subscribe().with(third::add, failure::set, completions::incrementAndGet);
+    for (String token : List.of("One", "two", "three", "four")) {
+      upstream.emitter.emit(token);
+    }
+    upstream.emitter.complete();
+
+    assertEquals(null, failure.get());
+    assertEquals(List.of("One", "two"), limited);
+    assertEquals(List.of("One", "two", "three", "four"), second);
+    assertEquals(List.of("One", "two", "three", "four"), third);
+    assertEquals(3, completions.get());
+    assertEquals(1, upstream.subscriptions.get());
+  }
+
+  @Test
+  void generationIsCancelledWhenTheLastSubscriberLeaves() {
+    RequestCoalescer coalescer = coalescer();
+    Upstream upstream = new Upstream();
+    List<String> tokens = new ArrayList<>();
+    coalescer.stream("advanced", "question", upstream).select().first(1).subscribe().with(tokens::add);
+    upstream.emitter.emit("Hello");
+
+    assertEquals(List.of("Hello"), tokens);
+    assertTrue(upstream.cancelled.get());
+    assertEquals(0, coalescer.inFlight());
+    // The next question starts a new generation
+    coalescer.stream("advanced", "question", upstream).subscribe().with(tokens::add);
+    assertEquals(2, upstream.subscriptions.get());
+  }
+
+  private static RequestCoalescer coalescer() {
+    RequestCoalescer coalescer = new RequestCoalescer();
+    coalescer.enabled = true;
+    coalescer.registry = new SimpleMeterRegistry();
+    coalescer.init();
+    return coalescer;
+  }
+
+  // An upstream generation emitting the tokens given by the test
+  private static final class Upstream implements Supplier<Multi<String>> {
+    final AtomicInteger subscriptions = new AtomicInteger();
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    volatile MultiEmitter<? super String> emitter;
+
+    @Override
+    public Multi<String> get() {
+      return Multi.createFrom().<String>emitter(created -> {
+        subscriptions.incrementAndGet();
+        emitter = created;
+      }).onCancellation().invoke(() -> cancelled.set(true));
+    }
+  }
+}
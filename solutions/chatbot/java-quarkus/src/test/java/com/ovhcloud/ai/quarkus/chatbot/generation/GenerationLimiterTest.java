@@ -0,0 +1,137 @@
+package com.ovhcloud.ai.quarkus.chatbot.generation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.ovhcloud.ai.quarkus.chatbot.generation.GenerationLimiter.Budget;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+import jakarta.ws.rs.BadRequestException;
+
+class GenerationLimiterTest {
+
+  @Test
+  void budgetHeadersCanOnlyLowerTheConfiguredOne() {
+    GenerationLimiter limiter = limiter();
+
+    assertEquals(new Budget(Duration.ofSeconds(60), 512), limiter.budget(null, null));
+    assertEquals(new Budget(Duration.ofMillis(1500), 100), limiter.budget("1500", " 100 "));
+    assertEquals(new Budget(Duration.ofSeconds(60), 512), limiter.budget("120000", "4096"));
+  }
+
+  @Test
+  void invalidBudgetHeaderIsRejected() {
+    GenerationLimiter limiter = limiter();
+
+    assertThrows(BadRequestException.class, () -> limiter.budget("0", null));
+    assertThrows(BadRequestException.class, () -> limiter.budget("-1", null));
+    assertThrows(BadRequestException.class, () -> limiter.budget(null, "ten"));
+    assertThrows(BadRequestException.class, () -> limiter.budget(null, ""));
+  }
+
+  @Test
+  void answerIsTruncatedAtTheMaxTokens() {
+    GenerationLimiter limiter = limiter();
+    Upstream upstream = new Upstream();
+    List<String> tokens = new ArrayList<>();
+    AtomicInteger completions = new AtomicInteger();
+    limiter.limit(new Budget(Duration.ofSeconds(60), 2), () -> limiter.upstream(upstream))
+        .subscribe().with(tokens::add, completions::incrementAndGet);
+    upstream.emitter.emit("Hello");
+    upstream.emitter.emit(" world");
+    upstream.emitter.emit("!");
+
+    assertEquals(List.of("Hello", " world"), tokens);
+    assertEquals(1, completions.get());
+    assertTrue(upstream.cancelled.get());
+    assertEquals(1, limiter.truncatedByTokens());
+    assertEquals(0, limiter.truncatedByDeadline());
+    assertEquals(1, limiter.upstreamCancelled());
+    assertEquals(0, limiter.cancelled());
+  }
+
+  @Test
+  void answerIsTruncatedAtTheDeadline() {
+    GenerationLimiter limiter = limiter();
+    AtomicBoolean cancelled = new AtomicBoolean();
+    // The upstream gives a token then hangs
+    Supplier<Multi<String>> generation = () -> limiter.upstream(() -> Multi.createFrom()
+        .<String>emitter(emitter -> emitter.emit("Hello"))
+        .onCancellation().invoke(() -> cancelled.set(true)));
+
+    List<String> tokens = limiter.limit(new Budget(Duration.ofMillis(50), 512), generation)
+        .collect().asList().await().atMost(Duration.ofSeconds(5));
+    assertEquals(List.of("Hello"), tokens);
+    assertTrue(cancelled.get());
+    assertEquals(1, limiter.truncatedByDeadline());
+    assertEquals(0, limiter.truncatedByTokens());
+    assertEquals(1, limiter.upstreamCancelled());
+  }
+
+  @Test
+  void completeAnswerIsNeitherTruncatedNorCancelled() {
+    GenerationLimiter limiter = limiter();
+    Upstream upstream = new Upstream();
+    List<String> tokens = new ArrayList<>();
+    limiter.limit(limiter.budget(null, null), () -> limiter.upstream(upstream)).subscribe().with(tokens::add);
+    upstream.emitter.emit("Hello");
+    upstream.emitter.complete();
+
+    assertEquals(List.of("Hello"), tokens);
+    assertFalse(upstream.cancelled.get());
+    assertEquals(0, limiter.truncatedByTokens() + limiter.truncatedByDeadline());
+    assertEquals(0, limiter.cancelled() + limiter.upstreamCancelled());
+  }
+
+  @Test
+  void clientLeavingCancelsTheUpstreamGeneration() {
+    GenerationLimiter limiter = limiter();
+    Upstream upstream = new Upstream();
+    List<String> tokens = new ArrayList<>();
+    // The client reads a token then leaves
+    limiter.limit(limiter.budget(null, null), () -> limiter.upstream(upstream))
+        .select().first(1)
+        .subscribe().with(tokens::add);
+    upstream.emitter.emit("Hello");
+
+    assertEquals(List.of("Hello"), tokens);
+    assertTrue(upstream.cancelled.get());
+    assertEquals(1, limiter.cancelled());
+    assertEquals(1, limiter.upstreamCancelled());
+    assertEquals(0, limiter.truncatedByTokens() + limiter.truncatedByDeadline());
+  }
+
+  private static GenerationLimiter limiter() {
+    GenerationLimiter limiter = new GenerationLimiter();
+    limiter.deadline = Duration.ofSeconds(60);
+    limiter.maxTokens = 512;
+    limiter.registry = new SimpleMeterRegistry();
+    limiter.init();
+    return limiter;
+  }
+
+  // An upstream generation emitting the tokens given by the test
+  private static final class Upstream implements Supplier<Multi<String>> {
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    volatile MultiEmitter<? super String> emitter;
+
+    @Override
+    public Multi<String> get() {
+      return Multi.createFrom().<String>emitter(created -> emitter = created)
+          .onCancellation().invoke(() -> cancelled.set(true));
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.ovhcloud.ai.quarkus.chatbot.memory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class LogChatMemoryStoreTest {
+  @TempDir
+  Path directory;
+
+  @Test
+  void messagesAreReadBackAfterARestart() {
+    List<ChatMessage> messages = List.of(UserMessage.from("What is AI Endpoints?"), AiMessage.from("A service."));
+    LogChatMemoryStore store = open(10000);
+    store.updateMessages("session-1", messages);
+    store.updateMessages("session-2", messages.subList(0, 1));
+    store.close();
+
+    LogChatMemoryStore reopened = open(10000);
+    assertEquals(messages, reopened.getMessages("session-1"));
+    assertEquals(messages.subList(0, 1), reopened.getMessages("session-2"));
+    assertEquals(List.of(), reopened.getMessages("session-3"));
+    reopened.close();
+  }
+
+  @Test
+  void lastUpdateWins() {
+    LogChatMemoryStore store = open(10000);
+    store.updateMessages("session", List.of(UserMessage.from("first")));
+    store.updateMessages("session", List.of(UserMessage.from("first"), AiMessage.from("second")));
+    store.close();
+
+    LogChatMemoryStore reopened = open(10000);
+    assertEquals(List.of(UserMessage.from("first"), AiMessage.from("second")), reopened.getMessages("session"));
+    reopened.close();
+  }
+
+  @Test
+  void deletedMessagesAreNotReadBack() {
+    LogChatMemoryStore store = open(10000);
+    store.updateMessages("session", List.of(UserMessage.from("forget me")));
+    store.deleteMessages("session");
+    store.close();
+
+    LogChatMemoryStore reopened = open(10000);
+    assertEquals(List.of(), reopened.getMessages("session"));
+    reopened.close();
+  }
+
+  @Test
+  void updatesBeyondTheQueueCapacityAreWrittenToo() {
+    // A queue of one id: most of the updates go to the overflow
+    LogChatMemoryStore store = open(1);
+    for (int i = 0; i < 500; i++) {
+      store.updateMessages("session-" + i, List.of(UserMessage.from("question " + i)));
+    }
+    store.close();
+    assertTrue(store.written() >= 500);
+
+    LogChatMemoryStore reopened = open(10000);
+    for (int i = 0; i < 500; i++) {
+      assertEquals(List.of(UserMessage.from("question " + i)), reopened.getMessages("session-" + i));
+    }
+    reopened.close();
+  }
+
+  private LogChatMemoryStore open(int queueCapacity) {
+    LogChatMemoryStore store = new LogChatMemoryStore();
+    store.directory = Optional.of(directory.toString());
+    store.segmentSize = 16 * 1024 * 1024;
+    store.queueCapacity = queueCapacity;
+    store.fsync = false;
+    store.compactionInterval = Duration.ofMinutes(5);
+    store.retention = Duration.ofDays(7);
+    store.registry = new SimpleMeterRegistry();
+    store.init();
+    return store;
+  }
+}
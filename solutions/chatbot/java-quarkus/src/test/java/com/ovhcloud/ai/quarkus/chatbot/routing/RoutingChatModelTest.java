@@ -0,0 +1,127 @@
+package com.ovhcloud.ai.quarkus.chatbot.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+
+class RoutingChatModelTest {
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @AfterEach
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void failedCallIsSentToAnotherUpstream() {
+    RoutingChatModel model = RoutingChatModel.builder()
+        .upstream("down", failing(new AtomicInteger()))
+        .upstream("up", answering("answer", Duration.ZERO, new AtomicInteger()))
+        .maxAttempts(2)
+        .executor(executor)
+        .build();
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals("answer", model.generate("question"));
+    }
+  }
+
+  @Test
+  void failingUpstreamIsPutAside() {
+    AtomicInteger downCalls = new AtomicInteger();
+    RoutingChatModel model = RoutingChatModel.builder()
+        .upstream("down", failing(downCalls))
+        .upstream("up", answering("answer", Duration.ZERO, new AtomicInteger()))
+        .failureThreshold(1)
+        .openDuration(Duration.ofMinutes(1))
+        .executor(executor)
+        .build();
+
+    for (int i = 0; i < 10; i++) {
+      model.generate("question");
+    }
+    assertTrue(downCalls.get() <= 1);
+  }
+
+  @Test
+  void lastFailureIsThrownWhenEveryAttemptFails() {
+    RoutingChatModel model = RoutingChatModel.builder()
+        .upstream("first", failing(new AtomicInteger()))
+        .upstream("second", failing(new AtomicInteger()))
+        .maxAttempts(2)
+        .executor(executor)
+        .build();
+
+    assertThrows(IllegalStateException.class, () -> model.generate("question"));
+  }
+
+  @Test
+  void slowCallIsHedged() {
+    RoutingChatModel model = RoutingChatModel.builder()
+        .upstream("slow", answering("slow", Duration.ofSeconds(30), new AtomicInteger()))
+        .upstream("fast", answering("fast", Duration.ZERO, new AtomicInteger()))
+        .hedging(true)
+        .initialHedgeDelay(Duration.ofMillis(10))
+        .minHedgeDelay(Duration.ofMillis(1))
+        .maxHedgeRatio(1)
+        .executor(executor)
+        .build();
+
+    // Whichever upstream is called first, the fast one answers
+    assertEquals("fast", model.generate("question"));
+    assertTrue(model.hedges() <= 1);
+  }
+
+  @Test
+  void hedgesAreLimitedToTheirRatio() {
+    RoutingChatModel model = RoutingChatModel.builder()
+        .upstream("first", answering("answer", Duration.ofMillis(20), new AtomicInteger()))
+        .upstream("second", answering("answer", Duration.ofMillis(20), new AtomicInteger()))
+        .hedging(true)
+        .initialHedgeDelay(Duration.ofMillis(1))
+        .minHedgeDelay(Duration.ofMillis(1))
+        .maxHedgeRatio(0.1)
+        .executor(executor)
+        .build();
+
+    // Every call is slower than the hedge delay (fewer calls than needed for
+    // a p95), but 11 requests earn a single hedge and the next 8 none
+    for (int i = 0; i < 19; i++) {
+      assertEquals("answer", model.generate("question"));
+    }
+    assertEquals(1, model.hedges());
+  }
+
+  private static ChatLanguageModel answering(String answer, Duration delay, AtomicInteger calls) {
+    return messages -> {
+      calls.incrementAndGet();
+      try {
+        Thread.sleep(delay.toMillis());
+      } catch (InterruptedException e) {
+        // Cancelled, the other call won
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      }
+      return Response.from(AiMessage.from(answer));
+    };
+  }
+
+  private static ChatLanguageModel failing(AtomicInteger calls) {
+    return messages -> {
+      calls.incrementAndGet();
+      throw new IllegalStateException("Upstream down");
+    };
+  }
+}
@@ -0,0 +1,89 @@
+package com.ovhcloud.ai.quarkus.chatbot.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.ovhcloud.ai.quarkus.chatbot.routing.UpstreamPool.Upstream;
+
+class UpstreamPoolTest {
+
+  @Test
+  void failingUpstreamIsPutAside() {
+    UpstreamPool<String> pool = pool(Duration.ofMinutes(1));
+    Upstream<String> down = upstream(pool, "down");
+    open(pool, down);
+
+    for (int i = 0; i < 100; i++) {
+      Upstream<String> upstream = pool.acquire(Set.of());
+      assertEquals("up", upstream.name);
+      pool.release(upstream);
+    }
+  }
+
+  @Test
+  void singleCallProbesAnUpstreamPutAside() {
+    UpstreamPool<String> pool = pool(Duration.ZERO);
+    Upstream<String> down = upstream(pool, "down");
+    open(pool, down);
+
+    Upstream<String> probe = pool.acquire(Set.of(upstream(pool, "up")));
+    assertSame(down, probe);
+    // While the probe is in flight, the other calls go elsewhere
+    for (int i = 0; i < 100; i++) {
+      Upstream<String> upstream = pool.acquire(Set.of());
+      assertEquals("up", upstream.name);
+      pool.release(upstream);
+    }
+  }
+
+  @Test
+  void cancelledProbeLetsTheNextCallProbeAgain() {
+    UpstreamPool<String> pool = pool(Duration.ZERO);
+    Upstream<String> down = upstream(pool, "down");
+    open(pool, down);
+    Upstream<String> probe = pool.acquire(Set.of(upstream(pool, "up")));
+    assertSame(down, probe);
+
+    // Released without outcome: cancelled, or slower than its hedge
+    pool.release(probe);
+    int probes = 0;
+    for (int i = 0; i < 100; i++) {
+      Upstream<String> upstream = pool.acquire(Set.of());
+      assertNotNull(upstream);
+      if (upstream == down) {
+        probes++;
+      }
+      pool.release(upstream);
+    }
+    assertEquals(0, down.inFlight());
+    assertTrue(probes > 0);
+  }
+
+  private static UpstreamPool<String> pool(Duration openDuration) {
+    Map<String, String> models = new LinkedHashMap<>();
+    models.put("down", "down model");
+    models.put("up", "up model");
+    return new UpstreamPool<>(models, 0.3, 1, openDuration);
+  }
+
+  private static Upstream<String> upstream(UpstreamPool<String> pool, String name) {
+    return pool.upstreams().stream().filter(upstream -> upstream.name.equals(name)).findFirst().orElseThrow();
+  }
+
+  // One failed call opens the circuit with a threshold of 1
+  private static void open(UpstreamPool<String> pool, Upstream<String> upstream) {
+    Upstream<String> acquired = pool.acquire(Set.of(upstream(pool, "up")));
+    assertSame(upstream, acquired);
+    pool.failure(acquired);
+    pool.release(acquired);
+  }
+}
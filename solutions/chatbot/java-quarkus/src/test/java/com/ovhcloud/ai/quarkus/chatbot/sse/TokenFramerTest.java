@@ -0,0 +1,227 @@
+package com.ovhcloud.ai.quarkus.chatbot.sse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import com.ovhcloud.ai.quarkus.chatbot.admission.BulkheadRejectedException;
+
+import io.smallrye.mutiny.Multi;
+import io.vertx.core.json.JsonObject;
+import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseBroadcaster;
+
+class TokenFramerTest {
+  private final TokenFramer framer = framer();
+  private final Sse sse = new RecordingSse();
+
+  @Test
+  void firstTokenIsSentAloneThenTheTokensAreGrouped() {
+    List<OutboundSseEvent> events = events(Multi.createFrom().items("Hello", " wor", "ld", ", how", " are you?"));
+
+    // A frame is sent once 10 bytes are pending, the rest at the end
+    assertEquals(List.of("Hello", " world, how", " are you?"), data(events.subList(0, 3)));
+    OutboundSseEvent usage = events.get(3);
+    assertEquals(TokenFramer.USAGE_EVENT, usage.getName());
+    JsonObject statistics = new JsonObject((String) usage.getData());
+    assertEquals(5, statistics.getInteger("tokens"));
+    assertEquals(3, statistics.getInteger("frames"));
+    assertEquals(25, statistics.getInteger("bytes"));
+    assertEquals(4, events.size());
+  }
+
+  @Test
+  void failureIsSentAsAnErrorEvent() {
+    List<OutboundSseEvent> events = events(Multi.createFrom().failure(new IllegalStateException("Upstream down")));
+
+    assertEquals(1, events.size());
+    assertEquals(TokenFramer.ERROR_EVENT, events.get(0).getName());
+    assertEquals(new JsonObject().put("error", "Upstream down"), new JsonObject((String) events.get(0).getData()));
+    assertFalse(events.get(0).isReconnectDelaySet());
+  }
+
+  @Test
+  void rejectionGivesItsStatusAndDelay() {
+    BulkheadRejectedException rejection = new BulkheadRejectedException("Too many requests", 429,
+        Duration.ofSeconds(2));
+    List<OutboundSseEvent> events = events(Multi.createFrom().failure(rejection));
+
+    OutboundSseEvent error = events.get(0);
+    assertEquals(TokenFramer.ERROR_EVENT, error.getName());
+    JsonObject payload = new JsonObject((String) error.getData());
+    assertEquals("Too many requests", payload.getString("error"));
+    assertEquals(429, payload.getInteger("status"));
+    assertEquals(2000L, payload.getLong("retryAfterMs"));
+    assertEquals(2000L, error.getReconnectDelay());
+  }
+
+  @Test
+  void tokensSentBeforeAFailureAreFlushedFirst() {
+    List<OutboundSseEvent> events = events(Multi.createFrom().items("Hello", " world")
+        .onCompletion().failWith(() -> new IllegalStateException("Upstream down")));
+
+    assertEquals(List.of("Hello", " world"), data(events.subList(0, 2)));
+    assertEquals(TokenFramer.ERROR_EVENT, events.get(2).getName());
+  }
+
+  @Test
+  void cancellingTheEventsCancelsTheTokens() {
+    AtomicBoolean cancelled = new AtomicBoolean();
+    Multi<String> tokens = Multi.createFrom().<String>emitter(emitter -> emitter.emit("Hello"))
+        .onCancellation().invoke(() -> cancelled.set(true));
+
+    List<OutboundSseEvent> events = framer.frames(tokens, sse).select().first(1)
+        .collect().asList().await().atMost(Duration.ofSeconds(5));
+    assertEquals(List.of("Hello"), data(events));
+    assertTrue(cancelled.get());
+  }
+
+  private List<OutboundSseEvent> events(Multi<String> tokens) {
+    return framer.frames(tokens, sse).collect().asList().await().atMost(Duration.ofSeconds(5));
+  }
+
+  private static List<Object> data(List<OutboundSseEvent> events) {
+    return events.stream().map(OutboundSseEvent::getData).toList();
+  }
+
+  // No frame sent by the timer during a test
+  private static TokenFramer framer() {
+    TokenFramer framer = new TokenFramer();
+    framer.frameWindow = Duration.ofHours(1);
+    framer.frameMaxBytes = 10;
+    return framer;
+  }
+
+  // Builds plain events, as the server would before writing them
+  private static final class RecordingSse implements Sse {
+    @Override
+    public OutboundSseEvent.Builder newEventBuilder() {
+      return new EventBuilder();
+    }
+
+    @Override
+    public SseBroadcaster newBroadcaster() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static final class EventBuilder implements OutboundSseEvent.Builder {
+    private String id;
+    private String name;
+    private String comment;
+    private long reconnectDelay = OutboundSseEvent.RECONNECT_NOT_SET;
+    private MediaType mediaType;
+    private Object data;
+
+    @Override
+    public OutboundSseEvent.Builder id(String id) {
+      this.id = id;
+      return this;
+    }
+
+    @Override
+    public OutboundSseEvent.Builder name(String name) {
+      this.name = name;
+      return this;
+    }
+
+    @Override
+    public OutboundSseEvent.Builder reconnectDelay(long milliseconds) {
+      this.reconnectDelay = milliseconds;
+      return this;
+    }
+
+    @Override
+    public OutboundSseEvent.Builder mediaType(MediaType mediaType) {
+      this.mediaType = mediaType;
+      return this;
+    }
+
+    @Override
+    public OutboundSseEvent.Builder comment(String comment) {
+      this.comment = comment;
+      return this;
+    }
+
+    @Override
+    public OutboundSseEvent.Builder data(Class type, Object data) {
+      return data(data);
+    }
+
+    @Override
+    public OutboundSseEvent.Builder data(GenericType type, Object data) {
+      return data(data);
+    }
+
+    @Override
+    public OutboundSseEvent.Builder data(Object data) {
+      this.data = data;
+      return this;
+    }
+
+    @Override
+    public OutboundSseEvent build() {
+      return new Event(id, name, comment, reconnectDelay, mediaType, data);
+    }
+  }
+
+  private record Event(String id, String name, String comment, long reconnectDelay, MediaType mediaType,
+      Object data) implements OutboundSseEvent {
+
+    @Override
+    public String getId() {
+      return id;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String getComment() {
+      return comment;
+    }
+
+    @Override
+    public long getReconnectDelay() {
+      return reconnectDelay;
+    }
+
+    @Override
+    public boolean isReconnectDelaySet() {
+      return reconnectDelay != RECONNECT_NOT_SET;
+    }
+
+    @Override
+    public Class<?> getType() {
+      return data == null ? null : data.getClass();
+    }
+
+    @Override
+    public Type getGenericType() {
+      return getType();
+    }
+
+    @Override
+    public MediaType getMediaType() {
+      return mediaType;
+    }
+
+    @Override
+    public Object getData() {
+      return data;
+    }
+  }
+}